@@ -0,0 +1,190 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.benchmark;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.giraph.combiner.MinimumDoubleCombiner;
+import org.apache.giraph.combiner.MinimumLongCombiner;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.formats.PseudoRandomInputFormatConstants;
+import org.apache.giraph.io.formats.PseudoRandomVertexInputFormat;
+import org.apache.giraph.utils.MemoryUtils;
+import org.apache.giraph.worker.WorkerContext;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Benchmark for message stores used with a combiner. Every vertex sends a
+ * message along all of its edges in every superstep, and every worker
+ * reports the message throughput and the heap used by the combined messages
+ * it holds. Run with and without -o to compare the primitive map stores
+ * with {@link org.apache.giraph.comm.messages.OneMessagePerVertexStore}.
+ */
+public class CombinerMessageStoreBenchmark extends GiraphBenchmark {
+  /** How many supersteps to run */
+  public static final String SUPERSTEP_COUNT =
+      "giraph.combinerMessageStoreBenchmark.superstepCount";
+
+  /** Option for the message type */
+  private static final BenchmarkOption MESSAGE_TYPE = new BenchmarkOption(
+      "t", "messageType", true,
+      "Message type (0 for LongWritable, 1 for DoubleWritable)");
+  /** Option for using the object store */
+  private static final BenchmarkOption OBJECT_STORE = new BenchmarkOption(
+      "o", "objectStore", false,
+      "Use OneMessagePerVertexStore instead of the primitive map store");
+
+  /**
+   * {@link WorkerContext} for {@link CombinerMessageStoreBenchmark}.
+   */
+  public static class CombinerMessageStoreWorkerContext
+      extends WorkerContext {
+    /** Class logger */
+    private static final Logger LOG =
+        Logger.getLogger(CombinerMessageStoreWorkerContext.class);
+    /** Number of supersteps */
+    private int numSupersteps = -1;
+    /** Millis when the superstep started */
+    private long startSuperstepMillis;
+
+    @Override
+    public void preApplication() {
+      numSupersteps =
+          getContext().getConfiguration().getInt(SUPERSTEP_COUNT, -1);
+    }
+
+    @Override
+    public void preSuperstep() {
+      long now = System.currentTimeMillis();
+      if (getSuperstep() > 0) {
+        // Messages of the previous superstep are in the message store now
+        long superstepMillis = now - startSuperstepMillis;
+        System.gc();
+        double usedMB = MemoryUtils.totalMemoryMB() -
+            MemoryUtils.freeMemoryMB();
+        if (LOG.isInfoEnabled()) {
+          LOG.info("Superstep " + (getSuperstep() - 1) + ": " +
+              (getTotalNumEdges() * 1000d / superstepMillis) +
+              " messages / second in total, " + usedMB +
+              " MB used heap after GC holding the messages");
+        }
+      }
+      startSuperstepMillis = System.currentTimeMillis();
+    }
+
+    @Override
+    public void postSuperstep() { }
+
+    @Override
+    public void postApplication() { }
+
+    /**
+     * Get the number of supersteps.
+     *
+     * @return Number of supersteps.
+     */
+    public int getNumSupersteps() {
+      return numSupersteps;
+    }
+  }
+
+  /**
+   * Computation sending its id along all edges as long message.
+   */
+  public static class LongMessagesComputation extends BasicComputation<
+      LongWritable, DoubleWritable, DoubleWritable, LongWritable> {
+    @Override
+    public void compute(
+        Vertex<LongWritable, DoubleWritable, DoubleWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      CombinerMessageStoreWorkerContext workerContext = getWorkerContext();
+      if (getSuperstep() < workerContext.getNumSupersteps()) {
+        sendMessageToAllEdges(vertex, vertex.getId());
+      } else {
+        vertex.voteToHalt();
+      }
+    }
+  }
+
+  /**
+   * Computation sending its value along all edges as double message.
+   */
+  public static class DoubleMessagesComputation extends BasicComputation<
+      LongWritable, DoubleWritable, DoubleWritable, DoubleWritable> {
+    @Override
+    public void compute(
+        Vertex<LongWritable, DoubleWritable, DoubleWritable> vertex,
+        Iterable<DoubleWritable> messages) throws IOException {
+      CombinerMessageStoreWorkerContext workerContext = getWorkerContext();
+      if (getSuperstep() < workerContext.getNumSupersteps()) {
+        sendMessageToAllEdges(vertex, vertex.getValue());
+      } else {
+        vertex.voteToHalt();
+      }
+    }
+  }
+
+  @Override
+  public Set<BenchmarkOption> getBenchmarkOptions() {
+    return Sets.newHashSet(BenchmarkOption.SUPERSTEPS,
+        BenchmarkOption.VERTICES, BenchmarkOption.EDGES_PER_VERTEX,
+        MESSAGE_TYPE, OBJECT_STORE);
+  }
+
+  @Override
+  protected void prepareConfiguration(GiraphConfiguration conf,
+      CommandLine cmd) {
+    if (MESSAGE_TYPE.getOptionIntValue(cmd, 0) == 0) {
+      conf.setComputationClass(LongMessagesComputation.class);
+      conf.setCombinerClass(MinimumLongCombiner.class);
+    } else {
+      conf.setComputationClass(DoubleMessagesComputation.class);
+      conf.setCombinerClass(MinimumDoubleCombiner.class);
+    }
+    conf.setVertexInputFormatClass(PseudoRandomVertexInputFormat.class);
+    conf.setWorkerContextClass(CombinerMessageStoreWorkerContext.class);
+    conf.setLong(PseudoRandomInputFormatConstants.AGGREGATE_VERTICES,
+        BenchmarkOption.VERTICES.getOptionLongValue(cmd));
+    conf.setLong(PseudoRandomInputFormatConstants.EDGES_PER_VERTEX,
+        BenchmarkOption.EDGES_PER_VERTEX.getOptionLongValue(cmd));
+    conf.setInt(SUPERSTEP_COUNT,
+        BenchmarkOption.SUPERSTEPS.getOptionIntValue(cmd));
+    GiraphConstants.USE_PRIMITIVE_COMBINER_MESSAGE_STORES.set(conf,
+        !OBJECT_STORE.optionTurnedOn(cmd));
+  }
+
+  /**
+   * Execute the benchmark.
+   *
+   * @param args Typically, this is the command line arguments.
+   * @throws Exception Any exception thrown during computation.
+   */
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new CombinerMessageStoreBenchmark(), args));
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.benchmark;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.combiner.MinimumDoubleCombiner;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.formats.PseudoRandomInputFormatConstants;
+import org.apache.giraph.io.formats.PseudoRandomVertexInputFormat;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.giraph.worker.WorkerContext;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Set;
+
+/**
+ * Benchmark for the per-vertex overhead of the compute loop. Every vertex
+ * sends one combined message to itself and reads it in the next superstep,
+ * so almost all of the time is spent in the infrastructure around
+ * compute().  Reports the compute nanos per vertex and the number of
+ * garbage collections during compute for every superstep.
+ */
+public class ComputeOverheadBenchmark extends GiraphBenchmark {
+  /** How many supersteps to run */
+  public static final String SUPERSTEP_COUNT =
+      "giraph.computeOverheadBenchmark.superstepCount";
+  /** Compute nanos of all workers during this superstep */
+  public static final String AGG_SUPERSTEP_COMPUTE_NANOS =
+      "superstep compute nanos";
+  /** Garbage collections on all workers during this superstep */
+  public static final String AGG_SUPERSTEP_GCS = "superstep gcs";
+
+  /** Option for the compute() timer sampling period */
+  private static final BenchmarkOption TIMER_SAMPLING_PERIOD =
+      new BenchmarkOption("t", "timerSamplingPeriod", true,
+          "Time one in this many compute() calls (default is 1)");
+  /** Option for number of compute threads */
+  private static final BenchmarkOption COMPUTE_THREADS = new BenchmarkOption(
+      "c", "computeThreads", true, "Number of compute threads");
+
+  /**
+   * {@link WorkerContext} for {@link ComputeOverheadBenchmark}.
+   */
+  public static class ComputeOverheadWorkerContext extends WorkerContext {
+    /** Class logger */
+    private static final Logger LOG =
+        Logger.getLogger(ComputeOverheadWorkerContext.class);
+    /** Number of supersteps */
+    private int numSupersteps = -1;
+    /** Nanos when the superstep started */
+    private long startSuperstepNanos;
+    /** Garbage collections when the superstep started */
+    private long startSuperstepGcs;
+
+    @Override
+    public void preApplication() {
+      numSupersteps =
+          getContext().getConfiguration().getInt(SUPERSTEP_COUNT, -1);
+    }
+
+    @Override
+    public void preSuperstep() {
+      if (getSuperstep() > 0) {
+        long computeNanos = this.<LongWritable>
+            getAggregatedValue(AGG_SUPERSTEP_COMPUTE_NANOS).get();
+        long gcs = this.<LongWritable>getAggregatedValue(AGG_SUPERSTEP_GCS).
+            get();
+        if (LOG.isInfoEnabled()) {
+          LOG.info("Superstep " + (getSuperstep() - 1) + ": " +
+              ((double) computeNanos / getTotalNumVertices()) +
+              " compute nanos / vertex, " + gcs + " garbage collections");
+        }
+      }
+      startSuperstepGcs = getGarbageCollections();
+      startSuperstepNanos = System.nanoTime();
+    }
+
+    @Override
+    public void postSuperstep() {
+      aggregate(AGG_SUPERSTEP_COMPUTE_NANOS,
+          new LongWritable(System.nanoTime() - startSuperstepNanos));
+      aggregate(AGG_SUPERSTEP_GCS,
+          new LongWritable(getGarbageCollections() - startSuperstepGcs));
+    }
+
+    @Override
+    public void postApplication() { }
+
+    /**
+     * Get the number of supersteps.
+     *
+     * @return Number of supersteps.
+     */
+    public int getNumSupersteps() {
+      return numSupersteps;
+    }
+
+    /**
+     * Get the number of garbage collections since the JVM started.
+     *
+     * @return Number of garbage collections
+     */
+    private static long getGarbageCollections() {
+      long gcs = 0;
+      for (GarbageCollectorMXBean gcBean :
+          ManagementFactory.getGarbageCollectorMXBeans()) {
+        gcs += Math.max(0, gcBean.getCollectionCount());
+      }
+      return gcs;
+    }
+  }
+
+  /**
+   * Master compute associated with {@link ComputeOverheadBenchmark}.
+   * It registers required aggregators.
+   */
+  public static class ComputeOverheadMasterCompute extends
+      DefaultMasterCompute {
+    @Override
+    public void initialize() throws InstantiationException,
+        IllegalAccessException {
+      registerAggregator(AGG_SUPERSTEP_COMPUTE_NANOS,
+          LongSumAggregator.class);
+      registerAggregator(AGG_SUPERSTEP_GCS, LongSumAggregator.class);
+    }
+  }
+
+  /**
+   * Computation which does as little as possible besides receiving and
+   * sending one message.
+   */
+  public static class ComputeOverheadComputation extends BasicComputation<
+      LongWritable, DoubleWritable, DoubleWritable, DoubleWritable> {
+    /** Reused message */
+    private final DoubleWritable message = new DoubleWritable();
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, DoubleWritable, DoubleWritable> vertex,
+        Iterable<DoubleWritable> messages) throws IOException {
+      ComputeOverheadWorkerContext workerContext = getWorkerContext();
+      if (getSuperstep() < workerContext.getNumSupersteps()) {
+        double sum = 0;
+        for (DoubleWritable received : messages) {
+          sum += received.get();
+        }
+        message.set(sum + 1);
+        sendMessage(vertex.getId(), message);
+      } else {
+        vertex.voteToHalt();
+      }
+    }
+  }
+
+  @Override
+  public Set<BenchmarkOption> getBenchmarkOptions() {
+    return Sets.newHashSet(BenchmarkOption.SUPERSTEPS,
+        BenchmarkOption.VERTICES, BenchmarkOption.EDGES_PER_VERTEX,
+        TIMER_SAMPLING_PERIOD, COMPUTE_THREADS);
+  }
+
+  @Override
+  protected void prepareConfiguration(GiraphConfiguration conf,
+      CommandLine cmd) {
+    conf.setComputationClass(ComputeOverheadComputation.class);
+    conf.setVertexInputFormatClass(PseudoRandomVertexInputFormat.class);
+    conf.setWorkerContextClass(ComputeOverheadWorkerContext.class);
+    conf.setMasterComputeClass(ComputeOverheadMasterCompute.class);
+    // Long ids and double messages with a combiner use the primitive store
+    conf.setCombinerClass(MinimumDoubleCombiner.class);
+    conf.setLong(PseudoRandomInputFormatConstants.AGGREGATE_VERTICES,
+        BenchmarkOption.VERTICES.getOptionLongValue(cmd));
+    conf.setLong(PseudoRandomInputFormatConstants.EDGES_PER_VERTEX,
+        BenchmarkOption.EDGES_PER_VERTEX.getOptionLongValue(cmd));
+    conf.setInt(SUPERSTEP_COUNT,
+        BenchmarkOption.SUPERSTEPS.getOptionIntValue(cmd));
+    if (TIMER_SAMPLING_PERIOD.optionTurnedOn(cmd)) {
+      GiraphConstants.COMPUTE_ONE_TIMER_SAMPLING_PERIOD.set(conf,
+          TIMER_SAMPLING_PERIOD.getOptionIntValue(cmd));
+    }
+    if (COMPUTE_THREADS.optionTurnedOn(cmd)) {
+      GiraphConstants.NUM_COMPUTE_THREADS.set(conf,
+          COMPUTE_THREADS.getOptionIntValue(cmd));
+    }
+  }
+
+  /**
+   * Execute the benchmark.
+   *
+   * @param args Typically, this is the command line arguments.
+   * @throws Exception Any exception thrown during computation.
+   */
+  public static void main(String[] args) throws Exception {
+    System.exit(ToolRunner.run(new ComputeOverheadBenchmark(), args));
+  }
+}
@@ -20,6 +20,7 @@ package org.apache.giraph.bsp;
 
 import org.apache.giraph.comm.ServerData;
 import org.apache.giraph.comm.WorkerClient;
+import org.apache.giraph.graph.ChangedVertices;
 import org.apache.giraph.graph.FinishedSuperstepStats;
 import org.apache.giraph.graph.GraphTaskManager;
 import org.apache.giraph.graph.VertexEdgeCount;
@@ -97,6 +98,14 @@ public interface CentralizedServiceWorker<I extends WritableComparable,
    */
   PartitionStore<I, V, E> getPartitionStore();
 
+  /**
+   * Get the vertices changed by compute() on this worker, if they are
+   * tracked for delta output.
+   *
+   * @return Changed vertices, or null if not tracked
+   */
+  ChangedVertices<I, V, E> getChangedVertices();
+
   /**
    *  Both the vertices and the messages need to be checkpointed in order
    *  for them to be used.  This is done after all messages have been
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import org.apache.giraph.utils.LogStacktraceCallable;
+import org.apache.giraph.utils.ProgressableUtils;
+import org.apache.hadoop.util.Progressable;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Bounded pool of threads building and handing off requests to the
+ * network client, so that compute threads don't block on serialization
+ * and on the limit of open requests. Once all threads are busy and the
+ * queue is full, submitting blocks until a slot frees up, so the memory of
+ * requests waiting to be sent stays bounded.
+ */
+public class RequestFlusherPool {
+  /** Threads sending the requests */
+  private final ExecutorService executorService;
+  /** Slots for requests being sent or waiting to be sent */
+  private final Semaphore slots;
+  /** Progressable to report progress to while waiting */
+  private final Progressable progressable;
+
+  /**
+   * Constructor
+   *
+   * @param numThreads Number of threads sending requests
+   * @param queueSize Number of requests which can wait for a thread
+   * @param progressable Progressable to report progress to while waiting
+   */
+  public RequestFlusherPool(int numThreads, int queueSize,
+      Progressable progressable) {
+    executorService = Executors.newFixedThreadPool(numThreads,
+        new ThreadFactoryBuilder().setNameFormat("request-flusher-%d").
+            setDaemon(true).build());
+    slots = new Semaphore(numThreads + queueSize);
+    this.progressable = progressable;
+  }
+
+  /**
+   * Submit a task sending requests, blocking while the pool is full.
+   *
+   * @param task Task to run on one of the flusher threads
+   * @return Future of the task, see {@link #waitFor(List)}
+   */
+  public Future<Void> submit(final Runnable task) {
+    slots.acquireUninterruptibly();
+    try {
+      return executorService.submit(new LogStacktraceCallable<Void>(
+          new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+              try {
+                task.run();
+              } finally {
+                slots.release();
+              }
+              return null;
+            }
+          }));
+    } catch (RejectedExecutionException e) {
+      slots.release();
+      throw new IllegalStateException("submit: Pool was already shut down",
+          e);
+    }
+  }
+
+  /**
+   * Drop the futures of the tasks which finished, failing if any of them
+   * failed.
+   *
+   * @param futures Futures of submitted tasks, finished ones are removed
+   */
+  public void removeFinished(List<Future<Void>> futures) {
+    Iterator<Future<Void>> iterator = futures.iterator();
+    while (iterator.hasNext()) {
+      Future<Void> future = iterator.next();
+      if (future.isDone()) {
+        ProgressableUtils.getFutureResult(future, progressable);
+        iterator.remove();
+      }
+    }
+  }
+
+  /**
+   * Wait for submitted tasks to finish, failing if any of them failed.
+   *
+   * @param futures Futures of submitted tasks, cleared when done
+   */
+  public void waitFor(List<Future<Void>> futures) {
+    for (Future<Void> future : futures) {
+      ProgressableUtils.getFutureResult(future, progressable);
+    }
+    futures.clear();
+  }
+
+  /**
+   * Stop the threads, once the submitted tasks are done.
+   */
+  public void shutdown() {
+    executorService.shutdown();
+  }
+}
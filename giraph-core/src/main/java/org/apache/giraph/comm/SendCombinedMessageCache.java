@@ -0,0 +1,197 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.comm;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.Combiner;
+import org.apache.giraph.comm.netty.NettyWorkerClientRequestProcessor;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.partition.PartitionOwner;
+import org.apache.giraph.worker.WorkerInfo;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import static org.apache.giraph.conf.GiraphConstants.MAX_COMBINED_MESSAGES_PER_PARTITION;
+
+/**
+ * Message cache which combines the messages for the same destination vertex
+ * before they are serialized, so that only one message per vertex is sent
+ * for every batch.  Combined messages are kept in a primitive map per
+ * destination partition, so only {@link IntWritable} and
+ * {@link LongWritable} vertex ids are supported.  Not thread-safe.
+ *
+ * @param <I> Vertex id
+ * @param <M> Message data
+ */
+public class SendCombinedMessageCache<I extends WritableComparable,
+    M extends Writable> extends SendMessageCache<I, M> {
+  /** Message combiner */
+  private final Combiner<I, M> combiner;
+  /** Whether vertex ids are int ids (long otherwise) */
+  private final boolean intIds;
+  /** Maximum number of combined messages per partition before sending */
+  private final int maxCombinedMessagesPerPartition;
+  /** Combined messages for each destination partition */
+  private final Int2ObjectOpenHashMap<CombinedMessages> combinedMessages =
+      new Int2ObjectOpenHashMap<CombinedMessages>();
+  /** Reusable vertex id to serialize combined messages with */
+  private final I reusableVertexId;
+
+  /**
+   * Constructor
+   *
+   * @param conf Giraph configuration
+   * @param serviceWorker Service worker
+   * @param processor NettyWorkerClientRequestProcessor
+   * @param maxMsgSize Max message size sent to a worker
+   */
+  public SendCombinedMessageCache(ImmutableClassesGiraphConfiguration conf,
+      CentralizedServiceWorker<?, ?, ?> serviceWorker,
+      NettyWorkerClientRequestProcessor<I, ?, ?> processor,
+      int maxMsgSize) {
+    super(conf, serviceWorker, processor, maxMsgSize);
+    combiner = conf.createCombiner();
+    intIds = conf.getVertexIdClass().equals(IntWritable.class);
+    maxCombinedMessagesPerPartition =
+        MAX_COMBINED_MESSAGES_PER_PARTITION.get(conf);
+    reusableVertexId = (I) conf.createVertexId();
+  }
+
+  /**
+   * Check if messages can be combined on the sending side with this
+   * configuration.
+   *
+   * @param conf Giraph configuration
+   * @return True iff there is a combiner and the vertex ids are int or long
+   */
+  public static boolean canCombine(ImmutableClassesGiraphConfiguration conf) {
+    return conf.useCombiner() &&
+        (conf.getVertexIdClass().equals(IntWritable.class) ||
+            conf.getVertexIdClass().equals(LongWritable.class));
+  }
+
+  @Override
+  public void sendMessageRequest(I destVertexId, M message) {
+    PartitionOwner owner =
+        getServiceWorker().getVertexPartitionOwner(destVertexId);
+    if (sendLocalMessage(owner, destVertexId, message)) {
+      return;
+    }
+    int partitionId = owner.getPartitionId();
+    CombinedMessages partitionMessages = combinedMessages.get(partitionId);
+    if (partitionMessages == null) {
+      partitionMessages = new CombinedMessages(owner.getWorkerInfo());
+      combinedMessages.put(partitionId, partitionMessages);
+    }
+    ++totalMsgsSentInSuperstep;
+    ++partitionMessages.numMessages;
+    long vertexId = intIds ? ((IntWritable) destVertexId).get() :
+        ((LongWritable) destVertexId).get();
+    M combinedMessage = partitionMessages.messages.get(vertexId);
+    if (combinedMessage == null) {
+      combinedMessage = combiner.createInitialMessage();
+      partitionMessages.messages.put(vertexId, combinedMessage);
+    }
+    combiner.combine(destVertexId, combinedMessage, message);
+    if (partitionMessages.messages.size() >=
+        maxCombinedMessagesPerPartition) {
+      addCombinedMessages(partitionId, partitionMessages);
+    }
+  }
+
+  /**
+   * Serialize the combined messages of a partition into the message cache,
+   * sending them if the cache for the worker is full.
+   *
+   * @param partitionId Destination partition
+   * @param partitionMessages Combined messages for the partition
+   */
+  private void addCombinedMessages(int partitionId,
+      CombinedMessages partitionMessages) {
+    WorkerInfo workerInfo = partitionMessages.workerInfo;
+    long addedBytes = 0;
+    int workerMessageSize = 0;
+    ObjectIterator<Long2ObjectMap.Entry<M>> iterator =
+        partitionMessages.messages.long2ObjectEntrySet().fastIterator();
+    while (iterator.hasNext()) {
+      Long2ObjectMap.Entry<M> entry = iterator.next();
+      if (intIds) {
+        ((IntWritable) reusableVertexId).set((int) entry.getLongKey());
+      } else {
+        ((LongWritable) reusableVertexId).set(entry.getLongKey());
+      }
+      int previousSize = workerMessageSize;
+      workerMessageSize = addData(workerInfo, partitionId,
+          reusableVertexId, entry.getValue());
+      addedBytes += workerMessageSize - previousSize;
+      if (workerMessageSize >= maxMessagesSizePerWorker) {
+        sendWorkerMessages(workerInfo);
+        workerMessageSize = 0;
+      }
+    }
+    // Messages that were combined away would have taken about as many
+    // bytes as the ones which are sent
+    int numCombined = partitionMessages.messages.size();
+    if (numCombined > 0) {
+      totalMsgBytesSavedInSuperstep += addedBytes *
+          (partitionMessages.numMessages - numCombined) / numCombined;
+    }
+    partitionMessages.messages.clear();
+    partitionMessages.numMessages = 0;
+  }
+
+  @Override
+  public void flush() {
+    ObjectIterator<Int2ObjectOpenHashMap.Entry<CombinedMessages>> iterator =
+        combinedMessages.int2ObjectEntrySet().fastIterator();
+    while (iterator.hasNext()) {
+      Int2ObjectOpenHashMap.Entry<CombinedMessages> entry = iterator.next();
+      addCombinedMessages(entry.getIntKey(), entry.getValue());
+    }
+    super.flush();
+  }
+
+  /**
+   * Combined messages for a single destination partition.
+   */
+  private class CombinedMessages {
+    /** Worker owning the partition */
+    private final WorkerInfo workerInfo;
+    /** Combined message for each destination vertex */
+    private final Long2ObjectOpenHashMap<M> messages =
+        new Long2ObjectOpenHashMap<M>();
+    /** Number of messages which were combined into the map */
+    private long numMessages;
+
+    /**
+     * Constructor
+     *
+     * @param workerInfo Worker owning the partition
+     */
+    CombinedMessages(WorkerInfo workerInfo) {
+      this.workerInfo = workerInfo;
+    }
+  }
+}
@@ -18,29 +18,51 @@
 
 package org.apache.giraph.comm;
 
+import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.comm.messages.DirectMessageStore;
+import org.apache.giraph.comm.messages.HubMirrorStore;
+import org.apache.giraph.comm.messages.MessageStore;
 import org.apache.giraph.comm.netty.NettyWorkerClientRequestProcessor;
 import org.apache.giraph.comm.requests.SendWorkerMessagesRequest;
+import org.apache.giraph.comm.requests.SendWorkerMirrorEdgesRequest;
+import org.apache.giraph.comm.requests.SendWorkerMirrorMessagesRequest;
 import org.apache.giraph.comm.requests.WritableRequest;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.GraphTaskManager;
 import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.metrics.GiraphMetrics;
+import org.apache.giraph.metrics.MetricNames;
 import org.apache.giraph.partition.PartitionOwner;
+import org.apache.giraph.time.SystemTime;
+import org.apache.giraph.time.Time;
 import org.apache.giraph.utils.ByteArrayVertexIdMessages;
+import org.apache.giraph.utils.ExtendedDataOutput;
 import org.apache.giraph.utils.PairList;
+import org.apache.giraph.utils.WritableUtils;
 import org.apache.giraph.worker.WorkerInfo;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.log4j.Logger;
 
+import com.google.common.collect.Lists;
+import com.google.common.hash.Hashing;
+
 import static org.apache.giraph.conf.GiraphConstants.ADDITIONAL_MSG_REQUEST_SIZE;
+import static org.apache.giraph.conf.GiraphConstants.DIRECT_LOCAL_MESSAGES;
+import static org.apache.giraph.conf.GiraphConstants.HUB_MIRROR_MIN_EDGES;
 import static org.apache.giraph.conf.GiraphConstants.MAX_MSG_REQUEST_SIZE;
 
 /**
  * Aggregates the messages to be sent to workers so they can be sent
- * in bulk.  Not thread-safe.
+ * in bulk.  Not thread-safe, though full requests can be sent by the
+ * threads of a {@link RequestFlusherPool}.
  *
  * @param <I> Vertex id
  * @param <M> Message data
@@ -50,14 +72,44 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
   /** Class logger */
   private static final Logger LOG =
       Logger.getLogger(SendMessageCache.class);
+  /** Pending requests over which finished ones are dropped */
+  private static final int MAX_PENDING_REQUESTS = 64;
+  /** Time to measure how long sending blocks */
+  private static final Time TIME = SystemTime.get();
   /** Messages sent during the last superstep */
   protected long totalMsgsSentInSuperstep = 0;
-  /** Message bytes sent during the last superstep */
-  protected long totalMsgBytesSentInSuperstep = 0;
+  /** Messages sent to vertices of this worker during the last superstep */
+  protected long totalLocalMsgsSentInSuperstep = 0;
+  /**
+   * Message bytes sent during the last superstep (also counted by the
+   * flusher threads)
+   */
+  protected final AtomicLong totalMsgBytesSentInSuperstep = new AtomicLong();
+  /** Message bytes not sent thanks to combining during the last superstep */
+  protected long totalMsgBytesSavedInSuperstep = 0;
   /** Max message size sent to a worker */
   protected final int maxMessagesSizePerWorker;
   /** NettyWorkerClientRequestProcessor for message sending */
   protected final NettyWorkerClientRequestProcessor<I, ?, ?> clientProcessor;
+  /** Whether to add messages for this worker directly to the message store */
+  private final boolean directLocalMessages;
+  /** Pool sending requests in the background, null to send them directly */
+  private final RequestFlusherPool requestFlusherPool;
+  /** Requests submitted to the flusher pool which may not be sent yet */
+  private final List<Future<Void>> pendingRequests = Lists.newArrayList();
+  /** Nanos this thread was blocked sending requests since the last flush */
+  private long sendBlockedNanos = 0;
+  /** Out-edges at which a vertex sends through mirrors, 0 to never do it */
+  private final int hubMirrorMinEdges;
+  /** Cached hub messages for each worker, by task id */
+  private final ByteArrayVertexIdMessages<I, M>[] hubMessageCache;
+  /** Workers the cached hub messages go to, by task id */
+  private final WorkerInfo[] hubMessageWorkers;
+  /**
+   * Reused to serialize the targets of a hub for its fingerprint, null if
+   * hubs aren't mirrored or the graph is static
+   */
+  private final ExtendedDataOutput hubTargetIds;
 
   /**
    * Constructor
@@ -75,6 +127,21 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
         ADDITIONAL_MSG_REQUEST_SIZE.get(conf));
     maxMessagesSizePerWorker = maxMsgSize;
     clientProcessor = processor;
+    directLocalMessages = DIRECT_LOCAL_MESSAGES.get(conf);
+    GraphTaskManager<?, ?, ?> graphTaskManager =
+        serviceWorker.getGraphTaskManager();
+    requestFlusherPool = (graphTaskManager == null) ? null :
+        graphTaskManager.getRequestFlusherPool();
+    hubMirrorMinEdges = HUB_MIRROR_MIN_EDGES.get(conf);
+    if (hubMirrorMinEdges > 0) {
+      hubMessageCache = new ByteArrayVertexIdMessages[getNumWorkers()];
+      hubMessageWorkers = new WorkerInfo[getNumWorkers()];
+    } else {
+      hubMessageCache = null;
+      hubMessageWorkers = null;
+    }
+    hubTargetIds = (hubMirrorMinEdges > 0 && !conf.isStaticGraph()) ?
+        conf.createExtendedDataOutput() : null;
   }
 
   @Override
@@ -152,6 +219,9 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
       LOG.trace("sendMessageRequest: Send bytes (" + message.toString() +
         ") to " + destVertexId + " on worker " + workerInfo);
     }
+    if (sendLocalMessage(owner, destVertexId, message)) {
+      return;
+    }
     ++totalMsgsSentInSuperstep;
     // Add the message to the cache
     int workerMessageSize = addMessage(
@@ -159,15 +229,117 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
     // Send a request if the cache of outgoing message to
     // the remote worker 'workerInfo' is full enough to be flushed
     if (workerMessageSize >= maxMessagesSizePerWorker) {
-      PairList<Integer, ByteArrayVertexIdMessages<I, M>>
-        workerMessages = removeWorkerMessages(workerInfo);
-      WritableRequest writableRequest =
-        new SendWorkerMessagesRequest<I, M>(workerMessages);
-      totalMsgBytesSentInSuperstep += writableRequest.getSerializedSize();
-      clientProcessor.doRequest(workerInfo, writableRequest);
-      // Notify sending
-      getServiceWorker().getGraphTaskManager().notifySentMessages();
+      sendWorkerMessages(workerInfo);
+    }
+  }
+
+  /**
+   * Count a message if it is for a vertex of this worker, and add it
+   * directly to the incoming message store if the store supports it, so it
+   * doesn't have to be serialized and deserialized again.
+   *
+   * @param owner Owner of the partition of the target vertex
+   * @param destVertexId Target vertex id
+   * @param message The message sent to the target
+   * @return True iff the message was added to the message store, false if
+   *         it still has to be sent
+   */
+  protected boolean sendLocalMessage(PartitionOwner owner, I destVertexId,
+      M message) {
+    if (owner.getWorkerInfo().getTaskId() !=
+        getServiceWorker().getWorkerInfo().getTaskId()) {
+      return false;
+    }
+    ++totalLocalMsgsSentInSuperstep;
+    if (!directLocalMessages) {
+      return false;
+    }
+    MessageStore<I, M> messageStore =
+        getServiceWorker().getServerData().getIncomingMessageStore();
+    if (!(messageStore instanceof DirectMessageStore)) {
+      return false;
+    }
+    try {
+      ((DirectMessageStore<I, M>) messageStore).addMessage(
+          owner.getPartitionId(), destVertexId, message);
+    } catch (IOException e) {
+      throw new IllegalStateException("sendLocalMessage: Failed to add " +
+          "message for " + destVertexId, e);
+    }
+    ++totalMsgsSentInSuperstep;
+    getServiceWorker().getGraphTaskManager().notifySentMessages();
+    return true;
+  }
+
+  /**
+   * Send all cached messages for a worker.
+   *
+   * @param workerInfo The remote worker destination
+   */
+  protected void sendWorkerMessages(WorkerInfo workerInfo) {
+    PairList<Integer, ByteArrayVertexIdMessages<I, M>>
+      workerMessages = removeWorkerMessages(workerInfo);
+    WritableRequest writableRequest =
+      new SendWorkerMessagesRequest<I, M>(workerMessages);
+    doMessageRequest(workerInfo, writableRequest);
+  }
+
+  /**
+   * Send a message request, in the background if there is a flusher pool.
+   * Blocks only while the flusher pool is full.
+   *
+   * @param workerInfo The remote worker destination
+   * @param writableRequest Request to send
+   */
+  protected void doMessageRequest(final WorkerInfo workerInfo,
+      final WritableRequest writableRequest) {
+    long startNanos = TIME.getNanoseconds();
+    if (requestFlusherPool == null) {
+      sendRequest(workerInfo, writableRequest);
+    } else {
+      if (pendingRequests.size() >= MAX_PENDING_REQUESTS) {
+        requestFlusherPool.removeFinished(pendingRequests);
+      }
+      pendingRequests.add(requestFlusherPool.submit(new Runnable() {
+        @Override
+        public void run() {
+          sendRequest(workerInfo, writableRequest);
+        }
+      }));
     }
+    sendBlockedNanos += TIME.getNanoseconds() - startNanos;
+  }
+
+  /**
+   * Serialize and send a message request.  Called from the compute thread
+   * or from a flusher thread.
+   *
+   * @param workerInfo The remote worker destination
+   * @param writableRequest Request to send
+   */
+  private void sendRequest(WorkerInfo workerInfo,
+      WritableRequest writableRequest) {
+    totalMsgBytesSentInSuperstep.addAndGet(
+        writableRequest.getSerializedSize());
+    clientProcessor.doRequest(workerInfo, writableRequest);
+    // Notify sending
+    getServiceWorker().getGraphTaskManager().notifySentMessages();
+  }
+
+  /**
+   * Wait for the requests sent in the background and record how long this
+   * thread was blocked sending during the superstep.
+   */
+  protected void waitForPendingRequests() {
+    if (requestFlusherPool != null) {
+      long startNanos = TIME.getNanoseconds();
+      requestFlusherPool.waitFor(pendingRequests);
+      sendBlockedNanos += TIME.getNanoseconds() - startNanos;
+    }
+    GiraphMetrics.get().perSuperstep().getUniformHistogram(
+        MetricNames.COMPUTE_THREAD_SEND_BLOCKED_MSECS).update(
+        sendBlockedNanos / Time.NS_PER_MS);
+    sendBlockedNanos = 0;
   }
 
   /**
@@ -211,11 +383,152 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
    * @param message The message sent to a worker
    */
   public void sendMessageToAllRequest(Vertex<I, ?, ?> vertex, M message) {
+    if (hubMirrorMinEdges > 0 && vertex.getNumEdges() >= hubMirrorMinEdges &&
+        sendHubMessage(vertex, message)) {
+      return;
+    }
     TargetVertexIdIterator targetVertexIterator =
       new TargetVertexIdIterator(vertex);
     sendMessageToAllRequest(targetVertexIterator, message);
   }
 
+  /**
+   * Send a message from a hub vertex to all its edges, with a single
+   * message per worker expanded by the mirrors of the hub.  The first time,
+   * or when its targets changed, the hub registers its mirrors instead,
+   * which are used from the next superstep on.
+   *
+   * @param vertex The hub vertex
+   * @param message The message sent to all edges
+   * @return True iff the message was sent through the mirrors
+   */
+  private boolean sendHubMessage(Vertex<I, ?, ?> vertex, M message) {
+    HubMirrorStore<I> hubMirrorStore =
+        getServiceWorker().getServerData().getHubMirrorStore();
+    HubMirrorStore.Hub hub = hubMirrorStore.getHub(vertex.getId());
+    long superstep = getServiceWorker().getSuperstep();
+    long targetsFingerprint = getTargetsFingerprint(vertex);
+    if (hub == null || hub.getNumEdges() != vertex.getNumEdges() ||
+        hub.getTargetsFingerprint() != targetsFingerprint) {
+      registerHubMirrors(hubMirrorStore, vertex, targetsFingerprint,
+          superstep);
+      return false;
+    }
+    if (hub.getSuperstep() >= superstep) {
+      // Mirrors may not be stored by the other workers yet
+      return false;
+    }
+    int myTaskId = getServiceWorker().getWorkerInfo().getTaskId();
+    WorkerInfo[] workers = hub.getWorkers();
+    for (int i = 0; i < workers.length; ++i) {
+      int taskId = workers[i].getTaskId();
+      ByteArrayVertexIdMessages<I, M> hubMessages = hubMessageCache[taskId];
+      if (hubMessages == null) {
+        hubMessages = createByteArrayVertexIdData();
+        hubMessages.setConf(getConf());
+        hubMessages.initialize();
+        hubMessageCache[taskId] = hubMessages;
+        hubMessageWorkers[taskId] = workers[i];
+      }
+      hubMessages.add(vertex.getId(), message);
+      if (taskId == myTaskId) {
+        totalLocalMsgsSentInSuperstep += hub.getNumTargets()[i];
+      }
+      if (hubMessages.getSize() >= maxMessagesSizePerWorker) {
+        hubMessageCache[taskId] = null;
+        doMessageRequest(workers[i], new SendWorkerMirrorMessagesRequest<I, M>(
+            hubMessages, getConf()));
+      }
+    }
+    totalMsgsSentInSuperstep += hub.getNumEdges();
+    return true;
+  }
+
+  /**
+   * Get a fingerprint of the targets of a hub vertex, which changes when
+   * any of its edges is replaced, even if the number of edges stays the
+   * same.  The edges of a static graph never change, so it is 0 there.
+   *
+   * @param vertex The hub vertex
+   * @return Hash of the serialized target ids, in edge order
+   */
+  private long getTargetsFingerprint(Vertex<I, ?, ?> vertex) {
+    if (hubTargetIds == null) {
+      return 0;
+    }
+    hubTargetIds.reset();
+    TargetVertexIdIterator iterator = new TargetVertexIdIterator(vertex);
+    try {
+      while (iterator.hasNext()) {
+        iterator.next().write(hubTargetIds);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("getTargetsFingerprint: Failed to " +
+          "serialize the targets of " + vertex.getId(), e);
+    }
+    return Hashing.murmur3_128().hashBytes(
+        hubTargetIds.getByteArray(), 0, hubTargetIds.getPos()).asLong();
+  }
+
+  /**
+   * Register the mirrors of a hub vertex, sending its targets to the
+   * workers owning them.
+   *
+   * @param hubMirrorStore Store to remember the hub in
+   * @param vertex The hub vertex
+   * @param targetsFingerprint Fingerprint of the targets of the hub
+   * @param superstep Current superstep
+   */
+  private void registerHubMirrors(HubMirrorStore<I> hubMirrorStore,
+      Vertex<I, ?, ?> vertex, long targetsFingerprint, long superstep) {
+    // Requests may be serialized again when resent, so copy the reused id
+    I hubId = (I) getConf().createVertexId();
+    WritableUtils.readFieldsFromByteArray(
+        WritableUtils.writeToByteArray(vertex.getId()), hubId);
+    ExtendedDataOutput[] targetIds = new ExtendedDataOutput[getNumWorkers()];
+    int[] taskNumTargets = new int[getNumWorkers()];
+    WorkerInfo[] taskWorkers = new WorkerInfo[getNumWorkers()];
+    int numWorkers = 0;
+    TargetVertexIdIterator iterator = new TargetVertexIdIterator(vertex);
+    try {
+      while (iterator.hasNext()) {
+        I targetId = iterator.next();
+        WorkerInfo workerInfo = getServiceWorker().
+            getVertexPartitionOwner(targetId).getWorkerInfo();
+        int taskId = workerInfo.getTaskId();
+        if (targetIds[taskId] == null) {
+          targetIds[taskId] = getConf().createExtendedDataOutput();
+          taskWorkers[taskId] = workerInfo;
+          ++numWorkers;
+        }
+        targetId.write(targetIds[taskId]);
+        ++taskNumTargets[taskId];
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("registerHubMirrors: Failed to " +
+          "serialize the targets of " + hubId, e);
+    }
+    WorkerInfo[] workers = new WorkerInfo[numWorkers];
+    int[] numTargets = new int[numWorkers];
+    int i = 0;
+    for (int taskId = 0; taskId < targetIds.length; ++taskId) {
+      if (targetIds[taskId] != null) {
+        workers[i] = taskWorkers[taskId];
+        numTargets[i] = taskNumTargets[taskId];
+        ++i;
+        clientProcessor.doRequest(taskWorkers[taskId],
+            new SendWorkerMirrorEdgesRequest<I>(hubId,
+                taskNumTargets[taskId], targetIds[taskId]));
+      }
+    }
+    hubMirrorStore.putHub(hubId, new HubMirrorStore.Hub(superstep,
+        vertex.getNumEdges(), targetsFingerprint, workers, numTargets));
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("registerHubMirrors: Registered mirrors of " + hubId +
+          " on " + numWorkers + " workers");
+    }
+  }
+
   /**
    * Send message to the target ids in the iterator
    *
@@ -229,7 +542,8 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
   }
 
   /**
-   * Flush the rest of the messages to the workers.
+   * Flush the rest of the messages to the workers, and wait for the
+   * requests sent in the background.
    */
   public void flush() {
     PairList<WorkerInfo, PairList<Integer,
@@ -243,10 +557,19 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
       WritableRequest writableRequest =
         new SendWorkerMessagesRequest<I, M>(
           iterator.getCurrentSecond());
-      totalMsgBytesSentInSuperstep += writableRequest.getSerializedSize();
-      clientProcessor.doRequest(
-        iterator.getCurrentFirst(), writableRequest);
+      doMessageRequest(iterator.getCurrentFirst(), writableRequest);
     }
+    if (hubMessageCache != null) {
+      for (int taskId = 0; taskId < hubMessageCache.length; ++taskId) {
+        if (hubMessageCache[taskId] != null) {
+          doMessageRequest(hubMessageWorkers[taskId],
+              new SendWorkerMirrorMessagesRequest<I, M>(
+                  hubMessageCache[taskId], getConf()));
+          hubMessageCache[taskId] = null;
+        }
+      }
+    }
+    waitForPendingRequests();
   }
 
   /**
@@ -260,14 +583,35 @@ public class SendMessageCache<I extends WritableComparable, M extends Writable>
     return messagesSentInSuperstep;
   }
 
+  /**
+   * Reset the count of messages sent to vertices of this worker per
+   * superstep.
+   *
+   * @return The local message count sent in last superstep
+   */
+  public long resetLocalMessageCount() {
+    long localMessagesSentInSuperstep = totalLocalMsgsSentInSuperstep;
+    totalLocalMsgsSentInSuperstep = 0;
+    return localMessagesSentInSuperstep;
+  }
+
   /**
    * Reset the message bytes count per superstep.
    *
    * @return The message count sent in last superstep
    */
   public long resetMessageBytesCount() {
-    long messageBytesSentInSuperstep = totalMsgBytesSentInSuperstep;
-    totalMsgBytesSentInSuperstep = 0;
-    return messageBytesSentInSuperstep;
+    return totalMsgBytesSentInSuperstep.getAndSet(0);
+  }
+
+  /**
+   * Reset the count of message bytes saved by combining per superstep.
+   *
+   * @return The message bytes saved in last superstep
+   */
+  public long resetMessageBytesSavedCount() {
+    long messageBytesSavedInSuperstep = totalMsgBytesSavedInSuperstep;
+    totalMsgBytesSavedInSuperstep = 0;
+    return messageBytesSavedInSuperstep;
   }
 }
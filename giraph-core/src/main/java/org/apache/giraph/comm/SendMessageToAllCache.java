@@ -212,6 +212,9 @@ public class SendMessageToAllCache<I extends WritableComparable,
     while (vertexIdIterator.hasNext()) {
       vertexId = vertexIdIterator.next();
       owner = getServiceWorker().getVertexPartitionOwner(vertexId);
+      if (sendLocalMessage(owner, vertexId, message)) {
+        continue;
+      }
       workerInfo = owner.getWorkerInfo();
       currentMachineId = workerInfo.getTaskId();
       // Serialize this target vertex id
@@ -253,10 +256,7 @@ public class SendMessageToAllCache<I extends WritableComparable,
             workerMessages = removeWorkerMessages(workerInfoList[i]);
           writableRequest =
             new SendWorkerMessagesRequest<I, M>(workerMessages);
-          totalMsgBytesSentInSuperstep += writableRequest.getSerializedSize();
-          clientProcessor.doRequest(workerInfoList[i], writableRequest);
-          // Notify sending
-          getServiceWorker().getGraphTaskManager().notifySentMessages();
+          doMessageRequest(workerInfoList[i], writableRequest);
         }
       } else if (idCounter[i] > 1) {
         serializedId = idSerializer[i].getByteArray();
@@ -277,10 +277,7 @@ public class SendMessageToAllCache<I extends WritableComparable,
           writableRequest =
             new SendWorkerOneToAllMessagesRequest<I, M>(
               workerOneToAllMessages, getConf());
-          totalMsgBytesSentInSuperstep += writableRequest.getSerializedSize();
-          clientProcessor.doRequest(workerInfoList[i], writableRequest);
-          // Notify sending
-          getServiceWorker().getGraphTaskManager().notifySentMessages();
+          doMessageRequest(workerInfoList[i], writableRequest);
         }
       }
     }
@@ -288,7 +285,6 @@ public class SendMessageToAllCache<I extends WritableComparable,
 
   @Override
   public void flush() {
-    super.flush();
     PairList<WorkerInfo, ByteArrayOneToAllMessages<I, M>>
     remainingOneToAllMessageCache =
       removeAllOneToAllMessages();
@@ -300,9 +296,9 @@ public class SendMessageToAllCache<I extends WritableComparable,
       WritableRequest writableRequest =
         new SendWorkerOneToAllMessagesRequest<I, M>(
           oneToAllMsgIterator.getCurrentSecond(), getConf());
-      totalMsgBytesSentInSuperstep += writableRequest.getSerializedSize();
-      clientProcessor.doRequest(
-        oneToAllMsgIterator.getCurrentFirst(), writableRequest);
+      doMessageRequest(oneToAllMsgIterator.getCurrentFirst(),
+          writableRequest);
     }
+    super.flush();
   }
 }
@@ -21,6 +21,7 @@ package org.apache.giraph.comm;
 import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.comm.aggregators.AllAggregatorServerData;
 import org.apache.giraph.comm.aggregators.OwnerAggregatorServerData;
+import org.apache.giraph.comm.messages.HubMirrorStore;
 import org.apache.giraph.comm.messages.MessageStore;
 import org.apache.giraph.comm.messages.MessageStoreFactory;
 import org.apache.giraph.conf.GiraphConstants;
@@ -82,6 +83,8 @@ public class ServerData<I extends WritableComparable,
   private final AllAggregatorServerData allAggregatorData;
   /** Service worker */
   private final CentralizedServiceWorker<I, V, E> serviceWorker;
+  /** Mirrors of hub vertices */
+  private final HubMirrorStore<I> hubMirrorStore;
 
   /**
    * Constructor.
@@ -110,6 +113,7 @@ public class ServerData<I extends WritableComparable,
     edgeStore = new EdgeStore<I, V, E>(service, conf, context);
     ownerAggregatorData = new OwnerAggregatorServerData(context, conf);
     allAggregatorData = new AllAggregatorServerData(context, conf);
+    hubMirrorStore = new HubMirrorStore<I>(conf);
   }
 
   public EdgeStore<I, V, E> getEdgeStore() {
@@ -192,6 +196,15 @@ public class ServerData<I extends WritableComparable,
     return allAggregatorData;
   }
 
+  /**
+   * Get the mirrors of hub vertices, on this worker and of this worker.
+   *
+   * @return Hub mirror store
+   */
+  public HubMirrorStore<I> getHubMirrorStore() {
+    return hubMirrorStore;
+  }
+
   /**
    * Get the reference of the service worker.
    *
@@ -143,10 +143,26 @@ public interface WorkerClientRequestProcessor<I extends WritableComparable,
    */
   long resetMessageCount();
 
+  /**
+   * Get the messages sent to vertices of this worker during this superstep
+   * and clear them.
+   *
+   * @return Number of local messages sent before the reset.
+   */
+  long resetLocalMessageCount();
+
   /**
    * Get the message bytes sent during this superstep and clear them.
    *
    * @return Bytes of messages sent before the reset.
    */
   long resetMessageBytesCount();
+
+  /**
+   * Get the message bytes saved by sender-side combining during this
+   * superstep and clear them.
+   *
+   * @return Bytes of messages saved before the reset.
+   */
+  long resetMessageBytesSavedCount();
 }
@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.compression;
+
+import org.apache.giraph.conf.DefaultImmutableClassesGiraphConfigurable;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Pure-Java request compression with {@link Deflater}, using the level set
+ * by {@link GiraphConstants#NETTY_COMPRESSION_DEFLATE_LEVEL}. Deflaters and
+ * inflaters are kept per thread, so that their native state isn't
+ * allocated for every request.
+ */
+public class DeflateRequestCompressionCodec extends
+    DefaultImmutableClassesGiraphConfigurable implements
+    RequestCompressionCodec {
+  /** Size of the chunks compressed bytes are written in */
+  private static final int CHUNK_SIZE = 32 * 1024;
+  /** Compression level */
+  private int level = Deflater.BEST_SPEED;
+  /** Deflater of each thread */
+  private final ThreadLocal<Deflater> deflaters =
+      new ThreadLocal<Deflater>() {
+        @Override
+        protected Deflater initialValue() {
+          return new Deflater(level);
+        }
+      };
+  /** Inflater of each thread */
+  private final ThreadLocal<Inflater> inflaters =
+      new ThreadLocal<Inflater>() {
+        @Override
+        protected Inflater initialValue() {
+          return new Inflater();
+        }
+      };
+  /** Chunk of compressed bytes of each thread */
+  private final ThreadLocal<byte[]> chunks = new ThreadLocal<byte[]>() {
+    @Override
+    protected byte[] initialValue() {
+      return new byte[CHUNK_SIZE];
+    }
+  };
+
+  @Override
+  public void setConf(ImmutableClassesGiraphConfiguration conf) {
+    super.setConf(conf);
+    level = GiraphConstants.NETTY_COMPRESSION_DEFLATE_LEVEL.get(conf);
+  }
+
+  @Override
+  public void compress(byte[] input, int offset, int length,
+      OutputStream output) throws IOException {
+    Deflater deflater = deflaters.get();
+    byte[] chunk = chunks.get();
+    deflater.reset();
+    deflater.setInput(input, offset, length);
+    deflater.finish();
+    while (!deflater.finished()) {
+      int compressed = deflater.deflate(chunk);
+      output.write(chunk, 0, compressed);
+    }
+  }
+
+  @Override
+  public void decompress(byte[] input, int offset, int length,
+      byte[] output) throws IOException {
+    Inflater inflater = inflaters.get();
+    inflater.reset();
+    inflater.setInput(input, offset, length);
+    int decompressed = 0;
+    try {
+      while (decompressed < output.length) {
+        int read = inflater.inflate(output, decompressed,
+            output.length - decompressed);
+        if (read == 0 && (inflater.finished() || inflater.needsInput() ||
+            inflater.needsDictionary())) {
+          break;
+        }
+        decompressed += read;
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("decompress: Corrupt request data", e);
+    }
+    if (decompressed != output.length) {
+      throw new IOException("decompress: Expected " + output.length +
+          " bytes, but only got " + decompressed);
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.compression;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Codec used to compress the serialized bodies of requests before they are
+ * sent on the wire. Implementations are shared by all the threads of a
+ * client or server, so they must be thread-safe.
+ */
+public interface RequestCompressionCodec {
+  /**
+   * Compress a range of bytes.
+   *
+   * @param input Array holding the bytes to compress
+   * @param offset Offset of the first byte to compress
+   * @param length Number of bytes to compress
+   * @param output Stream to write the compressed bytes to
+   * @throws IOException
+   */
+  void compress(byte[] input, int offset, int length, OutputStream output)
+    throws IOException;
+
+  /**
+   * Decompress a range of bytes produced by
+   * {@link #compress(byte[], int, int, OutputStream)}.
+   *
+   * @param input Array holding the compressed bytes
+   * @param offset Offset of the first compressed byte
+   * @param length Number of compressed bytes
+   * @param output Array to fill with the decompressed bytes, sized to the
+   *               exact uncompressed length
+   * @throws IOException
+   */
+  void decompress(byte[] input, int offset, int length, byte[] output)
+    throws IOException;
+}
@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.comm.messages;
+
+import java.io.IOException;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Message store whose messages can be taken out while other threads are
+ * still adding messages, so that messages sent in a superstep can be
+ * consumed in the same superstep.
+ *
+ * @param <I> Vertex id
+ * @param <M> Message data
+ */
+public interface AsyncMessageStore<I extends WritableComparable,
+    M extends Writable> extends MessageStore<I, M> {
+  /**
+   * Atomically removes and returns the messages for a vertex, so that each
+   * message is either returned here or stays in the store, never both.
+   * The returned iterable may reuse objects, and is only valid until the
+   * next call from the same thread.
+   *
+   * @param vertexId Vertex id to take the messages of
+   * @return Messages of the vertex, empty if there were none
+   * @throws IOException
+   */
+  Iterable<M> removeVertexMessages(I vertexId) throws IOException;
+}
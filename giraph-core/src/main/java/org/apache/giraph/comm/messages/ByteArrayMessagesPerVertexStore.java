@@ -28,6 +28,7 @@ import org.apache.giraph.utils.VertexIdIterator;
 import org.apache.giraph.utils.io.DataInputOutput;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableUtils;
 
 import com.google.common.collect.Iterators;
 
@@ -44,7 +45,8 @@ import java.util.concurrent.ConcurrentMap;
  * @param <M> Message data
  */
 public class ByteArrayMessagesPerVertexStore<I extends WritableComparable,
-    M extends Writable> extends SimpleMessageStore<I, M, DataInputOutput> {
+    M extends Writable> extends SimpleMessageStore<I, M, DataInputOutput>
+    implements DirectMessageStore<I, M> {
   /**
    * Constructor
    *
@@ -125,6 +127,26 @@ public class ByteArrayMessagesPerVertexStore<I extends WritableComparable,
     }
   }
 
+  @Override
+  public void addMessage(int partitionId, I vertexId,
+      M message) throws IOException {
+    ConcurrentMap<I, DataInputOutput> partitionMap =
+        getOrCreatePartitionMap(partitionId);
+    DataInputOutput dataInputOutput = partitionMap.get(vertexId);
+    if (dataInputOutput == null) {
+      DataInputOutput newDataOutput = config.createMessagesInputOutput();
+      // The caller may reuse the vertex id, so the map gets its own copy
+      dataInputOutput = partitionMap.putIfAbsent(
+          WritableUtils.clone(vertexId, config), newDataOutput);
+      if (dataInputOutput == null) {
+        dataInputOutput = newDataOutput;
+      }
+    }
+    synchronized (dataInputOutput) {
+      message.write(dataInputOutput.getDataOutput());
+    }
+  }
+
   @Override
   protected Iterable<M> getMessagesAsIterable(
       DataInputOutput dataInputOutput) {
@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Empty interface to characterize {@link MessageStore} implementations whose
+ * per-vertex methods ({@link #getVertexMessages},
+ * {@link #hasMessagesForVertex} and {@link #clearVertexMessages}) can be
+ * called by several threads at once for different vertices of the same
+ * partition.
+ * Only partitions whose messages are in such a store are split into chunks
+ * which several compute threads work on.
+ *
+ * @param <I> Vertex id
+ * @param <M> Message data
+ */
+public interface ConcurrentVertexMessageStore<I extends WritableComparable,
+    M extends Writable> extends MessageStore<I, M> { }
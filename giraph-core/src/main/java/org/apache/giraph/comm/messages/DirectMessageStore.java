@@ -0,0 +1,45 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages;
+
+import java.io.IOException;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * Message store which can take messages sent to vertices of this worker
+ * directly, without them being serialized into a request first.
+ *
+ * @param <I> Vertex id
+ * @param <M> Message data
+ */
+public interface DirectMessageStore<I extends WritableComparable,
+    M extends Writable> extends MessageStore<I, M> {
+  /**
+   * Adds a single message for a vertex.  The caller may reuse the vertex id
+   * and the message after this returns, so the store must not keep
+   * references to them.  Can be called from several threads at once.
+   *
+   * @param partitionId Id of partition the vertex belongs to
+   * @param vertexId Vertex id the message is for
+   * @param message Message to add
+   * @throws IOException
+   */
+  void addMessage(int partitionId, I vertexId, M message) throws IOException;
+}
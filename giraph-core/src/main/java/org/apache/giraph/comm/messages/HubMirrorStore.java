@@ -0,0 +1,209 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.comm.messages;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.utils.ExtendedDataInput;
+import org.apache.giraph.utils.ExtendedDataOutput;
+import org.apache.giraph.utils.WritableUtils;
+import org.apache.giraph.worker.WorkerInfo;
+import org.apache.hadoop.io.WritableComparable;
+
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Mirrors of high-degree (hub) vertices.  A hub sending to all its edges
+ * registers the targets owned by each worker there once, afterwards it only
+ * sends one message per worker, which the worker expands to the mirrored
+ * targets.
+ *
+ * Holds both sides: the hubs of this worker which are mirrored elsewhere,
+ * and the mirrors other hubs registered on this worker.  Mirrors are only
+ * valid as long as the partitions don't move between workers, see
+ * {@link #clear()}.  Thread-safe.
+ *
+ * @param <I> Vertex id
+ */
+@SuppressWarnings("rawtypes")
+public class HubMirrorStore<I extends WritableComparable> {
+  /** Configuration */
+  private final ImmutableClassesGiraphConfiguration<I, ?, ?> conf;
+  /** Hubs of this worker which registered their mirrors */
+  private final ConcurrentMap<I, Hub> hubs = Maps.newConcurrentMap();
+  /** Mirrored targets on this worker, per hub and per partition */
+  private final ConcurrentMap<I, Int2ObjectOpenHashMap<ExtendedDataOutput>>
+  mirrors = Maps.newConcurrentMap();
+
+  /**
+   * Constructor
+   *
+   * @param conf Configuration
+   */
+  public HubMirrorStore(ImmutableClassesGiraphConfiguration<I, ?, ?> conf) {
+    this.conf = conf;
+  }
+
+  /**
+   * Get a hub of this worker which registered its mirrors.
+   *
+   * @param hubId Hub vertex id
+   * @return Registered hub, null if it has no mirrors
+   */
+  public Hub getHub(I hubId) {
+    return hubs.get(hubId);
+  }
+
+  /**
+   * Remember that a hub of this worker registered its mirrors, replacing an
+   * older registration.
+   *
+   * @param hubId Hub vertex id, copied since ids may be reused
+   * @param hub Registered hub
+   */
+  public void putHub(I hubId, Hub hub) {
+    hubs.put(copyId(hubId), hub);
+  }
+
+  /**
+   * Store the targets of a hub which are owned by this worker, replacing
+   * an older mirror of the hub.
+   *
+   * @param serviceWorker Service worker to find the target partitions
+   * @param hubId Hub vertex id
+   * @param numTargets Number of targets
+   * @param targetIds Serialized target ids
+   */
+  public void addMirror(CentralizedServiceWorker<I, ?, ?> serviceWorker,
+      I hubId, int numTargets, ExtendedDataOutput targetIds) {
+    Int2ObjectOpenHashMap<ExtendedDataOutput> partitionTargetIds =
+        new Int2ObjectOpenHashMap<ExtendedDataOutput>();
+    ExtendedDataInput input = conf.createExtendedDataInput(
+        targetIds.getByteArray(), 0, targetIds.getPos());
+    I targetId = conf.createVertexId();
+    try {
+      for (int i = 0; i < numTargets; ++i) {
+        targetId.readFields(input);
+        int partitionId =
+            serviceWorker.getVertexPartitionOwner(targetId).getPartitionId();
+        ExtendedDataOutput output = partitionTargetIds.get(partitionId);
+        if (output == null) {
+          output = conf.createExtendedDataOutput();
+          partitionTargetIds.put(partitionId, output);
+        }
+        targetId.write(output);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("addMirror: Failed to read targets " +
+          "of hub " + hubId, e);
+    }
+    mirrors.put(copyId(hubId), partitionTargetIds);
+  }
+
+  /**
+   * Get the targets of a hub which are owned by this worker.
+   *
+   * @param hubId Hub vertex id
+   * @return Serialized target ids per partition, null if the hub has no
+   *         mirror on this worker
+   */
+  public Int2ObjectOpenHashMap<ExtendedDataOutput> getMirror(I hubId) {
+    return mirrors.get(hubId);
+  }
+
+  /**
+   * Drop all hubs and mirrors, since partitions moved between workers.
+   * Hubs register their mirrors again the next time they send.
+   */
+  public void clear() {
+    hubs.clear();
+    mirrors.clear();
+  }
+
+  /**
+   * Copy a vertex id.
+   *
+   * @param id Vertex id
+   * @return Copy of the id
+   */
+  private I copyId(I id) {
+    I idCopy = conf.createVertexId();
+    WritableUtils.readFieldsFromByteArray(
+        WritableUtils.writeToByteArray(id), idCopy);
+    return idCopy;
+  }
+
+  /**
+   * Hub of this worker with mirrors on other workers.
+   */
+  public static class Hub {
+    /** Superstep in which the mirrors were registered */
+    private final long superstep;
+    /** Number of out-edges when the mirrors were registered */
+    private final int numEdges;
+    /** Fingerprint of the targets when the mirrors were registered */
+    private final long targetsFingerprint;
+    /** Workers owning targets of the hub */
+    private final WorkerInfo[] workers;
+    /** Number of targets owned by each of the workers */
+    private final int[] numTargets;
+
+    /**
+     * Constructor
+     *
+     * @param superstep Superstep in which the mirrors were registered
+     * @param numEdges Number of out-edges of the hub
+     * @param targetsFingerprint Fingerprint of the targets of the hub
+     * @param workers Workers owning targets of the hub
+     * @param numTargets Number of targets owned by each of the workers
+     */
+    public Hub(long superstep, int numEdges, long targetsFingerprint,
+        WorkerInfo[] workers, int[] numTargets) {
+      this.superstep = superstep;
+      this.numEdges = numEdges;
+      this.targetsFingerprint = targetsFingerprint;
+      this.workers = workers;
+      this.numTargets = numTargets;
+    }
+
+    public long getSuperstep() {
+      return superstep;
+    }
+
+    public int getNumEdges() {
+      return numEdges;
+    }
+
+    public long getTargetsFingerprint() {
+      return targetsFingerprint;
+    }
+
+    public WorkerInfo[] getWorkers() {
+      return workers;
+    }
+
+    public int[] getNumTargets() {
+      return numTargets;
+    }
+  }
+}
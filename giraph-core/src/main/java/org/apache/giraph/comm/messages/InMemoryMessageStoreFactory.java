@@ -21,9 +21,17 @@ package org.apache.giraph.comm.messages;
 import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.combiner.Combiner;
 import org.apache.giraph.comm.messages.primitives.IntByteArrayMessageStore;
+import org.apache.giraph.comm.messages.primitives.IntDoubleMessageStore;
 import org.apache.giraph.comm.messages.primitives.IntFloatMessageStore;
+import org.apache.giraph.comm.messages.primitives.IntIntMessageStore;
+import org.apache.giraph.comm.messages.primitives.IntLongMessageStore;
 import org.apache.giraph.comm.messages.primitives.LongByteArrayMessageStore;
 import org.apache.giraph.comm.messages.primitives.LongDoubleMessageStore;
+import org.apache.giraph.comm.messages.primitives.LongFloatMessageStore;
+import org.apache.giraph.comm.messages.primitives.LongIntMessageStore;
+import org.apache.giraph.comm.messages.primitives.LongLongMessageStore;
+import org.apache.giraph.comm.messages.primitives.MessageStoreStripes;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.factories.MessageValueFactory;
 import org.apache.hadoop.io.DoubleWritable;
@@ -38,7 +46,8 @@ import org.apache.log4j.Logger;
  * Message store factory which produces message stores which hold all
  * messages in memory. Depending on whether or not combiner is currently used,
  * this factory creates {@link OneMessagePerVertexStore} or
- * {@link ByteArrayMessagesPerVertexStore}
+ * {@link ByteArrayMessagesPerVertexStore}, or one of the stores specialized
+ * for int and long ids
  *
  * @param <I> Vertex id
  * @param <M> Message data
@@ -69,22 +78,12 @@ public class InMemoryMessageStoreFactory<I extends WritableComparable,
   public MessageStore<I, M> newStore(
       MessageValueFactory<M> messageValueFactory) {
     Class<M> messageClass = messageValueFactory.getValueClass();
-    MessageStore messageStore;
+    MessageStore messageStore = null;
     if (conf.useCombiner()) {
-      Class<I> vertexIdClass = conf.getVertexIdClass();
-      if (vertexIdClass.equals(IntWritable.class) &&
-          messageClass.equals(FloatWritable.class)) {
-        messageStore = new IntFloatMessageStore(
-            (CentralizedServiceWorker<IntWritable, ?, ?>) service,
-            (Combiner<IntWritable, FloatWritable>)
-                conf.<FloatWritable>createCombiner());
-      } else if (vertexIdClass.equals(LongWritable.class) &&
-          messageClass.equals(DoubleWritable.class)) {
-        messageStore = new LongDoubleMessageStore(
-            (CentralizedServiceWorker<LongWritable, ?, ?>) service,
-            (Combiner<LongWritable, DoubleWritable>)
-                conf.<DoubleWritable>createCombiner());
-      } else {
+      if (GiraphConstants.USE_PRIMITIVE_COMBINER_MESSAGE_STORES.get(conf)) {
+        messageStore = newPrimitiveCombinerStore(messageClass);
+      }
+      if (messageStore == null) {
         messageStore = new OneMessagePerVertexStore<I, M>(messageValueFactory,
           service, conf.<M>createCombiner(), conf);
       }
@@ -113,4 +112,58 @@ public class InMemoryMessageStoreFactory<I extends WritableComparable,
     }
     return (MessageStore<I, M>) messageStore;
   }
+
+  /**
+   * Create a message store which keeps the combined messages in a
+   * primitive map, if there is one for the vertex id and message types.
+   *
+   * @param messageClass Message class
+   * @return Message store, or null if the types aren't primitive writables
+   */
+  private MessageStore newPrimitiveCombinerStore(Class<M> messageClass) {
+    Class<I> vertexIdClass = conf.getVertexIdClass();
+    int numStripes = MessageStoreStripes.getNumStripes(conf);
+    if (vertexIdClass.equals(IntWritable.class)) {
+      CentralizedServiceWorker<IntWritable, ?, ?> intService =
+          (CentralizedServiceWorker<IntWritable, ?, ?>) service;
+      if (messageClass.equals(IntWritable.class)) {
+        return new IntIntMessageStore(intService,
+            (Combiner<IntWritable, IntWritable>)
+                conf.<IntWritable>createCombiner(), numStripes);
+      } else if (messageClass.equals(LongWritable.class)) {
+        return new IntLongMessageStore(intService,
+            (Combiner<IntWritable, LongWritable>)
+                conf.<LongWritable>createCombiner(), numStripes);
+      } else if (messageClass.equals(FloatWritable.class)) {
+        return new IntFloatMessageStore(intService,
+            (Combiner<IntWritable, FloatWritable>)
+                conf.<FloatWritable>createCombiner(), numStripes);
+      } else if (messageClass.equals(DoubleWritable.class)) {
+        return new IntDoubleMessageStore(intService,
+            (Combiner<IntWritable, DoubleWritable>)
+                conf.<DoubleWritable>createCombiner(), numStripes);
+      }
+    } else if (vertexIdClass.equals(LongWritable.class)) {
+      CentralizedServiceWorker<LongWritable, ?, ?> longService =
+          (CentralizedServiceWorker<LongWritable, ?, ?>) service;
+      if (messageClass.equals(IntWritable.class)) {
+        return new LongIntMessageStore(longService,
+            (Combiner<LongWritable, IntWritable>)
+                conf.<IntWritable>createCombiner(), numStripes);
+      } else if (messageClass.equals(LongWritable.class)) {
+        return new LongLongMessageStore(longService,
+            (Combiner<LongWritable, LongWritable>)
+                conf.<LongWritable>createCombiner(), numStripes);
+      } else if (messageClass.equals(FloatWritable.class)) {
+        return new LongFloatMessageStore(longService,
+            (Combiner<LongWritable, FloatWritable>)
+                conf.<FloatWritable>createCombiner(), numStripes);
+      } else if (messageClass.equals(DoubleWritable.class)) {
+        return new LongDoubleMessageStore(longService,
+            (Combiner<LongWritable, DoubleWritable>)
+                conf.<DoubleWritable>createCombiner(), numStripes);
+      }
+    }
+    return null;
+  }
 }
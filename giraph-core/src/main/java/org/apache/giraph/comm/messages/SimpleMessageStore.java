@@ -43,7 +43,7 @@ import org.apache.hadoop.io.WritableComparable;
  * @param <T> Type of object which holds messages for one vertex
  */
 public abstract class SimpleMessageStore<I extends WritableComparable,
-    M extends Writable, T> implements MessageStore<I, M>  {
+    M extends Writable, T> implements ConcurrentVertexMessageStore<I, M> {
   /** Message class */
   protected final MessageValueFactory<M> messageValueFactory;
   /** Service worker */
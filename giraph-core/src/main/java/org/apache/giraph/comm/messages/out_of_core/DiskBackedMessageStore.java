@@ -36,7 +36,9 @@ import java.util.concurrent.ConcurrentMap;
 
 /**
  * Message store which separates data by partitions,
- * and submits them to underlying message store.
+ * and submits them to underlying message store.  Once the messages in memory
+ * take more than the configured number of bytes, the messages of the
+ * biggest partitions are flushed to the disk.
  *
  * @param <I> Vertex id
  * @param <V> Vertex data
@@ -46,12 +48,17 @@ import java.util.concurrent.ConcurrentMap;
 public class DiskBackedMessageStore<I extends WritableComparable,
     V extends Writable, E extends Writable, M extends Writable> implements
     MessageStore<I, M> {
+  /**
+   * Most bytes of messages a partition keeps in memory, so that its flushed
+   * runs are small enough to be mapped into memory
+   */
+  private static final long MAX_PARTITION_MESSAGE_BYTES = 1L << 29;
   /** Message value factory */
   private final MessageValueFactory<M> messageValueFactory;
   /** Service worker */
   private final CentralizedServiceWorker<I, V, E> service;
-  /** Number of messages to keep in memory */
-  private final int maxNumberOfMessagesInMemory;
+  /** Bytes of messages to keep in memory */
+  private final long maxMessageBytesInMemory;
   /** Factory for creating file stores when flushing */
   private final MessageStoreFactory<I, M, PartitionDiskBackedMessageStore<I, M>>
   partitionStoreFactory;
@@ -64,19 +71,19 @@ public class DiskBackedMessageStore<I extends WritableComparable,
    *
    * @param messageValueFactory         Factory for creating message values
    * @param service                     Service worker
-   * @param maxNumberOfMessagesInMemory Number of messages to keep in memory
+   * @param maxMessageBytesInMemory     Bytes of messages to keep in memory
    * @param partitionStoreFactory       Factory for creating stores for a
    *                                    partition
    */
   public DiskBackedMessageStore(
       MessageValueFactory<M> messageValueFactory,
       CentralizedServiceWorker<I, V, E> service,
-      int maxNumberOfMessagesInMemory,
+      long maxMessageBytesInMemory,
       MessageStoreFactory<I, M, PartitionDiskBackedMessageStore<I,
           M>> partitionStoreFactory) {
     this.messageValueFactory = messageValueFactory;
     this.service = service;
-    this.maxNumberOfMessagesInMemory = maxNumberOfMessagesInMemory;
+    this.maxMessageBytesInMemory = maxMessageBytesInMemory;
     this.partitionStoreFactory = partitionStoreFactory;
     partitionMessageStores = Maps.newConcurrentMap();
   }
@@ -101,6 +108,11 @@ public class DiskBackedMessageStore<I extends WritableComparable,
         vertexIdMessageIterator.releaseCurrentVertexId();
       }
     }
+    partitionMessageStore.addMessageBytes(messages.getSerializedSize());
+    if (partitionMessageStore.getMessageBytesInMemory() >
+        MAX_PARTITION_MESSAGE_BYTES) {
+      partitionMessageStore.flush();
+    }
     checkMemory();
   }
 
@@ -171,12 +183,12 @@ public class DiskBackedMessageStore<I extends WritableComparable,
    * @return True iff memory is full
    */
   private boolean memoryFull() {
-    int totalMessages = 0;
+    long totalMessageBytes = 0;
     for (PartitionDiskBackedMessageStore<I, M> messageStore :
         partitionMessageStores.values()) {
-      totalMessages += messageStore.getNumberOfMessages();
+      totalMessageBytes += messageStore.getMessageBytesInMemory();
     }
-    return totalMessages > maxNumberOfMessagesInMemory;
+    return totalMessageBytes > maxMessageBytesInMemory;
   }
 
   /**
@@ -185,13 +197,13 @@ public class DiskBackedMessageStore<I extends WritableComparable,
    * @throws IOException
    */
   private void flushOnePartition() throws IOException {
-    int maxMessages = 0;
+    long maxMessageBytes = 0;
     PartitionDiskBackedMessageStore<I, M> biggestStore = null;
     for (PartitionDiskBackedMessageStore<I, M> messageStore :
         partitionMessageStores.values()) {
-      int numMessages = messageStore.getNumberOfMessages();
-      if (numMessages > maxMessages) {
-        maxMessages = numMessages;
+      long messageBytes = messageStore.getMessageBytesInMemory();
+      if (messageBytes > maxMessageBytes) {
+        maxMessageBytes = messageBytes;
         biggestStore = messageStore;
       }
     }
@@ -260,24 +272,24 @@ public class DiskBackedMessageStore<I extends WritableComparable,
   /**
    * Create new factory for this message store
    *
-   * @param service             Service worker
-   * @param maxMessagesInMemory Number of messages to keep in memory
-   * @param fileStoreFactory    Factory for creating file stores when
-   *                            flushing
-   * @param <I>                 Vertex id
-   * @param <V>                 Vertex data
-   * @param <E>                 Edge data
-   * @param <M>                 Message data
+   * @param service                 Service worker
+   * @param maxMessageBytesInMemory Bytes of messages to keep in memory
+   * @param fileStoreFactory        Factory for creating file stores when
+   *                                flushing
+   * @param <I>                     Vertex id
+   * @param <V>                     Vertex data
+   * @param <E>                     Edge data
+   * @param <M>                     Message data
    * @return Factory
    */
   public static <I extends WritableComparable, V extends Writable,
       E extends Writable, M extends Writable>
   MessageStoreFactory<I, M, MessageStore<I, M>> newFactory(
       CentralizedServiceWorker<I, V, E> service,
-      int maxMessagesInMemory,
+      long maxMessageBytesInMemory,
       MessageStoreFactory<I, M, PartitionDiskBackedMessageStore<I, M>>
           fileStoreFactory) {
-    return new Factory<I, V, E, M>(service, maxMessagesInMemory,
+    return new Factory<I, V, E, M>(service, maxMessageBytesInMemory,
         fileStoreFactory);
   }
 
@@ -294,25 +306,25 @@ public class DiskBackedMessageStore<I extends WritableComparable,
       implements MessageStoreFactory<I, M, MessageStore<I, M>> {
     /** Service worker */
     private final CentralizedServiceWorker<I, V, E> service;
-    /** Number of messages to keep in memory */
-    private final int maxMessagesInMemory;
+    /** Bytes of messages to keep in memory */
+    private final long maxMessageBytesInMemory;
     /** Factory for creating file stores when flushing */
     private final
     MessageStoreFactory<I, M, PartitionDiskBackedMessageStore<I, M>>
     fileStoreFactory;
 
     /**
-     * @param service             Service worker
-     * @param maxMessagesInMemory Number of messages to keep in memory
-     * @param fileStoreFactory    Factory for creating file stores when
-     *                            flushing
+     * @param service                 Service worker
+     * @param maxMessageBytesInMemory Bytes of messages to keep in memory
+     * @param fileStoreFactory        Factory for creating file stores when
+     *                                flushing
      */
     public Factory(CentralizedServiceWorker<I, V, E> service,
-        int maxMessagesInMemory,
+        long maxMessageBytesInMemory,
         MessageStoreFactory<I, M, PartitionDiskBackedMessageStore<I, M>>
             fileStoreFactory) {
       this.service = service;
-      this.maxMessagesInMemory = maxMessagesInMemory;
+      this.maxMessageBytesInMemory = maxMessageBytesInMemory;
       this.fileStoreFactory = fileStoreFactory;
     }
 
@@ -320,7 +332,7 @@ public class DiskBackedMessageStore<I extends WritableComparable,
     public MessageStore<I, M> newStore(
         MessageValueFactory<M> messageValueFactory) {
       return new DiskBackedMessageStore<I, V, E, M>(messageValueFactory,
-          service, maxMessagesInMemory, fileStoreFactory);
+          service, maxMessageBytesInMemory, fileStoreFactory);
     }
   }
 }
@@ -0,0 +1,425 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.comm.messages.out_of_core;
+
+import org.apache.giraph.comm.messages.MessageStoreFactory;
+import org.apache.giraph.comm.messages.MessagesIterable;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.factories.MessageValueFactory;
+import org.apache.giraph.utils.EmptyIterable;
+import org.apache.giraph.utils.ExtendedDataInput;
+import org.apache.giraph.utils.Factory;
+import org.apache.giraph.utils.UnsafeByteArrayOutputStream;
+import org.apache.giraph.utils.io.ByteBufferDataInput;
+import org.apache.giraph.utils.io.DataInputOutput;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.log4j.Logger;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.apache.giraph.conf.GiraphConstants.MESSAGES_DIRECTORY;
+
+/**
+ * Sorted run of messages on the disk.
+ * {@link MappedFileMessageStore#addMessages(NavigableMap)} should be called
+ * only once with the messages we want to store.
+ * <p/>
+ * The file holds a record with the serialized messages of each vertex, in
+ * the order of vertex ids, followed by an index of record offsets.  It is
+ * read through a memory mapping, so looking up a vertex skips over the
+ * records of other vertices without deserializing their messages.  Lookups
+ * in increasing order of vertex ids are the fastest, but any order works.
+ *
+ * @param <I> Vertex id
+ * @param <M> Message data
+ */
+public class MappedFileMessageStore<I extends WritableComparable,
+    M extends Writable> implements Writable {
+  /** Class logger */
+  private static final Logger LOG =
+      Logger.getLogger(MappedFileMessageStore.class);
+  /** Size of an int in the file */
+  private static final int SIZE_OF_INT =
+      UnsafeByteArrayOutputStream.SIZE_OF_INT;
+  /** Message class */
+  private final MessageValueFactory<M> messageValueFactory;
+  /** File in which we store data */
+  private final File file;
+  /** Configuration which we need for reading data */
+  private final ImmutableClassesGiraphConfiguration<I, ?, ?> config;
+  /** Buffer size to use when writing and copying files */
+  private final int bufferSize;
+  /** Mapped file, null until the first lookup */
+  private volatile ByteBuffer records;
+  /** Number of vertices in the file */
+  private int numVertices;
+  /** Position of the index of record offsets in the file */
+  private int indexStart;
+  /** Index of the vertex after the last one looked up */
+  private volatile int nextIndexHint;
+
+  /**
+   * Stores message on the disk.
+   *
+   * @param messageValueFactory Used to create message values
+   * @param config       Configuration used later for reading
+   * @param bufferSize   Buffer size to use when writing and copying
+   * @param fileName     File in which we want to store messages
+   */
+  public MappedFileMessageStore(
+      MessageValueFactory<M> messageValueFactory,
+      ImmutableClassesGiraphConfiguration<I, ?, ?> config,
+      int bufferSize,
+      String fileName) {
+    this.messageValueFactory = messageValueFactory;
+    this.config = config;
+    this.bufferSize = bufferSize;
+    file = new File(fileName);
+  }
+
+  /**
+   * Writes the messages of a map to the file of this store.
+   *
+   * @param messageMap Add the messages from this map to this store
+   * @throws IOException
+   */
+  public void addMessages(NavigableMap<I, DataInputOutput> messageMap)
+    throws IOException {
+    if (file.exists()) {
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("addMessages: Deleting " + file);
+      }
+      if (!file.delete()) {
+        throw new IOException("Failed to delete existing file " + file);
+      }
+    }
+    if (!file.createNewFile()) {
+      throw new IOException("Failed to create file " + file);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("addMessages: Creating " + file);
+    }
+
+    IntArrayList offsets = new IntArrayList();
+    byte[] copyBuffer = new byte[bufferSize];
+    DataOutputStream out = null;
+    try {
+      out = new DataOutputStream(
+          new BufferedOutputStream(new FileOutputStream(file), bufferSize));
+      // Copy the already serialized messages, in the order of vertex ids
+      for (Map.Entry<I, DataInputOutput> entry : messageMap.entrySet()) {
+        offsets.add(out.size());
+        entry.getKey().write(out);
+        ExtendedDataInput messages = entry.getValue().createDataInput();
+        int bytesLeft = messages.available();
+        out.writeInt(bytesLeft);
+        while (bytesLeft > 0) {
+          int length = Math.min(bytesLeft, copyBuffer.length);
+          messages.readFully(copyBuffer, 0, length);
+          out.write(copyBuffer, 0, length);
+          bytesLeft -= length;
+        }
+      }
+      for (int i = 0; i < offsets.size(); ++i) {
+        out.writeInt(offsets.getInt(i));
+      }
+      out.writeInt(offsets.size());
+      // The written byte count sticks at the maximum int on overflow
+      if (out.size() == Integer.MAX_VALUE) {
+        throw new IllegalStateException("addMessages: " + file +
+            " is too big to be mapped into memory");
+      }
+    } finally {
+      if (out != null) {
+        out.close();
+      }
+    }
+    records = null;
+    nextIndexHint = 0;
+  }
+
+  /**
+   * Gets the messages for a vertex.  Can be called from several threads
+   * at once.
+   *
+   * @param vertexId Vertex id for which we want to get messages
+   * @return Messages for the selected vertex, empty if there are none
+   * @throws IOException
+   */
+  public Iterable<M> getVertexMessages(I vertexId) throws IOException {
+    ByteBuffer buffer = getRecords();
+    ByteBufferDataInput in = new ByteBufferDataInput(buffer);
+    int index = findVertex(buffer, in, vertexId, config.createVertexId());
+    nextIndexHint = (index >= 0) ? index + 1 : -(index + 1);
+    if (index < 0) {
+      return EmptyIterable.get();
+    }
+    // The input is now right after the vertex id of the found record
+    final byte[] messageBytes = new byte[in.readInt()];
+    in.readFully(messageBytes);
+    return new MessagesIterable<M>(new Factory<ExtendedDataInput>() {
+      @Override
+      public ExtendedDataInput create() {
+        return config.createExtendedDataInput(
+            messageBytes, 0, messageBytes.length);
+      }
+    }, messageValueFactory);
+  }
+
+  /**
+   * Find the record of a vertex, first checking around the record after
+   * the last one found, and then with a binary search.
+   *
+   * @param buffer Mapped records
+   * @param in Input reading from the mapped records
+   * @param vertexId Vertex id to find
+   * @param readVertexId Vertex id object to read ids of the file into
+   * @return Index of the vertex, or (-(insertion point) - 1) if the vertex
+   *         has no record
+   * @throws IOException
+   */
+  private int findVertex(ByteBuffer buffer, DataInput in, I vertexId,
+      I readVertexId) throws IOException {
+    int low = 0;
+    int high = numVertices - 1;
+    int hint = nextIndexHint;
+    if (hint < numVertices) {
+      int cmp = compareVertexAt(hint, buffer, in, vertexId, readVertexId);
+      if (cmp == 0) {
+        return hint;
+      } else if (cmp < 0) {
+        low = hint + 1;
+      } else if (hint == 0) {
+        return -1;
+      } else {
+        int previousCmp =
+            compareVertexAt(hint - 1, buffer, in, vertexId, readVertexId);
+        if (previousCmp == 0) {
+          return hint - 1;
+        } else if (previousCmp < 0) {
+          return -(hint + 1);
+        }
+        high = hint - 2;
+      }
+    }
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int cmp = compareVertexAt(mid, buffer, in, vertexId, readVertexId);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -(low + 1);
+  }
+
+  /**
+   * Read the vertex id of a record and compare it to a vertex id, leaving
+   * the input right after the read id.
+   *
+   * @param index Index of the record
+   * @param buffer Mapped records
+   * @param in Input reading from the mapped records
+   * @param vertexId Vertex id to compare to
+   * @param readVertexId Vertex id object to read the id of the record into
+   * @return Result of comparing the id of the record to the vertex id
+   * @throws IOException
+   */
+  private int compareVertexAt(int index, ByteBuffer buffer, DataInput in,
+      I vertexId, I readVertexId) throws IOException {
+    buffer.position(buffer.getInt(indexStart + index * SIZE_OF_INT));
+    readVertexId.readFields(in);
+    return readVertexId.compareTo(vertexId);
+  }
+
+  /**
+   * Get the mapped records, mapping the file on the first call.
+   *
+   * @return Buffer over the records, with its own position
+   * @throws IOException
+   */
+  private ByteBuffer getRecords() throws IOException {
+    ByteBuffer mappedRecords = records;
+    if (mappedRecords == null) {
+      synchronized (this) {
+        if (records == null) {
+          RandomAccessFile input = new RandomAccessFile(file, "r");
+          try {
+            FileChannel channel = input.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+              throw new IllegalStateException("getRecords: " + file +
+                  " is too big to be mapped into memory");
+            }
+            // The mapping stays valid after the file is closed
+            ByteBuffer mapped = channel.map(
+                FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            numVertices = mapped.getInt(mapped.limit() - SIZE_OF_INT);
+            indexStart = mapped.limit() - SIZE_OF_INT * (numVertices + 1);
+            records = mapped;
+          } finally {
+            input.close();
+          }
+          if (LOG.isDebugEnabled()) {
+            LOG.debug("getRecords: Mapped " + file + " with " +
+                numVertices + " vertices");
+          }
+        }
+        mappedRecords = records;
+      }
+    }
+    return mappedRecords.duplicate();
+  }
+
+  /**
+   * Clears all resources used by this store.  The mapped memory is
+   * released once the buffer is garbage collected.
+   */
+  public void clearAll() throws IOException {
+    records = null;
+    if (!file.delete()) {
+      LOG.error("clearAll: Failed to delete file " + file);
+    }
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeLong(file.length());
+    FileInputStream input = new FileInputStream(file);
+    try {
+      byte[] buffer = new byte[bufferSize];
+      while (true) {
+        int length = input.read(buffer);
+        if (length < 0) {
+          break;
+        }
+        out.write(buffer, 0, length);
+      }
+    } finally {
+      input.close();
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      long fileLength = in.readLong();
+      byte[] buffer = new byte[bufferSize];
+      for (long position = 0; position < fileLength; position += bufferSize) {
+        int bytes = (int) Math.min(bufferSize, fileLength - position);
+        in.readFully(buffer, 0, bytes);
+        output.write(buffer, 0, bytes);
+      }
+    } finally {
+      output.close();
+    }
+    records = null;
+    nextIndexHint = 0;
+  }
+
+  /**
+   * Create new factory for this message store
+   *
+   * @param config Hadoop configuration
+   * @param <I>    Vertex id
+   * @param <M>    Message data
+   * @return Factory
+   */
+  public static <I extends WritableComparable, M extends Writable>
+  MessageStoreFactory<I, M, MappedFileMessageStore<I, M>> newFactory(
+      ImmutableClassesGiraphConfiguration<I, ?, ?> config) {
+    return new StoreFactory<I, M>(config);
+  }
+
+  /**
+   * Factory for {@link MappedFileMessageStore}
+   *
+   * @param <I> Vertex id
+   * @param <M> Message data
+   */
+  private static class StoreFactory<I extends WritableComparable,
+      M extends Writable>
+      implements MessageStoreFactory<I, M, MappedFileMessageStore<I, M>> {
+    /** Hadoop configuration */
+    private final ImmutableClassesGiraphConfiguration<I, ?, ?> config;
+    /** Directories in which we'll keep necessary files */
+    private final String[] directories;
+    /** Buffer size to use when writing and copying */
+    private final int bufferSize;
+    /** Counter for created message stores */
+    private final AtomicInteger storeCounter;
+
+    /**
+     * Constructor.
+     *
+     * @param config Hadoop configuration
+     */
+    public StoreFactory(ImmutableClassesGiraphConfiguration<I, ?, ?> config) {
+      this.config = config;
+      String jobId = config.get("mapred.job.id", "Unknown Job");
+      int taskId   = config.getTaskPartition();
+      List<String> userPaths = MESSAGES_DIRECTORY.getList(config);
+      Collections.shuffle(userPaths);
+      directories = new String[userPaths.size()];
+      int i = 0;
+      for (String path : userPaths) {
+        String directory = path + File.separator + jobId + File.separator +
+            taskId + File.separator;
+        directories[i++] = directory;
+        if (!new File(directory).mkdirs()) {
+          LOG.error("MappedFileMessageStore$StoreFactory: Failed to " +
+              "create " + directory);
+        }
+      }
+      this.bufferSize = GiraphConstants.MESSAGES_BUFFER_SIZE.get(config);
+      storeCounter = new AtomicInteger();
+    }
+
+    @Override
+    public MappedFileMessageStore<I, M> newStore(
+        MessageValueFactory<M> messageValueFactory) {
+      int idx = Math.abs(storeCounter.getAndIncrement());
+      String fileName =
+          directories[idx % directories.length] + "messages-" + idx;
+      return new MappedFileMessageStore<I, M>(messageValueFactory, config,
+          bufferSize, fileName);
+    }
+  }
+}
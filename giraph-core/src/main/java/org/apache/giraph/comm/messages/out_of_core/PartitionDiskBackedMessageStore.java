@@ -30,7 +30,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentNavigableMap;
 import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
@@ -38,6 +38,7 @@ import org.apache.giraph.comm.messages.MessageStoreFactory;
 import org.apache.giraph.comm.messages.MessagesIterable;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.factories.MessageValueFactory;
+import org.apache.giraph.utils.EmptyIterable;
 import org.apache.giraph.utils.io.DataInputOutput;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
@@ -45,6 +46,8 @@ import org.apache.hadoop.io.WritableComparable;
 /**
  * Message storage with in-memory map of messages and with support for
  * flushing all the messages to the disk. Holds messages for a single partition.
+ * Every flush writes a sorted run, and the runs are merged with the messages
+ * still in memory when the messages of a vertex are read.
  *
  * @param <I> Vertex id
  * @param <M> Message data
@@ -61,15 +64,15 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
   inMemoryMessages;
   /** Hadoop configuration */
   private final ImmutableClassesGiraphConfiguration<I, ?, ?> config;
-  /** Counter for number of messages in-memory */
-  private final AtomicInteger numberOfMessagesInMemory;
+  /** Serialized size of the messages in memory */
+  private final AtomicLong messageBytesInMemory;
   /** To keep vertex ids which we have messages for */
   private final Set<I> destinationVertices;
   /** File stores in which we keep flushed messages */
-  private final Collection<SequentialFileMessageStore<I, M>> fileStores;
+  private final Collection<MappedFileMessageStore<I, M>> fileStores;
   /** Factory for creating file stores when flushing */
   private final
-  MessageStoreFactory<I, M, SequentialFileMessageStore<I, M>> fileStoreFactory;
+  MessageStoreFactory<I, M, MappedFileMessageStore<I, M>> fileStoreFactory;
   /** Lock for disk flushing */
   private final ReadWriteLock rwLock = new ReentrantReadWriteLock(true);
 
@@ -83,12 +86,12 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
   public PartitionDiskBackedMessageStore(
       MessageValueFactory<M> messageValueFactory,
       ImmutableClassesGiraphConfiguration<I, ?, ?> config,
-      MessageStoreFactory<I, M, SequentialFileMessageStore<I, M>>
+      MessageStoreFactory<I, M, MappedFileMessageStore<I, M>>
           fileStoreFactory) {
     inMemoryMessages = new ConcurrentSkipListMap<I, DataInputOutput>();
     this.messageValueFactory = messageValueFactory;
     this.config = config;
-    numberOfMessagesInMemory = new AtomicInteger(0);
+    messageBytesInMemory = new AtomicLong(0);
     destinationVertices =
         Collections.newSetFromMap(Maps.<I, Boolean>newConcurrentMap());
     fileStores = Lists.newArrayList();
@@ -126,7 +129,6 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
       synchronized (dataInputOutput) {
         for (M message : messages) {
           message.write(dataInputOutput.getDataOutput());
-          numberOfMessagesInMemory.getAndIncrement();
         }
       }
     } finally {
@@ -136,6 +138,16 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
     return ownsVertexId;
   }
 
+  /**
+   * Account for messages which were added with
+   * {@link #addVertexMessages(WritableComparable, Iterable)}.
+   *
+   * @param bytes Serialized size of the added messages
+   */
+  void addMessageBytes(long bytes) {
+    messageBytesInMemory.addAndGet(bytes);
+  }
+
   /**
    * Get the messages for a vertex.
    *
@@ -144,13 +156,15 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
    */
   public Iterable<M> getVertexMessages(I vertexId) throws IOException {
     DataInputOutput dataInputOutput = inMemoryMessages.get(vertexId);
+    Iterable<M> combinedIterable;
     if (dataInputOutput == null) {
-      dataInputOutput = config.createMessagesInputOutput();
+      combinedIterable = EmptyIterable.get();
+    } else {
+      combinedIterable = new MessagesIterable<M>(
+          dataInputOutput, messageValueFactory);
     }
-    Iterable<M> combinedIterable = new MessagesIterable<M>(
-        dataInputOutput, messageValueFactory);
 
-    for (SequentialFileMessageStore<I, M> fileStore : fileStores) {
+    for (MappedFileMessageStore<I, M> fileStore : fileStores) {
       combinedIterable = Iterables.concat(combinedIterable,
           fileStore.getVertexMessages(vertexId));
     }
@@ -158,12 +172,12 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
   }
 
   /**
-   * Get number of messages in memory
+   * Get the serialized size of the messages in memory
    *
-   * @return Number of messages in memory
+   * @return Bytes of messages in memory
    */
-  public int getNumberOfMessages() {
-    return numberOfMessagesInMemory.get();
+  public long getMessageBytesInMemory() {
+    return messageBytesInMemory.get();
   }
 
   /**
@@ -203,14 +217,14 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
   public void clearAll() throws IOException {
     inMemoryMessages.clear();
     destinationVertices.clear();
-    for (SequentialFileMessageStore<I, M> fileStore : fileStores) {
+    for (MappedFileMessageStore<I, M> fileStore : fileStores) {
       fileStore.clearAll();
     }
     fileStores.clear();
   }
 
   /**
-   * Flushes messages to the disk.
+   * Flushes messages to the disk, as a new sorted run.
    *
    * @throws IOException
    */
@@ -220,11 +234,15 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
     try {
       messagesToFlush = inMemoryMessages;
       inMemoryMessages = new ConcurrentSkipListMap<I, DataInputOutput>();
-      numberOfMessagesInMemory.set(0);
+      messageBytesInMemory.set(0);
     } finally {
       rwLock.writeLock().unlock();
     }
-    SequentialFileMessageStore<I, M> fileStore =
+    // Another thread may have flushed this partition just before
+    if (messagesToFlush.isEmpty()) {
+      return;
+    }
+    MappedFileMessageStore<I, M> fileStore =
         fileStoreFactory.newStore(messageValueFactory);
     fileStore.addMessages(messagesToFlush);
 
@@ -241,8 +259,8 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
       vertexId.write(out);
     }
 
-    // write of in-memory messages
-    out.writeInt(numberOfMessagesInMemory.get());
+    // write size of in-memory messages
+    out.writeLong(messageBytesInMemory.get());
 
     // write in-memory messages map
     out.writeInt(inMemoryMessages.size());
@@ -253,7 +271,7 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
 
     // write file stores
     out.writeInt(fileStores.size());
-    for (SequentialFileMessageStore<I, M> fileStore : fileStores) {
+    for (MappedFileMessageStore<I, M> fileStore : fileStores) {
       fileStore.write(out);
     }
   }
@@ -268,8 +286,8 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
       destinationVertices.add(vertexId);
     }
 
-    // read in-memory messages
-    numberOfMessagesInMemory.set(in.readInt());
+    // read size of in-memory messages
+    messageBytesInMemory.set(in.readLong());
 
     // read in-memory map
     int mapSize = in.readInt();
@@ -284,7 +302,7 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
     // read file stores
     int numFileStores = in.readInt();
     for (int s = 0; s < numFileStores; s++) {
-      SequentialFileMessageStore<I, M> fileStore =
+      MappedFileMessageStore<I, M> fileStore =
           fileStoreFactory.newStore(messageValueFactory);
       fileStore.readFields(in);
       fileStores.add(fileStore);
@@ -305,7 +323,7 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
   public static <I extends WritableComparable, M extends Writable>
   MessageStoreFactory<I, M, PartitionDiskBackedMessageStore<I, M>> newFactory(
       ImmutableClassesGiraphConfiguration<I, ?, ?> config,
-      MessageStoreFactory<I, M, SequentialFileMessageStore<I, M>>
+      MessageStoreFactory<I, M, MappedFileMessageStore<I, M>>
           fileStoreFactory) {
     return new Factory<I, M>(config, fileStoreFactory);
   }
@@ -322,7 +340,7 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
     /** Hadoop configuration */
     private final ImmutableClassesGiraphConfiguration<I, ?, ?> config;
     /** Factory for creating message stores for partitions */
-    private final MessageStoreFactory<I, M, SequentialFileMessageStore<I, M>>
+    private final MessageStoreFactory<I, M, MappedFileMessageStore<I, M>>
     fileStoreFactory;
 
     /**
@@ -331,7 +349,7 @@ public class PartitionDiskBackedMessageStore<I extends WritableComparable,
      *                         partitions
      */
     public Factory(ImmutableClassesGiraphConfiguration<I, ?, ?> config,
-        MessageStoreFactory<I, M, SequentialFileMessageStore<I, M>>
+        MessageStoreFactory<I, M, MappedFileMessageStore<I, M>>
             fileStoreFactory) {
       this.config = config;
       this.fileStoreFactory = fileStoreFactory;
@@ -19,7 +19,9 @@
 package org.apache.giraph.comm.messages.primitives;
 
 import org.apache.giraph.bsp.CentralizedServiceWorker;
-import org.apache.giraph.comm.messages.MessageStore;
+import org.apache.giraph.comm.messages.AsyncMessageStore;
+import org.apache.giraph.comm.messages.ConcurrentVertexMessageStore;
+import org.apache.giraph.comm.messages.DirectMessageStore;
 import org.apache.giraph.comm.messages.MessagesIterable;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.factories.MessageValueFactory;
@@ -46,17 +48,23 @@ import java.util.List;
  * Special message store to be used when ids are IntWritable and no combiner
  * is used.
  * Uses fastutil primitive maps in order to decrease number of objects and
- * get better performance.
+ * get better performance. The messages of each partition are split into
+ * lock stripes by vertex id, so that several threads can add messages to the
+ * same partition at once.
  *
  * @param <M> Message type
  */
 public class IntByteArrayMessageStore<M extends Writable>
-    implements MessageStore<IntWritable, M> {
+    implements DirectMessageStore<IntWritable, M>,
+    AsyncMessageStore<IntWritable, M>,
+    ConcurrentVertexMessageStore<IntWritable, M> {
   /** Message value factory */
   protected final MessageValueFactory<M> messageValueFactory;
-  /** Map from partition id to map from vertex id to message */
+  /** Map from partition id to lock stripes of map from vertex id to message */
   private final
-  Int2ObjectOpenHashMap<Int2ObjectOpenHashMap<DataInputOutput>> map;
+  Int2ObjectOpenHashMap<List<Int2ObjectOpenHashMap<DataInputOutput>>> map;
+  /** Number of lock stripes per partition, a power of two */
+  private final int numStripes;
   /** Service worker */
   private final CentralizedServiceWorker<IntWritable, ?, ?> service;
   /** Giraph configuration */
@@ -76,28 +84,61 @@ public class IntByteArrayMessageStore<M extends Writable>
     this.messageValueFactory = messageValueFactory;
     this.service = service;
     this.config = config;
+    numStripes = MessageStoreStripes.getNumStripes(config);
 
-    map =
-        new Int2ObjectOpenHashMap<Int2ObjectOpenHashMap<DataInputOutput>>();
+    map = new Int2ObjectOpenHashMap<
+        List<Int2ObjectOpenHashMap<DataInputOutput>>>();
     for (int partitionId : service.getPartitionStore().getPartitionIds()) {
       Partition<IntWritable, ?, ?> partition =
           service.getPartitionStore().getPartition(partitionId);
-      Int2ObjectOpenHashMap<DataInputOutput> partitionMap =
-          new Int2ObjectOpenHashMap<DataInputOutput>(
-              (int) partition.getVertexCount());
-      map.put(partitionId, partitionMap);
+      map.put(partitionId,
+          createPartitionMaps((int) partition.getVertexCount()));
     }
   }
 
   /**
-   * Get map which holds messages for partition which vertex belongs to.
+   * Create the stripes of maps for a partition.
+   *
+   * @param expectedSize Expected number of vertices with messages
+   * @return Maps from vertex id to messages, one per stripe
+   */
+  private List<Int2ObjectOpenHashMap<DataInputOutput>> createPartitionMaps(
+      int expectedSize) {
+    List<Int2ObjectOpenHashMap<DataInputOutput>> partitionMaps =
+        Lists.newArrayListWithCapacity(numStripes);
+    for (int i = 0; i < numStripes; ++i) {
+      partitionMaps.add(new Int2ObjectOpenHashMap<DataInputOutput>(
+          expectedSize / numStripes));
+    }
+    return partitionMaps;
+  }
+
+  /**
+   * Get map which holds messages for the stripe which vertex belongs to.
    *
    * @param vertexId Id of the vertex
-   * @return Map which holds messages for partition which vertex belongs to.
+   * @return Map which holds messages for the stripe which vertex belongs to.
    */
   private Int2ObjectOpenHashMap<DataInputOutput> getPartitionMap(
       IntWritable vertexId) {
-    return map.get(service.getPartitionId(vertexId));
+    return map.get(service.getPartitionId(vertexId)).get(
+        MessageStoreStripes.getStripe(vertexId.get(), numStripes));
+  }
+
+  /**
+   * Get the number of vertices with messages in all stripes of a partition.
+   *
+   * @param partitionMaps Maps of the partition, one per stripe
+   * @return Number of vertices with messages
+   */
+  private static int getSize(
+      List<Int2ObjectOpenHashMap<DataInputOutput>> partitionMaps) {
+    int size = 0;
+    for (Int2ObjectOpenHashMap<DataInputOutput> partitionMap :
+        partitionMaps) {
+      size += partitionMap.size();
+    }
+    return size;
   }
 
   /**
@@ -122,53 +163,104 @@ public class IntByteArrayMessageStore<M extends Writable>
   public void addPartitionMessages(int partitionId,
       ByteArrayVertexIdMessages<IntWritable, M> messages) throws
       IOException {
-    Int2ObjectOpenHashMap<DataInputOutput> partitionMap =
+    List<Int2ObjectOpenHashMap<DataInputOutput>> partitionMaps =
         map.get(partitionId);
-    synchronized (partitionMap) {
-      ByteArrayVertexIdMessages<IntWritable, M>.VertexIdMessageBytesIterator
-          vertexIdMessageBytesIterator =
-          messages.getVertexIdMessageBytesIterator();
-      // Try to copy the message buffer over rather than
-      // doing a deserialization of a message just to know its size.  This
-      // should be more efficient for complex objects where serialization is
-      // expensive.  If this type of iterator is not available, fall back to
-      // deserializing/serializing the messages
-      if (vertexIdMessageBytesIterator != null) {
-        while (vertexIdMessageBytesIterator.hasNext()) {
-          vertexIdMessageBytesIterator.next();
-          DataInputOutput dataInputOutput = getDataInputOutput(partitionMap,
-              vertexIdMessageBytesIterator.getCurrentVertexId().get());
+    // Only the stripe of each message is locked while it is copied, so
+    // server threads adding messages to the same partition rarely block
+    ByteArrayVertexIdMessages<IntWritable, M>.VertexIdMessageBytesIterator
+        vertexIdMessageBytesIterator =
+        messages.getVertexIdMessageBytesIterator();
+    // Try to copy the message buffer over rather than
+    // doing a deserialization of a message just to know its size.  This
+    // should be more efficient for complex objects where serialization is
+    // expensive.  If this type of iterator is not available, fall back to
+    // deserializing/serializing the messages
+    if (vertexIdMessageBytesIterator != null) {
+      while (vertexIdMessageBytesIterator.hasNext()) {
+        vertexIdMessageBytesIterator.next();
+        int vertexId =
+            vertexIdMessageBytesIterator.getCurrentVertexId().get();
+        Int2ObjectOpenHashMap<DataInputOutput> partitionMap =
+            partitionMaps.get(
+                MessageStoreStripes.getStripe(vertexId, numStripes));
+        synchronized (partitionMap) {
+          DataInputOutput dataInputOutput =
+              getDataInputOutput(partitionMap, vertexId);
           vertexIdMessageBytesIterator.writeCurrentMessageBytes(
               dataInputOutput.getDataOutput());
         }
-      } else {
-        ByteArrayVertexIdMessages<IntWritable, M>.VertexIdMessageIterator
-            iterator = messages.getVertexIdMessageIterator();
-        while (iterator.hasNext()) {
-          iterator.next();
-          DataInputOutput dataInputOutput =  getDataInputOutput(partitionMap,
-              iterator.getCurrentVertexId().get());
+      }
+    } else {
+      ByteArrayVertexIdMessages<IntWritable, M>.VertexIdMessageIterator
+          iterator = messages.getVertexIdMessageIterator();
+      while (iterator.hasNext()) {
+        iterator.next();
+        int vertexId = iterator.getCurrentVertexId().get();
+        Int2ObjectOpenHashMap<DataInputOutput> partitionMap =
+            partitionMaps.get(
+                MessageStoreStripes.getStripe(vertexId, numStripes));
+        synchronized (partitionMap) {
+          DataInputOutput dataInputOutput =
+              getDataInputOutput(partitionMap, vertexId);
           iterator.getCurrentMessage().write(dataInputOutput.getDataOutput());
         }
       }
     }
   }
 
+  @Override
+  public void addMessage(int partitionId, IntWritable vertexId,
+      M message) throws IOException {
+    int id = vertexId.get();
+    Int2ObjectOpenHashMap<DataInputOutput> partitionMap =
+        map.get(partitionId).get(MessageStoreStripes.getStripe(id, numStripes));
+    synchronized (partitionMap) {
+      message.write(getDataInputOutput(partitionMap, id).getDataOutput());
+    }
+  }
+
   @Override
   public void clearPartition(int partitionId) throws IOException {
-    map.get(partitionId).clear();
+    for (Int2ObjectOpenHashMap<DataInputOutput> partitionMap :
+        map.get(partitionId)) {
+      partitionMap.clear();
+    }
   }
 
   @Override
   public boolean hasMessagesForVertex(IntWritable vertexId) {
-    return getPartitionMap(vertexId).containsKey(vertexId.get());
+    Int2ObjectOpenHashMap<DataInputOutput> partitionMap =
+        getPartitionMap(vertexId);
+    synchronized (partitionMap) {
+      return partitionMap.containsKey(vertexId.get());
+    }
   }
 
   @Override
   public Iterable<M> getVertexMessages(
       IntWritable vertexId) throws IOException {
-    DataInputOutput dataInputOutput =
-        getPartitionMap(vertexId).get(vertexId.get());
+    Int2ObjectOpenHashMap<DataInputOutput> partitionMap =
+        getPartitionMap(vertexId);
+    DataInputOutput dataInputOutput;
+    synchronized (partitionMap) {
+      dataInputOutput = partitionMap.get(vertexId.get());
+    }
+    if (dataInputOutput == null) {
+      return EmptyIterable.get();
+    } else {
+      return new MessagesIterable<M>(dataInputOutput, messageValueFactory);
+    }
+  }
+
+  @Override
+  public Iterable<M> removeVertexMessages(
+      IntWritable vertexId) throws IOException {
+    Int2ObjectOpenHashMap<DataInputOutput> partitionMap =
+        getPartitionMap(vertexId);
+    DataInputOutput dataInputOutput;
+    synchronized (partitionMap) {
+      dataInputOutput = partitionMap.remove(vertexId.get());
+    }
     if (dataInputOutput == null) {
       return EmptyIterable.get();
     } else {
@@ -178,7 +270,11 @@ public class IntByteArrayMessageStore<M extends Writable>
 
   @Override
   public void clearVertexMessages(IntWritable vertexId) throws IOException {
-    getPartitionMap(vertexId).remove(vertexId.get());
+    Int2ObjectOpenHashMap<DataInputOutput> partitionMap =
+        getPartitionMap(vertexId);
+    synchronized (partitionMap) {
+      partitionMap.remove(vertexId.get());
+    }
   }
 
   @Override
@@ -189,13 +285,16 @@ public class IntByteArrayMessageStore<M extends Writable>
   @Override
   public Iterable<IntWritable> getPartitionDestinationVertices(
       int partitionId) {
-    Int2ObjectOpenHashMap<DataInputOutput> partitionMap =
+    List<Int2ObjectOpenHashMap<DataInputOutput>> partitionMaps =
         map.get(partitionId);
     List<IntWritable> vertices =
-        Lists.newArrayListWithCapacity(partitionMap.size());
-    IntIterator iterator = partitionMap.keySet().iterator();
-    while (iterator.hasNext()) {
-      vertices.add(new IntWritable(iterator.nextInt()));
+        Lists.newArrayListWithCapacity(getSize(partitionMaps));
+    for (Int2ObjectOpenHashMap<DataInputOutput> partitionMap :
+        partitionMaps) {
+      IntIterator iterator = partitionMap.keySet().iterator();
+      while (iterator.hasNext()) {
+        vertices.add(new IntWritable(iterator.nextInt()));
+      }
     }
     return vertices;
   }
@@ -203,15 +302,18 @@ public class IntByteArrayMessageStore<M extends Writable>
   @Override
   public void writePartition(DataOutput out,
       int partitionId) throws IOException {
-    Int2ObjectOpenHashMap<DataInputOutput> partitionMap =
+    List<Int2ObjectOpenHashMap<DataInputOutput>> partitionMaps =
         map.get(partitionId);
-    out.writeInt(partitionMap.size());
-    ObjectIterator<Int2ObjectMap.Entry<DataInputOutput>> iterator =
-        partitionMap.int2ObjectEntrySet().fastIterator();
-    while (iterator.hasNext()) {
-      Int2ObjectMap.Entry<DataInputOutput> entry = iterator.next();
-      out.writeInt(entry.getIntKey());
-      entry.getValue().write(out);
+    out.writeInt(getSize(partitionMaps));
+    for (Int2ObjectOpenHashMap<DataInputOutput> partitionMap :
+        partitionMaps) {
+      ObjectIterator<Int2ObjectMap.Entry<DataInputOutput>> iterator =
+          partitionMap.int2ObjectEntrySet().fastIterator();
+      while (iterator.hasNext()) {
+        Int2ObjectMap.Entry<DataInputOutput> entry = iterator.next();
+        out.writeInt(entry.getIntKey());
+        entry.getValue().write(out);
+      }
     }
   }
 
@@ -219,16 +321,17 @@ public class IntByteArrayMessageStore<M extends Writable>
   public void readFieldsForPartition(DataInput in,
       int partitionId) throws IOException {
     int size = in.readInt();
-    Int2ObjectOpenHashMap<DataInputOutput> partitionMap =
-        new Int2ObjectOpenHashMap<DataInputOutput>(size);
+    List<Int2ObjectOpenHashMap<DataInputOutput>> partitionMaps =
+        createPartitionMaps(size);
     while (size-- > 0) {
       int vertexId = in.readInt();
       DataInputOutput dataInputOutput = config.createMessagesInputOutput();
       dataInputOutput.readFields(in);
-      partitionMap.put(vertexId, dataInputOutput);
+      partitionMaps.get(MessageStoreStripes.getStripe(vertexId, numStripes))
+          .put(vertexId, dataInputOutput);
     }
     synchronized (map) {
-      map.put(partitionId, partitionMap);
+      map.put(partitionId, partitionMaps);
     }
   }
 }
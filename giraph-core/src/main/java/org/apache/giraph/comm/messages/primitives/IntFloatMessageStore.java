@@ -20,44 +20,32 @@ package org.apache.giraph.comm.messages.primitives;
 
 import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.combiner.Combiner;
-import org.apache.giraph.comm.messages.MessageStore;
-import org.apache.giraph.partition.Partition;
-import org.apache.giraph.utils.ByteArrayVertexIdMessages;
-import org.apache.giraph.utils.EmptyIterable;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.IntWritable;
 
-import com.google.common.collect.Lists;
-
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
 import it.unimi.dsi.fastutil.ints.Int2FloatMap;
 import it.unimi.dsi.fastutil.ints.Int2FloatOpenHashMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntIterator;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Collections;
 import java.util.List;
 
 /**
  * Special message store to be used when ids are IntWritable and messages
  * are FloatWritable and combiner is used.
  * Uses fastutil primitive maps in order to decrease number of objects and
- * get better performance.
+ * get better performance, see {@link PrimitiveCombinerMessageStore}.
  */
 public class IntFloatMessageStore
-    implements MessageStore<IntWritable, FloatWritable> {
-  /** Map from partition id to map from vertex id to message */
-  private final Int2ObjectOpenHashMap<Int2FloatOpenHashMap> map;
-  /** Message combiner */
-  private final Combiner<IntWritable, FloatWritable> combiner;
-  /** Service worker */
-  private final CentralizedServiceWorker<IntWritable, ?, ?> service;
-
+    extends PrimitiveCombinerMessageStore<IntWritable, FloatWritable,
+    Int2FloatOpenHashMap> {
   /**
-   * Constructor
+   * Constructor, keeping the messages of each partition in a single stripe
    *
    * @param service Service worker
    * @param combiner Message combiner
@@ -65,111 +53,97 @@ public class IntFloatMessageStore
   public IntFloatMessageStore(
       CentralizedServiceWorker<IntWritable, ?, ?> service,
       Combiner<IntWritable, FloatWritable> combiner) {
-    this.service = service;
-    this.combiner = combiner;
-
-    map = new Int2ObjectOpenHashMap<Int2FloatOpenHashMap>();
-    for (int partitionId : service.getPartitionStore().getPartitionIds()) {
-      Partition<IntWritable, ?, ?> partition =
-          service.getPartitionStore().getPartition(partitionId);
-      Int2FloatOpenHashMap partitionMap =
-          new Int2FloatOpenHashMap((int) partition.getVertexCount());
-      map.put(partitionId, partitionMap);
-    }
+    this(service, combiner, 1);
   }
 
   /**
-   * Get map which holds messages for partition which vertex belongs to.
+   * Constructor
    *
-   * @param vertexId Id of the vertex
-   * @return Map which holds messages for partition which vertex belongs to.
+   * @param service Service worker
+   * @param combiner Message combiner
+   * @param numStripes Number of lock stripes per partition
    */
-  private Int2FloatOpenHashMap getPartitionMap(IntWritable vertexId) {
-    return map.get(service.getPartitionId(vertexId));
+  public IntFloatMessageStore(
+      CentralizedServiceWorker<IntWritable, ?, ?> service,
+      Combiner<IntWritable, FloatWritable> combiner, int numStripes) {
+    super(service, combiner, numStripes);
   }
 
   @Override
-  public void addPartitionMessages(int partitionId,
-      ByteArrayVertexIdMessages<IntWritable, FloatWritable> messages) throws
-      IOException {
-    IntWritable reusableVertexId = new IntWritable();
-    FloatWritable reusableMessage = new FloatWritable();
-    FloatWritable reusableCurrentMessage = new FloatWritable();
-
-    Int2FloatOpenHashMap partitionMap = map.get(partitionId);
-    synchronized (partitionMap) {
-      ByteArrayVertexIdMessages<IntWritable,
-          FloatWritable>.VertexIdMessageIterator
-          iterator = messages.getVertexIdMessageIterator();
-      while (iterator.hasNext()) {
-        iterator.next();
-        int vertexId = iterator.getCurrentVertexId().get();
-        float message = iterator.getCurrentMessage().get();
-        if (partitionMap.containsKey(vertexId)) {
-          reusableVertexId.set(vertexId);
-          reusableMessage.set(message);
-          reusableCurrentMessage.set(partitionMap.get(vertexId));
-          combiner.combine(reusableVertexId, reusableCurrentMessage,
-              reusableMessage);
-          message = reusableCurrentMessage.get();
-        }
-        partitionMap.put(vertexId, message);
-      }
-    }
+  protected Int2FloatOpenHashMap createStripeMap(int expectedSize) {
+    return new Int2FloatOpenHashMap(expectedSize);
   }
 
   @Override
-  public void clearPartition(int partitionId) throws IOException {
-    map.get(partitionId).clear();
+  protected FloatWritable createMessage() {
+    return new FloatWritable();
   }
 
   @Override
-  public boolean hasMessagesForVertex(IntWritable vertexId) {
-    return getPartitionMap(vertexId).containsKey(vertexId.get());
+  protected StagedStripe<IntWritable, FloatWritable, Int2FloatOpenHashMap>
+  createStagedStripe() {
+    return new IntFloatStagedStripe();
   }
 
   @Override
-  public Iterable<FloatWritable> getVertexMessages(
-      IntWritable vertexId) throws IOException {
-    Int2FloatOpenHashMap partitionMap = getPartitionMap(vertexId);
-    if (!partitionMap.containsKey(vertexId.get())) {
-      return EmptyIterable.get();
-    } else {
-      return Collections.singleton(
-          new FloatWritable(partitionMap.get(vertexId.get())));
+  protected int getStripe(IntWritable vertexId) {
+    return MessageStoreStripes.getStripe(vertexId.get(), getNumStripes());
+  }
+
+  @Override
+  protected boolean hasMessage(Int2FloatOpenHashMap stripeMap,
+      IntWritable vertexId) {
+    return stripeMap.containsKey(vertexId.get());
+  }
+
+  @Override
+  protected boolean getMessage(Int2FloatOpenHashMap stripeMap,
+      IntWritable vertexId, FloatWritable message) {
+    int id = vertexId.get();
+    if (!stripeMap.containsKey(id)) {
+      return false;
     }
+    message.set(stripeMap.get(id));
+    return true;
   }
 
   @Override
-  public void clearVertexMessages(IntWritable vertexId) throws IOException {
-    getPartitionMap(vertexId).remove(vertexId.get());
+  protected void putMessage(Int2FloatOpenHashMap stripeMap,
+      IntWritable vertexId, FloatWritable message) {
+    stripeMap.put(vertexId.get(), message.get());
+  }
+
+  @Override
+  protected boolean removeMessage(Int2FloatOpenHashMap stripeMap,
+      IntWritable vertexId, FloatWritable message) {
+    int id = vertexId.get();
+    if (!stripeMap.containsKey(id)) {
+      return false;
+    }
+    message.set(stripeMap.remove(id));
+    return true;
   }
 
   @Override
-  public void clearAll() throws IOException {
-    map.clear();
+  protected void clearMessage(Int2FloatOpenHashMap stripeMap,
+      IntWritable vertexId) {
+    stripeMap.remove(vertexId.get());
   }
 
   @Override
-  public Iterable<IntWritable> getPartitionDestinationVertices(
-      int partitionId) {
-    Int2FloatOpenHashMap partitionMap = map.get(partitionId);
-    List<IntWritable> vertices =
-        Lists.newArrayListWithCapacity(partitionMap.size());
-    IntIterator iterator = partitionMap.keySet().iterator();
+  protected void addVertexIds(Int2FloatOpenHashMap stripeMap,
+      List<IntWritable> vertexIds) {
+    IntIterator iterator = stripeMap.keySet().iterator();
     while (iterator.hasNext()) {
-      vertices.add(new IntWritable(iterator.nextInt()));
+      vertexIds.add(new IntWritable(iterator.nextInt()));
     }
-    return vertices;
   }
 
   @Override
-  public void writePartition(DataOutput out,
-      int partitionId) throws IOException {
-    Int2FloatOpenHashMap partitionMap = map.get(partitionId);
-    out.writeInt(partitionMap.size());
+  protected void writeStripe(DataOutput out,
+      Int2FloatOpenHashMap stripeMap) throws IOException {
     ObjectIterator<Int2FloatMap.Entry> iterator =
-        partitionMap.int2FloatEntrySet().fastIterator();
+        stripeMap.int2FloatEntrySet().fastIterator();
     while (iterator.hasNext()) {
       Int2FloatMap.Entry entry = iterator.next();
       out.writeInt(entry.getIntKey());
@@ -178,17 +152,62 @@ public class IntFloatMessageStore
   }
 
   @Override
-  public void readFieldsForPartition(DataInput in,
-      int partitionId) throws IOException {
-    int size = in.readInt();
-    Int2FloatOpenHashMap partitionMap = new Int2FloatOpenHashMap(size);
-    while (size-- > 0) {
-      int vertexId = in.readInt();
-      float message = in.readFloat();
-      partitionMap.put(vertexId, message);
+  protected void readMessage(DataInput in,
+      List<Int2FloatOpenHashMap> stripeMaps) throws IOException {
+    int vertexId = in.readInt();
+    float message = in.readFloat();
+    stripeMaps.get(MessageStoreStripes.getStripe(vertexId, getNumStripes()))
+        .put(vertexId, message);
+  }
+
+  /**
+   * Messages of a request for a single stripe, as primitives.
+   */
+  private class IntFloatStagedStripe implements
+      StagedStripe<IntWritable, FloatWritable, Int2FloatOpenHashMap> {
+    /** Destination vertex ids */
+    private final IntArrayList vertexIds = new IntArrayList();
+    /** Messages */
+    private final FloatArrayList messages = new FloatArrayList();
+    /** Reused vertex id for combining */
+    private final IntWritable reusableVertexId = new IntWritable();
+    /** Reused message for combining */
+    private final FloatWritable reusableMessage = new FloatWritable();
+    /** Reused for the message already stored when combining */
+    private final FloatWritable reusableCurrentMessage = new FloatWritable();
+
+    @Override
+    public void add(IntWritable vertexId, FloatWritable message) {
+      vertexIds.add(vertexId.get());
+      messages.add(message.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return vertexIds.isEmpty();
+    }
+
+    @Override
+    public void combineInto(Int2FloatOpenHashMap stripeMap) {
+      for (int i = 0; i < vertexIds.size(); ++i) {
+        int vertexId = vertexIds.getInt(i);
+        float message = messages.getFloat(i);
+        if (stripeMap.containsKey(vertexId)) {
+          reusableVertexId.set(vertexId);
+          reusableMessage.set(message);
+          reusableCurrentMessage.set(stripeMap.get(vertexId));
+          getCombiner().combine(reusableVertexId, reusableCurrentMessage,
+              reusableMessage);
+          message = reusableCurrentMessage.get();
+        }
+        stripeMap.put(vertexId, message);
+      }
     }
-    synchronized (map) {
-      map.put(partitionId, partitionMap);
+
+    @Override
+    public void clear() {
+      vertexIds.clear();
+      messages.clear();
     }
   }
 }
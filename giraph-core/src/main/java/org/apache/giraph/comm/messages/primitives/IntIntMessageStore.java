@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages.primitives;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.Combiner;
+import org.apache.hadoop.io.IntWritable;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Special message store to be used when ids are IntWritable and messages
+ * are IntWritable and combiner is used.
+ * Uses fastutil primitive maps in order to decrease number of objects and
+ * get better performance, see {@link PrimitiveCombinerMessageStore}.
+ */
+public class IntIntMessageStore
+    extends PrimitiveCombinerMessageStore<IntWritable, IntWritable,
+    Int2IntOpenHashMap> {
+  /**
+   * Constructor, keeping the messages of each partition in a single stripe
+   *
+   * @param service Service worker
+   * @param combiner Message combiner
+   */
+  public IntIntMessageStore(
+      CentralizedServiceWorker<IntWritable, ?, ?> service,
+      Combiner<IntWritable, IntWritable> combiner) {
+    this(service, combiner, 1);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param service Service worker
+   * @param combiner Message combiner
+   * @param numStripes Number of lock stripes per partition
+   */
+  public IntIntMessageStore(
+      CentralizedServiceWorker<IntWritable, ?, ?> service,
+      Combiner<IntWritable, IntWritable> combiner, int numStripes) {
+    super(service, combiner, numStripes);
+  }
+
+  @Override
+  protected Int2IntOpenHashMap createStripeMap(int expectedSize) {
+    return new Int2IntOpenHashMap(expectedSize);
+  }
+
+  @Override
+  protected IntWritable createMessage() {
+    return new IntWritable();
+  }
+
+  @Override
+  protected StagedStripe<IntWritable, IntWritable, Int2IntOpenHashMap>
+  createStagedStripe() {
+    return new IntIntStagedStripe();
+  }
+
+  @Override
+  protected int getStripe(IntWritable vertexId) {
+    return MessageStoreStripes.getStripe(vertexId.get(), getNumStripes());
+  }
+
+  @Override
+  protected boolean hasMessage(Int2IntOpenHashMap stripeMap,
+      IntWritable vertexId) {
+    return stripeMap.containsKey(vertexId.get());
+  }
+
+  @Override
+  protected boolean getMessage(Int2IntOpenHashMap stripeMap,
+      IntWritable vertexId, IntWritable message) {
+    int id = vertexId.get();
+    if (!stripeMap.containsKey(id)) {
+      return false;
+    }
+    message.set(stripeMap.get(id));
+    return true;
+  }
+
+  @Override
+  protected void putMessage(Int2IntOpenHashMap stripeMap,
+      IntWritable vertexId, IntWritable message) {
+    stripeMap.put(vertexId.get(), message.get());
+  }
+
+  @Override
+  protected boolean removeMessage(Int2IntOpenHashMap stripeMap,
+      IntWritable vertexId, IntWritable message) {
+    int id = vertexId.get();
+    if (!stripeMap.containsKey(id)) {
+      return false;
+    }
+    message.set(stripeMap.remove(id));
+    return true;
+  }
+
+  @Override
+  protected void clearMessage(Int2IntOpenHashMap stripeMap,
+      IntWritable vertexId) {
+    stripeMap.remove(vertexId.get());
+  }
+
+  @Override
+  protected void addVertexIds(Int2IntOpenHashMap stripeMap,
+      List<IntWritable> vertexIds) {
+    IntIterator iterator = stripeMap.keySet().iterator();
+    while (iterator.hasNext()) {
+      vertexIds.add(new IntWritable(iterator.nextInt()));
+    }
+  }
+
+  @Override
+  protected void writeStripe(DataOutput out,
+      Int2IntOpenHashMap stripeMap) throws IOException {
+    ObjectIterator<Int2IntMap.Entry> iterator =
+        stripeMap.int2IntEntrySet().fastIterator();
+    while (iterator.hasNext()) {
+      Int2IntMap.Entry entry = iterator.next();
+      out.writeInt(entry.getIntKey());
+      out.writeInt(entry.getIntValue());
+    }
+  }
+
+  @Override
+  protected void readMessage(DataInput in,
+      List<Int2IntOpenHashMap> stripeMaps) throws IOException {
+    int vertexId = in.readInt();
+    int message = in.readInt();
+    stripeMaps.get(MessageStoreStripes.getStripe(vertexId, getNumStripes()))
+        .put(vertexId, message);
+  }
+
+  /**
+   * Messages of a request for a single stripe, as primitives.
+   */
+  private class IntIntStagedStripe implements
+      StagedStripe<IntWritable, IntWritable, Int2IntOpenHashMap> {
+    /** Destination vertex ids */
+    private final IntArrayList vertexIds = new IntArrayList();
+    /** Messages */
+    private final IntArrayList messages = new IntArrayList();
+    /** Reused vertex id for combining */
+    private final IntWritable reusableVertexId = new IntWritable();
+    /** Reused message for combining */
+    private final IntWritable reusableMessage = new IntWritable();
+    /** Reused for the message already stored when combining */
+    private final IntWritable reusableCurrentMessage = new IntWritable();
+
+    @Override
+    public void add(IntWritable vertexId, IntWritable message) {
+      vertexIds.add(vertexId.get());
+      messages.add(message.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return vertexIds.isEmpty();
+    }
+
+    @Override
+    public void combineInto(Int2IntOpenHashMap stripeMap) {
+      for (int i = 0; i < vertexIds.size(); ++i) {
+        int vertexId = vertexIds.getInt(i);
+        int message = messages.getInt(i);
+        if (stripeMap.containsKey(vertexId)) {
+          reusableVertexId.set(vertexId);
+          reusableMessage.set(message);
+          reusableCurrentMessage.set(stripeMap.get(vertexId));
+          getCombiner().combine(reusableVertexId, reusableCurrentMessage,
+              reusableMessage);
+          message = reusableCurrentMessage.get();
+        }
+        stripeMap.put(vertexId, message);
+      }
+    }
+
+    @Override
+    public void clear() {
+      vertexIds.clear();
+      messages.clear();
+    }
+  }
+}
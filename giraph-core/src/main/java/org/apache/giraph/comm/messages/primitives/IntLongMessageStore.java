@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages.primitives;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.Combiner;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+
+import it.unimi.dsi.fastutil.ints.Int2LongMap;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Special message store to be used when ids are IntWritable and messages
+ * are LongWritable and combiner is used.
+ * Uses fastutil primitive maps in order to decrease number of objects and
+ * get better performance, see {@link PrimitiveCombinerMessageStore}.
+ */
+public class IntLongMessageStore
+    extends PrimitiveCombinerMessageStore<IntWritable, LongWritable,
+    Int2LongOpenHashMap> {
+  /**
+   * Constructor, keeping the messages of each partition in a single stripe
+   *
+   * @param service Service worker
+   * @param combiner Message combiner
+   */
+  public IntLongMessageStore(
+      CentralizedServiceWorker<IntWritable, ?, ?> service,
+      Combiner<IntWritable, LongWritable> combiner) {
+    this(service, combiner, 1);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param service Service worker
+   * @param combiner Message combiner
+   * @param numStripes Number of lock stripes per partition
+   */
+  public IntLongMessageStore(
+      CentralizedServiceWorker<IntWritable, ?, ?> service,
+      Combiner<IntWritable, LongWritable> combiner, int numStripes) {
+    super(service, combiner, numStripes);
+  }
+
+  @Override
+  protected Int2LongOpenHashMap createStripeMap(int expectedSize) {
+    return new Int2LongOpenHashMap(expectedSize);
+  }
+
+  @Override
+  protected LongWritable createMessage() {
+    return new LongWritable();
+  }
+
+  @Override
+  protected StagedStripe<IntWritable, LongWritable, Int2LongOpenHashMap>
+  createStagedStripe() {
+    return new IntLongStagedStripe();
+  }
+
+  @Override
+  protected int getStripe(IntWritable vertexId) {
+    return MessageStoreStripes.getStripe(vertexId.get(), getNumStripes());
+  }
+
+  @Override
+  protected boolean hasMessage(Int2LongOpenHashMap stripeMap,
+      IntWritable vertexId) {
+    return stripeMap.containsKey(vertexId.get());
+  }
+
+  @Override
+  protected boolean getMessage(Int2LongOpenHashMap stripeMap,
+      IntWritable vertexId, LongWritable message) {
+    int id = vertexId.get();
+    if (!stripeMap.containsKey(id)) {
+      return false;
+    }
+    message.set(stripeMap.get(id));
+    return true;
+  }
+
+  @Override
+  protected void putMessage(Int2LongOpenHashMap stripeMap,
+      IntWritable vertexId, LongWritable message) {
+    stripeMap.put(vertexId.get(), message.get());
+  }
+
+  @Override
+  protected boolean removeMessage(Int2LongOpenHashMap stripeMap,
+      IntWritable vertexId, LongWritable message) {
+    int id = vertexId.get();
+    if (!stripeMap.containsKey(id)) {
+      return false;
+    }
+    message.set(stripeMap.remove(id));
+    return true;
+  }
+
+  @Override
+  protected void clearMessage(Int2LongOpenHashMap stripeMap,
+      IntWritable vertexId) {
+    stripeMap.remove(vertexId.get());
+  }
+
+  @Override
+  protected void addVertexIds(Int2LongOpenHashMap stripeMap,
+      List<IntWritable> vertexIds) {
+    IntIterator iterator = stripeMap.keySet().iterator();
+    while (iterator.hasNext()) {
+      vertexIds.add(new IntWritable(iterator.nextInt()));
+    }
+  }
+
+  @Override
+  protected void writeStripe(DataOutput out,
+      Int2LongOpenHashMap stripeMap) throws IOException {
+    ObjectIterator<Int2LongMap.Entry> iterator =
+        stripeMap.int2LongEntrySet().fastIterator();
+    while (iterator.hasNext()) {
+      Int2LongMap.Entry entry = iterator.next();
+      out.writeInt(entry.getIntKey());
+      out.writeLong(entry.getLongValue());
+    }
+  }
+
+  @Override
+  protected void readMessage(DataInput in,
+      List<Int2LongOpenHashMap> stripeMaps) throws IOException {
+    int vertexId = in.readInt();
+    long message = in.readLong();
+    stripeMaps.get(MessageStoreStripes.getStripe(vertexId, getNumStripes()))
+        .put(vertexId, message);
+  }
+
+  /**
+   * Messages of a request for a single stripe, as primitives.
+   */
+  private class IntLongStagedStripe implements
+      StagedStripe<IntWritable, LongWritable, Int2LongOpenHashMap> {
+    /** Destination vertex ids */
+    private final IntArrayList vertexIds = new IntArrayList();
+    /** Messages */
+    private final LongArrayList messages = new LongArrayList();
+    /** Reused vertex id for combining */
+    private final IntWritable reusableVertexId = new IntWritable();
+    /** Reused message for combining */
+    private final LongWritable reusableMessage = new LongWritable();
+    /** Reused for the message already stored when combining */
+    private final LongWritable reusableCurrentMessage = new LongWritable();
+
+    @Override
+    public void add(IntWritable vertexId, LongWritable message) {
+      vertexIds.add(vertexId.get());
+      messages.add(message.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return vertexIds.isEmpty();
+    }
+
+    @Override
+    public void combineInto(Int2LongOpenHashMap stripeMap) {
+      for (int i = 0; i < vertexIds.size(); ++i) {
+        int vertexId = vertexIds.getInt(i);
+        long message = messages.getLong(i);
+        if (stripeMap.containsKey(vertexId)) {
+          reusableVertexId.set(vertexId);
+          reusableMessage.set(message);
+          reusableCurrentMessage.set(stripeMap.get(vertexId));
+          getCombiner().combine(reusableVertexId, reusableCurrentMessage,
+              reusableMessage);
+          message = reusableCurrentMessage.get();
+        }
+        stripeMap.put(vertexId, message);
+      }
+    }
+
+    @Override
+    public void clear() {
+      vertexIds.clear();
+      messages.clear();
+    }
+  }
+}
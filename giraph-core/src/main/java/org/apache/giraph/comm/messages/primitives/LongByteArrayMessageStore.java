@@ -19,7 +19,9 @@
 package org.apache.giraph.comm.messages.primitives;
 
 import org.apache.giraph.bsp.CentralizedServiceWorker;
-import org.apache.giraph.comm.messages.MessageStore;
+import org.apache.giraph.comm.messages.AsyncMessageStore;
+import org.apache.giraph.comm.messages.ConcurrentVertexMessageStore;
+import org.apache.giraph.comm.messages.DirectMessageStore;
 import org.apache.giraph.comm.messages.MessagesIterable;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.factories.MessageValueFactory;
@@ -47,17 +49,23 @@ import java.util.List;
  * Special message store to be used when ids are LongWritable and no combiner
  * is used.
  * Uses fastutil primitive maps in order to decrease number of objects and
- * get better performance.
+ * get better performance. The messages of each partition are split into
+ * lock stripes by vertex id, so that several threads can add messages to the
+ * same partition at once.
  *
  * @param <M> Message type
  */
 public class LongByteArrayMessageStore<M extends Writable>
-    implements MessageStore<LongWritable, M> {
+    implements DirectMessageStore<LongWritable, M>,
+    AsyncMessageStore<LongWritable, M>,
+    ConcurrentVertexMessageStore<LongWritable, M> {
   /** Message value factory */
   protected final MessageValueFactory<M> messageValueFactory;
-  /** Map from partition id to map from vertex id to message */
+  /** Map from partition id to lock stripes of map from vertex id to message */
   private final
-  Int2ObjectOpenHashMap<Long2ObjectOpenHashMap<DataInputOutput>> map;
+  Int2ObjectOpenHashMap<List<Long2ObjectOpenHashMap<DataInputOutput>>> map;
+  /** Number of lock stripes per partition, a power of two */
+  private final int numStripes;
   /** Service worker */
   private final CentralizedServiceWorker<LongWritable, ?, ?> service;
   /** Giraph configuration */
@@ -77,28 +85,61 @@ public class LongByteArrayMessageStore<M extends Writable>
     this.messageValueFactory = messageValueFactory;
     this.service = service;
     this.config = config;
+    numStripes = MessageStoreStripes.getNumStripes(config);
 
-    map =
-        new Int2ObjectOpenHashMap<Long2ObjectOpenHashMap<DataInputOutput>>();
+    map = new Int2ObjectOpenHashMap<
+        List<Long2ObjectOpenHashMap<DataInputOutput>>>();
     for (int partitionId : service.getPartitionStore().getPartitionIds()) {
       Partition<LongWritable, ?, ?> partition =
           service.getPartitionStore().getPartition(partitionId);
-      Long2ObjectOpenHashMap<DataInputOutput> partitionMap =
-          new Long2ObjectOpenHashMap<DataInputOutput>(
-              (int) partition.getVertexCount());
-      map.put(partitionId, partitionMap);
+      map.put(partitionId,
+          createPartitionMaps((int) partition.getVertexCount()));
     }
   }
 
   /**
-   * Get map which holds messages for partition which vertex belongs to.
+   * Create the stripes of maps for a partition.
+   *
+   * @param expectedSize Expected number of vertices with messages
+   * @return Maps from vertex id to messages, one per stripe
+   */
+  private List<Long2ObjectOpenHashMap<DataInputOutput>> createPartitionMaps(
+      int expectedSize) {
+    List<Long2ObjectOpenHashMap<DataInputOutput>> partitionMaps =
+        Lists.newArrayListWithCapacity(numStripes);
+    for (int i = 0; i < numStripes; ++i) {
+      partitionMaps.add(new Long2ObjectOpenHashMap<DataInputOutput>(
+          expectedSize / numStripes));
+    }
+    return partitionMaps;
+  }
+
+  /**
+   * Get map which holds messages for the stripe which vertex belongs to.
    *
    * @param vertexId Id of the vertex
-   * @return Map which holds messages for partition which vertex belongs to.
+   * @return Map which holds messages for the stripe which vertex belongs to.
    */
   private Long2ObjectOpenHashMap<DataInputOutput> getPartitionMap(
       LongWritable vertexId) {
-    return map.get(service.getPartitionId(vertexId));
+    return map.get(service.getPartitionId(vertexId)).get(
+        MessageStoreStripes.getStripe(vertexId.get(), numStripes));
+  }
+
+  /**
+   * Get the number of vertices with messages in all stripes of a partition.
+   *
+   * @param partitionMaps Maps of the partition, one per stripe
+   * @return Number of vertices with messages
+   */
+  private static int getSize(
+      List<Long2ObjectOpenHashMap<DataInputOutput>> partitionMaps) {
+    int size = 0;
+    for (Long2ObjectOpenHashMap<DataInputOutput> partitionMap :
+        partitionMaps) {
+      size += partitionMap.size();
+    }
+    return size;
   }
 
   /**
@@ -123,53 +164,104 @@ public class LongByteArrayMessageStore<M extends Writable>
   public void addPartitionMessages(int partitionId,
       ByteArrayVertexIdMessages<LongWritable, M> messages) throws
       IOException {
-    Long2ObjectOpenHashMap<DataInputOutput> partitionMap =
+    List<Long2ObjectOpenHashMap<DataInputOutput>> partitionMaps =
         map.get(partitionId);
-    synchronized (partitionMap) {
-      ByteArrayVertexIdMessages<LongWritable, M>.VertexIdMessageBytesIterator
-          vertexIdMessageBytesIterator =
-          messages.getVertexIdMessageBytesIterator();
-      // Try to copy the message buffer over rather than
-      // doing a deserialization of a message just to know its size.  This
-      // should be more efficient for complex objects where serialization is
-      // expensive.  If this type of iterator is not available, fall back to
-      // deserializing/serializing the messages
-      if (vertexIdMessageBytesIterator != null) {
-        while (vertexIdMessageBytesIterator.hasNext()) {
-          vertexIdMessageBytesIterator.next();
-          DataInputOutput dataInputOutput = getDataInputOutput(partitionMap,
-              vertexIdMessageBytesIterator.getCurrentVertexId().get());
+    // Only the stripe of each message is locked while it is copied, so
+    // server threads adding messages to the same partition rarely block
+    ByteArrayVertexIdMessages<LongWritable, M>.VertexIdMessageBytesIterator
+        vertexIdMessageBytesIterator =
+        messages.getVertexIdMessageBytesIterator();
+    // Try to copy the message buffer over rather than
+    // doing a deserialization of a message just to know its size.  This
+    // should be more efficient for complex objects where serialization is
+    // expensive.  If this type of iterator is not available, fall back to
+    // deserializing/serializing the messages
+    if (vertexIdMessageBytesIterator != null) {
+      while (vertexIdMessageBytesIterator.hasNext()) {
+        vertexIdMessageBytesIterator.next();
+        long vertexId =
+            vertexIdMessageBytesIterator.getCurrentVertexId().get();
+        Long2ObjectOpenHashMap<DataInputOutput> partitionMap =
+            partitionMaps.get(
+                MessageStoreStripes.getStripe(vertexId, numStripes));
+        synchronized (partitionMap) {
+          DataInputOutput dataInputOutput =
+              getDataInputOutput(partitionMap, vertexId);
           vertexIdMessageBytesIterator.writeCurrentMessageBytes(
               dataInputOutput.getDataOutput());
         }
-      } else {
-        ByteArrayVertexIdMessages<LongWritable, M>.VertexIdMessageIterator
-            iterator = messages.getVertexIdMessageIterator();
-        while (iterator.hasNext()) {
-          iterator.next();
-          DataInputOutput dataInputOutput =  getDataInputOutput(partitionMap,
-              iterator.getCurrentVertexId().get());
+      }
+    } else {
+      ByteArrayVertexIdMessages<LongWritable, M>.VertexIdMessageIterator
+          iterator = messages.getVertexIdMessageIterator();
+      while (iterator.hasNext()) {
+        iterator.next();
+        long vertexId = iterator.getCurrentVertexId().get();
+        Long2ObjectOpenHashMap<DataInputOutput> partitionMap =
+            partitionMaps.get(
+                MessageStoreStripes.getStripe(vertexId, numStripes));
+        synchronized (partitionMap) {
+          DataInputOutput dataInputOutput =
+              getDataInputOutput(partitionMap, vertexId);
           iterator.getCurrentMessage().write(dataInputOutput.getDataOutput());
         }
       }
     }
   }
 
+  @Override
+  public void addMessage(int partitionId, LongWritable vertexId,
+      M message) throws IOException {
+    long id = vertexId.get();
+    Long2ObjectOpenHashMap<DataInputOutput> partitionMap =
+        map.get(partitionId).get(MessageStoreStripes.getStripe(id, numStripes));
+    synchronized (partitionMap) {
+      message.write(getDataInputOutput(partitionMap, id).getDataOutput());
+    }
+  }
+
   @Override
   public void clearPartition(int partitionId) throws IOException {
-    map.get(partitionId).clear();
+    for (Long2ObjectOpenHashMap<DataInputOutput> partitionMap :
+        map.get(partitionId)) {
+      partitionMap.clear();
+    }
   }
 
   @Override
   public boolean hasMessagesForVertex(LongWritable vertexId) {
-    return getPartitionMap(vertexId).containsKey(vertexId.get());
+    Long2ObjectOpenHashMap<DataInputOutput> partitionMap =
+        getPartitionMap(vertexId);
+    synchronized (partitionMap) {
+      return partitionMap.containsKey(vertexId.get());
+    }
   }
 
   @Override
   public Iterable<M> getVertexMessages(
       LongWritable vertexId) throws IOException {
-    DataInputOutput dataInputOutput =
-        getPartitionMap(vertexId).get(vertexId.get());
+    Long2ObjectOpenHashMap<DataInputOutput> partitionMap =
+        getPartitionMap(vertexId);
+    DataInputOutput dataInputOutput;
+    synchronized (partitionMap) {
+      dataInputOutput = partitionMap.get(vertexId.get());
+    }
+    if (dataInputOutput == null) {
+      return EmptyIterable.get();
+    } else {
+      return new MessagesIterable<M>(dataInputOutput, messageValueFactory);
+    }
+  }
+
+  @Override
+  public Iterable<M> removeVertexMessages(
+      LongWritable vertexId) throws IOException {
+    Long2ObjectOpenHashMap<DataInputOutput> partitionMap =
+        getPartitionMap(vertexId);
+    DataInputOutput dataInputOutput;
+    synchronized (partitionMap) {
+      dataInputOutput = partitionMap.remove(vertexId.get());
+    }
     if (dataInputOutput == null) {
       return EmptyIterable.get();
     } else {
@@ -179,7 +271,11 @@ public class LongByteArrayMessageStore<M extends Writable>
 
   @Override
   public void clearVertexMessages(LongWritable vertexId) throws IOException {
-    getPartitionMap(vertexId).remove(vertexId.get());
+    Long2ObjectOpenHashMap<DataInputOutput> partitionMap =
+        getPartitionMap(vertexId);
+    synchronized (partitionMap) {
+      partitionMap.remove(vertexId.get());
+    }
   }
 
   @Override
@@ -190,13 +286,16 @@ public class LongByteArrayMessageStore<M extends Writable>
   @Override
   public Iterable<LongWritable> getPartitionDestinationVertices(
       int partitionId) {
-    Long2ObjectOpenHashMap<DataInputOutput> partitionMap =
+    List<Long2ObjectOpenHashMap<DataInputOutput>> partitionMaps =
         map.get(partitionId);
     List<LongWritable> vertices =
-        Lists.newArrayListWithCapacity(partitionMap.size());
-    LongIterator iterator = partitionMap.keySet().iterator();
-    while (iterator.hasNext()) {
-      vertices.add(new LongWritable(iterator.nextLong()));
+        Lists.newArrayListWithCapacity(getSize(partitionMaps));
+    for (Long2ObjectOpenHashMap<DataInputOutput> partitionMap :
+        partitionMaps) {
+      LongIterator iterator = partitionMap.keySet().iterator();
+      while (iterator.hasNext()) {
+        vertices.add(new LongWritable(iterator.nextLong()));
+      }
     }
     return vertices;
   }
@@ -204,15 +303,18 @@ public class LongByteArrayMessageStore<M extends Writable>
   @Override
   public void writePartition(DataOutput out,
       int partitionId) throws IOException {
-    Long2ObjectOpenHashMap<DataInputOutput> partitionMap =
+    List<Long2ObjectOpenHashMap<DataInputOutput>> partitionMaps =
         map.get(partitionId);
-    out.writeInt(partitionMap.size());
-    ObjectIterator<Long2ObjectMap.Entry<DataInputOutput>> iterator =
-        partitionMap.long2ObjectEntrySet().fastIterator();
-    while (iterator.hasNext()) {
-      Long2ObjectMap.Entry<DataInputOutput> entry = iterator.next();
-      out.writeLong(entry.getLongKey());
-      entry.getValue().write(out);
+    out.writeInt(getSize(partitionMaps));
+    for (Long2ObjectOpenHashMap<DataInputOutput> partitionMap :
+        partitionMaps) {
+      ObjectIterator<Long2ObjectMap.Entry<DataInputOutput>> iterator =
+          partitionMap.long2ObjectEntrySet().fastIterator();
+      while (iterator.hasNext()) {
+        Long2ObjectMap.Entry<DataInputOutput> entry = iterator.next();
+        out.writeLong(entry.getLongKey());
+        entry.getValue().write(out);
+      }
     }
   }
 
@@ -220,16 +322,17 @@ public class LongByteArrayMessageStore<M extends Writable>
   public void readFieldsForPartition(DataInput in,
       int partitionId) throws IOException {
     int size = in.readInt();
-    Long2ObjectOpenHashMap<DataInputOutput> partitionMap =
-        new Long2ObjectOpenHashMap<DataInputOutput>(size);
+    List<Long2ObjectOpenHashMap<DataInputOutput>> partitionMaps =
+        createPartitionMaps(size);
     while (size-- > 0) {
       long vertexId = in.readLong();
       DataInputOutput dataInputOutput = config.createMessagesInputOutput();
       dataInputOutput.readFields(in);
-      partitionMap.put(vertexId, dataInputOutput);
+      partitionMaps.get(MessageStoreStripes.getStripe(vertexId, numStripes))
+          .put(vertexId, dataInputOutput);
     }
     synchronized (map) {
-      map.put(partitionId, partitionMap);
+      map.put(partitionId, partitionMaps);
     }
   }
 }
@@ -20,44 +20,32 @@ package org.apache.giraph.comm.messages.primitives;
 
 import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.combiner.Combiner;
-import org.apache.giraph.comm.messages.MessageStore;
-import org.apache.giraph.partition.Partition;
-import org.apache.giraph.utils.ByteArrayVertexIdMessages;
-import org.apache.giraph.utils.EmptyIterable;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.LongWritable;
 
-import com.google.common.collect.Lists;
-
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.longs.Long2DoubleMap;
 import it.unimi.dsi.fastutil.longs.Long2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongIterator;
 import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Collections;
 import java.util.List;
 
 /**
  * Special message store to be used when ids are LongWritable and messages
  * are DoubleWritable and combiner is used.
  * Uses fastutil primitive maps in order to decrease number of objects and
- * get better performance.
+ * get better performance, see {@link PrimitiveCombinerMessageStore}.
  */
 public class LongDoubleMessageStore
-    implements MessageStore<LongWritable, DoubleWritable> {
-  /** Map from partition id to map from vertex id to message */
-  private final Int2ObjectOpenHashMap<Long2DoubleOpenHashMap> map;
-  /** Message combiner */
-  private final Combiner<LongWritable, DoubleWritable> combiner;
-  /** Service worker */
-  private final CentralizedServiceWorker<LongWritable, ?, ?> service;
-
+    extends PrimitiveCombinerMessageStore<LongWritable, DoubleWritable,
+    Long2DoubleOpenHashMap> {
   /**
-   * Constructor
+   * Constructor, keeping the messages of each partition in a single stripe
    *
    * @param service Service worker
    * @param combiner Message combiner
@@ -65,111 +53,97 @@ public class LongDoubleMessageStore
   public LongDoubleMessageStore(
       CentralizedServiceWorker<LongWritable, ?, ?> service,
       Combiner<LongWritable, DoubleWritable> combiner) {
-    this.service = service;
-    this.combiner = combiner;
-
-    map = new Int2ObjectOpenHashMap<Long2DoubleOpenHashMap>();
-    for (int partitionId : service.getPartitionStore().getPartitionIds()) {
-      Partition<LongWritable, ?, ?> partition =
-          service.getPartitionStore().getPartition(partitionId);
-      Long2DoubleOpenHashMap partitionMap =
-          new Long2DoubleOpenHashMap((int) partition.getVertexCount());
-      map.put(partitionId, partitionMap);
-    }
+    this(service, combiner, 1);
   }
 
   /**
-   * Get map which holds messages for partition which vertex belongs to.
+   * Constructor
    *
-   * @param vertexId Id of the vertex
-   * @return Map which holds messages for partition which vertex belongs to.
+   * @param service Service worker
+   * @param combiner Message combiner
+   * @param numStripes Number of lock stripes per partition
    */
-  private Long2DoubleOpenHashMap getPartitionMap(LongWritable vertexId) {
-    return map.get(service.getPartitionId(vertexId));
+  public LongDoubleMessageStore(
+      CentralizedServiceWorker<LongWritable, ?, ?> service,
+      Combiner<LongWritable, DoubleWritable> combiner, int numStripes) {
+    super(service, combiner, numStripes);
   }
 
   @Override
-  public void addPartitionMessages(int partitionId,
-      ByteArrayVertexIdMessages<LongWritable, DoubleWritable> messages) throws
-      IOException {
-    LongWritable reusableVertexId = new LongWritable();
-    DoubleWritable reusableMessage = new DoubleWritable();
-    DoubleWritable reusableCurrentMessage = new DoubleWritable();
-
-    Long2DoubleOpenHashMap partitionMap = map.get(partitionId);
-    synchronized (partitionMap) {
-      ByteArrayVertexIdMessages<LongWritable,
-          DoubleWritable>.VertexIdMessageIterator
-          iterator = messages.getVertexIdMessageIterator();
-      while (iterator.hasNext()) {
-        iterator.next();
-        long vertexId = iterator.getCurrentVertexId().get();
-        double message = iterator.getCurrentMessage().get();
-        if (partitionMap.containsKey(vertexId)) {
-          reusableVertexId.set(vertexId);
-          reusableMessage.set(message);
-          reusableCurrentMessage.set(partitionMap.get(vertexId));
-          combiner.combine(reusableVertexId, reusableCurrentMessage,
-              reusableMessage);
-          message = reusableCurrentMessage.get();
-        }
-        partitionMap.put(vertexId, message);
-      }
-    }
+  protected Long2DoubleOpenHashMap createStripeMap(int expectedSize) {
+    return new Long2DoubleOpenHashMap(expectedSize);
   }
 
   @Override
-  public void clearPartition(int partitionId) throws IOException {
-    map.get(partitionId).clear();
+  protected DoubleWritable createMessage() {
+    return new DoubleWritable();
   }
 
   @Override
-  public boolean hasMessagesForVertex(LongWritable vertexId) {
-    return getPartitionMap(vertexId).containsKey(vertexId.get());
+  protected StagedStripe<LongWritable, DoubleWritable, Long2DoubleOpenHashMap>
+  createStagedStripe() {
+    return new LongDoubleStagedStripe();
   }
 
   @Override
-  public Iterable<DoubleWritable> getVertexMessages(
-      LongWritable vertexId) throws IOException {
-    Long2DoubleOpenHashMap partitionMap = getPartitionMap(vertexId);
-    if (!partitionMap.containsKey(vertexId.get())) {
-      return EmptyIterable.get();
-    } else {
-      return Collections.singleton(
-          new DoubleWritable(partitionMap.get(vertexId.get())));
+  protected int getStripe(LongWritable vertexId) {
+    return MessageStoreStripes.getStripe(vertexId.get(), getNumStripes());
+  }
+
+  @Override
+  protected boolean hasMessage(Long2DoubleOpenHashMap stripeMap,
+      LongWritable vertexId) {
+    return stripeMap.containsKey(vertexId.get());
+  }
+
+  @Override
+  protected boolean getMessage(Long2DoubleOpenHashMap stripeMap,
+      LongWritable vertexId, DoubleWritable message) {
+    long id = vertexId.get();
+    if (!stripeMap.containsKey(id)) {
+      return false;
     }
+    message.set(stripeMap.get(id));
+    return true;
   }
 
   @Override
-  public void clearVertexMessages(LongWritable vertexId) throws IOException {
-    getPartitionMap(vertexId).remove(vertexId.get());
+  protected void putMessage(Long2DoubleOpenHashMap stripeMap,
+      LongWritable vertexId, DoubleWritable message) {
+    stripeMap.put(vertexId.get(), message.get());
+  }
+
+  @Override
+  protected boolean removeMessage(Long2DoubleOpenHashMap stripeMap,
+      LongWritable vertexId, DoubleWritable message) {
+    long id = vertexId.get();
+    if (!stripeMap.containsKey(id)) {
+      return false;
+    }
+    message.set(stripeMap.remove(id));
+    return true;
   }
 
   @Override
-  public void clearAll() throws IOException {
-    map.clear();
+  protected void clearMessage(Long2DoubleOpenHashMap stripeMap,
+      LongWritable vertexId) {
+    stripeMap.remove(vertexId.get());
   }
 
   @Override
-  public Iterable<LongWritable> getPartitionDestinationVertices(
-      int partitionId) {
-    Long2DoubleOpenHashMap partitionMap = map.get(partitionId);
-    List<LongWritable> vertices =
-        Lists.newArrayListWithCapacity(partitionMap.size());
-    LongIterator iterator = partitionMap.keySet().iterator();
+  protected void addVertexIds(Long2DoubleOpenHashMap stripeMap,
+      List<LongWritable> vertexIds) {
+    LongIterator iterator = stripeMap.keySet().iterator();
     while (iterator.hasNext()) {
-      vertices.add(new LongWritable(iterator.nextLong()));
+      vertexIds.add(new LongWritable(iterator.nextLong()));
     }
-    return vertices;
   }
 
   @Override
-  public void writePartition(DataOutput out,
-      int partitionId) throws IOException {
-    Long2DoubleOpenHashMap partitionMap = map.get(partitionId);
-    out.writeInt(partitionMap.size());
+  protected void writeStripe(DataOutput out,
+      Long2DoubleOpenHashMap stripeMap) throws IOException {
     ObjectIterator<Long2DoubleMap.Entry> iterator =
-        partitionMap.long2DoubleEntrySet().fastIterator();
+        stripeMap.long2DoubleEntrySet().fastIterator();
     while (iterator.hasNext()) {
       Long2DoubleMap.Entry entry = iterator.next();
       out.writeLong(entry.getLongKey());
@@ -178,17 +152,62 @@ public class LongDoubleMessageStore
   }
 
   @Override
-  public void readFieldsForPartition(DataInput in,
-      int partitionId) throws IOException {
-    int size = in.readInt();
-    Long2DoubleOpenHashMap partitionMap = new Long2DoubleOpenHashMap(size);
-    while (size-- > 0) {
-      long vertexId = in.readLong();
-      double message = in.readDouble();
-      partitionMap.put(vertexId, message);
+  protected void readMessage(DataInput in,
+      List<Long2DoubleOpenHashMap> stripeMaps) throws IOException {
+    long vertexId = in.readLong();
+    double message = in.readDouble();
+    stripeMaps.get(MessageStoreStripes.getStripe(vertexId, getNumStripes()))
+        .put(vertexId, message);
+  }
+
+  /**
+   * Messages of a request for a single stripe, as primitives.
+   */
+  private class LongDoubleStagedStripe implements
+      StagedStripe<LongWritable, DoubleWritable, Long2DoubleOpenHashMap> {
+    /** Destination vertex ids */
+    private final LongArrayList vertexIds = new LongArrayList();
+    /** Messages */
+    private final DoubleArrayList messages = new DoubleArrayList();
+    /** Reused vertex id for combining */
+    private final LongWritable reusableVertexId = new LongWritable();
+    /** Reused message for combining */
+    private final DoubleWritable reusableMessage = new DoubleWritable();
+    /** Reused for the message already stored when combining */
+    private final DoubleWritable reusableCurrentMessage = new DoubleWritable();
+
+    @Override
+    public void add(LongWritable vertexId, DoubleWritable message) {
+      vertexIds.add(vertexId.get());
+      messages.add(message.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return vertexIds.isEmpty();
+    }
+
+    @Override
+    public void combineInto(Long2DoubleOpenHashMap stripeMap) {
+      for (int i = 0; i < vertexIds.size(); ++i) {
+        long vertexId = vertexIds.getLong(i);
+        double message = messages.getDouble(i);
+        if (stripeMap.containsKey(vertexId)) {
+          reusableVertexId.set(vertexId);
+          reusableMessage.set(message);
+          reusableCurrentMessage.set(stripeMap.get(vertexId));
+          getCombiner().combine(reusableVertexId, reusableCurrentMessage,
+              reusableMessage);
+          message = reusableCurrentMessage.get();
+        }
+        stripeMap.put(vertexId, message);
+      }
     }
-    synchronized (map) {
-      map.put(partitionId, partitionMap);
+
+    @Override
+    public void clear() {
+      vertexIds.clear();
+      messages.clear();
     }
   }
 }
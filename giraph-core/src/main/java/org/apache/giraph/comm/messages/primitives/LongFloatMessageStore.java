@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages.primitives;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.Combiner;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.longs.Long2FloatMap;
+import it.unimi.dsi.fastutil.longs.Long2FloatOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongIterator;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Special message store to be used when ids are LongWritable and messages
+ * are FloatWritable and combiner is used.
+ * Uses fastutil primitive maps in order to decrease number of objects and
+ * get better performance, see {@link PrimitiveCombinerMessageStore}.
+ */
+public class LongFloatMessageStore
+    extends PrimitiveCombinerMessageStore<LongWritable, FloatWritable,
+    Long2FloatOpenHashMap> {
+  /**
+   * Constructor, keeping the messages of each partition in a single stripe
+   *
+   * @param service Service worker
+   * @param combiner Message combiner
+   */
+  public LongFloatMessageStore(
+      CentralizedServiceWorker<LongWritable, ?, ?> service,
+      Combiner<LongWritable, FloatWritable> combiner) {
+    this(service, combiner, 1);
+  }
+
+  /**
+   * Constructor
+   *
+   * @param service Service worker
+   * @param combiner Message combiner
+   * @param numStripes Number of lock stripes per partition
+   */
+  public LongFloatMessageStore(
+      CentralizedServiceWorker<LongWritable, ?, ?> service,
+      Combiner<LongWritable, FloatWritable> combiner, int numStripes) {
+    super(service, combiner, numStripes);
+  }
+
+  @Override
+  protected Long2FloatOpenHashMap createStripeMap(int expectedSize) {
+    return new Long2FloatOpenHashMap(expectedSize);
+  }
+
+  @Override
+  protected FloatWritable createMessage() {
+    return new FloatWritable();
+  }
+
+  @Override
+  protected StagedStripe<LongWritable, FloatWritable, Long2FloatOpenHashMap>
+  createStagedStripe() {
+    return new LongFloatStagedStripe();
+  }
+
+  @Override
+  protected int getStripe(LongWritable vertexId) {
+    return MessageStoreStripes.getStripe(vertexId.get(), getNumStripes());
+  }
+
+  @Override
+  protected boolean hasMessage(Long2FloatOpenHashMap stripeMap,
+      LongWritable vertexId) {
+    return stripeMap.containsKey(vertexId.get());
+  }
+
+  @Override
+  protected boolean getMessage(Long2FloatOpenHashMap stripeMap,
+      LongWritable vertexId, FloatWritable message) {
+    long id = vertexId.get();
+    if (!stripeMap.containsKey(id)) {
+      return false;
+    }
+    message.set(stripeMap.get(id));
+    return true;
+  }
+
+  @Override
+  protected void putMessage(Long2FloatOpenHashMap stripeMap,
+      LongWritable vertexId, FloatWritable message) {
+    stripeMap.put(vertexId.get(), message.get());
+  }
+
+  @Override
+  protected boolean removeMessage(Long2FloatOpenHashMap stripeMap,
+      LongWritable vertexId, FloatWritable message) {
+    long id = vertexId.get();
+    if (!stripeMap.containsKey(id)) {
+      return false;
+    }
+    message.set(stripeMap.remove(id));
+    return true;
+  }
+
+  @Override
+  protected void clearMessage(Long2FloatOpenHashMap stripeMap,
+      LongWritable vertexId) {
+    stripeMap.remove(vertexId.get());
+  }
+
+  @Override
+  protected void addVertexIds(Long2FloatOpenHashMap stripeMap,
+      List<LongWritable> vertexIds) {
+    LongIterator iterator = stripeMap.keySet().iterator();
+    while (iterator.hasNext()) {
+      vertexIds.add(new LongWritable(iterator.nextLong()));
+    }
+  }
+
+  @Override
+  protected void writeStripe(DataOutput out,
+      Long2FloatOpenHashMap stripeMap) throws IOException {
+    ObjectIterator<Long2FloatMap.Entry> iterator =
+        stripeMap.long2FloatEntrySet().fastIterator();
+    while (iterator.hasNext()) {
+      Long2FloatMap.Entry entry = iterator.next();
+      out.writeLong(entry.getLongKey());
+      out.writeFloat(entry.getFloatValue());
+    }
+  }
+
+  @Override
+  protected void readMessage(DataInput in,
+      List<Long2FloatOpenHashMap> stripeMaps) throws IOException {
+    long vertexId = in.readLong();
+    float message = in.readFloat();
+    stripeMaps.get(MessageStoreStripes.getStripe(vertexId, getNumStripes()))
+        .put(vertexId, message);
+  }
+
+  /**
+   * Messages of a request for a single stripe, as primitives.
+   */
+  private class LongFloatStagedStripe implements
+      StagedStripe<LongWritable, FloatWritable, Long2FloatOpenHashMap> {
+    /** Destination vertex ids */
+    private final LongArrayList vertexIds = new LongArrayList();
+    /** Messages */
+    private final FloatArrayList messages = new FloatArrayList();
+    /** Reused vertex id for combining */
+    private final LongWritable reusableVertexId = new LongWritable();
+    /** Reused message for combining */
+    private final FloatWritable reusableMessage = new FloatWritable();
+    /** Reused for the message already stored when combining */
+    private final FloatWritable reusableCurrentMessage = new FloatWritable();
+
+    @Override
+    public void add(LongWritable vertexId, FloatWritable message) {
+      vertexIds.add(vertexId.get());
+      messages.add(message.get());
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return vertexIds.isEmpty();
+    }
+
+    @Override
+    public void combineInto(Long2FloatOpenHashMap stripeMap) {
+      for (int i = 0; i < vertexIds.size(); ++i) {
+        long vertexId = vertexIds.getLong(i);
+        float message = messages.getFloat(i);
+        if (stripeMap.containsKey(vertexId)) {
+          reusableVertexId.set(vertexId);
+          reusableMessage.set(message);
+          reusableCurrentMessage.set(stripeMap.get(vertexId));
+          getCombiner().combine(reusableVertexId, reusableCurrentMessage,
+              reusableMessage);
+          message = reusableCurrentMessage.get();
+        }
+        stripeMap.put(vertexId, message);
+      }
+    }
+
+    @Override
+    public void clear() {
+      vertexIds.clear();
+      messages.clear();
+    }
+  }
+}
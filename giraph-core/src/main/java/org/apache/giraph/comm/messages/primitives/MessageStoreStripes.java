@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages.primitives;
+
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+
+import it.unimi.dsi.fastutil.HashCommon;
+
+/**
+ * Helpers for splitting the messages of a partition into lock stripes, so
+ * that several threads can add messages to the same partition at once.
+ */
+public class MessageStoreStripes {
+  /** Do not instantiate */
+  private MessageStoreStripes() { }
+
+  /**
+   * Get the number of lock stripes per partition to use, which is
+   * {@link GiraphConstants#MESSAGE_STORE_LOCK_STRIPES} or, if that is not
+   * set, the number of Netty server execution threads, rounded up to a
+   * power of two.
+   *
+   * @param conf Configuration
+   * @return Number of lock stripes, a power of two
+   */
+  public static int getNumStripes(ImmutableClassesGiraphConfiguration conf) {
+    int numStripes = GiraphConstants.MESSAGE_STORE_LOCK_STRIPES.get(conf);
+    if (numStripes <= 0) {
+      numStripes = GiraphConstants.NETTY_SERVER_EXECUTION_THREADS.get(conf);
+    }
+    return checkNumStripes(Math.max(1, numStripes));
+  }
+
+  /**
+   * Round the number of stripes up to a power of two.
+   *
+   * @param numStripes Requested number of stripes
+   * @return Number of stripes to use
+   */
+  static int checkNumStripes(int numStripes) {
+    if (numStripes <= 0) {
+      throw new IllegalArgumentException("checkNumStripes: Number of " +
+          "stripes must be positive, got " + numStripes);
+    }
+    int powerOfTwo = Integer.highestOneBit(numStripes);
+    return powerOfTwo == numStripes ? numStripes : powerOfTwo << 1;
+  }
+
+  /**
+   * Get the stripe of an int vertex id.
+   *
+   * @param vertexId Vertex id
+   * @param numStripes Number of stripes, a power of two
+   * @return Stripe of the vertex
+   */
+  public static int getStripe(int vertexId, int numStripes) {
+    return HashCommon.murmurHash3(vertexId) & (numStripes - 1);
+  }
+
+  /**
+   * Get the stripe of a long vertex id.
+   *
+   * @param vertexId Vertex id
+   * @param numStripes Number of stripes, a power of two
+   * @return Stripe of the vertex
+   */
+  public static int getStripe(long vertexId, int numStripes) {
+    return (int) HashCommon.murmurHash3(vertexId) & (numStripes - 1);
+  }
+}
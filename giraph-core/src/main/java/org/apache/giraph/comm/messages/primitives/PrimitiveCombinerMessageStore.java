@@ -0,0 +1,458 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm.messages.primitives;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.Combiner;
+import org.apache.giraph.comm.messages.AsyncMessageStore;
+import org.apache.giraph.comm.messages.ConcurrentVertexMessageStore;
+import org.apache.giraph.comm.messages.DirectMessageStore;
+import org.apache.giraph.partition.Partition;
+import org.apache.giraph.utils.ByteArrayVertexIdMessages;
+import org.apache.giraph.utils.EmptyIterable;
+import org.apache.giraph.utils.ReusableSingletonIterable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import com.google.common.collect.Lists;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Base class for the message stores which keep a single combined message
+ * per vertex in a fastutil primitive map, to decrease the number of objects
+ * and get better performance. The messages of each partition are split into
+ * lock stripes by vertex id, so that several threads can add messages to the
+ * same partition at once.
+ * <p>
+ * This class takes care of the stripes, the locking and the reused objects;
+ * subclasses only implement the operations on the primitive maps, so that
+ * vertex ids and messages are never boxed.
+ *
+ * @param <I> Vertex id
+ * @param <M> Message data
+ * @param <T> Primitive map from vertex id to message, one per stripe
+ */
+public abstract class PrimitiveCombinerMessageStore<
+    I extends WritableComparable, M extends Writable, T extends Map<?, ?>>
+    implements DirectMessageStore<I, M>, AsyncMessageStore<I, M>,
+    ConcurrentVertexMessageStore<I, M> {
+  /** Map from partition id to lock stripes of map from vertex id to message */
+  private final Int2ObjectOpenHashMap<List<T>> map;
+  /** Number of lock stripes per partition, a power of two */
+  private final int numStripes;
+  /** Message combiner */
+  private final Combiner<I, M> combiner;
+  /** Service worker */
+  private final CentralizedServiceWorker<I, ?, ?> service;
+  /** Reused message and iterable, per compute thread */
+  private final ThreadLocal<ReusableSingletonIterable<M>> reusableMessages =
+      new ThreadLocal<ReusableSingletonIterable<M>>() {
+        @Override
+        protected ReusableSingletonIterable<M> initialValue() {
+          return new ReusableSingletonIterable<M>(createMessage());
+        }
+      };
+  /** Buffers for adding messages, per server or compute thread */
+  private final ThreadLocal<StagedMessages> stagedMessages =
+      new ThreadLocal<StagedMessages>() {
+        @Override
+        protected StagedMessages initialValue() {
+          return new StagedMessages();
+        }
+      };
+
+  /**
+   * Constructor
+   *
+   * @param service Service worker
+   * @param combiner Message combiner
+   * @param numStripes Number of lock stripes per partition
+   */
+  protected PrimitiveCombinerMessageStore(
+      CentralizedServiceWorker<I, ?, ?> service, Combiner<I, M> combiner,
+      int numStripes) {
+    this.service = service;
+    this.combiner = combiner;
+    this.numStripes = MessageStoreStripes.checkNumStripes(numStripes);
+
+    map = new Int2ObjectOpenHashMap<List<T>>();
+    for (int partitionId : service.getPartitionStore().getPartitionIds()) {
+      Partition<I, ?, ?> partition =
+          service.getPartitionStore().getPartition(partitionId);
+      map.put(partitionId,
+          createPartitionMaps((int) partition.getVertexCount()));
+    }
+  }
+
+  /**
+   * Create an empty map of a stripe.  Called from the constructor, so it
+   * must not use the fields of the subclass.
+   *
+   * @param expectedSize Expected number of vertices with messages
+   * @return Map from vertex id to message
+   */
+  protected abstract T createStripeMap(int expectedSize);
+
+  /**
+   * Create a message to reuse.
+   *
+   * @return Message
+   */
+  protected abstract M createMessage();
+
+  /**
+   * Create a buffer for the messages of a stripe, used by a single thread.
+   *
+   * @return Empty buffer
+   */
+  protected abstract StagedStripe<I, M, T> createStagedStripe();
+
+  /**
+   * Get the stripe of a vertex, see {@link MessageStoreStripes}.
+   *
+   * @param vertexId Id of the vertex
+   * @return Stripe of the vertex
+   */
+  protected abstract int getStripe(I vertexId);
+
+  /**
+   * Check if there is a message for a vertex.
+   *
+   * @param stripeMap Map of the stripe of the vertex
+   * @param vertexId Id of the vertex
+   * @return True iff there is a message for the vertex
+   */
+  protected abstract boolean hasMessage(T stripeMap, I vertexId);
+
+  /**
+   * Get the message for a vertex.
+   *
+   * @param stripeMap Map of the stripe of the vertex
+   * @param vertexId Id of the vertex
+   * @param message Set to the message of the vertex, if there is one
+   * @return False if there is no message for the vertex
+   */
+  protected abstract boolean getMessage(T stripeMap, I vertexId, M message);
+
+  /**
+   * Store the message for a vertex, replacing any message it had.
+   *
+   * @param stripeMap Map of the stripe of the vertex
+   * @param vertexId Id of the vertex
+   * @param message Message of the vertex
+   */
+  protected abstract void putMessage(T stripeMap, I vertexId, M message);
+
+  /**
+   * Remove and get the message for a vertex.
+   *
+   * @param stripeMap Map of the stripe of the vertex
+   * @param vertexId Id of the vertex
+   * @param message Set to the message of the vertex, if there is one
+   * @return False if there is no message for the vertex
+   */
+  protected abstract boolean removeMessage(T stripeMap, I vertexId,
+      M message);
+
+  /**
+   * Remove the message for a vertex, if there is one.
+   *
+   * @param stripeMap Map of the stripe of the vertex
+   * @param vertexId Id of the vertex
+   */
+  protected abstract void clearMessage(T stripeMap, I vertexId);
+
+  /**
+   * Add the ids of all vertices with messages in a stripe to a list.
+   *
+   * @param stripeMap Map of the stripe
+   * @param vertexIds List to add the new vertex ids to
+   */
+  protected abstract void addVertexIds(T stripeMap, List<I> vertexIds);
+
+  /**
+   * Write the vertex ids and messages of a stripe.
+   *
+   * @param out Output to write to
+   * @param stripeMap Map of the stripe
+   * @throws IOException
+   */
+  protected abstract void writeStripe(DataOutput out, T stripeMap)
+    throws IOException;
+
+  /**
+   * Read a vertex id and message written by
+   * {@link #writeStripe(DataOutput, Map)} and store it in its stripe.
+   *
+   * @param in Input to read from
+   * @param stripeMaps Maps of the partition, one per stripe
+   * @throws IOException
+   */
+  protected abstract void readMessage(DataInput in, List<T> stripeMaps)
+    throws IOException;
+
+  /**
+   * Get the number of lock stripes per partition.
+   *
+   * @return Number of stripes, a power of two
+   */
+  protected int getNumStripes() {
+    return numStripes;
+  }
+
+  /**
+   * Get the message combiner.
+   *
+   * @return Message combiner
+   */
+  protected Combiner<I, M> getCombiner() {
+    return combiner;
+  }
+
+  /**
+   * Create the stripes of maps for a partition.
+   *
+   * @param expectedSize Expected number of vertices with messages
+   * @return Maps from vertex id to message, one per stripe
+   */
+  private List<T> createPartitionMaps(int expectedSize) {
+    List<T> partitionMaps = Lists.newArrayListWithCapacity(numStripes);
+    for (int i = 0; i < numStripes; ++i) {
+      partitionMaps.add(createStripeMap(expectedSize / numStripes));
+    }
+    return partitionMaps;
+  }
+
+  /**
+   * Get map which holds messages for the stripe which vertex belongs to.
+   *
+   * @param vertexId Id of the vertex
+   * @return Map which holds messages for the stripe which vertex belongs to.
+   */
+  private T getStripeMap(I vertexId) {
+    return map.get(service.getPartitionId(vertexId)).get(getStripe(vertexId));
+  }
+
+  @Override
+  public void addPartitionMessages(int partitionId,
+      ByteArrayVertexIdMessages<I, M> messages) throws IOException {
+    // Deserialize and group the messages by stripe without holding any lock
+    List<StagedStripe<I, M, T>> staged = stagedMessages.get().stripes;
+    ByteArrayVertexIdMessages<I, M>.VertexIdMessageIterator iterator =
+        messages.getVertexIdMessageIterator();
+    while (iterator.hasNext()) {
+      iterator.next();
+      I vertexId = iterator.getCurrentVertexId();
+      staged.get(getStripe(vertexId)).add(vertexId,
+          iterator.getCurrentMessage());
+    }
+
+    List<T> partitionMaps = map.get(partitionId);
+    for (int stripe = 0; stripe < numStripes; ++stripe) {
+      StagedStripe<I, M, T> stagedStripe = staged.get(stripe);
+      if (stagedStripe.isEmpty()) {
+        continue;
+      }
+      T stripeMap = partitionMaps.get(stripe);
+      synchronized (stripeMap) {
+        stagedStripe.combineInto(stripeMap);
+      }
+      stagedStripe.clear();
+    }
+  }
+
+  @Override
+  public void addMessage(int partitionId, I vertexId, M message)
+    throws IOException {
+    M currentMessage = stagedMessages.get().currentMessage;
+    T stripeMap = map.get(partitionId).get(getStripe(vertexId));
+    synchronized (stripeMap) {
+      if (getMessage(stripeMap, vertexId, currentMessage)) {
+        combiner.combine(vertexId, currentMessage, message);
+        putMessage(stripeMap, vertexId, currentMessage);
+      } else {
+        putMessage(stripeMap, vertexId, message);
+      }
+    }
+  }
+
+  @Override
+  public void clearPartition(int partitionId) throws IOException {
+    for (T stripeMap : map.get(partitionId)) {
+      stripeMap.clear();
+    }
+  }
+
+  @Override
+  public boolean hasMessagesForVertex(I vertexId) {
+    T stripeMap = getStripeMap(vertexId);
+    synchronized (stripeMap) {
+      return hasMessage(stripeMap, vertexId);
+    }
+  }
+
+  @Override
+  public Iterable<M> getVertexMessages(I vertexId) throws IOException {
+    ReusableSingletonIterable<M> messages = reusableMessages.get();
+    T stripeMap = getStripeMap(vertexId);
+    synchronized (stripeMap) {
+      if (!getMessage(stripeMap, vertexId, messages.getValue())) {
+        return EmptyIterable.get();
+      }
+    }
+    return messages;
+  }
+
+  @Override
+  public Iterable<M> removeVertexMessages(I vertexId) throws IOException {
+    ReusableSingletonIterable<M> messages = reusableMessages.get();
+    T stripeMap = getStripeMap(vertexId);
+    synchronized (stripeMap) {
+      if (!removeMessage(stripeMap, vertexId, messages.getValue())) {
+        return EmptyIterable.get();
+      }
+    }
+    return messages;
+  }
+
+  @Override
+  public void clearVertexMessages(I vertexId) throws IOException {
+    T stripeMap = getStripeMap(vertexId);
+    synchronized (stripeMap) {
+      clearMessage(stripeMap, vertexId);
+    }
+  }
+
+  @Override
+  public void clearAll() throws IOException {
+    map.clear();
+  }
+
+  @Override
+  public Iterable<I> getPartitionDestinationVertices(int partitionId) {
+    List<T> partitionMaps = map.get(partitionId);
+    List<I> vertices = Lists.newArrayListWithCapacity(getSize(partitionMaps));
+    for (T stripeMap : partitionMaps) {
+      addVertexIds(stripeMap, vertices);
+    }
+    return vertices;
+  }
+
+  /**
+   * Get the number of vertices with messages in all stripes of a partition.
+   *
+   * @param partitionMaps Maps of the partition, one per stripe
+   * @return Number of vertices with messages
+   */
+  private int getSize(List<T> partitionMaps) {
+    int size = 0;
+    for (T stripeMap : partitionMaps) {
+      size += stripeMap.size();
+    }
+    return size;
+  }
+
+  @Override
+  public void writePartition(DataOutput out,
+      int partitionId) throws IOException {
+    List<T> partitionMaps = map.get(partitionId);
+    out.writeInt(getSize(partitionMaps));
+    for (T stripeMap : partitionMaps) {
+      writeStripe(out, stripeMap);
+    }
+  }
+
+  @Override
+  public void readFieldsForPartition(DataInput in,
+      int partitionId) throws IOException {
+    int size = in.readInt();
+    List<T> partitionMaps = createPartitionMaps(size);
+    while (size-- > 0) {
+      readMessage(in, partitionMaps);
+    }
+    synchronized (map) {
+      map.put(partitionId, partitionMaps);
+    }
+  }
+
+  /**
+   * Messages of a request for a single stripe, deserialized to primitives
+   * before the stripe is locked.  Used by a single thread.
+   *
+   * @param <I> Vertex id
+   * @param <M> Message data
+   * @param <T> Primitive map from vertex id to message
+   */
+  protected interface StagedStripe<I extends WritableComparable,
+      M extends Writable, T> {
+    /**
+     * Add a message, the vertex id and message may be reused afterwards.
+     *
+     * @param vertexId Id of the vertex
+     * @param message Message for the vertex
+     */
+    void add(I vertexId, M message);
+
+    /**
+     * Check if there are no messages.
+     *
+     * @return True iff there are no messages
+     */
+    boolean isEmpty();
+
+    /**
+     * Combine the messages into the map of the stripe.  The caller holds
+     * the lock of the map.
+     *
+     * @param stripeMap Map of the stripe
+     */
+    void combineInto(T stripeMap);
+
+    /**
+     * Remove all messages.
+     */
+    void clear();
+  }
+
+  /**
+   * Buffers of one thread: messages of a request, deserialized and grouped
+   * by stripe before any stripe is locked, and a message to combine into.
+   */
+  private class StagedMessages {
+    /** Messages, per stripe */
+    private final List<StagedStripe<I, M, T>> stripes =
+        Lists.newArrayListWithCapacity(numStripes);
+    /** Reused for the message already stored when combining directly */
+    private final M currentMessage = createMessage();
+
+    /** Constructor */
+    StagedMessages() {
+      for (int i = 0; i < numStripes; ++i) {
+        stripes.add(createStagedStripe());
+      }
+    }
+  }
+}
@@ -18,6 +18,7 @@
 
 package org.apache.giraph.comm.netty;
 
+import org.apache.giraph.comm.requests.RequestType;
 import org.apache.giraph.metrics.GiraphMetrics;
 import org.apache.giraph.metrics.MeterDesc;
 import org.apache.giraph.metrics.MetricNames;
@@ -38,6 +39,7 @@ import com.yammer.metrics.core.NoOpHistogram;
 import com.yammer.metrics.core.NoOpMeter;
 
 import java.text.DecimalFormat;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -68,6 +70,10 @@ public class ByteCounter extends SimpleChannelHandler implements
   private final AtomicLong startMsecs = new AtomicLong(TIME.getMilliseconds());
   /** Last updated msecs for getMetricsWindow */
   private final AtomicLong metricsWindowLastUpdatedMsecs = new AtomicLong();
+  /** Bytes of request bodies before compression (or after decompression) */
+  private final AtomicLong uncompressedBytes = new AtomicLong();
+  /** Bytes of request bodies after compression (or before decompression) */
+  private final AtomicLong compressedBytes = new AtomicLong();
 
   // Metrics
   /** Meter of requests sent */
@@ -78,6 +84,8 @@ public class ByteCounter extends SimpleChannelHandler implements
   private Meter receivedRequestsMeter = NoOpMeter.INSTANCE;
   /** Histogram of bytes received */
   private Histogram receivedBytesHist = NoOpHistogram.INSTANCE;
+  /** Registry for the per request type compression metrics */
+  private volatile SuperstepMetricsRegistry superstepMetrics;
 
   /** Constructor */
   public ByteCounter() {
@@ -87,6 +95,7 @@ public class ByteCounter extends SimpleChannelHandler implements
 
   @Override
   public void newSuperstep(SuperstepMetricsRegistry superstepMetrics) {
+    this.superstepMetrics = superstepMetrics;
     sentRequestsMeter = superstepMetrics.getMeter(MeterDesc.SENT_REQUESTS);
     sentBytesHist = superstepMetrics.getUniformHistogram(
         MetricNames.SENT_BYTES);
@@ -136,6 +145,60 @@ public class ByteCounter extends SimpleChannelHandler implements
     super.handleDownstream(ctx, e);
   }
 
+  /**
+   * Record a request body which was compressed before being sent.
+   *
+   * @param type Type of the request
+   * @param uncompressedSize Size of the body before compression
+   * @param compressedSize Size of the body after compression
+   * @param nanos Nanoseconds spent compressing
+   */
+  public void recordCompression(RequestType type, int uncompressedSize,
+      int compressedSize, long nanos) {
+    recordCompressionMetrics(type, "compress", uncompressedSize,
+        compressedSize, nanos);
+  }
+
+  /**
+   * Record a request body which was decompressed after being received.
+   *
+   * @param type Type of the request
+   * @param uncompressedSize Size of the body after decompression
+   * @param compressedSize Size of the body before decompression
+   * @param nanos Nanoseconds spent decompressing
+   */
+  public void recordDecompression(RequestType type, int uncompressedSize,
+      int compressedSize, long nanos) {
+    recordCompressionMetrics(type, "decompress", uncompressedSize,
+        compressedSize, nanos);
+  }
+
+  /**
+   * Update the totals and the per request type superstep metrics of
+   * compression or decompression.
+   *
+   * @param type Type of the request
+   * @param operation Either "compress" or "decompress"
+   * @param uncompressedSize Size of the uncompressed body
+   * @param compressedSize Size of the compressed body
+   * @param nanos Nanoseconds spent
+   */
+  private void recordCompressionMetrics(RequestType type, String operation,
+      int uncompressedSize, int compressedSize, long nanos) {
+    uncompressedBytes.addAndGet(uncompressedSize);
+    compressedBytes.addAndGet(compressedSize);
+    SuperstepMetricsRegistry metrics = superstepMetrics;
+    if (metrics != null) {
+      String prefix = operation + "-" + type.name().toLowerCase();
+      metrics.getUniformHistogram(prefix + "-" +
+          MetricNames.COMPRESSED_PERCENT_SUFFIX).update(
+          compressedSize * 100L / Math.max(1, uncompressedSize));
+      metrics.getTimer(prefix + "-" + MetricNames.COMPRESSION_TIME_SUFFIX,
+          TimeUnit.MICROSECONDS, TimeUnit.SECONDS).update(
+          nanos, TimeUnit.NANOSECONDS);
+    }
+  }
+
   /**
    * Reset all the bytes kept track of.
    */
@@ -144,6 +207,8 @@ public class ByteCounter extends SimpleChannelHandler implements
     sentRequests.set(0);
     bytesReceived.set(0);
     receivedRequests.set(0);
+    uncompressedBytes.set(0);
+    compressedBytes.set(0);
   }
 
   /**
@@ -197,6 +262,11 @@ public class ByteCounter extends SimpleChannelHandler implements
         (curSentRequests == 0) ? 0 : mBytesSent / curSentRequests;
     double mBytesReceivedPerReq =
         (curReceivedRequests == 0) ? 0 : mBytesReceived / curReceivedRequests;
+    long curUncompressedBytes = uncompressedBytes.get();
+    String compression = (curUncompressedBytes == 0) ? "" :
+        ", compressed requests MBytes = " +
+        DOUBLE_FORMAT.format(curUncompressedBytes / MEGABYTE) + " -> " +
+        DOUBLE_FORMAT.format(compressedBytes.get() / MEGABYTE);
     return "MBytes/sec sent = " +
         DOUBLE_FORMAT.format(getMbytesPerSecSent()) +
         ", MBytes/sec received = " +
@@ -208,7 +278,8 @@ public class ByteCounter extends SimpleChannelHandler implements
         ", ave received req MBytes = " +
         DOUBLE_FORMAT.format(mBytesReceivedPerReq) +
         ", secs waited = " +
-        ((TIME.getMilliseconds() - startMsecs.get()) / 1000f);
+        ((TIME.getMilliseconds() - startMsecs.get()) / 1000f) +
+        compression;
   }
 
   /**
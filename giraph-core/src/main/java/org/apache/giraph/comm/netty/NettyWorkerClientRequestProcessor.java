@@ -20,6 +20,7 @@ package org.apache.giraph.comm.netty;
 import org.apache.giraph.bsp.BspService;
 import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.comm.SendEdgeCache;
+import org.apache.giraph.comm.SendCombinedMessageCache;
 import org.apache.giraph.comm.SendMessageCache;
 import org.apache.giraph.comm.SendMessageToAllCache;
 import org.apache.giraph.comm.SendMutationsCache;
@@ -63,6 +64,7 @@ import java.util.Map;
 import static org.apache.giraph.conf.GiraphConstants.MAX_EDGE_REQUEST_SIZE;
 import static org.apache.giraph.conf.GiraphConstants.MAX_MSG_REQUEST_SIZE;
 import static org.apache.giraph.conf.GiraphConstants.MAX_MUTATIONS_PER_REQUEST;
+import static org.apache.giraph.conf.GiraphConstants.SENDER_SIDE_COMBINING;
 
 /**
  * Aggregate requests and sends them to the thread-safe NettyClient.  This
@@ -127,7 +129,12 @@ public class NettyWorkerClientRequestProcessor<I extends WritableComparable,
     sendPartitionCache = new SendPartitionCache<I, V, E>(context, conf);
     sendEdgeCache = new SendEdgeCache<I, E>(conf, serviceWorker);
     maxMessagesSizePerWorker = MAX_MSG_REQUEST_SIZE.get(conf);
-    if (this.configuration.isOneToAllMsgSendingEnabled()) {
+    if (SENDER_SIDE_COMBINING.get(conf) &&
+        SendCombinedMessageCache.canCombine(conf)) {
+      sendMessageCache =
+        new SendCombinedMessageCache<I, Writable>(conf, serviceWorker,
+          this, maxMessagesSizePerWorker);
+    } else if (this.configuration.isOneToAllMsgSendingEnabled()) {
       sendMessageCache =
         new SendMessageToAllCache<I, Writable>(conf, serviceWorker,
           this, maxMessagesSizePerWorker);
@@ -436,11 +443,21 @@ public class NettyWorkerClientRequestProcessor<I extends WritableComparable,
     return this.sendMessageCache.resetMessageCount();
   }
 
+  @Override
+  public long resetLocalMessageCount() {
+    return this.sendMessageCache.resetLocalMessageCount();
+  }
+
   @Override
   public long resetMessageBytesCount() {
     return this.sendMessageCache.resetMessageBytesCount();
   }
 
+  @Override
+  public long resetMessageBytesSavedCount() {
+    return this.sendMessageCache.resetMessageBytesSavedCount();
+  }
+
   /**
    * When doing the request, short circuit if it is local
    *
@@ -25,13 +25,15 @@ import org.apache.giraph.comm.messages.out_of_core.DiskBackedMessageStore;
 import org.apache.giraph.comm.messages.InMemoryMessageStoreFactory;
 import org.apache.giraph.comm.messages.MessageStore;
 import org.apache.giraph.comm.messages.MessageStoreFactory;
+import org.apache.giraph.comm.messages.out_of_core.MappedFileMessageStore;
 import org.apache.giraph.comm.messages.out_of_core.PartitionDiskBackedMessageStore;
-import org.apache.giraph.comm.messages.out_of_core.SequentialFileMessageStore;
 import org.apache.giraph.comm.netty.handler.WorkerRequestServerHandler;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.ChangedVertices;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.graph.VertexMutations;
 import org.apache.giraph.graph.VertexResolver;
+import org.apache.giraph.partition.ActiveVerticesPartition;
 import org.apache.giraph.partition.Partition;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
@@ -46,7 +48,8 @@ import java.net.InetSocketAddress;
 import java.util.Collection;
 import java.util.Map.Entry;
 
-import static org.apache.giraph.conf.GiraphConstants.MAX_MESSAGES_IN_MEMORY;
+import static org.apache.giraph.conf.GiraphConstants.ACTIVE_VERTEX_INDEX;
+import static org.apache.giraph.conf.GiraphConstants.MAX_MESSAGE_BYTES_IN_MEMORY;
 import static org.apache.giraph.conf.GiraphConstants.USE_OUT_OF_CORE_MESSAGES;
 
 /**
@@ -111,19 +114,19 @@ public class NettyWorkerServer<I extends WritableComparable,
     if (!useOutOfCoreMessaging) {
       return new InMemoryMessageStoreFactory<I, Writable>(service, conf);
     } else {
-      int maxMessagesInMemory = MAX_MESSAGES_IN_MEMORY.get(conf);
+      long maxMessageBytesInMemory = MAX_MESSAGE_BYTES_IN_MEMORY.get(conf);
       if (LOG.isInfoEnabled()) {
         LOG.info("createMessageStoreFactory: Using DiskBackedMessageStore, " +
-            "maxMessagesInMemory = " + maxMessagesInMemory);
+            "maxMessageBytesInMemory = " + maxMessageBytesInMemory);
       }
-      MessageStoreFactory<I, Writable, SequentialFileMessageStore<I, Writable>>
-          fileStoreFactory = SequentialFileMessageStore.newFactory(conf);
+      MessageStoreFactory<I, Writable, MappedFileMessageStore<I, Writable>>
+          fileStoreFactory = MappedFileMessageStore.newFactory(conf);
       MessageStoreFactory<I, Writable,
           PartitionDiskBackedMessageStore<I, Writable>>
           partitionStoreFactory =
           PartitionDiskBackedMessageStore.newFactory(conf, fileStoreFactory);
       return DiskBackedMessageStore.newFactory(service,
-          maxMessagesInMemory, partitionStoreFactory);
+          maxMessageBytesInMemory, partitionStoreFactory);
     }
   }
 
@@ -162,13 +165,21 @@ public class NettyWorkerServer<I extends WritableComparable,
       if (!Iterables.isEmpty(destinations)) {
         Partition<I, V, E> partition =
             service.getPartitionStore().getPartition(partitionId);
+        boolean indexed = ACTIVE_VERTEX_INDEX.get(conf) &&
+            partition instanceof ActiveVerticesPartition;
         for (I vertexId : destinations) {
-          if (partition.getVertex(vertexId) == null) {
+          Vertex<I, V, E> vertex = partition.getVertex(vertexId);
+          if (vertex == null) {
             if (!resolveVertexIndices.put(partitionId, vertexId)) {
               throw new IllegalStateException(
                   "resolveMutations: Already has missing vertex on this " +
                       "worker for " + vertexId);
             }
+          } else if (indexed && vertex.isHalted()) {
+            // Vertices with messages will be woken up in compute anyway,
+            // do it here so that the active vertex index sees them
+            vertex.wakeUp();
+            partition.saveVertex(vertex);
           }
         }
         service.getPartitionStore().putPartition(partition);
@@ -176,6 +187,7 @@ public class NettyWorkerServer<I extends WritableComparable,
     }
     // Resolve all graph mutations
     VertexResolver<I, V, E> vertexResolver = conf.createVertexResolver();
+    ChangedVertices<I, V, E> changedVertices = service.getChangedVertices();
     for (Entry<Integer, Collection<I>> e :
         resolveVertexIndices.asMap().entrySet()) {
       Partition<I, V, E> partition =
@@ -183,6 +195,8 @@ public class NettyWorkerServer<I extends WritableComparable,
       for (I vertexIndex : e.getValue()) {
         Vertex<I, V, E> originalVertex =
             partition.getVertex(vertexIndex);
+        int originalEdges =
+            (originalVertex == null) ? 0 : originalVertex.getNumEdges();
 
         VertexMutations<I, V, E> mutations = null;
         VertexMutations<I, V, E> vertexMutations =
@@ -209,8 +223,21 @@ public class NettyWorkerServer<I extends WritableComparable,
         }
         if (vertex != null) {
           partition.putVertex(vertex);
+          if (changedVertices != null &&
+              (vertex != originalVertex || mutations != null)) {
+            changedVertices.markChanged(vertexIndex);
+          }
         } else if (originalVertex != null) {
           partition.removeVertex(originalVertex.getId());
+          if (changedVertices != null) {
+            changedVertices.markRemoved(vertexIndex);
+          }
+        }
+        // The resolver may have changed the original vertex in place
+        if (originalVertex != null &&
+            partition instanceof ActiveVerticesPartition) {
+          ((ActiveVerticesPartition<I, V, E>) partition).addEdgeCount(
+              originalVertex.getNumEdges() - originalEdges);
         }
       }
       service.getPartitionStore().putPartition(partition);
@@ -18,6 +18,8 @@
 
 package org.apache.giraph.comm.netty.handler;
 
+import org.apache.giraph.comm.compression.RequestCompressionCodec;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.comm.netty.ByteCounter;
 import org.apache.giraph.comm.requests.RequestType;
@@ -29,10 +31,13 @@ import org.apache.giraph.time.Times;
 import org.apache.log4j.Logger;
 import org.jboss.netty.buffer.ChannelBuffer;
 import org.jboss.netty.buffer.ChannelBufferInputStream;
+import org.jboss.netty.buffer.ChannelBuffers;
 import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneDecoder;
 
+import java.io.IOException;
+
 /**
  * Decodes encoded requests from the client.
  */
@@ -46,6 +51,8 @@ public class RequestDecoder extends OneToOneDecoder {
   private final ImmutableClassesGiraphConfiguration conf;
   /** Byte counter to output */
   private final ByteCounter byteCounter;
+  /** Codec to decompress requests with, null if not configured */
+  private final RequestCompressionCodec compressionCodec;
   /** Start nanoseconds for the decoding time */
   private long startDecodingNanoseconds = -1;
   /**
@@ -58,6 +65,8 @@ public class RequestDecoder extends OneToOneDecoder {
                         ByteCounter byteCounter) {
     this.conf = conf;
     this.byteCounter = byteCounter;
+    compressionCodec =
+        GiraphConstants.NETTY_COMPRESSION_CODEC.newInstance(conf);
   }
 
   @Override
@@ -82,8 +91,13 @@ public class RequestDecoder extends OneToOneDecoder {
     // Decode the request
     ChannelBuffer buffer = (ChannelBuffer) msg;
     ChannelBufferInputStream inputStream = new ChannelBufferInputStream(buffer);
-    int enumValue = inputStream.readByte();
-    RequestType type = RequestType.values()[enumValue];
+    int enumValue = inputStream.readUnsignedByte();
+    RequestType type = RequestType.values()[
+        enumValue & ~RequestEncoder.COMPRESSED_TYPE_FLAG];
+    if ((enumValue & RequestEncoder.COMPRESSED_TYPE_FLAG) != 0) {
+      buffer = decompress(type, buffer);
+      inputStream = new ChannelBufferInputStream(buffer);
+    }
     Class<? extends WritableRequest> writableRequestClass =
         type.getRequestClass();
 
@@ -100,4 +114,36 @@ public class RequestDecoder extends OneToOneDecoder {
 
     return writableRequest;
   }
+
+  /**
+   * Decompress the body of a compressed request.
+   *
+   * @param type Type of the request
+   * @param buffer Buffer positioned at the uncompressed size, followed by
+   *               the compressed body
+   * @return Buffer with the uncompressed body
+   * @throws IOException
+   */
+  private ChannelBuffer decompress(RequestType type, ChannelBuffer buffer)
+    throws IOException {
+    if (compressionCodec == null) {
+      throw new IllegalStateException("decompress: Got a compressed " + type +
+          " but " + GiraphConstants.NETTY_COMPRESSION_CODEC.getKey() +
+          " is not set");
+    }
+    long startNanos = TIME.getNanoseconds();
+    byte[] body = new byte[buffer.readInt()];
+    int compressedSize = buffer.readableBytes();
+    if (buffer.hasArray()) {
+      compressionCodec.decompress(buffer.array(),
+          buffer.arrayOffset() + buffer.readerIndex(), compressedSize, body);
+    } else {
+      byte[] compressedBody = new byte[compressedSize];
+      buffer.readBytes(compressedBody);
+      compressionCodec.decompress(compressedBody, 0, compressedSize, body);
+    }
+    byteCounter.recordDecompression(type, body.length, compressedSize,
+        Times.getNanosSince(TIME, startNanos));
+    return ChannelBuffers.wrappedBuffer(body);
+  }
 }
@@ -18,6 +18,9 @@
 
 package org.apache.giraph.comm.netty.handler;
 
+import org.apache.giraph.comm.compression.RequestCompressionCodec;
+import org.apache.giraph.comm.netty.ByteCounter;
+import org.apache.giraph.comm.requests.RequestType;
 import org.apache.giraph.comm.requests.WritableRequest;
 import org.apache.giraph.conf.GiraphConfiguration;
 import org.apache.giraph.conf.GiraphConstants;
@@ -32,20 +35,35 @@ import org.jboss.netty.channel.Channel;
 import org.jboss.netty.channel.ChannelHandlerContext;
 import org.jboss.netty.handler.codec.oneone.OneToOneEncoder;
 
+import java.io.IOException;
+
 /**
- * Requests have a request type and an encoded request.
+ * Requests have a request type and an encoded request. If a compression
+ * codec is configured, large enough requests are compressed: their type is
+ * marked with {@link #COMPRESSED_TYPE_FLAG} and followed by the uncompressed
+ * size and the compressed request.
  */
 public class RequestEncoder extends OneToOneEncoder {
+  /** Flag set in the request type byte of compressed requests */
+  public static final int COMPRESSED_TYPE_FLAG = 0x80;
   /** Time class to use */
   private static final Time TIME = SystemTime.get();
   /** Class logger */
   private static final Logger LOG = Logger.getLogger(RequestEncoder.class);
   /** Holds the place of the message length until known */
   private static final byte[] LENGTH_PLACEHOLDER = new byte[4];
+  /** Size of the length and the request type */
+  private static final int HEADER_SIZE = LENGTH_PLACEHOLDER.length + 1;
   /** Buffer starting size */
   private final int bufferStartingSize;
   /** Whether or not to use direct byte buffers */
   private final boolean useDirectBuffers;
+  /** Codec to compress requests with, null if not compressing */
+  private final RequestCompressionCodec compressionCodec;
+  /** Smallest request body size to compress */
+  private final int compressionMinRequestSize;
+  /** Keeps track of the compressed bytes */
+  private final ByteCounter byteCounter;
   /** Start nanoseconds for the encoding time */
   private long startEncodingNanoseconds = -1;
 
@@ -53,12 +71,18 @@ public class RequestEncoder extends OneToOneEncoder {
    * Constructor.
    *
    * @param conf Giraph configuration
+   * @param byteCounter Keeps track of the compressed bytes
    */
-  public RequestEncoder(GiraphConfiguration conf) {
+  public RequestEncoder(GiraphConfiguration conf, ByteCounter byteCounter) {
     bufferStartingSize =
         GiraphConstants.NETTY_REQUEST_ENCODER_BUFFER_SIZE.get(conf);
     useDirectBuffers =
         GiraphConstants.NETTY_REQUEST_ENCODER_USE_DIRECT_BUFFERS.get(conf);
+    compressionCodec =
+        GiraphConstants.NETTY_COMPRESSION_CODEC.newInstance(conf);
+    compressionMinRequestSize =
+        GiraphConstants.NETTY_COMPRESSION_MIN_REQUEST_SIZE.get(conf);
+    this.byteCounter = byteCounter;
   }
 
   @Override
@@ -81,7 +105,7 @@ public class RequestEncoder extends OneToOneEncoder {
           bufferStartingSize,
           ctx.getChannel().getConfig().getBufferFactory());
     } else {
-      requestSize += LENGTH_PLACEHOLDER.length + 1;
+      requestSize += HEADER_SIZE;
       channelBuffer = useDirectBuffers ?
           ChannelBuffers.directBuffer(requestSize) :
           ChannelBuffers.buffer(requestSize);
@@ -101,8 +125,14 @@ public class RequestEncoder extends OneToOneEncoder {
     outputStream.flush();
     outputStream.close();
 
-    // Set the correct size at the end
     ChannelBuffer encodedBuffer = outputStream.buffer();
+    int bodySize = encodedBuffer.writerIndex() - HEADER_SIZE;
+    if (compressionCodec != null && bodySize >= compressionMinRequestSize) {
+      encodedBuffer = compress(ctx, writableRequest.getType(), encodedBuffer,
+          bodySize);
+    }
+
+    // Set the correct size at the end
     encodedBuffer.setInt(0, encodedBuffer.writerIndex() - 4);
     if (LOG.isDebugEnabled()) {
       LOG.debug("encode: Client " + writableRequest.getClientId() + ", " +
@@ -113,4 +143,49 @@ public class RequestEncoder extends OneToOneEncoder {
     }
     return encodedBuffer;
   }
+
+  /**
+   * Compress the body of an encoded request.
+   *
+   * @param ctx Channel handler context
+   * @param type Type of the request
+   * @param encodedBuffer Encoded request with the uncompressed body
+   * @param bodySize Size of the uncompressed body
+   * @return Encoded request with the compressed body, or the original one
+   *         if compressing didn't make it smaller
+   * @throws IOException
+   */
+  private ChannelBuffer compress(ChannelHandlerContext ctx, RequestType type,
+      ChannelBuffer encodedBuffer, int bodySize) throws IOException {
+    long startNanos = TIME.getNanoseconds();
+    byte[] body;
+    int bodyOffset;
+    if (encodedBuffer.hasArray()) {
+      body = encodedBuffer.array();
+      bodyOffset = encodedBuffer.arrayOffset() + HEADER_SIZE;
+    } else {
+      body = new byte[bodySize];
+      encodedBuffer.getBytes(HEADER_SIZE, body);
+      bodyOffset = 0;
+    }
+    ChannelBuffer compressedBuffer = ChannelBuffers.dynamicBuffer(
+        Math.max(bufferStartingSize, bodySize / 2),
+        ctx.getChannel().getConfig().getBufferFactory());
+    ChannelBufferOutputStream outputStream =
+        new ChannelBufferOutputStream(compressedBuffer);
+    outputStream.write(LENGTH_PLACEHOLDER);
+    outputStream.writeByte(type.ordinal() | COMPRESSED_TYPE_FLAG);
+    outputStream.writeInt(bodySize);
+    compressionCodec.compress(body, bodyOffset, bodySize, outputStream);
+    outputStream.flush();
+    outputStream.close();
+
+    int compressedSize = compressedBuffer.writerIndex() - HEADER_SIZE - 4;
+    byteCounter.recordCompression(type, bodySize, compressedSize,
+        Times.getNanosSince(TIME, startNanos));
+    if (compressedBuffer.writerIndex() >= encodedBuffer.writerIndex()) {
+      return encodedBuffer;
+    }
+    return compressedBuffer;
+  }
 }
@@ -39,6 +39,10 @@ public enum RequestType {
   /** Sending one-to-all messages to a worker for next superstep */
   SEND_WORKER_ONETOALL_MESSAGES_REQUEST(
     SendWorkerOneToAllMessagesRequest.class),
+  /** Register the targets of a hub vertex owned by a worker */
+  SEND_WORKER_MIRROR_EDGES_REQUEST(SendWorkerMirrorEdgesRequest.class),
+  /** Sending hub messages to a worker holding their mirrors */
+  SEND_WORKER_MIRROR_MESSAGES_REQUEST(SendWorkerMirrorMessagesRequest.class),
   /**
    * Sending a partition of messages for current superstep
    * (used during partition exchange)
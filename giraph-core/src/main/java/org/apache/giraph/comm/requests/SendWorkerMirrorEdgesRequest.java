@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.comm.requests;
+
+import org.apache.giraph.comm.ServerData;
+import org.apache.giraph.utils.ExtendedDataOutput;
+import org.apache.giraph.utils.WritableUtils;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Register the targets of a hub vertex which are owned by a worker, so the
+ * hub can send a single message for all of them afterwards.
+ *
+ * @param <I> Vertex id
+ */
+@SuppressWarnings("unchecked")
+public class SendWorkerMirrorEdgesRequest<I extends WritableComparable>
+    extends WritableRequest<I, Writable, Writable>
+    implements WorkerRequest<I, Writable, Writable> {
+  /** Hub vertex id */
+  private I hubId;
+  /** Number of targets */
+  private int numTargets;
+  /** Serialized target ids */
+  private ExtendedDataOutput targetIds;
+
+  /**
+   * Constructor used for reflection only.
+   */
+  public SendWorkerMirrorEdgesRequest() { }
+
+  /**
+   * Constructor used to send request.
+   *
+   * @param hubId Hub vertex id
+   * @param numTargets Number of targets
+   * @param targetIds Serialized target ids
+   */
+  public SendWorkerMirrorEdgesRequest(I hubId, int numTargets,
+      ExtendedDataOutput targetIds) {
+    this.hubId = hubId;
+    this.numTargets = numTargets;
+    this.targetIds = targetIds;
+  }
+
+  @Override
+  public RequestType getType() {
+    return RequestType.SEND_WORKER_MIRROR_EDGES_REQUEST;
+  }
+
+  @Override
+  public void readFieldsRequest(DataInput input) throws IOException {
+    hubId = getConf().createVertexId();
+    hubId.readFields(input);
+    numTargets = input.readInt();
+    targetIds = WritableUtils.readExtendedDataOutput(input, getConf());
+  }
+
+  @Override
+  public void writeRequest(DataOutput output) throws IOException {
+    hubId.write(output);
+    output.writeInt(numTargets);
+    WritableUtils.writeExtendedDataOutput(targetIds, output);
+  }
+
+  @Override
+  public int getSerializedSize() {
+    // The size of the hub id is not known
+    return UNKNOWN_SIZE;
+  }
+
+  @Override
+  public void doRequest(ServerData serverData) {
+    serverData.getHubMirrorStore().addMirror(serverData.getServiceWorker(),
+        hubId, numTargets, targetIds);
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.comm.requests;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import org.apache.giraph.comm.ServerData;
+import org.apache.giraph.comm.messages.HubMirrorStore;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.utils.ByteArrayVertexIdMessages;
+import org.apache.giraph.utils.ExtendedDataInput;
+import org.apache.giraph.utils.ExtendedDataOutput;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Send messages of hub vertices to a worker holding their mirrors.  Each
+ * message is added for all the targets of its hub owned by the worker.
+ *
+ * @param <I> Vertex id
+ * @param <M> Message data
+ */
+@SuppressWarnings("unchecked")
+public class SendWorkerMirrorMessagesRequest<I extends WritableComparable,
+    M extends Writable> extends WritableRequest<I, Writable, Writable>
+    implements WorkerRequest<I, Writable, Writable> {
+  /** Hub vertex ids and their messages */
+  private ByteArrayVertexIdMessages<I, M> hubMessages;
+
+  /**
+   * Constructor used for reflection only.
+   */
+  public SendWorkerMirrorMessagesRequest() { }
+
+  /**
+   * Constructor used to send request.
+   *
+   * @param hubMessages Hub vertex ids and their messages
+   * @param conf ImmutableClassesGiraphConfiguration
+   */
+  public SendWorkerMirrorMessagesRequest(
+      ByteArrayVertexIdMessages<I, M> hubMessages,
+      ImmutableClassesGiraphConfiguration conf) {
+    this.hubMessages = hubMessages;
+    setConf(conf);
+  }
+
+  @Override
+  public RequestType getType() {
+    return RequestType.SEND_WORKER_MIRROR_MESSAGES_REQUEST;
+  }
+
+  @Override
+  public void readFieldsRequest(DataInput input) throws IOException {
+    hubMessages = new ByteArrayVertexIdMessages<I, M>(
+        getConf().<M>getOutgoingMessageValueFactory());
+    hubMessages.setConf(getConf());
+    hubMessages.readFields(input);
+  }
+
+  @Override
+  public void writeRequest(DataOutput output) throws IOException {
+    hubMessages.write(output);
+  }
+
+  @Override
+  public int getSerializedSize() {
+    return super.getSerializedSize() + hubMessages.getSerializedSize();
+  }
+
+  @Override
+  public void doRequest(ServerData serverData) {
+    HubMirrorStore<I> hubMirrorStore = serverData.getHubMirrorStore();
+    Int2ObjectOpenHashMap<ByteArrayVertexIdMessages<I, M>> partitionIdMsgs =
+        new Int2ObjectOpenHashMap<ByteArrayVertexIdMessages<I, M>>();
+    I targetId = getConf().createVertexId();
+    ByteArrayVertexIdMessages<I, M>.VertexIdMessageIterator iterator =
+        hubMessages.getVertexIdMessageIterator();
+    try {
+      while (iterator.hasNext()) {
+        iterator.next();
+        Int2ObjectOpenHashMap<ExtendedDataOutput> mirror =
+            hubMirrorStore.getMirror(iterator.getCurrentVertexId());
+        if (mirror == null) {
+          throw new IllegalStateException("doRequest: No mirror of hub " +
+              iterator.getCurrentVertexId());
+        }
+        ObjectIterator<Int2ObjectMap.Entry<ExtendedDataOutput>>
+            partitionIterator = mirror.int2ObjectEntrySet().fastIterator();
+        while (partitionIterator.hasNext()) {
+          Int2ObjectMap.Entry<ExtendedDataOutput> entry =
+              partitionIterator.next();
+          ByteArrayVertexIdMessages<I, M> idMsgs =
+              partitionIdMsgs.get(entry.getIntKey());
+          if (idMsgs == null) {
+            idMsgs = new ByteArrayVertexIdMessages<I, M>(
+                getConf().<M>getOutgoingMessageValueFactory());
+            idMsgs.setConf(getConf());
+            idMsgs.initialize();
+            partitionIdMsgs.put(entry.getIntKey(), idMsgs);
+          }
+          ExtendedDataOutput targetIds = entry.getValue();
+          ExtendedDataInput input = getConf().createExtendedDataInput(
+              targetIds.getByteArray(), 0, targetIds.getPos());
+          while (input.available() != 0) {
+            targetId.readFields(input);
+            idMsgs.add(targetId, iterator.getCurrentMessage());
+          }
+        }
+      }
+      ObjectIterator<Int2ObjectMap.Entry<ByteArrayVertexIdMessages<I, M>>>
+          msgsIterator = partitionIdMsgs.int2ObjectEntrySet().fastIterator();
+      while (msgsIterator.hasNext()) {
+        Int2ObjectMap.Entry<ByteArrayVertexIdMessages<I, M>> entry =
+            msgsIterator.next();
+        serverData.getIncomingMessageStore().addPartitionMessages(
+            entry.getIntKey(), entry.getValue());
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("doRequest: Got IOException", e);
+    }
+  }
+}
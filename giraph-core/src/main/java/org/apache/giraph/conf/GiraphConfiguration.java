@@ -884,6 +884,16 @@ public class GiraphConfiguration extends Configuration
     return USE_MESSAGE_SIZE_ENCODING.get(this);
   }
 
+  /**
+   * Send the target vertex ids of messages sorted and delta-encoded?  Only
+   * used for IntWritable and LongWritable vertex ids.
+   *
+   * @return Whether to use vertex id delta encoding for messages
+   */
+  public boolean useMessageVertexIdDeltaEncoding() {
+    return MESSAGE_VERTEX_ID_DELTA_ENCODING.get(this);
+  }
+
   /**
    * Set the checkpoint frequeuncy of how many supersteps to wait before
    * checkpointing
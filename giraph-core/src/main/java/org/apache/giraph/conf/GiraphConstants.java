@@ -20,6 +20,7 @@ package org.apache.giraph.conf;
 import org.apache.giraph.aggregators.AggregatorWriter;
 import org.apache.giraph.aggregators.TextAggregatorWriter;
 import org.apache.giraph.combiner.Combiner;
+import org.apache.giraph.comm.compression.RequestCompressionCodec;
 import org.apache.giraph.edge.ByteArrayEdges;
 import org.apache.giraph.edge.OutEdges;
 import org.apache.giraph.factories.ComputationFactory;
@@ -52,8 +53,10 @@ import org.apache.giraph.master.MasterCompute;
 import org.apache.giraph.master.MasterObserver;
 import org.apache.giraph.partition.GraphPartitionerFactory;
 import org.apache.giraph.partition.HashPartitionerFactory;
+import org.apache.giraph.partition.OutOfCoreMemoryController;
 import org.apache.giraph.partition.Partition;
 import org.apache.giraph.partition.SimplePartition;
+import org.apache.giraph.worker.CheckpointPartitionStore;
 import org.apache.giraph.worker.DefaultWorkerContext;
 import org.apache.giraph.worker.WorkerContext;
 import org.apache.giraph.worker.WorkerObserver;
@@ -248,6 +251,22 @@ public interface GiraphConstants {
           "NOTE: This feature doesn't work well with checkpointing - if you " +
           "restart from a checkpoint you won't have any ouptut from previous " +
           "supresteps.");
+  /**
+   * Only save the vertices whose value or number of edges were changed by
+   * compute(), or which were created or mutated by mutations, and remove the
+   * vertices removed, e.g. to update a store which already holds the output
+   * of a previous run. Edge values changed in place by compute() are not
+   * noticed.
+   * NOTE: Changes are tracked in memory, so after a restart from a
+   * checkpoint only vertices changed since the restart are saved.
+   */
+  BooleanConfOption DELTA_OUTPUT =
+      new BooleanConfOption("giraph.deltaOutput", false,
+          "Only save the vertices whose value or number of edges were " +
+          "changed by compute(), or which were created or mutated by " +
+          "mutations, and remove the vertices removed. NOTE: after a " +
+          "restart from a checkpoint only vertices changed since the " +
+          "restart are saved.");
   /**
    * Vertex output format thread-safe - if your VertexOutputFormat allows
    * several vertexWriters to be created and written to in parallel,
@@ -444,6 +463,24 @@ public interface GiraphConstants {
                             false, "Whether or not netty request encoder " +
                                    "should use direct byte buffers");
 
+  /** Codec compressing requests on the wire (none by default) */
+  ClassConfOption<RequestCompressionCodec> NETTY_COMPRESSION_CODEC =
+      ClassConfOption.create("giraph.nettyCompressionCodec", null,
+          RequestCompressionCodec.class,
+          "Codec compressing requests on the wire (none by default), e.g. " +
+          "org.apache.giraph.comm.compression.DeflateRequestCompressionCodec");
+
+  /** Requests with smaller serialized bodies are sent uncompressed */
+  IntConfOption NETTY_COMPRESSION_MIN_REQUEST_SIZE =
+      new IntConfOption("giraph.nettyCompressionMinRequestSize", 16 * ONE_KB,
+          "Requests with smaller serialized bodies are sent uncompressed");
+
+  /** Deflate level used by DeflateRequestCompressionCodec */
+  IntConfOption NETTY_COMPRESSION_DEFLATE_LEVEL =
+      new IntConfOption("giraph.nettyCompressionDeflateLevel", 1,
+          "Deflate level used by DeflateRequestCompressionCodec (1 fastest, " +
+          "9 smallest)");
+
   /** Netty client threads */
   IntConfOption NETTY_CLIENT_THREADS =
       new IntConfOption("giraph.nettyClientThreads", 4, "Netty client threads");
@@ -615,19 +652,74 @@ public interface GiraphConstants {
           "Use message size encoding (typically better for complex objects, " +
           "not meant for primitive wrapped messages)");
 
+  /**
+   * Sort the messages of each partition by target vertex id and send the
+   * ids as varint deltas (only IntWritable and LongWritable vertex ids)
+   */
+  BooleanConfOption MESSAGE_VERTEX_ID_DELTA_ENCODING =
+      new BooleanConfOption("giraph.messageVertexIdDeltaEncoding", false,
+          "Sort the messages of each partition by target vertex id and send " +
+          "the ids as varint deltas (only IntWritable and LongWritable " +
+          "vertex ids)");
+
   /** Number of channels used per server */
   IntConfOption CHANNELS_PER_SERVER =
       new IntConfOption("giraph.channelsPerServer", 1,
           "Number of channels used per server");
 
-  /** Number of flush threads per peer */
+  /**
+   * Number of threads per worker sending message requests in the
+   * background, so compute threads don't block on sending (not set or 0 to
+   * send from the compute threads)
+   */
   String MSG_NUM_FLUSH_THREADS = "giraph.msgNumFlushThreads";
 
+  /**
+   * Number of message requests which can wait for a flusher thread before
+   * compute threads block
+   */
+  IntConfOption MSG_FLUSH_QUEUE_SIZE =
+      new IntConfOption("giraph.msgFlushQueueSize", 16,
+          "Number of message requests which can wait for a flusher thread " +
+          "before compute threads block");
+
   /** Number of threads for vertex computation */
   IntConfOption NUM_COMPUTE_THREADS =
       new IntConfOption("giraph.numComputeThreads", 1,
           "Number of threads for vertex computation");
 
+  /**
+   * Number of vertices compute threads steal at a time from partitions
+   * other threads are still computing, 0 to compute every partition in a
+   * single thread. Partitions are only shared when the message store is a
+   * {@link org.apache.giraph.comm.messages.ConcurrentVertexMessageStore}.
+   */
+  IntConfOption COMPUTE_CHUNK_SIZE =
+      new IntConfOption("giraph.computeChunkSize", 0,
+          "Number of vertices compute threads steal at a time from " +
+          "partitions other threads are still computing, 0 to compute " +
+          "every partition in a single thread");
+
+  /**
+   * Whether partitions keep an index of the active vertices, so that
+   * computation only iterates over vertices which haven't voted to halt or
+   * have messages
+   */
+  BooleanConfOption ACTIVE_VERTEX_INDEX =
+      new BooleanConfOption("giraph.activeVertexIndex", false,
+          "Whether partitions keep an index of the active vertices, so that " +
+          "computation only iterates over vertices which haven't voted to " +
+          "halt or have messages");
+
+  /**
+   * Time one in this many compute() calls, since timing every call creates
+   * garbage for every vertex
+   */
+  IntConfOption COMPUTE_ONE_TIMER_SAMPLING_PERIOD =
+      new IntConfOption("giraph.computeOneTimerSamplingPeriod", 1,
+          "Time one in this many compute() calls, since timing every call " +
+          "creates garbage for every vertex");
+
   /** Number of threads for input split loading */
   IntConfOption NUM_INPUT_THREADS =
       new IntConfOption("giraph.numInputThreads", 1,
@@ -767,6 +859,16 @@ public interface GiraphConstants {
       new StrConfOption("giraph.checkpointDirectory", "_bsp/_checkpoints/",
           "This directory has/stores the available checkpoint files in HDFS.");
 
+  /**
+   * Store for the partitions of checkpoints, instead of the vertices files
+   * in the checkpoint directory.
+   */
+  ClassConfOption<CheckpointPartitionStore> CHECKPOINT_PARTITION_STORE_CLASS =
+      ClassConfOption.create("giraph.checkpointPartitionStoreClass", null,
+          CheckpointPartitionStore.class,
+          "Store for the partitions of checkpoints, instead of the vertices " +
+          "files in the checkpoint directory");
+
   /**
    * Comma-separated list of directories in the local file system for
    * out-of-core messages.
@@ -776,6 +878,70 @@ public interface GiraphConstants {
           "Comma-separated list of directories in the local file system for " +
           "out-of-core messages.");
 
+  /**
+   * Whether to use the primitive map message stores when a combiner is used
+   * and ids and messages are int, long, float or double writables
+   */
+  BooleanConfOption USE_PRIMITIVE_COMBINER_MESSAGE_STORES =
+      new BooleanConfOption("giraph.usePrimitiveCombinerMessageStores", true,
+          "Whether to use the primitive map message stores when a combiner " +
+          "is used and ids and messages are int, long, float or double " +
+          "writables");
+
+  /**
+   * Whether messages for vertices of the same worker are added directly to
+   * the incoming message store instead of being serialized into requests.
+   */
+  BooleanConfOption DIRECT_LOCAL_MESSAGES =
+      new BooleanConfOption("giraph.directLocalMessages", true,
+          "Whether messages for vertices of the same worker are added " +
+          "directly to the message store, without serializing them, if the " +
+          "message store supports it");
+
+  /**
+   * Whether messages sent to vertices of this worker which weren't computed
+   * yet in the current superstep are already consumed in this superstep
+   * (from the second superstep on).
+   */
+  BooleanConfOption ASYNC_MESSAGE_VISIBILITY =
+      new BooleanConfOption("giraph.asyncMessageVisibility", false,
+          "Whether messages sent to vertices of this worker which weren't " +
+          "computed yet in the current superstep are consumed in the same " +
+          "superstep, from the second superstep on. Only for algorithms " +
+          "which converge to the same result regardless of when messages " +
+          "arrive, and only takes effect if incoming and outgoing message " +
+          "types are the same and the message store supports it");
+
+  /**
+   * Whether to combine messages for the same vertex before they are sent.
+   * Only takes effect if a combiner is set and vertex ids are int or long
+   * writables.
+   */
+  BooleanConfOption SENDER_SIDE_COMBINING =
+      new BooleanConfOption("giraph.senderSideCombining", false,
+          "Whether to combine messages for the same vertex before they are " +
+          "sent (requires a combiner and int or long vertex ids)");
+
+  /**
+   * Maximum number of distinct destination vertices combined for a partition
+   * before the combined messages are serialized.
+   */
+  IntConfOption MAX_COMBINED_MESSAGES_PER_PARTITION =
+      new IntConfOption("giraph.maxCombinedMessagesPerPartition", 10000,
+          "Maximum number of combined messages kept per destination " +
+          "partition before they are serialized for sending");
+
+  /**
+   * Number of lock stripes the messages of each partition are split into in
+   * the primitive message stores, so that several Netty server threads can
+   * add messages to the same partition at once.
+   */
+  IntConfOption MESSAGE_STORE_LOCK_STRIPES =
+      new IntConfOption("giraph.messageStoreLockStripes", 0,
+          "Number of lock stripes per partition in primitive message stores " +
+          "(rounded up to a power of two), if not positive uses " +
+          "giraph.nettyServerExecutionThreads");
+
   /** Whether or not to use out-of-core messages */
   BooleanConfOption USE_OUT_OF_CORE_MESSAGES =
       new BooleanConfOption("giraph.useOutOfCoreMessages", false,
@@ -783,11 +949,23 @@ public interface GiraphConstants {
   /**
    * If using out-of-core messaging, it tells how much messages do we keep
    * in memory.
+   *
+   * @deprecated Not used anymore, out-of-core messages are flushed based on
+   *             {@link #MAX_MESSAGE_BYTES_IN_MEMORY}
    */
+  @Deprecated
   IntConfOption MAX_MESSAGES_IN_MEMORY =
       new IntConfOption("giraph.maxMessagesInMemory", 1000000,
-          "If using out-of-core messaging, it tells how much messages do we " +
-          "keep in memory.");
+          "Not used anymore, see giraph.maxMessageBytesInMemory");
+  /**
+   * If using out-of-core messaging, it tells how many bytes of serialized
+   * messages do we keep in memory.
+   */
+  LongConfOption MAX_MESSAGE_BYTES_IN_MEMORY =
+      new LongConfOption("giraph.maxMessageBytesInMemory",
+          256L * ONE_KB * ONE_KB,
+          "If using out-of-core messaging, it tells how many bytes of " +
+          "serialized messages do we keep in memory.");
   /** Size of buffer when reading and writing messages out-of-core. */
   IntConfOption MESSAGES_BUFFER_SIZE =
       new IntConfOption("giraph.messagesBufferSize", 8 * ONE_KB,
@@ -817,6 +995,57 @@ public interface GiraphConstants {
       new IntConfOption("giraph.maxPartitionsInMemory", 10,
           "Maximum number of partitions to hold in memory for each worker.");
 
+  /**
+   * Number of threads loading and writing out-of-core partitions in the
+   * background, 0 to do all partition I/O in the threads needing it.
+   */
+  IntConfOption NUM_OUT_OF_CORE_IO_THREADS =
+      new IntConfOption("giraph.numOutOfCoreIoThreads", 0,
+          "Number of threads loading and writing out-of-core partitions in " +
+          "the background, 0 to do all partition I/O in the threads " +
+          "needing it.");
+
+  /**
+   * Number of partitions next in the compute queue to load ahead of time,
+   * when out-of-core partition I/O is done in the background.
+   */
+  IntConfOption OUT_OF_CORE_PREFETCH_PARTITIONS =
+      new IntConfOption("giraph.outOfCorePrefetchPartitions", 1,
+          "Number of partitions next in the compute queue to load ahead of " +
+          "time, when out-of-core partition I/O is done in the background.");
+
+  /**
+   * Controller sizing the out-of-core partitions kept in memory from the
+   * heap usage, instead of keeping a fixed number of them.
+   */
+  ClassConfOption<OutOfCoreMemoryController> OUT_OF_CORE_MEMORY_CONTROLLER =
+      ClassConfOption.create("giraph.outOfCoreMemoryController", null,
+          OutOfCoreMemoryController.class,
+          "Controller sizing the out-of-core partitions kept in memory from " +
+          "the heap usage, e.g. org.apache.giraph.partition." +
+          "OutOfCoreMemoryController. If not set, " +
+          "giraph.maxPartitionsInMemory partitions are kept in memory.");
+
+  /** Fraction of the heap the out-of-core memory controller aims for */
+  FloatConfOption OUT_OF_CORE_MAX_MEMORY_FRACTION =
+      new FloatConfOption("giraph.outOfCoreMaxMemoryFraction", 0.7f,
+          "Fraction of the heap the out-of-core memory controller keeps the " +
+          "live memory under, offloading partitions when above it.");
+
+  /** Codec compressing the out-of-core partition files (none by default) */
+  ClassConfOption<RequestCompressionCodec> OUT_OF_CORE_COMPRESSION_CODEC =
+      ClassConfOption.create("giraph.outOfCoreCompressionCodec", null,
+          RequestCompressionCodec.class,
+          "Codec compressing the out-of-core partition files (none by " +
+          "default), e.g. org.apache.giraph.comm.compression." +
+          "DeflateRequestCompressionCodec");
+
+  /** Size of the blocks the out-of-core partition files are written in */
+  IntConfOption OUT_OF_CORE_BLOCK_SIZE =
+      new IntConfOption("giraph.outOfCoreBlockSize", ONE_KB * ONE_KB,
+          "Size of the blocks the out-of-core partition files are " +
+          "serialized, compressed and written in");
+
   /** Keep the zookeeper output for debugging? Default is to remove it. */
   BooleanConfOption KEEP_ZOOKEEPER_DATA =
       new BooleanConfOption("giraph.keepZooKeeperData", false,
@@ -923,5 +1152,17 @@ public interface GiraphConstants {
   BooleanConfOption ONE_TO_ALL_MSG_SENDING =
     new BooleanConfOption("giraph.oneToAllMsgSending", false, "Enable " +
         "one-to-all message sending strategy");
+
+  /**
+   * Vertices with at least this many out-edges (hubs) mirror their targets
+   * on the workers owning them, so sending a message to all their edges
+   * takes a single message per worker.  Unless the graph is static, the
+   * targets of a hub are fingerprinted whenever it sends, so that its
+   * mirrors are registered again after its edges changed.
+   */
+  IntConfOption HUB_MIRROR_MIN_EDGES =
+      new IntConfOption("giraph.hubMirrorMinEdges", 0,
+          "Out-edges of a vertex at which its targets are mirrored on the " +
+          "workers owning them when it sends to all edges (0 to disable)");
 }
 // CHECKSTYLE: resume InterfaceIsTypeCheck
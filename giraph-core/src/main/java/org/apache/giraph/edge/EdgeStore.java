@@ -21,6 +21,7 @@ package org.apache.giraph.edge;
 import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.partition.ActiveVerticesPartition;
 import org.apache.giraph.partition.Partition;
 import org.apache.giraph.utils.ByteArrayVertexIdEdges;
 import org.apache.giraph.utils.CallableFactory;
@@ -196,6 +197,11 @@ public class EdgeStore<I extends WritableComparable,
                       outEdges);
                   partition.putVertex(vertex);
                 } else {
+                  if (partition instanceof ActiveVerticesPartition) {
+                    ((ActiveVerticesPartition<I, V, E>) partition)
+                        .addEdgeCount(
+                            outEdges.size() - vertex.getNumEdges());
+                  }
                   vertex.setEdges(outEdges);
                   // Some Partition implementations (e.g. ByteArrayPartition)
                   // require us to put back the vertex after modifying it.
@@ -0,0 +1,198 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.graph;
+
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.utils.ExtendedDataOutput;
+import org.apache.giraph.utils.WritableUtils;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.util.Set;
+
+/**
+ * Ids of the vertices whose value or edges were changed on this worker, and
+ * of the vertices removed, used to only save those vertices at the end of
+ * the application (see
+ * {@link org.apache.giraph.conf.GiraphConstants#DELTA_OUTPUT}).
+ *
+ * Around compute(), a vertex is compared with its own state right before
+ * the call by serializing its value and counting its edges, which doesn't
+ * cost a pass over the edges. Edge values changed in place by compute(),
+ * without adding or removing edges, are therefore not noticed. Vertices
+ * created, mutated or removed by mutation requests or the vertex resolver
+ * are recorded when the mutations are resolved. Vertices which are never
+ * computed nor mutated, or halted ones which don't get messages, are never
+ * considered changed.
+ *
+ * @param <I> Vertex id
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ */
+public class ChangedVertices<I extends WritableComparable,
+    V extends Writable, E extends Writable> {
+  /** Configuration */
+  private final ImmutableClassesGiraphConfiguration<I, V, E> conf;
+  /** Ids of changed vertices */
+  private final Set<I> changedIds =
+      Sets.newSetFromMap(Maps.<I, Boolean>newConcurrentMap());
+  /** Ids of removed vertices */
+  private final Set<I> removedIds =
+      Sets.newSetFromMap(Maps.<I, Boolean>newConcurrentMap());
+
+  /**
+   * Constructor
+   *
+   * @param conf Configuration
+   */
+  public ChangedVertices(ImmutableClassesGiraphConfiguration<I, V, E> conf) {
+    this.conf = conf;
+  }
+
+  /**
+   * Serialize the value and the number of edges of a vertex.
+   *
+   * @param vertex Vertex
+   * @param output Output to reset and write to
+   * @throws IOException
+   */
+  public void writeState(Vertex<I, V, E> vertex, ExtendedDataOutput output)
+    throws IOException {
+    output.reset();
+    vertex.getValue().write(output);
+    output.writeInt(vertex.getNumEdges());
+  }
+
+  /**
+   * Compare the current state of a vertex with the one written before
+   * compute(), and remember it if it changed.
+   *
+   * @param vertex Vertex after compute()
+   * @param before State written with {@link #writeState} before compute()
+   * @param after Output to write the current state to
+   * @throws IOException
+   */
+  public void markIfChanged(Vertex<I, V, E> vertex, ExtendedDataOutput before,
+      ExtendedDataOutput after) throws IOException {
+    writeState(vertex, after);
+    if (!equalBytes(before, after)) {
+      markChanged(vertex.getId());
+    }
+  }
+
+  /**
+   * Compare the bytes written to two outputs.
+   *
+   * @param first First output
+   * @param second Second output
+   * @return True iff both outputs hold the same bytes
+   */
+  private static boolean equalBytes(ExtendedDataOutput first,
+      ExtendedDataOutput second) {
+    int length = first.getPos();
+    if (length != second.getPos()) {
+      return false;
+    }
+    byte[] firstBytes = first.getByteArray();
+    byte[] secondBytes = second.getByteArray();
+    for (int i = 0; i < length; ++i) {
+      if (firstBytes[i] != secondBytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Remember a vertex as changed.
+   *
+   * @param id Vertex id, copied since ids may be reused
+   */
+  public void markChanged(I id) {
+    if (!changedIds.contains(id)) {
+      changedIds.add(copyId(id));
+    }
+    removedIds.remove(id);
+  }
+
+  /**
+   * Remember a vertex as removed.
+   *
+   * @param id Vertex id, copied since ids may be reused
+   */
+  public void markRemoved(I id) {
+    changedIds.remove(id);
+    if (!removedIds.contains(id)) {
+      removedIds.add(copyId(id));
+    }
+  }
+
+  /**
+   * Copy a vertex id.
+   *
+   * @param id Vertex id
+   * @return Copy of the id
+   */
+  private I copyId(I id) {
+    I idCopy = conf.createVertexId();
+    WritableUtils.readFieldsFromByteArray(
+        WritableUtils.writeToByteArray(id), idCopy);
+    return idCopy;
+  }
+
+  /**
+   * Check whether a vertex was changed.
+   *
+   * @param id Vertex id
+   * @return True iff the vertex was changed
+   */
+  public boolean isChanged(I id) {
+    return changedIds.contains(id);
+  }
+
+  /**
+   * Get the number of changed vertices.
+   *
+   * @return Number of changed vertices
+   */
+  public int getNumChanged() {
+    return changedIds.size();
+  }
+
+  /**
+   * Get the ids of the removed vertices.
+   *
+   * @return Ids of the vertices removed, and not added again
+   */
+  public Iterable<I> getRemovedIds() {
+    return removedIds;
+  }
+
+  /**
+   * Get the number of removed vertices.
+   *
+   * @return Number of removed vertices
+   */
+  public int getNumRemoved() {
+    return removedIds.size();
+  }
+}
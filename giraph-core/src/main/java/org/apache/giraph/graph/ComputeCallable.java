@@ -19,19 +19,23 @@ package org.apache.giraph.graph;
 
 import org.apache.giraph.bsp.CentralizedServiceWorker;
 import org.apache.giraph.comm.WorkerClientRequestProcessor;
+import org.apache.giraph.comm.messages.AsyncMessageStore;
 import org.apache.giraph.comm.messages.MessageStore;
 import org.apache.giraph.comm.netty.NettyWorkerClientRequestProcessor;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.io.SimpleVertexWriter;
 import org.apache.giraph.metrics.GiraphMetrics;
 import org.apache.giraph.metrics.MetricNames;
 import org.apache.giraph.metrics.SuperstepMetricsRegistry;
 import org.apache.giraph.metrics.TimerDesc;
+import org.apache.giraph.partition.ActiveVerticesPartition;
 import org.apache.giraph.partition.Partition;
 import org.apache.giraph.partition.PartitionStats;
 import org.apache.giraph.time.SystemTime;
 import org.apache.giraph.time.Time;
 import org.apache.giraph.time.Times;
+import org.apache.giraph.utils.ExtendedDataOutput;
 import org.apache.giraph.utils.MemoryUtils;
 import org.apache.giraph.utils.TimedLogger;
 import org.apache.giraph.worker.WorkerContext;
@@ -45,13 +49,12 @@ import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.yammer.metrics.core.Counter;
 import com.yammer.metrics.core.Timer;
-import com.yammer.metrics.core.TimerContext;
 
 import java.io.IOException;
 import java.util.Collection;
 import java.util.List;
-import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Compute as many vertex partitions as possible.  Every thread will has its
@@ -59,7 +62,9 @@ import java.util.concurrent.Callable;
  * the partition ids are used in the partitionIdQueue rather than the actual
  * partitions since that would cause the partitions to be loaded into memory
  * when using the out-of-core graph partition store.  We should only load on
- * demand.
+ * demand.  Once no partitions are left, chunks of vertices are stolen from
+ * partitions other threads are still computing (see
+ * {@link ComputeWorkQueue}).
  *
  * @param <I> Vertex index value
  * @param <V> Vertex value
@@ -78,10 +83,15 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
   private final Mapper<?, ?, ?, ?>.Context context;
   /** Graph state */
   private final GraphState graphState;
-  /** Thread-safe queue of all partition ids */
-  private final BlockingQueue<Integer> partitionIdQueue;
+  /** Thread-safe queue of partition computations */
+  private final ComputeWorkQueue<I, V, E> computeWorkQueue;
   /** Message store */
   private final MessageStore<I, M1> messageStore;
+  /**
+   * Incoming message store to consume messages sent in this superstep from,
+   * null if messages are only consumed in the next superstep
+   */
+  private final AsyncMessageStore<I, M1> asyncMessageStore;
   /** Configuration */
   private final ImmutableClassesGiraphConfiguration<I, V, E> configuration;
   /** Worker (for NettyWorkerClientRequestProcessor) */
@@ -92,14 +102,32 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
   private SimpleVertexWriter<I, V, E> vertexWriter;
   /** Get the start time in nanos */
   private final long startNanos = TIME.getNanoseconds();
+  /** Time in nanos when this callable ran out of work */
+  private volatile long finishNanos;
+  /** Vertices changed by compute(), null if not doing delta output */
+  private final ChangedVertices<I, V, E> changedVertices;
+  /** State of the vertex before compute(), for delta output */
+  private final ExtendedDataOutput stateBefore;
+  /** State of the vertex after compute(), for delta output */
+  private final ExtendedDataOutput stateAfter;
 
   // Per-Superstep Metrics
   /** Messages sent */
   private final Counter messagesSentCounter;
+  /** Messages sent to vertices of this worker */
+  private final Counter localMessagesSentCounter;
+  /** Messages sent to vertices of other workers */
+  private final Counter remoteMessagesSentCounter;
   /** Message bytes sent */
   private final Counter messageBytesSentCounter;
+  /** Message bytes saved by sender-side combining */
+  private final Counter messageBytesSavedCounter;
   /** Timer for single compute() call */
   private final Timer computeOneTimer;
+  /** Time one in this many compute() calls */
+  private final int computeOneTimerSamplingPeriod;
+  /** Compute() calls left until the next timed one */
+  private int untimedComputeCallsLeft;
 
   /**
    * Constructor
@@ -107,30 +135,50 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
    * @param context Context
    * @param graphState Current graph state (use to create own graph state)
    * @param messageStore Message store
-   * @param partitionIdQueue Queue of partition ids (thread-safe)
+   * @param asyncMessageStore Incoming message store to consume messages
+   *                          sent in this superstep from, or null
+   * @param computeWorkQueue Queue of partition computations (thread-safe)
    * @param configuration Configuration
    * @param serviceWorker Service worker
    */
   public ComputeCallable(
       Mapper<?, ?, ?, ?>.Context context, GraphState graphState,
       MessageStore<I, M1> messageStore,
-      BlockingQueue<Integer> partitionIdQueue,
+      AsyncMessageStore<I, M1> asyncMessageStore,
+      ComputeWorkQueue<I, V, E> computeWorkQueue,
       ImmutableClassesGiraphConfiguration<I, V, E> configuration,
       CentralizedServiceWorker<I, V, E> serviceWorker) {
     this.context = context;
     this.configuration = configuration;
-    this.partitionIdQueue = partitionIdQueue;
+    this.computeWorkQueue = computeWorkQueue;
     this.messageStore = messageStore;
+    this.asyncMessageStore = asyncMessageStore;
     this.serviceWorker = serviceWorker;
     this.graphState = graphState;
+    changedVertices = serviceWorker.getChangedVertices();
+    if (changedVertices != null) {
+      stateBefore = configuration.createExtendedDataOutput();
+      stateAfter = configuration.createExtendedDataOutput();
+    } else {
+      stateBefore = null;
+      stateAfter = null;
+    }
 
     SuperstepMetricsRegistry metrics = GiraphMetrics.get().perSuperstep();
     // Normally we would use ResetSuperstepMetricsObserver but this class is
     // not long-lived, so just instantiating in the constructor is good enough.
     computeOneTimer = metrics.getTimer(TimerDesc.COMPUTE_ONE);
+    computeOneTimerSamplingPeriod =
+        GiraphConstants.COMPUTE_ONE_TIMER_SAMPLING_PERIOD.get(configuration);
     messagesSentCounter = metrics.getCounter(MetricNames.MESSAGES_SENT);
+    localMessagesSentCounter =
+      metrics.getCounter(MetricNames.LOCAL_MESSAGES_SENT);
+    remoteMessagesSentCounter =
+      metrics.getCounter(MetricNames.REMOTE_MESSAGES_SENT);
     messageBytesSentCounter =
       metrics.getCounter(MetricNames.MESSAGE_BYTES_SENT);
+    messageBytesSavedCounter =
+      metrics.getCounter(MetricNames.MESSAGE_BYTES_SAVED);
   }
 
   @Override
@@ -146,14 +194,12 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
     vertexWriter = serviceWorker.getSuperstepOutput().getVertexWriter();
 
     List<PartitionStats> partitionStatsList = Lists.newArrayList();
-    while (!partitionIdQueue.isEmpty()) {
-      Integer partitionId = partitionIdQueue.poll();
-      if (partitionId == null) {
+    while (true) {
+      PartitionComputeWork<I, V, E> work = computeWorkQueue.next();
+      if (work == null) {
         break;
       }
-
-      Partition<I, V, E> partition =
-          serviceWorker.getPartitionStore().getPartition(partitionId);
+      Partition<I, V, E> partition = work.getPartition();
 
       Computation<I, V, E, M1, M2> computation =
           (Computation<I, V, E, M1, M2>) configuration.createComputation();
@@ -161,20 +207,32 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
           serviceWorker.getGraphTaskManager(), aggregatorUsage, workerContext);
       computation.preSuperstep();
 
+      PartitionStats finishedPartitionStats = null;
+      boolean left = false;
       try {
-        PartitionStats partitionStats =
-            computePartition(computation, partition);
-        partitionStatsList.add(partitionStats);
+        PartitionStats threadStats = computePartition(computation, work);
         long partitionMsgs = workerClientRequestProcessor.resetMessageCount();
-        partitionStats.addMessagesSentCount(partitionMsgs);
+        threadStats.addMessagesSentCount(partitionMsgs);
         messagesSentCounter.inc(partitionMsgs);
+        long partitionLocalMsgs =
+          workerClientRequestProcessor.resetLocalMessageCount();
+        localMessagesSentCounter.inc(partitionLocalMsgs);
+        remoteMessagesSentCounter.inc(partitionMsgs - partitionLocalMsgs);
         long partitionMsgBytes =
           workerClientRequestProcessor.resetMessageBytesCount();
-        partitionStats.addMessageBytesSentCount(partitionMsgBytes);
+        threadStats.addMessageBytesSentCount(partitionMsgBytes);
         messageBytesSentCounter.inc(partitionMsgBytes);
+        messageBytesSavedCounter.inc(
+            workerClientRequestProcessor.resetMessageBytesSavedCount());
+        finishedPartitionStats = work.leave(threadStats);
+        left = true;
+        if (finishedPartitionStats != null) {
+          messageStore.clearPartition(partition.getId());
+          partitionStatsList.add(finishedPartitionStats);
+        }
         timedLogger.info("call: Completed " +
             partitionStatsList.size() + " partitions, " +
-            partitionIdQueue.size() + " remaining " +
+            computeWorkQueue.getNumPartitionsLeft() + " remaining " +
             MemoryUtils.getRuntimeMemoryStats());
       } catch (IOException e) {
         throw new IllegalStateException("call: Caught unexpected IOException," +
@@ -183,11 +241,21 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
         throw new IllegalStateException("call: Caught unexpected " +
             "InterruptedException, failing.", e);
       } finally {
-        serviceWorker.getPartitionStore().putPartition(partition);
+        // The last thread to leave the partition puts it back, even if the
+        // computation failed
+        boolean lastThread = left ? finishedPartitionStats != null :
+            work.abort();
+        if (finishedPartitionStats != null) {
+          serviceWorker.getPartitionStore().putPartition(partition,
+              finishedPartitionStats);
+        } else if (lastThread) {
+          serviceWorker.getPartitionStore().putPartition(partition);
+        }
       }
 
       computation.postSuperstep();
     }
+    finishNanos = TIME.getNanoseconds();
 
     // Return VertexWriter after the usage
     serviceWorker.getSuperstepOutput().returnVertexWriter(vertexWriter);
@@ -201,6 +269,8 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
     }
     try {
       workerClientRequestProcessor.flush();
+      messageBytesSavedCounter.inc(
+          workerClientRequestProcessor.resetMessageBytesSavedCount());
       // The messages flushed out from the cache is
       // from the last partition processed
       if (partitionStatsList.size() > 0) {
@@ -218,53 +288,117 @@ public class ComputeCallable<I extends WritableComparable, V extends Writable,
   }
 
   /**
-   * Compute a single partition
+   * Compute a single partition, or the chunks of a shared partition which
+   * this thread gets.
    *
    * @param computation Computation to use
-   * @param partition Partition to compute
-   * @return Partition stats for this computed partition
+   * @param work Partition computation
+   * @return Stats for the vertices computed by this thread
    */
   private PartitionStats computePartition(
       Computation<I, V, E, M1, M2> computation,
-      Partition<I, V, E> partition) throws IOException, InterruptedException {
+      PartitionComputeWork<I, V, E> work)
+    throws IOException, InterruptedException {
+    Partition<I, V, E> partition = work.getPartition();
     PartitionStats partitionStats =
         new PartitionStats(partition.getId(), 0, 0, 0, 0, 0);
-    // Make sure this is thread-safe across runs
-    synchronized (partition) {
-      for (Vertex<I, V, E> vertex : partition) {
-        Iterable<M1> messages = messageStore.getVertexMessages(vertex.getId());
-        if (vertex.isHalted() && !Iterables.isEmpty(messages)) {
-          vertex.wakeUp();
-        }
-        if (!vertex.isHalted()) {
-          context.progress();
-          TimerContext computeOneTimerContext = computeOneTimer.time();
-          try {
-            computation.compute(vertex, messages);
-          } finally {
-            computeOneTimerContext.stop();
-          }
-          // Need to unwrap the mutated edges (possibly)
-          vertex.unwrapMutableEdges();
-          // Write vertex to superstep output (no-op if it is not used)
-          vertexWriter.writeVertex(vertex);
-          // Need to save the vertex changes (possibly)
-          partition.saveVertex(vertex);
+    if (work.isShared()) {
+      List<Vertex<I, V, E>> chunk = Lists.newArrayList();
+      while (work.nextChunk(chunk)) {
+        for (Vertex<I, V, E> vertex : chunk) {
+          computeVertex(computation, partition, vertex, partitionStats);
         }
-        if (vertex.isHalted()) {
-          partitionStats.incrFinishedVertexCount();
+        chunk.clear();
+      }
+    } else {
+      // Make sure this is thread-safe across runs
+      synchronized (partition) {
+        for (Vertex<I, V, E> vertex : work.getVertices()) {
+          computeVertex(computation, partition, vertex, partitionStats);
         }
-        // Remove the messages now that the vertex has finished computation
-        messageStore.clearVertexMessages(vertex.getId());
-
-        // Add statistics for this vertex
-        partitionStats.incrVertexCount();
-        partitionStats.addEdgeCount(vertex.getNumEdges());
       }
-
-      messageStore.clearPartition(partition.getId());
     }
     return partitionStats;
   }
+
+  /**
+   * Compute a single vertex
+   *
+   * @param computation Computation to use
+   * @param partition Partition of the vertex
+   * @param vertex Vertex to compute
+   * @param partitionStats Stats to add the vertex to
+   */
+  private void computeVertex(Computation<I, V, E, M1, M2> computation,
+      Partition<I, V, E> partition, Vertex<I, V, E> vertex,
+      PartitionStats partitionStats)
+    throws IOException, InterruptedException {
+    Iterable<M1> messages = messageStore.getVertexMessages(vertex.getId());
+    if (asyncMessageStore != null) {
+      Iterable<M1> asyncMessages =
+          asyncMessageStore.removeVertexMessages(vertex.getId());
+      if (!Iterables.isEmpty(asyncMessages)) {
+        messages = Iterables.isEmpty(messages) ? asyncMessages :
+            Iterables.concat(messages, asyncMessages);
+      }
+    }
+    if (vertex.isHalted() && !Iterables.isEmpty(messages)) {
+      vertex.wakeUp();
+    }
+    if (!vertex.isHalted()) {
+      context.progress();
+      if (changedVertices != null) {
+        changedVertices.writeState(vertex, stateBefore);
+      }
+      int edgesBefore = vertex.getNumEdges();
+      // Timing every call allocates, so only a sample of calls is timed
+      boolean timed = --untimedComputeCallsLeft <= 0;
+      long computeStartNanos = 0;
+      if (timed) {
+        untimedComputeCallsLeft = computeOneTimerSamplingPeriod;
+        computeStartNanos = TIME.getNanoseconds();
+      }
+      try {
+        computation.compute(vertex, messages);
+      } finally {
+        if (timed) {
+          computeOneTimer.update(TIME.getNanoseconds() - computeStartNanos,
+              TimeUnit.NANOSECONDS);
+        }
+      }
+      // Need to unwrap the mutated edges (possibly)
+      vertex.unwrapMutableEdges();
+      int addedEdges = vertex.getNumEdges() - edgesBefore;
+      if (addedEdges != 0 && partition instanceof ActiveVerticesPartition) {
+        ((ActiveVerticesPartition<I, V, E>) partition).addEdgeCount(
+            addedEdges);
+      }
+      if (changedVertices != null) {
+        changedVertices.markIfChanged(vertex, stateBefore, stateAfter);
+      }
+      // Write vertex to superstep output (no-op if it is not used)
+      vertexWriter.writeVertex(vertex);
+      // Need to save the vertex changes (possibly)
+      partition.saveVertex(vertex);
+    }
+    if (vertex.isHalted()) {
+      partitionStats.incrFinishedVertexCount();
+    }
+    // Remove the messages now that the vertex has finished computation
+    messageStore.clearVertexMessages(vertex.getId());
+
+    // Add statistics for this vertex
+    partitionStats.incrVertexCount();
+    partitionStats.addEdgeCount(vertex.getNumEdges());
+  }
+
+  /**
+   * Get the time when this callable ran out of work.
+   *
+   * @return Time in nanos, 0 if it is still working
+   */
+  public long getFinishNanos() {
+    return finishNanos;
+  }
 }
 
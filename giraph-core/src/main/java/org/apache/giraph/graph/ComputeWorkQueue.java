@@ -0,0 +1,140 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.graph;
+
+import org.apache.giraph.metrics.GiraphMetrics;
+import org.apache.giraph.metrics.MetricNames;
+import org.apache.giraph.partition.ActiveVerticesPartition;
+import org.apache.giraph.partition.Partition;
+import org.apache.giraph.partition.PartitionStore;
+import org.apache.giraph.partition.ReusesObjectsPartition;
+import org.apache.giraph.time.SystemTime;
+import org.apache.giraph.time.Time;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Hands out partition computations to compute threads. Threads first take
+ * partitions which nobody is computing yet. Once there are none left, they
+ * steal chunks of vertices from shared partitions which other threads are
+ * still computing, so that one big partition doesn't keep the superstep
+ * going while the other threads are idle.
+ *
+ * Partitions which reuse vertex objects while iterating can't be split in
+ * chunks, so they are always computed by a single thread.  Partitions with
+ * an active vertex index only have their active vertices computed.
+ * Whenever a partition is handed out, the partition store is told which
+ * ones are queued next, so that it can prefetch them.
+ *
+ * @param <I> Vertex id
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ */
+public class ComputeWorkQueue<I extends WritableComparable,
+    V extends Writable, E extends Writable> {
+  /** Time instance to use for timing */
+  private static final Time TIME = SystemTime.get();
+  /** Ids of partitions nobody is computing yet */
+  private final BlockingQueue<Integer> partitionIdQueue;
+  /** Partition store */
+  private final PartitionStore<I, V, E> partitionStore;
+  /** Number of vertices per chunk, 0 to never share partitions */
+  private final int chunkSize;
+  /** Whether to only compute the active vertices of indexed partitions */
+  private final boolean activeVertexIndex;
+  /** Shared partitions which may still have vertices to compute */
+  private final Queue<PartitionComputeWork<I, V, E>> sharedWork =
+      new ConcurrentLinkedQueue<PartitionComputeWork<I, V, E>>();
+
+  /**
+   * Constructor
+   *
+   * @param partitionIdQueue Ids of partitions to compute (thread-safe)
+   * @param partitionStore Partition store
+   * @param chunkSize Number of vertices per chunk, 0 to never share
+   *                  partitions
+   * @param activeVertexIndex Whether to only compute the active vertices of
+   *                          {@link ActiveVerticesPartition}s
+   */
+  public ComputeWorkQueue(BlockingQueue<Integer> partitionIdQueue,
+      PartitionStore<I, V, E> partitionStore, int chunkSize,
+      boolean activeVertexIndex) {
+    this.partitionIdQueue = partitionIdQueue;
+    this.partitionStore = partitionStore;
+    this.chunkSize = chunkSize;
+    this.activeVertexIndex = activeVertexIndex;
+  }
+
+  /**
+   * Get the next partition for a thread to work on.
+   *
+   * @return Partition computation the thread is now working on, or null if
+   *         there is no work left
+   */
+  public PartitionComputeWork<I, V, E> next() {
+    Integer partitionId = partitionIdQueue.poll();
+    if (partitionId != null) {
+      long startNanos = TIME.getNanoseconds();
+      Partition<I, V, E> partition = partitionStore.getPartition(partitionId);
+      GiraphMetrics.get().perSuperstep().getUniformHistogram(
+          MetricNames.COMPUTE_THREAD_PARTITION_WAIT_MSECS).update(
+          (TIME.getNanoseconds() - startNanos) / Time.NS_PER_MS);
+      // Let the store load the partitions which come next while this one
+      // is computed
+      partitionStore.prefetchPartitions(partitionIdQueue);
+      boolean activeOnly = activeVertexIndex &&
+          partition instanceof ActiveVerticesPartition;
+      long numVertices = activeOnly ?
+          ((ActiveVerticesPartition<I, V, E>) partition).
+              getActiveVertexCount() :
+          partition.getVertexCount();
+      boolean shared = chunkSize > 0 &&
+          !(partition instanceof ReusesObjectsPartition) &&
+          numVertices > chunkSize;
+      PartitionComputeWork<I, V, E> work = new PartitionComputeWork<I, V, E>(
+          partition, shared ? chunkSize : 0, activeOnly);
+      if (shared) {
+        sharedWork.add(work);
+      }
+      return work;
+    }
+    Iterator<PartitionComputeWork<I, V, E>> iterator = sharedWork.iterator();
+    while (iterator.hasNext()) {
+      PartitionComputeWork<I, V, E> work = iterator.next();
+      if (work.join()) {
+        return work;
+      }
+      iterator.remove();
+    }
+    return null;
+  }
+
+  /**
+   * Get the number of partitions nobody is computing yet.
+   *
+   * @return Number of partitions left
+   */
+  public int getNumPartitionsLeft() {
+    return partitionIdQueue.size();
+  }
+}
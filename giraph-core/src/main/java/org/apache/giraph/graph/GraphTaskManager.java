@@ -21,6 +21,9 @@ package org.apache.giraph.graph;
 import org.apache.giraph.bsp.BspService;
 import org.apache.giraph.bsp.CentralizedServiceMaster;
 import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.comm.RequestFlusherPool;
+import org.apache.giraph.comm.messages.AsyncMessageStore;
+import org.apache.giraph.comm.messages.ConcurrentVertexMessageStore;
 import org.apache.giraph.comm.messages.MessageStore;
 import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
@@ -32,6 +35,7 @@ import org.apache.giraph.metrics.GiraphMetrics;
 import org.apache.giraph.metrics.GiraphMetricsRegistry;
 import org.apache.giraph.metrics.GiraphTimer;
 import org.apache.giraph.metrics.GiraphTimerContext;
+import org.apache.giraph.metrics.MetricNames;
 import org.apache.giraph.metrics.ResetSuperstepMetricsObserver;
 import org.apache.giraph.metrics.SuperstepMetricsRegistry;
 import org.apache.giraph.partition.PartitionOwner;
@@ -62,6 +66,7 @@ import java.net.URL;
 import java.net.URLDecoder;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Enumeration;
 import java.util.List;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -69,6 +74,9 @@ import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.TimeUnit;
 
+import com.google.common.collect.Lists;
+import com.yammer.metrics.core.Histogram;
+
 /**
  * The Giraph-specific business logic for a single BSP
  * compute node in whatever underlying type of cluster
@@ -150,6 +158,8 @@ public class GraphTaskManager<I extends WritableComparable, V extends Writable,
   private Mapper<?, ?, ?, ?>.Context context;
   /** is this GraphTaskManager the master? */
   private boolean isMaster;
+  /** Pool sending message requests in the background, null if not used */
+  private RequestFlusherPool requestFlusherPool;
 
   /**
    * Default constructor for GiraphTaskManager.
@@ -197,6 +207,11 @@ public class GraphTaskManager<I extends WritableComparable, V extends Writable,
     ScriptLoader.loadScripts(conf);
     // One time setup for computation factory
     conf.createComputationFactory().initialize(conf);
+    int numFlushThreads = conf.getInt(GiraphConstants.MSG_NUM_FLUSH_THREADS, 0);
+    if (numFlushThreads > 0) {
+      requestFlusherPool = new RequestFlusherPool(numFlushThreads,
+          GiraphConstants.MSG_FLUSH_QUEUE_SIZE.get(conf), context);
+    }
     // Do some task setup (possibly starting up a Zookeeper service)
     context.setStatus("setup: Initializing Zookeeper services.");
     locateZookeeperClasspath(zkPathList);
@@ -663,6 +678,15 @@ public class GraphTaskManager<I extends WritableComparable, V extends Writable,
         "worker-context-pre-superstep", TimeUnit.MILLISECONDS);
   }
 
+  /**
+   * Get the pool sending message requests in the background.
+   *
+   * @return Request flusher pool, null if requests are sent synchronously
+   */
+  public RequestFlusherPool getRequestFlusherPool() {
+    return requestFlusherPool;
+  }
+
   /**
    * Notification from Vertex that a message has been sent.
    */
@@ -697,6 +721,29 @@ public class GraphTaskManager<I extends WritableComparable, V extends Writable,
     }
   }
 
+  /**
+   * Get the number of vertices compute threads steal at a time from
+   * partitions other threads are still computing. Partitions are only
+   * shared when the message store allows several threads to get and clear
+   * the messages of its vertices at once.
+   *
+   * @param messageStore the messages to be processed in this superstep
+   * @return Chunk size, 0 to compute every partition in a single thread
+   */
+  private int getComputeChunkSize(MessageStore<I, Writable> messageStore) {
+    int chunkSize = GiraphConstants.COMPUTE_CHUNK_SIZE.get(conf);
+    if (chunkSize > 0 &&
+        !(messageStore instanceof ConcurrentVertexMessageStore)) {
+      if (LOG.isInfoEnabled()) {
+        LOG.info("getComputeChunkSize: Not sharing partitions between " +
+            "compute threads, " + messageStore.getClass().getName() +
+            " does not allow concurrent access to vertex messages");
+      }
+      return 0;
+    }
+    return chunkSize;
+  }
+
   /**
    * Process graph data partitions active in this superstep.
    * @param context handle to the underlying cluster framework
@@ -719,6 +766,17 @@ public class GraphTaskManager<I extends WritableComparable, V extends Writable,
       computePartitionIdQueue.add(partitionId);
     }
 
+    final ComputeWorkQueue<I, V, E> computeWorkQueue =
+        new ComputeWorkQueue<I, V, E>(computePartitionIdQueue,
+            serviceWorker.getPartitionStore(),
+            getComputeChunkSize(messageStore),
+            GiraphConstants.ACTIVE_VERTEX_INDEX.get(conf));
+    final AsyncMessageStore<I, Writable> asyncMessageStore =
+        getAsyncMessageStore(graphState.getSuperstep());
+    final List<ComputeCallable<I, V, E, Writable, Writable>> computeCallables =
+        Collections.synchronizedList(
+            Lists.<ComputeCallable<I, V, E, Writable, Writable>>newArrayList());
+
     GiraphTimerContext computeAllTimerContext = computeAll.time();
     timeToFirstMessageTimerContext = timeToFirstMessage.time();
 
@@ -727,13 +785,17 @@ public class GraphTaskManager<I extends WritableComparable, V extends Writable,
           @Override
           public Callable<Collection<PartitionStats>> newCallable(
               int callableId) {
-            return new ComputeCallable<I, V, E, Writable, Writable>(
-                context,
-                graphState,
-                messageStore,
-                computePartitionIdQueue,
-                conf,
-                serviceWorker);
+            ComputeCallable<I, V, E, Writable, Writable> computeCallable =
+                new ComputeCallable<I, V, E, Writable, Writable>(
+                    context,
+                    graphState,
+                    messageStore,
+                    asyncMessageStore,
+                    computeWorkQueue,
+                    conf,
+                    serviceWorker);
+            computeCallables.add(computeCallable);
+            return computeCallable;
           }
         };
     List<Collection<PartitionStats>> results =
@@ -742,10 +804,75 @@ public class GraphTaskManager<I extends WritableComparable, V extends Writable,
     for (Collection<PartitionStats> result : results) {
       partitionStatsList.addAll(result);
     }
+    recordComputeThreadIdleTimes(computeCallables);
 
     computeAllTimerContext.stop();
   }
 
+  /**
+   * Get the incoming message store, if messages sent in this superstep
+   * should be consumed by vertices which weren't computed yet.  Never done
+   * in the first superstep, since computations commonly ignore messages
+   * there.
+   *
+   * @param superstep Current superstep
+   * @return Incoming message store, or null if messages are only consumed
+   *         in the next superstep
+   */
+  @SuppressWarnings("unchecked")
+  private AsyncMessageStore<I, Writable> getAsyncMessageStore(
+      long superstep) {
+    if (!GiraphConstants.ASYNC_MESSAGE_VISIBILITY.get(conf) ||
+        superstep == 0) {
+      return null;
+    }
+    MessageStore<I, Writable> incomingMessageStore =
+        serviceWorker.getServerData().getIncomingMessageStore();
+    if (!(incomingMessageStore instanceof AsyncMessageStore)) {
+      LOG.warn("getAsyncMessageStore: " +
+          incomingMessageStore.getClass().getSimpleName() + " doesn't " +
+          "support asynchronous messages, using synchronous messages");
+      return null;
+    }
+    if (!conf.getIncomingMessageValueClass().equals(
+        conf.getOutgoingMessageValueClass())) {
+      LOG.warn("getAsyncMessageStore: Incoming and outgoing message " +
+          "types differ, using synchronous messages");
+      return null;
+    }
+    return (AsyncMessageStore<I, Writable>) incomingMessageStore;
+  }
+
+  /**
+   * Record how long each compute thread was idle after running out of work
+   * while other threads were still computing.
+   *
+   * @param computeCallables Compute callables which finished
+   */
+  private void recordComputeThreadIdleTimes(
+      List<ComputeCallable<I, V, E, Writable, Writable>> computeCallables) {
+    long lastFinishNanos = 0;
+    for (ComputeCallable<I, V, E, Writable, Writable> computeCallable :
+        computeCallables) {
+      lastFinishNanos =
+          Math.max(lastFinishNanos, computeCallable.getFinishNanos());
+    }
+    Histogram idleHistogram = GiraphMetrics.get().perSuperstep().
+        getUniformHistogram(MetricNames.COMPUTE_THREAD_IDLE_MSECS);
+    long maxIdleMsecs = 0;
+    for (ComputeCallable<I, V, E, Writable, Writable> computeCallable :
+        computeCallables) {
+      long idleMsecs = (lastFinishNanos - computeCallable.getFinishNanos()) /
+          Time.NS_PER_MS;
+      idleHistogram.update(idleMsecs);
+      maxIdleMsecs = Math.max(maxIdleMsecs, idleMsecs);
+    }
+    if (LOG.isInfoEnabled()) {
+      LOG.info("processGraphPartitions: Compute threads were idle for up " +
+          "to " + maxIdleMsecs + " msecs waiting for the last thread");
+    }
+  }
+
   /**
    * Handle the event that this superstep is a restart of a failed one.
    * @param superstep current superstep
@@ -859,6 +986,9 @@ public class GraphTaskManager<I extends WritableComparable, V extends Writable,
     if (serviceWorker != null) {
       serviceWorker.cleanup(finishedSuperstepStats);
     }
+    if (requestFlusherPool != null) {
+      requestFlusherPool.shutdown();
+    }
     try {
       if (masterThread != null) {
         masterThread.join();
@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.graph;
+
+import org.apache.giraph.partition.ActiveVerticesPartition;
+import org.apache.giraph.partition.Partition;
+import org.apache.giraph.partition.PartitionStats;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Computation of a single partition in a superstep. A shared partition has
+ * its vertex iteration handed out in chunks, so that several compute threads
+ * can work on it at the same time; otherwise a single thread iterates the
+ * whole partition.  With an active vertex index, only the vertices which
+ * haven't voted to halt are iterated.
+ *
+ * @param <I> Vertex id
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ */
+public class PartitionComputeWork<I extends WritableComparable,
+    V extends Writable, E extends Writable> {
+  /** Partition to compute */
+  private final Partition<I, V, E> partition;
+  /** Number of vertices per chunk, 0 if the partition isn't shared */
+  private final int chunkSize;
+  /** Vertices to compute */
+  private final Iterable<Vertex<I, V, E>> vertices;
+  /** Whether only the active vertices are computed */
+  private final boolean activeOnly;
+  /** Iterator over the vertices not handed out yet (shared only) */
+  private final Iterator<Vertex<I, V, E>> vertexIterator;
+  /** Stats merged from all threads working on the partition */
+  private final PartitionStats partitionStats;
+  /** Number of threads working on the partition */
+  private int numWorkingThreads = 1;
+  /** Whether all vertices have been handed out */
+  private boolean exhausted;
+
+  /**
+   * Constructor, the creating thread is working on the partition.
+   *
+   * @param partition Partition to compute
+   * @param chunkSize Number of vertices per chunk, 0 to not share the
+   *                  partition
+   * @param activeOnly Whether to only compute the active vertices of an
+   *                   {@link ActiveVerticesPartition}
+   */
+  public PartitionComputeWork(Partition<I, V, E> partition, int chunkSize,
+      boolean activeOnly) {
+    this.partition = partition;
+    this.chunkSize = chunkSize;
+    this.activeOnly = activeOnly;
+    vertices = activeOnly ?
+        ((ActiveVerticesPartition<I, V, E>) partition).getActiveVertices() :
+        partition;
+    vertexIterator = (chunkSize > 0) ? vertices.iterator() : null;
+    partitionStats = new PartitionStats(partition.getId(), 0, 0, 0, 0, 0);
+  }
+
+  /**
+   * Get the partition to compute.
+   *
+   * @return Partition
+   */
+  public Partition<I, V, E> getPartition() {
+    return partition;
+  }
+
+  /**
+   * Get the vertices to compute (not shared only).
+   *
+   * @return Vertices to compute
+   */
+  public Iterable<Vertex<I, V, E>> getVertices() {
+    return vertices;
+  }
+
+  /**
+   * Check if the partition is computed in chunks by several threads.
+   *
+   * @return True iff the partition is shared
+   */
+  public boolean isShared() {
+    return chunkSize > 0;
+  }
+
+  /**
+   * Another thread starts working on the partition.
+   *
+   * @return False if all vertices were already handed out
+   */
+  public synchronized boolean join() {
+    if (exhausted) {
+      return false;
+    }
+    ++numWorkingThreads;
+    return true;
+  }
+
+  /**
+   * Hand out the next chunk of vertices (shared partitions only).
+   *
+   * @param chunk List to add the vertices to
+   * @return False if there are no vertices left
+   */
+  public synchronized boolean nextChunk(List<Vertex<I, V, E>> chunk) {
+    while (chunk.size() < chunkSize && vertexIterator.hasNext()) {
+      chunk.add(vertexIterator.next());
+    }
+    if (!vertexIterator.hasNext()) {
+      exhausted = true;
+    }
+    return !chunk.isEmpty();
+  }
+
+  /**
+   * A thread is done working on the partition.
+   *
+   * @param threadStats Stats of the vertices computed by the thread
+   * @return Stats of the whole partition if this was the last thread
+   *         working on it and the partition is finished, null otherwise
+   */
+  public synchronized PartitionStats leave(PartitionStats threadStats) {
+    partitionStats.addVertexCount(threadStats.getVertexCount());
+    partitionStats.addFinishedVertexCount(
+        threadStats.getFinishedVertexCount());
+    partitionStats.addEdgeCount(threadStats.getEdgeCount());
+    partitionStats.addMessagesSentCount(threadStats.getMessagesSentCount());
+    partitionStats.addMessageBytesSentCount(
+        threadStats.getMessageBytesSentCount());
+    exhausted = true;
+    --numWorkingThreads;
+    if (numWorkingThreads > 0) {
+      return null;
+    }
+    if (activeOnly) {
+      // Halted vertices without messages were skipped, count them too.
+      // The partition keeps its edge count up to date (computed vertices
+      // report their changes), so this doesn't iterate over it.
+      long skippedVertices =
+          partition.getVertexCount() - partitionStats.getVertexCount();
+      partitionStats.addVertexCount(skippedVertices);
+      partitionStats.addFinishedVertexCount(skippedVertices);
+      partitionStats.addEdgeCount(
+          partition.getEdgeCount() - partitionStats.getEdgeCount());
+    }
+    return partitionStats;
+  }
+
+  /**
+   * A thread failed while working on the partition, no more threads may
+   * join it.
+   *
+   * @return True iff this was the last thread working on the partition
+   */
+  public synchronized boolean abort() {
+    exhausted = true;
+    --numWorkingThreads;
+    return numWorkingThreads == 0;
+  }
+}
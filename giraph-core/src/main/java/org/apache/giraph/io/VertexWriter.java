@@ -56,4 +56,18 @@ public abstract class VertexWriter<I extends WritableComparable,
    */
   public abstract void close(TaskAttemptContext context)
     throws IOException, InterruptedException;
+
+  /**
+   * Remove a vertex from the output. With delta output, this is called for
+   * the vertices removed during the application, so that outputs updated
+   * in place can delete them. Writers which can't delete vertices ignore
+   * it, which is the default.
+   *
+   * @param vertexId Id of the removed vertex
+   * @throws IOException
+   * @throws InterruptedException
+   */
+  public void removeVertex(I vertexId)
+    throws IOException, InterruptedException {
+  }
 }
@@ -95,6 +95,12 @@ public class WrappedVertexOutputFormat<I extends WritableComparable,
           Vertex<I, V, E> vertex) throws IOException, InterruptedException {
         vertexWriter.writeVertex(vertex);
       }
+
+      @Override
+      public void removeVertex(
+          I vertexId) throws IOException, InterruptedException {
+        vertexWriter.removeVertex(vertexId);
+      }
     };
   }
 
@@ -58,6 +58,7 @@ import org.apache.giraph.time.SystemTime;
 import org.apache.giraph.time.Time;
 import org.apache.giraph.utils.LogStacktraceCallable;
 import org.apache.giraph.utils.WritableUtils;
+import org.apache.giraph.worker.CheckpointPartitionStore;
 import org.apache.giraph.worker.WorkerInfo;
 import org.apache.giraph.zk.BspEvent;
 import org.apache.giraph.zk.PredicateLock;
@@ -1692,6 +1693,27 @@ public class BspServiceMaster<I extends WritableComparable,
     timerContext.stop();
   }
 
+  /**
+   * Delete the checkpoint partitions kept in the checkpoint partition store,
+   * if one is used.
+   *
+   * @throws IOException
+   */
+  private void deleteStoredCheckpoints() throws IOException {
+    CheckpointPartitionStore checkpointPartitionStore =
+        GiraphConstants.CHECKPOINT_PARTITION_STORE_CLASS.newInstance(
+            getConfiguration());
+    if (checkpointPartitionStore == null) {
+      return;
+    }
+    checkpointPartitionStore.initialize(checkpointBasePath);
+    checkpointPartitionStore.deleteCheckpoints();
+    if (LOG.isInfoEnabled()) {
+      LOG.info("deleteStoredCheckpoints: Removed the checkpoint partitions " +
+          "of " + checkpointBasePath + " from " + checkpointPartitionStore);
+    }
+  }
+
   /**
    * Need to clean up ZooKeeper nicely.  Make sure all the masters and workers
    * have reported ending their ZooKeeper connections.
@@ -1857,6 +1879,7 @@ public class BspServiceMaster<I extends WritableComparable,
               success + " since the job " + getContext().getJobName() +
               " succeeded ");
         }
+        deleteStoredCheckpoints();
       }
       aggregatorHandler.close();
       masterClient.closeConnections();
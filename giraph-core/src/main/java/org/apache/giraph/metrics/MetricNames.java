@@ -68,9 +68,37 @@ public interface MetricNames {
   /** Counter of messages sent in superstep */
   String MESSAGES_SENT = "messages-sent";
 
+  /** Counter of messages sent to vertices of the same worker in superstep */
+  String LOCAL_MESSAGES_SENT = "local-messages-sent";
+
+  /** Counter of messages sent to vertices of other workers in superstep */
+  String REMOTE_MESSAGES_SENT = "remote-messages-sent";
+
   /** Counter of messages sent in superstep */
   String MESSAGE_BYTES_SENT = "message-bytes-sent";
 
+  /** Counter of message bytes not sent thanks to sender-side combining */
+  String MESSAGE_BYTES_SAVED = "message-bytes-saved-by-combining";
+
+  /** Histogram of msecs compute threads were idle waiting for others */
+  String COMPUTE_THREAD_IDLE_MSECS = "compute-thread-idle-ms";
+
+  /** Histogram of msecs compute threads were blocked sending messages */
+  String COMPUTE_THREAD_SEND_BLOCKED_MSECS = "compute-thread-send-blocked-ms";
+
+  /** Histogram of msecs compute threads waited to get their partitions */
+  String COMPUTE_THREAD_PARTITION_WAIT_MSECS =
+      "compute-thread-partition-wait-ms";
+
+  /** Histogram of msecs spent loading out-of-core partitions */
+  String OUT_OF_CORE_LOAD_MSECS = "out-of-core-load-ms";
+
+  /** Histogram of msecs spent writing out-of-core partitions */
+  String OUT_OF_CORE_OFFLOAD_MSECS = "out-of-core-offload-ms";
+
+  /** Counter of value slot bytes rewritten for out-of-core static graphs */
+  String OUT_OF_CORE_VALUE_BYTES_WRITTEN = "out-of-core-value-bytes-written";
+
   /** Histogram for vertices in mutations requests */
   String VERTICES_IN_MUTATION_REQUEST = "vertices-per-mutations-request";
 
@@ -79,6 +107,14 @@ public interface MetricNames {
   /** Number of bytes received in superstep */
   String RECEIVED_BYTES = "received-bytes";
 
+  /**
+   * Suffix of the histograms of compressed request size as a percentage of
+   * the uncompressed size, per operation and request type
+   */
+  String COMPRESSED_PERCENT_SUFFIX = "compressed-pct";
+  /** Suffix of the timers of request (de)compression, per request type */
+  String COMPRESSION_TIME_SUFFIX = "time";
+
   /** PercentGauge of memory free */
   String MEMORY_FREE_PERCENT = "memory-free-pct";
 
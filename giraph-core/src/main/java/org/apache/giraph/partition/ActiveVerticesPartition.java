@@ -0,0 +1,65 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.partition;
+
+import org.apache.giraph.graph.Vertex;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * {@link Partition} which keeps an index of the vertices that haven't voted
+ * to halt (when {@link org.apache.giraph.conf.GiraphConstants
+ * #ACTIVE_VERTEX_INDEX} is set), so that computation can skip halted
+ * vertices without iterating over them. The index is updated whenever a
+ * vertex is given to {@link #putVertex(Vertex)} or
+ * {@link #saveVertex(Vertex)}.
+ * <p>
+ * When indexed, the number of edges is also kept up to date, so that
+ * {@link #getEdgeCount()} doesn't need to iterate over the vertices.
+ * Replacing or removing a vertex is accounted for by the partition, but
+ * edges added to or removed from a stored vertex in place must be reported
+ * with {@link #addEdgeCount(long)}.
+ *
+ * @param <I> Vertex id
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ */
+public interface ActiveVerticesPartition<I extends WritableComparable,
+    V extends Writable, E extends Writable> extends Partition<I, V, E> {
+  /**
+   * Get the vertices which haven't voted to halt.
+   *
+   * @return Active vertices
+   */
+  Iterable<Vertex<I, V, E>> getActiveVertices();
+
+  /**
+   * Get the number of vertices which haven't voted to halt.
+   *
+   * @return Number of active vertices
+   */
+  long getActiveVertexCount();
+
+  /**
+   * Account for edges added to (or removed from, if negative) a vertex of
+   * this partition in place.  Thread-safe.
+   *
+   * @param edges Change in the number of edges
+   */
+  void addEdgeCount(long edges);
+}
@@ -0,0 +1,996 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.giraph.conf.DefaultImmutableClassesGiraphConfigurable;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.MutableEdge;
+import org.apache.giraph.edge.OutEdges;
+import org.apache.giraph.edge.ReusableEdge;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.utils.WritableUtils;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.util.Progressable;
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.UnmodifiableIterator;
+
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Partition for graphs with {@link IntWritable} or {@link LongWritable} ids
+ * and primitive vertex and edge values ({@link IntWritable},
+ * {@link LongWritable}, {@link org.apache.hadoop.io.FloatWritable},
+ * {@link org.apache.hadoop.io.DoubleWritable} or
+ * {@link org.apache.hadoop.io.NullWritable}).  Vertices are kept in
+ * compressed sparse row form: primitive arrays of ids (sorted), values and
+ * halted bits, plus an array of edge offsets into primitive arrays of edge
+ * targets and edge values.  This avoids the per-vertex objects of
+ * {@link SimplePartition} and the deserialization of
+ * {@link ByteArrayPartition}, and iterates over memory sequentially.
+ *
+ * The arrays can't grow one vertex at a time, so vertices which are added
+ * or whose edges are changed are kept serialized in an overflow map, until
+ * {@link #compact()} rebuilds the arrays in bulk (done after loading the
+ * input and when writing the partition).
+ *
+ * Like {@link ByteArrayPartition}, vertices returned by {@link #getVertex}
+ * and the iterator are flyweights reused for the next vertex, which must be
+ * given to {@link #saveVertex(Vertex)} to keep their changes.  Only one
+ * thread at a time may call getVertex.
+ *
+ * @param <I> Vertex id
+ * @param <V> Vertex value
+ * @param <E> Edge value
+ */
+@SuppressWarnings("unchecked")
+public class CsrPartition<I extends WritableComparable,
+    V extends Writable, E extends Writable>
+    extends BasicPartition<I, V, E>
+    implements ReusesObjectsPartition<I, V, E> {
+  /** Class logger */
+  private static final Logger LOG = Logger.getLogger(CsrPartition.class);
+  /** Vertex ids, sorted */
+  private PrimitiveColumn ids;
+  /** Vertex values */
+  private PrimitiveColumn values;
+  /** Bit set of the vertices which voted to halt */
+  private long[] haltedBits;
+  /** Bit set of the vertices which were removed or moved to the overflow */
+  private long[] removedBits;
+  /** Offsets of the edges of each vertex, the last one is the edge count */
+  private int[] edgeOffsets;
+  /** Edge target vertex ids */
+  private PrimitiveColumn edgeTargets;
+  /** Edge values */
+  private PrimitiveColumn edgeValues;
+  /** Number of vertices in the arrays, including removed ones */
+  private int arraySize;
+  /** Number of removed vertices in the arrays */
+  private int removedCount;
+  /** Number of edges of the vertices in the arrays which weren't removed */
+  private long arrayEdgeCount;
+  /** Serialized vertices which aren't in the arrays */
+  private ConcurrentMap<I, byte[]> overflowMap;
+  /** Representative vertex for the overflow map */
+  private Vertex<I, V, E> representativeVertex;
+  /** Flyweight vertex returned by getVertex */
+  private CsrVertex flyweightVertex;
+  /** Use unsafe serialization */
+  private boolean useUnsafeSerialization;
+
+  /**
+   * Constructor for reflection.
+   */
+  public CsrPartition() { }
+
+  @Override
+  public void initialize(int partitionId, Progressable progressable) {
+    super.initialize(partitionId, progressable);
+    initializeColumns();
+    initializeOverflow(0);
+  }
+
+  /**
+   * Create empty columns for the configured types.
+   */
+  private void initializeColumns() {
+    Class<I> idClass = getConf().getVertexIdClass();
+    if (idClass != IntWritable.class && idClass != LongWritable.class) {
+      throw new IllegalStateException("initializeColumns: Vertex id " +
+          idClass + " is not supported, use IntWritable or LongWritable");
+    }
+    ids = PrimitiveColumn.create(idClass);
+    edgeTargets = PrimitiveColumn.create(idClass);
+    values = PrimitiveColumn.create(getConf().getVertexValueClass());
+    if (values == null) {
+      throw new IllegalStateException("initializeColumns: Vertex value " +
+          getConf().getVertexValueClass() + " is not a primitive type");
+    }
+    edgeValues = PrimitiveColumn.create(getConf().getEdgeValueClass());
+    if (edgeValues == null) {
+      throw new IllegalStateException("initializeColumns: Edge value " +
+          getConf().getEdgeValueClass() + " is not a primitive type");
+    }
+    haltedBits = new long[0];
+    removedBits = new long[0];
+    edgeOffsets = new int[1];
+    arraySize = 0;
+    removedCount = 0;
+    arrayEdgeCount = 0;
+  }
+
+  /**
+   * Create the overflow map and the reused vertices.
+   *
+   * @param initialCapacity Initial capacity of the overflow map
+   */
+  private void initializeOverflow(int initialCapacity) {
+    overflowMap = new MapMaker().concurrencyLevel(
+        getConf().getNettyServerExecutionConcurrency()).initialCapacity(
+        initialCapacity).makeMap();
+    representativeVertex = createRepresentativeVertex();
+    flyweightVertex = new CsrVertex();
+    useUnsafeSerialization = getConf().useUnsafeSerialization();
+  }
+
+  /**
+   * Create a vertex to deserialize overflow vertices into.
+   *
+   * @return Initialized vertex
+   */
+  private Vertex<I, V, E> createRepresentativeVertex() {
+    Vertex<I, V, E> vertex = getConf().createVertex();
+    vertex.initialize(getConf().createVertexId(),
+        getConf().createVertexValue(), getConf().createOutEdges());
+    return vertex;
+  }
+
+  /**
+   * Get the primitive value of a vertex id.
+   *
+   * @param id Vertex id
+   * @return Value of the id
+   */
+  private static long idBits(WritableComparable id) {
+    if (id instanceof IntWritable) {
+      return ((IntWritable) id).get();
+    } else {
+      return ((LongWritable) id).get();
+    }
+  }
+
+  /**
+   * Copy a vertex id, to use it as a key of the overflow map.
+   *
+   * @param id Vertex id, possibly reused by the caller
+   * @return New vertex id
+   */
+  private I copyId(I id) {
+    I copy = getConf().createVertexId();
+    if (copy instanceof IntWritable) {
+      ((IntWritable) copy).set(((IntWritable) id).get());
+    } else {
+      ((LongWritable) copy).set(((LongWritable) id).get());
+    }
+    return copy;
+  }
+
+  /**
+   * Check a bit of a bit set.
+   *
+   * @param bits Bit set
+   * @param index Index of the bit
+   * @return True iff the bit is set
+   */
+  private static boolean getBit(long[] bits, int index) {
+    return (bits[index >>> 6] & (1L << index)) != 0;
+  }
+
+  /**
+   * Set or clear a bit of a bit set.
+   *
+   * @param bits Bit set
+   * @param index Index of the bit
+   * @param value Whether to set the bit
+   */
+  private static void setBit(long[] bits, int index, boolean value) {
+    if (value) {
+      bits[index >>> 6] |= 1L << index;
+    } else {
+      bits[index >>> 6] &= ~(1L << index);
+    }
+  }
+
+  /**
+   * Get the number of words of a bit set.
+   *
+   * @param size Number of bits
+   * @return Number of longs to hold the bits
+   */
+  private static int bitWords(int size) {
+    return (size + 63) >>> 6;
+  }
+
+  /**
+   * Find the index of a vertex in the arrays.
+   *
+   * @param vertexId Vertex id
+   * @return Index of the vertex, -1 if it isn't in the arrays
+   */
+  private int findVertex(I vertexId) {
+    long key = idBits(vertexId);
+    int low = 0;
+    int high = arraySize - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      long midKey = ids.getBits(mid);
+      if (midKey < key) {
+        low = mid + 1;
+      } else if (midKey > key) {
+        high = mid - 1;
+      } else {
+        return getBit(removedBits, mid) ? -1 : mid;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Mark a vertex of the arrays as removed.
+   *
+   * @param index Index of the vertex
+   */
+  private synchronized void removeFromArrays(int index) {
+    if (!getBit(removedBits, index)) {
+      setBit(removedBits, index, true);
+      ++removedCount;
+      arrayEdgeCount -= edgeOffsets[index + 1] - edgeOffsets[index];
+    }
+  }
+
+  /**
+   * Save the value and halted state of a vertex of the arrays.
+   *
+   * @param index Index of the vertex
+   * @param value Vertex value
+   * @param halted Whether the vertex voted to halt
+   */
+  private synchronized void saveToArrays(int index, V value, boolean halted) {
+    values.set(index, value);
+    setBit(haltedBits, index, halted);
+  }
+
+  /**
+   * Copy the edges of a vertex of the arrays into new edge objects.
+   *
+   * @param index Index of the vertex
+   * @return Edges of the vertex
+   */
+  private OutEdges<I, E> copyEdges(int index) {
+    int start = edgeOffsets[index];
+    int end = edgeOffsets[index + 1];
+    OutEdges<I, E> edges = getConf().createAndInitializeOutEdges(end - start);
+    for (int i = start; i < end; ++i) {
+      Edge<I, E> edge = getConf().createEdge();
+      edgeTargets.get(i, edge.getTargetVertexId());
+      edgeValues.get(i, edge.getValue());
+      edges.add(edge);
+    }
+    return edges;
+  }
+
+  /**
+   * Copy a vertex of the arrays into a new vertex object.
+   *
+   * @param index Index of the vertex
+   * @return Vertex
+   */
+  private Vertex<I, V, E> copyVertex(int index) {
+    Vertex<I, V, E> vertex = getConf().createVertex();
+    I id = getConf().createVertexId();
+    ids.get(index, id);
+    V value = getConf().createVertexValue();
+    values.get(index, value);
+    vertex.initialize(id, value, copyEdges(index));
+    if (getBit(haltedBits, index)) {
+      vertex.voteToHalt();
+    }
+    return vertex;
+  }
+
+  /**
+   * Serialize a vertex into the overflow map, taking it out of the arrays.
+   *
+   * @param vertex Vertex to store
+   * @return Previous serialized vertex in the overflow map, if any
+   */
+  private byte[] putInOverflow(Vertex<I, V, E> vertex) {
+    byte[] vertexData = WritableUtils.writeVertexToByteArray(
+        vertex, useUnsafeSerialization, getConf());
+    int index = findVertex(vertex.getId());
+    if (index >= 0) {
+      removeFromArrays(index);
+    }
+    return overflowMap.put(copyId(vertex.getId()), vertexData);
+  }
+
+  @Override
+  public Vertex<I, V, E> getVertex(I vertexIndex) {
+    int index = findVertex(vertexIndex);
+    if (index >= 0) {
+      flyweightVertex.moveTo(index);
+      return flyweightVertex;
+    }
+    byte[] vertexData = overflowMap.get(vertexIndex);
+    if (vertexData == null) {
+      return null;
+    }
+    WritableUtils.reinitializeVertexFromByteArray(
+        vertexData, representativeVertex, useUnsafeSerialization, getConf());
+    return representativeVertex;
+  }
+
+  @Override
+  public Vertex<I, V, E> putVertex(Vertex<I, V, E> vertex) {
+    int index = findVertex(vertex.getId());
+    Vertex<I, V, E> oldVertex = index >= 0 ? copyVertex(index) : null;
+    byte[] oldVertexData = putInOverflow(vertex);
+    if (oldVertexData != null) {
+      WritableUtils.reinitializeVertexFromByteArray(oldVertexData,
+          representativeVertex, useUnsafeSerialization, getConf());
+      return representativeVertex;
+    }
+    return oldVertex;
+  }
+
+  @Override
+  public Vertex<I, V, E> removeVertex(I vertexIndex) {
+    int index = findVertex(vertexIndex);
+    if (index >= 0) {
+      Vertex<I, V, E> vertex = copyVertex(index);
+      removeFromArrays(index);
+      return vertex;
+    }
+    byte[] vertexData = overflowMap.remove(vertexIndex);
+    if (vertexData == null) {
+      return null;
+    }
+    WritableUtils.reinitializeVertexFromByteArray(vertexData,
+        representativeVertex, useUnsafeSerialization, getConf());
+    return representativeVertex;
+  }
+
+  @Override
+  public void addPartition(Partition<I, V, E> partition) {
+    for (Vertex<I, V, E> vertex : partition) {
+      putInOverflow(vertex);
+    }
+  }
+
+  @Override
+  public long getVertexCount() {
+    return arraySize - removedCount + overflowMap.size();
+  }
+
+  @Override
+  public long getEdgeCount() {
+    long edges = arrayEdgeCount;
+    for (byte[] vertexData : overflowMap.values()) {
+      WritableUtils.reinitializeVertexFromByteArray(vertexData,
+          representativeVertex, useUnsafeSerialization, getConf());
+      edges += representativeVertex.getNumEdges();
+    }
+    return edges;
+  }
+
+  @Override
+  public void saveVertex(Vertex<I, V, E> vertex) {
+    if (vertex instanceof CsrPartition.CsrVertex) {
+      CsrVertex csrVertex = (CsrVertex) vertex;
+      if (csrVertex.getPartition() == this && csrVertex.save()) {
+        return;
+      }
+    }
+    putInOverflow(vertex);
+  }
+
+  /**
+   * Rebuild the arrays with all the vertices of the partition, emptying the
+   * overflow map.  Takes time and memory proportional to the partition, so
+   * it's done in bulk after the input is loaded rather than on every
+   * change.
+   */
+  public synchronized void compact() {
+    if (overflowMap.isEmpty() && removedCount == 0) {
+      return;
+    }
+    int overflowSize = overflowMap.size();
+    final long[] overflowIds = new long[overflowSize];
+    final byte[][] overflowData = new byte[overflowSize][];
+    int i = 0;
+    for (Map.Entry<I, byte[]> entry : overflowMap.entrySet()) {
+      overflowIds[i] = idBits(entry.getKey());
+      overflowData[i] = entry.getValue();
+      ++i;
+    }
+    Arrays.quickSort(0, overflowSize, new AbstractIntComparator() {
+      @Override
+      public int compare(int a, int b) {
+        return overflowIds[a] < overflowIds[b] ? -1 :
+            overflowIds[a] == overflowIds[b] ? 0 : 1;
+      }
+    }, new Swapper() {
+      @Override
+      public void swap(int a, int b) {
+        long id = overflowIds[a];
+        overflowIds[a] = overflowIds[b];
+        overflowIds[b] = id;
+        byte[] data = overflowData[a];
+        overflowData[a] = overflowData[b];
+        overflowData[b] = data;
+      }
+    });
+
+    // Merge the remaining vertices of the arrays with the sorted overflow
+    int newSize = arraySize - removedCount + overflowSize;
+    PrimitiveColumn newIds = PrimitiveColumn.create(
+        getConf().getVertexIdClass());
+    newIds.ensureCapacity(newSize);
+    PrimitiveColumn newValues = PrimitiveColumn.create(
+        getConf().getVertexValueClass());
+    newValues.ensureCapacity(newSize);
+    long[] newHaltedBits = new long[bitWords(newSize)];
+    int[] newEdgeOffsets = new int[newSize + 1];
+    PrimitiveColumn newEdgeTargets = PrimitiveColumn.create(
+        getConf().getVertexIdClass());
+    PrimitiveColumn newEdgeValues = PrimitiveColumn.create(
+        getConf().getEdgeValueClass());
+    int arrayIndex = 0;
+    int overflowIndex = 0;
+    long edgeCount = 0;
+    for (int newIndex = 0; newIndex < newSize; ++newIndex) {
+      while (arrayIndex < arraySize && getBit(removedBits, arrayIndex)) {
+        ++arrayIndex;
+      }
+      if (overflowIndex == overflowSize || (arrayIndex < arraySize &&
+          ids.getBits(arrayIndex) < overflowIds[overflowIndex])) {
+        newIds.setBits(newIndex, ids.getBits(arrayIndex));
+        newValues.setBits(newIndex, values.getBits(arrayIndex));
+        setBit(newHaltedBits, newIndex, getBit(haltedBits, arrayIndex));
+        int start = edgeOffsets[arrayIndex];
+        int end = edgeOffsets[arrayIndex + 1];
+        int edges = checkEdgeCount(edgeCount + end - start);
+        newEdgeTargets.ensureCapacity(edges);
+        newEdgeValues.ensureCapacity(edges);
+        for (int e = start; e < end; ++e) {
+          newEdgeTargets.setBits((int) edgeCount, edgeTargets.getBits(e));
+          newEdgeValues.setBits((int) edgeCount, edgeValues.getBits(e));
+          ++edgeCount;
+        }
+        ++arrayIndex;
+      } else {
+        WritableUtils.reinitializeVertexFromByteArray(
+            overflowData[overflowIndex], representativeVertex,
+            useUnsafeSerialization, getConf());
+        overflowData[overflowIndex] = null;
+        newIds.set(newIndex, representativeVertex.getId());
+        newValues.set(newIndex, representativeVertex.getValue());
+        setBit(newHaltedBits, newIndex, representativeVertex.isHalted());
+        int edges = checkEdgeCount(
+            edgeCount + representativeVertex.getNumEdges());
+        newEdgeTargets.ensureCapacity(edges);
+        newEdgeValues.ensureCapacity(edges);
+        for (Edge<I, E> edge : representativeVertex.getEdges()) {
+          newEdgeTargets.set((int) edgeCount, edge.getTargetVertexId());
+          newEdgeValues.set((int) edgeCount, edge.getValue());
+          ++edgeCount;
+        }
+        ++overflowIndex;
+      }
+      newEdgeOffsets[newIndex + 1] = (int) edgeCount;
+      if ((newIndex & 0xFFFF) == 0) {
+        progress();
+      }
+    }
+    newIds.trim(newSize);
+    newValues.trim(newSize);
+    newEdgeTargets.trim((int) edgeCount);
+    newEdgeValues.trim((int) edgeCount);
+
+    ids = newIds;
+    values = newValues;
+    haltedBits = newHaltedBits;
+    removedBits = new long[bitWords(newSize)];
+    edgeOffsets = newEdgeOffsets;
+    edgeTargets = newEdgeTargets;
+    edgeValues = newEdgeValues;
+    arraySize = newSize;
+    removedCount = 0;
+    arrayEdgeCount = edgeCount;
+    overflowMap.clear();
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("compact: Partition " + getId() + " has " + newSize +
+          " vertices (" + overflowSize + " from the overflow) and " +
+          edgeCount + " edges");
+    }
+  }
+
+  /**
+   * Make sure the edges of a partition can be indexed with an int.
+   *
+   * @param edgeCount Number of edges
+   * @return Number of edges
+   */
+  private int checkEdgeCount(long edgeCount) {
+    if (edgeCount > Integer.MAX_VALUE - 8) {
+      throw new IllegalStateException("checkEdgeCount: Partition " +
+          getId() + " has more than " + (Integer.MAX_VALUE - 8) +
+          " edges, use more partitions");
+    }
+    return (int) edgeCount;
+  }
+
+  @Override
+  public void write(DataOutput output) throws IOException {
+    compact();
+    super.write(output);
+    output.writeInt(arraySize);
+    ids.write(output, arraySize);
+    values.write(output, arraySize);
+    for (int i = 0; i < bitWords(arraySize); ++i) {
+      output.writeLong(haltedBits[i]);
+    }
+    progress();
+    for (int i = 1; i <= arraySize; ++i) {
+      output.writeInt(edgeOffsets[i]);
+    }
+    edgeTargets.write(output, edgeOffsets[arraySize]);
+    edgeValues.write(output, edgeOffsets[arraySize]);
+  }
+
+  @Override
+  public void readFields(DataInput input) throws IOException {
+    super.readFields(input);
+    initializeColumns();
+    initializeOverflow(0);
+    arraySize = input.readInt();
+    ids.readFields(input, arraySize);
+    values.readFields(input, arraySize);
+    haltedBits = new long[bitWords(arraySize)];
+    for (int i = 0; i < haltedBits.length; ++i) {
+      haltedBits[i] = input.readLong();
+    }
+    removedBits = new long[bitWords(arraySize)];
+    progress();
+    edgeOffsets = new int[arraySize + 1];
+    for (int i = 1; i <= arraySize; ++i) {
+      edgeOffsets[i] = input.readInt();
+    }
+    arrayEdgeCount = edgeOffsets[arraySize];
+    edgeTargets.readFields(input, edgeOffsets[arraySize]);
+    edgeValues.readFields(input, edgeOffsets[arraySize]);
+  }
+
+  @Override
+  public Iterator<Vertex<I, V, E>> iterator() {
+    return new CsrVertexIterator();
+  }
+
+  @Override
+  public String toString() {
+    return "(id=" + getId() + ",V=" + getVertexCount() + ")";
+  }
+
+  /**
+   * Iterator over the vertices of the arrays, through a flyweight vertex,
+   * and then over the vertices in the overflow map when it was created.
+   * Vertices moved to the overflow map while iterating (by saving them with
+   * changed edges) are therefore not returned twice.
+   */
+  private class CsrVertexIterator implements Iterator<Vertex<I, V, E>> {
+    /** Flyweight vertex for the arrays */
+    private final CsrVertex vertex = new CsrVertex();
+    /** Representative vertex for the overflow map */
+    private Vertex<I, V, E> overflowVertex;
+    /** Serialized vertices of the overflow map */
+    private final Iterator<byte[]> overflowIterator;
+    /** Index of the next vertex in the arrays */
+    private int nextIndex = -1;
+
+    /** Constructor */
+    public CsrVertexIterator() {
+      overflowIterator = overflowMap.isEmpty() ?
+          Collections.<byte[]>emptyList().iterator() :
+          Lists.newArrayList(overflowMap.values()).iterator();
+      advance();
+    }
+
+    /**
+     * Move to the next vertex of the arrays which wasn't removed.
+     */
+    private void advance() {
+      do {
+        ++nextIndex;
+      } while (nextIndex < arraySize && getBit(removedBits, nextIndex));
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextIndex < arraySize || overflowIterator.hasNext();
+    }
+
+    @Override
+    public Vertex<I, V, E> next() {
+      if (nextIndex < arraySize) {
+        vertex.moveTo(nextIndex);
+        advance();
+        return vertex;
+      }
+      if (overflowVertex == null) {
+        overflowVertex = createRepresentativeVertex();
+      }
+      WritableUtils.reinitializeVertexFromByteArray(overflowIterator.next(),
+          overflowVertex, useUnsafeSerialization, getConf());
+      return overflowVertex;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException(
+          "remove: This method is not supported.");
+    }
+  }
+
+  /**
+   * Flyweight view of a vertex of the arrays.  The value and halted state
+   * are kept in the flyweight until the vertex is saved, edge values are
+   * changed in place.  Changing the edges or re-initializing the vertex
+   * detaches it into a regular vertex, which moves to the overflow map when
+   * saved.
+   */
+  private class CsrVertex
+      extends DefaultImmutableClassesGiraphConfigurable<I, V, E>
+      implements Vertex<I, V, E> {
+    /** Edges of the vertex */
+    private final CsrOutEdges edges = new CsrOutEdges();
+    /** Vertex id, reused */
+    private I id;
+    /** Vertex value, reused */
+    private V reusedValue;
+    /** Current vertex value */
+    private V value;
+    /** Whether the vertex voted to halt */
+    private boolean halted;
+    /** Index of the vertex in the arrays */
+    private int index = -1;
+    /** Regular vertex replacing this one after a structural change */
+    private Vertex<I, V, E> detachedVertex;
+
+    /** Constructor */
+    public CsrVertex() {
+      setConf(CsrPartition.this.getConf());
+      id = getConf().createVertexId();
+      reusedValue = getConf().createVertexValue();
+    }
+
+    /**
+     * Get the partition this vertex belongs to.
+     *
+     * @return Partition
+     */
+    CsrPartition<I, V, E> getPartition() {
+      return CsrPartition.this;
+    }
+
+    /**
+     * Point this flyweight to another vertex of the arrays.
+     *
+     * @param newIndex Index of the vertex
+     */
+    void moveTo(int newIndex) {
+      index = newIndex;
+      detachedVertex = null;
+      ids.get(index, id);
+      value = reusedValue;
+      values.get(index, value);
+      halted = getBit(haltedBits, index);
+    }
+
+    /**
+     * Save the value and halted state of this vertex into the arrays.
+     *
+     * @return False if the vertex has been detached or removed, and has to
+     *         be saved in the overflow map instead
+     */
+    boolean save() {
+      if (detachedVertex != null || index < 0 ||
+          getBit(removedBits, index) || ids.getBits(index) != idBits(id)) {
+        return false;
+      }
+      saveToArrays(index, value, halted);
+      return true;
+    }
+
+    /**
+     * Replace this flyweight with a regular vertex holding the same data.
+     *
+     * @return Detached vertex
+     */
+    private Vertex<I, V, E> detach() {
+      if (detachedVertex == null) {
+        detachedVertex = getConf().createVertex();
+        detachedVertex.initialize(id, value, copyEdges(index));
+        if (halted) {
+          detachedVertex.voteToHalt();
+        }
+        // The detached vertex owns the objects now
+        id = getConf().createVertexId();
+        if (value == reusedValue) {
+          reusedValue = getConf().createVertexValue();
+        }
+      }
+      return detachedVertex;
+    }
+
+    @Override
+    public void initialize(I newId, V newValue, Iterable<Edge<I, E>> newEdges) {
+      detachedVertex = getConf().createVertex();
+      detachedVertex.initialize(newId, newValue, newEdges);
+    }
+
+    @Override
+    public void initialize(I newId, V newValue) {
+      detachedVertex = getConf().createVertex();
+      detachedVertex.initialize(newId, newValue);
+    }
+
+    @Override
+    public I getId() {
+      return detachedVertex != null ? detachedVertex.getId() : id;
+    }
+
+    @Override
+    public V getValue() {
+      return detachedVertex != null ? detachedVertex.getValue() : value;
+    }
+
+    @Override
+    public void setValue(V newValue) {
+      if (detachedVertex != null) {
+        detachedVertex.setValue(newValue);
+      } else {
+        value = newValue;
+      }
+    }
+
+    @Override
+    public void voteToHalt() {
+      if (detachedVertex != null) {
+        detachedVertex.voteToHalt();
+      } else {
+        halted = true;
+      }
+    }
+
+    @Override
+    public void wakeUp() {
+      if (detachedVertex != null) {
+        detachedVertex.wakeUp();
+      } else {
+        halted = false;
+      }
+    }
+
+    @Override
+    public boolean isHalted() {
+      return detachedVertex != null ? detachedVertex.isHalted() : halted;
+    }
+
+    @Override
+    public int getNumEdges() {
+      return detachedVertex != null ? detachedVertex.getNumEdges() :
+          edgeOffsets[index + 1] - edgeOffsets[index];
+    }
+
+    @Override
+    public Iterable<Edge<I, E>> getEdges() {
+      return detachedVertex != null ? detachedVertex.getEdges() : edges;
+    }
+
+    @Override
+    public void setEdges(Iterable<Edge<I, E>> newEdges) {
+      detach().setEdges(newEdges);
+    }
+
+    @Override
+    public Iterable<MutableEdge<I, E>> getMutableEdges() {
+      return detach().getMutableEdges();
+    }
+
+    @Override
+    public E getEdgeValue(I targetVertexId) {
+      if (detachedVertex != null) {
+        return detachedVertex.getEdgeValue(targetVertexId);
+      }
+      long target = idBits(targetVertexId);
+      for (int i = edgeOffsets[index]; i < edgeOffsets[index + 1]; ++i) {
+        if (edgeTargets.getBits(i) == target) {
+          E edgeValue = getConf().createEdgeValue();
+          edgeValues.get(i, edgeValue);
+          return edgeValue;
+        }
+      }
+      return null;
+    }
+
+    @Override
+    public void setEdgeValue(I targetVertexId, E edgeValue) {
+      if (detachedVertex != null) {
+        detachedVertex.setEdgeValue(targetVertexId, edgeValue);
+        return;
+      }
+      long target = idBits(targetVertexId);
+      for (int i = edgeOffsets[index]; i < edgeOffsets[index + 1]; ++i) {
+        if (edgeTargets.getBits(i) == target) {
+          edgeValues.set(i, edgeValue);
+        }
+      }
+    }
+
+    @Override
+    public Iterable<E> getAllEdgeValues(I targetVertexId) {
+      if (detachedVertex != null) {
+        return detachedVertex.getAllEdgeValues(targetVertexId);
+      }
+      List<E> edgeValueList = Collections.emptyList();
+      long target = idBits(targetVertexId);
+      for (int i = edgeOffsets[index]; i < edgeOffsets[index + 1]; ++i) {
+        if (edgeTargets.getBits(i) == target) {
+          if (edgeValueList.isEmpty()) {
+            edgeValueList = Lists.newArrayList();
+          }
+          E edgeValue = getConf().createEdgeValue();
+          edgeValues.get(i, edgeValue);
+          edgeValueList.add(edgeValue);
+        }
+      }
+      return edgeValueList;
+    }
+
+    @Override
+    public void addEdge(Edge<I, E> edge) {
+      detach().addEdge(edge);
+    }
+
+    @Override
+    public void removeEdges(I targetVertexId) {
+      detach().removeEdges(targetVertexId);
+    }
+
+    @Override
+    public void unwrapMutableEdges() {
+      if (detachedVertex != null) {
+        detachedVertex.unwrapMutableEdges();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return "Vertex(id=" + getId() + ",value=" + getValue() +
+          ",#edges=" + getNumEdges() + ")";
+    }
+
+    /**
+     * Read-only edges of the flyweight vertex, iterated through a reused
+     * edge.  Writing them produces the format of the configured
+     * {@link OutEdges}.
+     */
+    private class CsrOutEdges implements OutEdges<I, E> {
+      @Override
+      public void initialize(Iterable<Edge<I, E>> newEdges) {
+        throw new UnsupportedOperationException(
+            "initialize: Edges of a CsrPartition vertex are read-only");
+      }
+
+      @Override
+      public void initialize(int capacity) {
+        throw new UnsupportedOperationException(
+            "initialize: Edges of a CsrPartition vertex are read-only");
+      }
+
+      @Override
+      public void initialize() {
+        throw new UnsupportedOperationException(
+            "initialize: Edges of a CsrPartition vertex are read-only");
+      }
+
+      @Override
+      public void add(Edge<I, E> edge) {
+        throw new UnsupportedOperationException(
+            "add: Edges of a CsrPartition vertex are read-only");
+      }
+
+      @Override
+      public void remove(I targetVertexId) {
+        throw new UnsupportedOperationException(
+            "remove: Edges of a CsrPartition vertex are read-only");
+      }
+
+      @Override
+      public int size() {
+        return edgeOffsets[index + 1] - edgeOffsets[index];
+      }
+
+      @Override
+      public Iterator<Edge<I, E>> iterator() {
+        final int end = edgeOffsets[index + 1];
+        final ReusableEdge<I, E> edge = getConf().createReusableEdge();
+        return new UnmodifiableIterator<Edge<I, E>>() {
+          /** Index of the next edge */
+          private int nextEdge = edgeOffsets[index];
+
+          @Override
+          public boolean hasNext() {
+            return nextEdge < end;
+          }
+
+          @Override
+          public Edge<I, E> next() {
+            if (nextEdge >= end) {
+              throw new NoSuchElementException();
+            }
+            edgeTargets.get(nextEdge, edge.getTargetVertexId());
+            edgeValues.get(nextEdge, edge.getValue());
+            ++nextEdge;
+            return edge;
+          }
+        };
+      }
+
+      @Override
+      public void write(DataOutput output) throws IOException {
+        copyEdges(index).write(output);
+      }
+
+      @Override
+      public void readFields(DataInput input) throws IOException {
+        throw new UnsupportedOperationException(
+            "readFields: Edges of a CsrPartition vertex are read-only");
+      }
+    }
+  }
+}
@@ -18,9 +18,15 @@
 
 package org.apache.giraph.partition;
 
+import org.apache.giraph.comm.compression.RequestCompressionCodec;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.edge.OutEdges;
 import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.metrics.GiraphMetrics;
+import org.apache.giraph.metrics.MetricNames;
+import org.apache.giraph.time.SystemTime;
+import org.apache.giraph.time.Time;
+import org.apache.giraph.utils.ExtendedDataInput;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.mapreduce.Mapper;
@@ -28,21 +34,18 @@ import org.apache.hadoop.mapreduce.Mapper.Context;
 import org.apache.log4j.Logger;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.hash.HashFunction;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.DataOutput;
-import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -51,14 +54,21 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.AbstractExecutorService;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static org.apache.giraph.conf.GiraphConstants.MAX_PARTITIONS_IN_MEMORY;
+import static org.apache.giraph.conf.GiraphConstants.NUM_OUT_OF_CORE_IO_THREADS;
+import static org.apache.giraph.conf.GiraphConstants.OUT_OF_CORE_BLOCK_SIZE;
+import static org.apache.giraph.conf.GiraphConstants.OUT_OF_CORE_COMPRESSION_CODEC;
+import static org.apache.giraph.conf.GiraphConstants.OUT_OF_CORE_MEMORY_CONTROLLER;
+import static org.apache.giraph.conf.GiraphConstants.OUT_OF_CORE_PREFETCH_PARTITIONS;
 import static org.apache.giraph.conf.GiraphConstants.PARTITIONS_DIRECTORY;
 
 /**
@@ -66,6 +76,31 @@ import static org.apache.giraph.conf.GiraphConstants.PARTITIONS_DIRECTORY;
  * Thread-safe, but expects the caller to synchronized between deletes, adds,
  * puts and gets.
  *
+ * If {@link org.apache.giraph.conf.GiraphConstants#NUM_OUT_OF_CORE_IO_THREADS}
+ * is set, partitions evicted to make space are written by a background I/O
+ * pool while the requested partition loads, and the partitions next in the
+ * compute queue are loaded ahead of time (see
+ * {@link #prefetchPartitions(Iterable)}). Prefetched partitions are only
+ * evicted before they are claimed if nothing else can be.
+ *
+ * If {@link
+ * org.apache.giraph.conf.GiraphConstants#OUT_OF_CORE_MEMORY_CONTROLLER} is
+ * set, the number of partitions in memory isn't fixed: an
+ * {@link OutOfCoreMemoryController} gives how many vertices and edges fit in
+ * memory, and the largest inactive partitions are offloaded first to stay
+ * under it.
+ *
+ * Partition files are serialized in bulk, in blocks of
+ * {@link org.apache.giraph.conf.GiraphConstants#OUT_OF_CORE_BLOCK_SIZE}
+ * bytes which can be compressed with
+ * {@link org.apache.giraph.conf.GiraphConstants#OUT_OF_CORE_COMPRESSION_CODEC}
+ * (see {@link PartitionFileWriter}).
+ *
+ * If the graph is static, ids and edges are written once, and the halted
+ * states and values are kept in fixed-size slots (see
+ * {@link VertexValueSlots}), so that offloading a partition again only
+ * rewrites, in place, the values which changed since it was loaded.
+ *
  * @param <I> Vertex id
  * @param <V> Vertex data
  * @param <E> Edge data
@@ -77,6 +112,8 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
   /** Class logger. */
   private static final Logger LOG =
       Logger.getLogger(DiskBackedPartitionStore.class);
+  /** Time instance to use for timing */
+  private static final Time TIME = SystemTime.get();
   /** States the partition can be found in */
   private enum State { ACTIVE, INACTIVE, LOADING, OFFLOADING, ONDISK };
   /** Global lock to the whole partition */
@@ -121,6 +158,35 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
   private final int maxInMemoryPartitions;
   /** Number of slots used */
   private int inMemoryPartitions;
+  /** Pool for background partition I/O, null if I/O is synchronous */
+  private final ExecutorService ioPool;
+  /** Maximum number of partitions to prefetch */
+  private final int maxPrefetchPartitions;
+  /** Number of partitions being prefetched */
+  private int prefetchingPartitions;
+  /**
+   * Ids of the partitions prefetched (loading or loaded) and not claimed by
+   * a get yet, which aren't evicted unless nothing else can be
+   */
+  private final Set<Integer> prefetched = Sets.newHashSet();
+  /** First failure of a background I/O, rethrown to the callers */
+  private volatile Exception ioFailure;
+  /** Memory controller, null if keeping a fixed number of partitions */
+  private final OutOfCoreMemoryController memoryController;
+  /** Estimated size (vertices and edges) of the partitions */
+  private final Map<Integer, Long> sizes = Maps.newHashMap();
+  /** Estimated size of the partitions in memory */
+  private long inMemorySize;
+  /** Codec compressing the partition files, null if not compressing */
+  private final RequestCompressionCodec compressionCodec;
+  /** Size of the blocks the partition files are written in */
+  private final int blockSize;
+  /**
+   * Value slots of the partitions of a static graph loaded from disk, as
+   * they are in their files
+   */
+  private final ConcurrentMap<Integer, byte[]> loadedValueSlots =
+      Maps.newConcurrentMap();
 
   /**
    * Constructor
@@ -143,9 +209,29 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
     for (String path : userPaths) {
       basePaths[i++] = path + "/" + conf.get("mapred.job.id", "Unknown Job");
     }
+    int numIoThreads = NUM_OUT_OF_CORE_IO_THREADS.get(conf);
+    if (numIoThreads > 0) {
+      ioPool = Executors.newFixedThreadPool(numIoThreads,
+          new ThreadFactoryBuilder().setNameFormat("out-of-core-io-%d").
+              setDaemon(true).build());
+    } else {
+      ioPool = null;
+    }
+    maxPrefetchPartitions = OUT_OF_CORE_PREFETCH_PARTITIONS.get(conf);
+    compressionCodec = OUT_OF_CORE_COMPRESSION_CODEC.newInstance(conf);
+    blockSize = OUT_OF_CORE_BLOCK_SIZE.get(conf);
+    memoryController = OUT_OF_CORE_MEMORY_CONTROLLER.newInstance(conf);
+    if (memoryController != null) {
+      memoryController.initialize(conf);
+    }
     if (LOG.isInfoEnabled()) {
-      LOG.info("DiskBackedPartitionStore with maxInMemoryPartitions=" +
-          maxInMemoryPartitions + ", isStaticGraph=" + conf.isStaticGraph());
+      LOG.info("DiskBackedPartitionStore with " + (memoryController == null ?
+          "maxInMemoryPartitions=" + maxInMemoryPartitions :
+          "memoryController=" + memoryController.getClass().getName()) +
+          ", isStaticGraph=" + conf.isStaticGraph() +
+          ", numIoThreads=" + numIoThreads + ", compressionCodec=" +
+          (compressionCodec == null ? "none" :
+              compressionCodec.getClass().getName()));
     }
   }
 
@@ -236,9 +322,30 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
 
   @Override
   public void putPartition(Partition<I, V, E> partition) {
+    // Estimate the size before taking the global lock, iterating over the
+    // partition may take a while
+    putPartition(partition, memoryController == null ? 0 :
+        estimateSize(partition));
+  }
+
+  @Override
+  public void putPartition(Partition<I, V, E> partition,
+      PartitionStats partitionStats) {
+    putPartition(partition, partitionStats.getVertexCount() +
+        partitionStats.getEdgeCount());
+  }
+
+  /**
+   * Put a partition back to the store.
+   *
+   * @param partition Partition
+   * @param size Estimated size of the partition, only used with a memory
+   *             controller
+   */
+  private void putPartition(Partition<I, V, E> partition, long size) {
     Integer id = partition.getId();
     try {
-      pool.submit(new PutPartition(id, partition)).get();
+      pool.submit(new PutPartition(id, size)).get();
     } catch (InterruptedException e) {
       throw new IllegalStateException(
           "putPartition: cannot put back partition " + id, e);
@@ -284,8 +391,68 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
     }
   }
 
+  @Override
+  public void prefetchPartitions(Iterable<Integer> ids) {
+    if (ioPool == null || maxPrefetchPartitions <= 0) {
+      return;
+    }
+    List<Integer> window = Lists.newArrayListWithCapacity(
+        maxPrefetchPartitions);
+    for (Integer id : ids) {
+      if (window.size() == maxPrefetchPartitions) {
+        break;
+      }
+      window.add(id);
+    }
+    wLock.lock();
+    try {
+      for (Integer id : window) {
+        if (prefetchingPartitions >= maxPrefetchPartitions) {
+          break;
+        }
+        if (states.get(id) != State.ONDISK) {
+          continue;
+        }
+        long size = sizes.get(id);
+        // Make space, but not by evicting what we are or were prefetching
+        Set<Integer> keep = Sets.newHashSet(window);
+        keep.addAll(prefetched);
+        if (!canMakeRoom(size, keep)) {
+          break;
+        }
+        List<Entry<Integer, Partition<I, V, E>>> evicted =
+            makeRoom(size, keep);
+        addInMemory(id);
+        prefetched.add(id);
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("prefetchPartitions: Prefetching partition " + id +
+              (evicted.isEmpty() ? "" : " in place of " + evicted.size() +
+                  " partition(s)"));
+        }
+        states.put(id, State.LOADING);
+        prefetchingPartitions++;
+        ioPool.execute(new PrefetchPartition(id, onDisk.remove(id), evicted));
+      }
+    } finally {
+      wLock.unlock();
+    }
+  }
+
   @Override
   public void shutdown() {
+    if (memoryController != null) {
+      memoryController.shutdown();
+    }
+    if (ioPool != null) {
+      ioPool.shutdown();
+      try {
+        if (!ioPool.awaitTermination(120, TimeUnit.SECONDS)) {
+          ioPool.shutdownNow();
+        }
+      } catch (InterruptedException e) {
+        ioPool.shutdownNow();
+      }
+    }
     try {
       pool.shutdown();
       try {
@@ -361,6 +528,249 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
     return count;
   }
 
+  /**
+   * Removes and returns the least recently used inactive partition. Caller
+   * should hold the global write lock.
+   *
+   * @param keep Ids of partitions which shouldn't be chosen
+   * @return The least recently used entry, null if there is none
+   */
+  private Entry<Integer, Partition<I, V, E>> removeLRUEntry(
+      Collection<Integer> keep) {
+    Iterator<Entry<Integer, Partition<I, V, E>>> i =
+        inactive.entrySet().iterator();
+    while (i.hasNext()) {
+      Entry<Integer, Partition<I, V, E>> lruEntry = i.next();
+      if (!keep.contains(lruEntry.getKey())) {
+        i.remove();
+        return lruEntry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Removes and returns the largest inactive partition. Caller should hold
+   * the global write lock.
+   *
+   * @param keep Ids of partitions which shouldn't be chosen
+   * @return The largest entry, null if there is none
+   */
+  private Entry<Integer, Partition<I, V, E>> removeLargestEntry(
+      Collection<Integer> keep) {
+    Entry<Integer, Partition<I, V, E>> largest = null;
+    for (Entry<Integer, Partition<I, V, E>> entry : inactive.entrySet()) {
+      if (!keep.contains(entry.getKey()) && (largest == null ||
+          sizes.get(entry.getKey()) > sizes.get(largest.getKey()))) {
+        largest = entry;
+      }
+    }
+    if (largest != null) {
+      inactive.remove(largest.getKey());
+    }
+    return largest;
+  }
+
+  /**
+   * Get the inactive partitions which aren't larger than a size. Caller
+   * should hold the global write lock.
+   *
+   * @param size Size to compare to
+   * @return Ids of the inactive partitions not larger than the size
+   */
+  private Set<Integer> getNotLargerThan(long size) {
+    Set<Integer> ids = Sets.newHashSet();
+    for (Integer id : inactive.keySet()) {
+      if (sizes.get(id) <= size) {
+        ids.add(id);
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Check whether a partition can be loaded without evicting another one.
+   * Caller should hold the global write lock.
+   *
+   * @param size Estimated size of the partition
+   * @return True if there is room for the partition
+   */
+  private boolean hasRoom(long size) {
+    if (memoryController == null) {
+      return inMemoryPartitions < maxInMemoryPartitions;
+    }
+    // Always allow a partition in memory, however large
+    return inMemoryPartitions == 0 ||
+        inMemorySize + size <= memoryController.getInMemoryBudget();
+  }
+
+  /**
+   * Check whether evicting inactive partitions would make room for a
+   * partition. Caller should hold the global write lock.
+   *
+   * @param size Estimated size of the partition
+   * @param keep Ids of partitions which shouldn't be evicted
+   * @return True if there is or there can be room for the partition
+   */
+  private boolean canMakeRoom(long size, Collection<Integer> keep) {
+    if (hasRoom(size)) {
+      return true;
+    }
+    long evictable = 0;
+    for (Integer id : inactive.keySet()) {
+      if (!keep.contains(id)) {
+        if (memoryController == null) {
+          return true;
+        }
+        evictable += sizes.get(id);
+      }
+    }
+    return memoryController != null && inMemorySize - evictable + size <=
+        memoryController.getInMemoryBudget();
+  }
+
+  /**
+   * Evict inactive partitions until there is room for a partition, or
+   * nothing else can be evicted, and mark them as OFFLOADING. The caller
+   * writes them to disk. Caller should hold the global write lock.
+   *
+   * @param size Estimated size of the partition
+   * @param keep Ids of partitions which shouldn't be evicted
+   * @return Ids and partitions evicted
+   */
+  private List<Entry<Integer, Partition<I, V, E>>> makeRoom(long size,
+      Collection<Integer> keep) {
+    List<Entry<Integer, Partition<I, V, E>>> evicted = Lists.newArrayList();
+    while (!hasRoom(size)) {
+      Entry<Integer, Partition<I, V, E>> entry = memoryController == null ?
+          removeLRUEntry(keep) : removeLargestEntry(keep);
+      if (entry == null) {
+        break;
+      }
+      states.put(entry.getKey(), State.OFFLOADING);
+      pending.get(entry.getKey()).signalAll();
+      removeInMemory(entry.getKey());
+      prefetched.remove(entry.getKey());
+      evicted.add(entry);
+    }
+    return evicted;
+  }
+
+  /**
+   * Account for a partition taking memory. Caller should hold the global
+   * write lock.
+   *
+   * @param id Id of the partition
+   */
+  private void addInMemory(Integer id) {
+    inMemoryPartitions++;
+    updateInMemorySize(sizes.get(id));
+  }
+
+  /**
+   * Account for a partition not taking memory anymore. Caller should hold
+   * the global write lock.
+   *
+   * @param id Id of the partition
+   */
+  private void removeInMemory(Integer id) {
+    inMemoryPartitions--;
+    updateInMemorySize(-sizes.get(id));
+  }
+
+  /**
+   * Change the size of the partitions in memory. Caller should hold the
+   * global write lock.
+   *
+   * @param delta Size difference
+   */
+  private void updateInMemorySize(long delta) {
+    inMemorySize += delta;
+    if (memoryController != null) {
+      memoryController.setInMemorySize(inMemorySize);
+    }
+  }
+
+  /**
+   * Estimate the memory taken by a partition.
+   *
+   * @param partition The partition
+   * @return Number of vertices and edges in the partition
+   */
+  private static long estimateSize(Partition<?, ?, ?> partition) {
+    return partition.getVertexCount() + partition.getEdgeCount();
+  }
+
+  /**
+   * Write evicted partitions to disk: in the background if there is an I/O
+   * pool, otherwise in the calling thread, which must not hold the global
+   * write lock.
+   *
+   * @param evicted Ids and partitions evicted, in OFFLOADING state
+   * @throws IOException
+   */
+  private void offloadEvicted(List<Entry<Integer, Partition<I, V, E>>> evicted)
+    throws IOException {
+    for (Entry<Integer, Partition<I, V, E>> entry : evicted) {
+      if (ioPool != null) {
+        ioPool.execute(new OffloadPartition(entry));
+      } else {
+        offloadPartition(entry.getValue());
+        markOffloaded(entry);
+      }
+    }
+  }
+
+  /**
+   * Mark a partition as written to disk and wake up the threads waiting
+   * for it.
+   *
+   * @param entry Id and partition which was offloaded
+   */
+  private void markOffloaded(Entry<Integer, Partition<I, V, E>> entry) {
+    wLock.lock();
+    try {
+      states.put(entry.getKey(), State.ONDISK);
+      onDisk.put(entry.getKey(), (int) entry.getValue().getVertexCount());
+      pending.get(entry.getKey()).signalAll();
+    } finally {
+      wLock.unlock();
+    }
+  }
+
+  /**
+   * Remember the failure of a background I/O, and wake up all waiting
+   * threads so that they see it.
+   *
+   * @param e Failure
+   */
+  private void failIo(Exception e) {
+    LOG.error("failIo: Background partition I/O failed", e);
+    wLock.lock();
+    try {
+      if (ioFailure == null) {
+        ioFailure = e;
+      }
+      for (Condition condition : pending.values()) {
+        condition.signalAll();
+      }
+      notEmpty.signalAll();
+    } finally {
+      wLock.unlock();
+    }
+  }
+
+  /**
+   * Throw if a background I/O failed, since the partitions it was loading
+   * or writing will never be available.
+   */
+  private void checkIoFailure() {
+    if (ioFailure != null) {
+      throw new IllegalStateException(
+          "checkIoFailure: Background partition I/O failed", ioFailure);
+    }
+  }
+
   /**
    * Writes vertex data (Id, value and halted state) to stream.
    *
@@ -390,20 +800,16 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
   }
 
   /**
-   * Read vertex data from an input and initialize the vertex.
+   * Read vertex data from an input into the id and value of a vertex.
    *
    * @param in The input stream
-   * @param vertex The vertex to initialize
+   * @param vertex The vertex to read into
    * @throws IOException
    */
   private void readVertexData(DataInput in, Vertex<I, V, E> vertex)
     throws IOException {
-    I id = conf.createVertexId();
-    id.readFields(in);
-    V value = conf.createVertexValue();
-    value.readFields(in);
-    OutEdges<I, E> edges = conf.createAndInitializeOutEdges(0);
-    vertex.initialize(id, value, edges);
+    vertex.getId().readFields(in);
+    vertex.getValue().readFields(in);
     if (in.readBoolean()) {
       vertex.voteToHalt();
     } else {
@@ -416,12 +822,12 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
    *
    * @param in The input stream
    * @param partition The partition owning the vertex
+   * @param id Reused vertex id to read into
    * @throws IOException
    */
   @SuppressWarnings("unchecked")
-  private void readOutEdges(DataInput in, Partition<I, V, E> partition)
+  private void readOutEdges(DataInput in, Partition<I, V, E> partition, I id)
     throws IOException {
-    I id = conf.createVertexId();
     id.readFields(in);
     Vertex<I, V, E> v = partition.getVertex(id);
     ((OutEdges<I, E>) v.getEdges()).readFields(in);
@@ -430,65 +836,149 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
 
 
   /**
-   * Load a partition from disk. It deletes the files after the load,
-   * except for the edges, if the graph is static.
+   * Create a vertex to load into, or reinitialize the previous one if the
+   * partition copies the vertices it is given.
    *
-   * @param id The id of the partition to load
+   * @param partition Partition to load the vertex into
+   * @param vertex Previous vertex, null if none
+   * @return Vertex with a new id, and a value and empty edges to read into
+   */
+  @SuppressWarnings("unchecked")
+  private Vertex<I, V, E> createLoadedVertex(Partition<I, V, E> partition,
+      Vertex<I, V, E> vertex) {
+    // The partition may keep the id as a key, so it is never reused
+    I id = conf.createVertexId();
+    if (vertex == null || !(partition instanceof ReusesObjectsPartition)) {
+      vertex = conf.createVertex();
+      vertex.initialize(id, conf.createVertexValue(),
+          conf.createAndInitializeOutEdges(0));
+    } else {
+      vertex.initialize(id, vertex.getValue(),
+          (OutEdges<I, E>) vertex.getEdges());
+    }
+    return vertex;
+  }
+
+  /**
+   * Load the vertices of a partition, without their edges, and delete their
+   * file.
+   *
+   * @param partition Partition to load into
    * @param numVertices The number of vertices contained on disk
-   * @return The partition
    * @throws IOException
    */
-  private Partition<I, V, E> loadPartition(Integer id, int numVertices)
+  private void loadVertices(Partition<I, V, E> partition, int numVertices)
     throws IOException {
-    Partition<I, V, E> partition =
-        conf.createPartition(id, context);
-    File file = new File(getVerticesPath(id));
+    File file = new File(getVerticesPath(partition.getId()));
     if (LOG.isDebugEnabled()) {
-      LOG.debug("loadPartition: loading partition vertices " +
+      LOG.debug("loadVertices: loading partition vertices " +
           partition.getId() + " from " + file.getAbsolutePath());
     }
-    DataInputStream inputStream = null;
+    Vertex<I, V, E> vertex = null;
+    PartitionFileReader reader =
+        new PartitionFileReader(conf, file, compressionCodec);
     try {
-      inputStream = new DataInputStream(
-          new BufferedInputStream(new FileInputStream(file)));
       for (int i = 0; i < numVertices; ++i) {
-        Vertex<I, V , E> vertex = conf.createVertex();
-        readVertexData(inputStream, vertex);
+        vertex = createLoadedVertex(partition, vertex);
+        readVertexData(reader.getInput(), vertex);
         partition.putVertex(vertex);
       }
     } finally {
-      if (inputStream != null) {
-        inputStream.close();
-        inputStream = null;
-      }
+      reader.close();
     }
     if (!file.delete()) {
-      LOG.error("loadPartition: Failed to delete file " + file);
+      LOG.error("loadVertices: Failed to delete file " + file);
     }
-    file = new File(getEdgesPath(id));
+  }
+
+  /**
+   * Load the vertices of a partition of a static graph, without their
+   * edges, from the ids and value slots files, which are kept. The value
+   * slots are remembered to only write back the changed ones.
+   *
+   * @param partition Partition to load into
+   * @param numVertices The number of vertices contained on disk
+   * @throws IOException
+   */
+  private void loadIdsAndValues(Partition<I, V, E> partition,
+      int numVertices) throws IOException {
+    File file = new File(getIdsPath(partition.getId()));
     if (LOG.isDebugEnabled()) {
-      LOG.debug("loadPartition: loading partition edges " +
+      LOG.debug("loadIdsAndValues: loading partition vertices " +
           partition.getId() + " from " + file.getAbsolutePath());
     }
+    byte[] slots = VertexValueSlots.read(
+        new File(getValuesPath(partition.getId())));
+    if (VertexValueSlots.getNumSlots(slots) != numVertices) {
+      throw new IllegalStateException("loadIdsAndValues: Expected " +
+          numVertices + " value slots for partition " + partition.getId() +
+          ", got " + VertexValueSlots.getNumSlots(slots));
+    }
+    int slotSize = VertexValueSlots.getSlotSize(slots);
+    ExtendedDataInput slotsInput =
+        conf.createExtendedDataInput(slots, 0, slots.length);
+    slotsInput.skipBytes(VertexValueSlots.HEADER_SIZE);
+    Vertex<I, V, E> vertex = null;
+    PartitionFileReader reader =
+        new PartitionFileReader(conf, file, compressionCodec);
     try {
-      inputStream = new DataInputStream(
-          new BufferedInputStream(new FileInputStream(file)));
       for (int i = 0; i < numVertices; ++i) {
-        readOutEdges(inputStream, partition);
+        vertex = createLoadedVertex(partition, vertex);
+        vertex.getId().readFields(reader.getInput());
+        VertexValueSlots.readSlot(slotsInput, slotSize, vertex);
+        partition.putVertex(vertex);
       }
     } finally {
-      if (inputStream != null) {
-        inputStream.close();
+      reader.close();
+    }
+    loadedValueSlots.put(partition.getId(), slots);
+  }
+
+  /**
+   * Load a partition from disk. It deletes the files after the load,
+   * except for the ids, values and edges, if the graph is static.
+   *
+   * @param id The id of the partition to load
+   * @param numVertices The number of vertices contained on disk
+   * @return The partition
+   * @throws IOException
+   */
+  private Partition<I, V, E> loadPartition(Integer id, int numVertices)
+    throws IOException {
+    long startNanos = TIME.getNanoseconds();
+    Partition<I, V, E> partition =
+        conf.createPartition(id, context);
+    if (conf.isStaticGraph()) {
+      loadIdsAndValues(partition, numVertices);
+    } else {
+      loadVertices(partition, numVertices);
+    }
+    File file = new File(getEdgesPath(id));
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("loadPartition: loading partition edges " +
+          partition.getId() + " from " + file.getAbsolutePath());
+    }
+    PartitionFileReader reader =
+        new PartitionFileReader(conf, file, compressionCodec);
+    try {
+      I vertexId = conf.createVertexId();
+      for (int i = 0; i < numVertices; ++i) {
+        readOutEdges(reader.getInput(), partition, vertexId);
       }
+    } finally {
+      reader.close();
     }
     /*
-     * If the graph is static, keep the file around.
+     * If the graph is static, keep the files around.
      */
     if (!conf.isStaticGraph()) {
       if (!file.delete()) {
         LOG.error("loadPartition: Failed to delete file " + file);
       }
     }
+    GiraphMetrics.get().perSuperstep().getUniformHistogram(
+        MetricNames.OUT_OF_CORE_LOAD_MSECS).update(
+        (TIME.getNanoseconds() - startNanos) / Time.NS_PER_MS);
     return partition;
   }
 
@@ -500,6 +990,14 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
    */
   private void offloadPartition(Partition<I, V, E> partition)
     throws IOException {
+    long startNanos = TIME.getNanoseconds();
+    if (conf.isStaticGraph()) {
+      offloadStaticPartition(partition);
+      GiraphMetrics.get().perSuperstep().getUniformHistogram(
+          MetricNames.OUT_OF_CORE_OFFLOAD_MSECS).update(
+          (TIME.getNanoseconds() - startNanos) / Time.NS_PER_MS);
+      return;
+    }
     File file = new File(getVerticesPath(partition.getId()));
     if (!file.getParentFile().mkdirs()) {
       LOG.error("offloadPartition: Failed to create directory " + file);
@@ -511,44 +1009,126 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
       LOG.debug("offloadPartition: writing partition vertices " +
           partition.getId() + " to " + file.getAbsolutePath());
     }
-    DataOutputStream outputStream = null;
-    try {
-      outputStream = new DataOutputStream(
-          new BufferedOutputStream(new FileOutputStream(file)));
-      for (Vertex<I, V, E> vertex : partition) {
-        writeVertexData(outputStream, vertex);
-      }
-    } finally {
-      if (outputStream != null) {
-        outputStream.close();
-        outputStream = null;
-      }
-    }
+    writeVertices(file, false, partition);
     file = new File(getEdgesPath(partition.getId()));
-    /*
-     * Avoid writing back edges if we have already written them once and
-     * the graph is not changing.
-     */
-    if (!conf.isStaticGraph() || !file.exists()) {
-      if (!file.createNewFile()) {
-        LOG.error("offloadPartition: Failed to create file " + file);
+    if (!file.createNewFile()) {
+      LOG.error("offloadPartition: Failed to create file " + file);
+    }
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("offloadPartition: writing partition edges " +
+          partition.getId() + " to " + file.getAbsolutePath());
+    }
+    writeEdges(file, false, partition);
+    GiraphMetrics.get().perSuperstep().getUniformHistogram(
+        MetricNames.OUT_OF_CORE_OFFLOAD_MSECS).update(
+        (TIME.getNanoseconds() - startNanos) / Time.NS_PER_MS);
+  }
+
+  /**
+   * Write a partition of a static graph to disk. The first time, all its
+   * files are written. Afterwards, ids and edges can't have changed, so only
+   * the value slots which changed since the partition was loaded are
+   * written back in place.
+   *
+   * @param partition The partition to offload
+   * @throws IOException
+   */
+  private void offloadStaticPartition(Partition<I, V, E> partition)
+    throws IOException {
+    Integer id = partition.getId();
+    File idsFile = new File(getIdsPath(id));
+    File valuesFile = new File(getValuesPath(id));
+    byte[] oldSlots = loadedValueSlots.remove(id);
+    if (!idsFile.exists()) {
+      if (!idsFile.getParentFile().mkdirs() && LOG.isDebugEnabled()) {
+        LOG.debug("offloadStaticPartition: Directory of " + idsFile +
+            " already exists");
       }
       if (LOG.isDebugEnabled()) {
-        LOG.debug("offloadPartition: writing partition edges " +
-            partition.getId() + " to " + file.getAbsolutePath());
+        LOG.debug("offloadStaticPartition: writing partition " + id +
+            " to " + idsFile.getAbsolutePath() + " for the first time");
       }
-      try {
-        outputStream = new DataOutputStream(
-            new BufferedOutputStream(new FileOutputStream(file)));
-        for (Vertex<I, V, E> vertex : partition) {
-          writeOutEdges(outputStream, vertex);
-        }
-      } finally {
-        if (outputStream != null) {
-          outputStream.close();
+      byte[] slots = writeIdsAndSlots(idsFile, false, partition);
+      VertexValueSlots.write(valuesFile, slots);
+      writeEdges(new File(getEdgesPath(id)), false, partition);
+      updateValueBytesWritten(slots.length);
+      return;
+    }
+
+    // Serialize the values in the order of the ids file
+    VertexValueSlots valueSlots = new VertexValueSlots(conf);
+    PartitionFileReader reader =
+        new PartitionFileReader(conf, idsFile, compressionCodec);
+    try {
+      I vertexId = conf.createVertexId();
+      for (long i = 0; i < partition.getVertexCount(); ++i) {
+        vertexId.readFields(reader.getInput());
+        Vertex<I, V, E> vertex = partition.getVertex(vertexId);
+        if (vertex == null) {
+          throw new IllegalStateException("offloadStaticPartition: Vertex " +
+              vertexId + " of partition " + id + " was removed, but the " +
+              "graph is static");
         }
+        valueSlots.add(vertex);
+      }
+    } finally {
+      reader.close();
+    }
+    if (oldSlots == null) {
+      oldSlots = VertexValueSlots.read(valuesFile);
+    }
+    byte[] newSlots =
+        valueSlots.toSlots(VertexValueSlots.getSlotSize(oldSlots));
+    long written;
+    if (newSlots.length == oldSlots.length) {
+      written = VertexValueSlots.writeChanged(valuesFile, oldSlots, newSlots);
+    } else {
+      // Some value outgrew its slot
+      VertexValueSlots.write(valuesFile, newSlots);
+      written = newSlots.length;
+    }
+    updateValueBytesWritten(written);
+    if (LOG.isDebugEnabled()) {
+      LOG.debug("offloadStaticPartition: Wrote " + written + " of " +
+          newSlots.length + " value bytes of partition " + id);
+    }
+  }
+
+  /**
+   * Write the ids of a partition to a file, and serialize their values
+   * in the same order.
+   *
+   * @param file The ids file
+   * @param append Whether to append to the file, rather than overwrite it
+   * @param partition The partition
+   * @return Value slots of the vertices written, slot size at least 1
+   * @throws IOException
+   */
+  private byte[] writeIdsAndSlots(File file, boolean append,
+      Partition<I, V, E> partition) throws IOException {
+    VertexValueSlots valueSlots = new VertexValueSlots(conf);
+    PartitionFileWriter writer = new PartitionFileWriter(
+        conf, file, append, compressionCodec, blockSize);
+    try {
+      for (Vertex<I, V, E> vertex : partition) {
+        vertex.getId().write(writer.getOutput());
+        writer.endRecord();
+        valueSlots.add(vertex);
       }
+    } finally {
+      writer.close();
     }
+    return valueSlots.toSlots(1);
+  }
+
+  /**
+   * Count value slot bytes written for a static graph.
+   *
+   * @param bytes Number of bytes written
+   */
+  private void updateValueBytesWritten(long bytes) {
+    GiraphMetrics.get().perSuperstep().getCounter(
+        MetricNames.OUT_OF_CORE_VALUE_BYTES_WRITTEN).inc(bytes);
   }
 
   /**
@@ -563,31 +1143,63 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
     Integer id = partition.getId();
     Integer count = onDisk.get(id);
     onDisk.put(id, count + (int) partition.getVertexCount());
-    File file = new File(getVerticesPath(id));
-    DataOutputStream outputStream = null;
+    if (conf.isStaticGraph()) {
+      File valuesFile = new File(getValuesPath(id));
+      byte[] oldSlots = VertexValueSlots.read(valuesFile);
+      byte[] addedSlots =
+          writeIdsAndSlots(new File(getIdsPath(id)), true, partition);
+      int slotSize = Math.max(VertexValueSlots.getSlotSize(oldSlots),
+          VertexValueSlots.getSlotSize(addedSlots));
+      VertexValueSlots.write(valuesFile, VertexValueSlots.concat(
+          VertexValueSlots.resize(oldSlots, slotSize),
+          VertexValueSlots.resize(addedSlots, slotSize)));
+    } else {
+      writeVertices(new File(getVerticesPath(id)), true, partition);
+    }
+    writeEdges(new File(getEdgesPath(id)), true, partition);
+  }
+
+  /**
+   * Write the vertex data of a partition to a file.
+   *
+   * @param file The file
+   * @param append Whether to append to the file, rather than overwrite it
+   * @param partition The partition
+   * @throws IOException
+   */
+  private void writeVertices(File file, boolean append,
+      Partition<I, V, E> partition) throws IOException {
+    PartitionFileWriter writer = new PartitionFileWriter(
+        conf, file, append, compressionCodec, blockSize);
     try {
-      outputStream = new DataOutputStream(
-          new BufferedOutputStream(new FileOutputStream(file, true)));
       for (Vertex<I, V, E> vertex : partition) {
-        writeVertexData(outputStream, vertex);
+        writeVertexData(writer.getOutput(), vertex);
+        writer.endRecord();
       }
     } finally {
-      if (outputStream != null) {
-        outputStream.close();
-        outputStream = null;
-      }
+      writer.close();
     }
-    file = new File(getEdgesPath(id));
+  }
+
+  /**
+   * Write the edges of a partition to a file.
+   *
+   * @param file The file
+   * @param append Whether to append to the file, rather than overwrite it
+   * @param partition The partition
+   * @throws IOException
+   */
+  private void writeEdges(File file, boolean append,
+      Partition<I, V, E> partition) throws IOException {
+    PartitionFileWriter writer = new PartitionFileWriter(
+        conf, file, append, compressionCodec, blockSize);
     try {
-      outputStream = new DataOutputStream(
-          new BufferedOutputStream(new FileOutputStream(file, true)));
       for (Vertex<I, V, E> vertex : partition) {
-        writeOutEdges(outputStream, vertex);
+        writeOutEdges(writer.getOutput(), vertex);
+        writer.endRecord();
       }
     } finally {
-      if (outputStream != null) {
-        outputStream.close();
-      }
+      writer.close();
     }
   }
 
@@ -597,13 +1209,18 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
    * @param id The id of the partition owning the file.
    */
   public void deletePartitionFiles(Integer id) {
-    File file = new File(getVerticesPath(id));
-    if (!file.delete()) {
-      LOG.error("deletePartitionFiles: Failed to delete file " + file);
+    List<File> files = Lists.newArrayList(new File(getEdgesPath(id)));
+    if (conf.isStaticGraph()) {
+      loadedValueSlots.remove(id);
+      files.add(new File(getIdsPath(id)));
+      files.add(new File(getValuesPath(id)));
+    } else {
+      files.add(new File(getVerticesPath(id)));
     }
-    file = new File(getEdgesPath(id));
-    if (!file.delete()) {
-      LOG.error("deletePartitionFiles: Failed to delete file " + file);
+    for (File file : files) {
+      if (!file.delete()) {
+        LOG.error("deletePartitionFiles: Failed to delete file " + file);
+      }
     }
   }
 
@@ -629,6 +1246,27 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
     return getPartitionPath(partitionId) + "_vertices";
   }
 
+  /**
+   * Get the path to the file where the ids of a static graph are stored.
+   *
+   * @param partitionId The partition
+   * @return The path to the ids file
+   */
+  private String getIdsPath(Integer partitionId) {
+    return getPartitionPath(partitionId) + "_ids";
+  }
+
+  /**
+   * Get the path to the file where the value slots of a static graph are
+   * stored.
+   *
+   * @param partitionId The partition
+   * @return The path to the values file
+   */
+  private String getValuesPath(Integer partitionId) {
+    return getPartitionPath(partitionId) + "_values";
+  }
+
   /**
    * Get the path to the file where edges are stored.
    *
@@ -655,19 +1293,6 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
       this.id = id;
     }
 
-    /**
-     * Removes and returns the last recently used entry.
-     *
-     * @return The last recently used entry.
-     */
-    private Entry<Integer, Partition<I, V, E>> getLRUEntry() {
-      Iterator<Entry<Integer, Partition<I, V, E>>> i =
-          inactive.entrySet().iterator();
-      Entry<Integer, Partition<I, V, E>> lruEntry = i.next();
-      i.remove();
-      return lruEntry;
-    }
-
     @Override
     public Partition<I, V, E> call() throws Exception {
       Partition<I, V, E> partition = null;
@@ -675,47 +1300,48 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
       while (partition == null) {
         wLock.lock();
         try {
+          checkIoFailure();
           State pState = states.get(id);
           switch (pState) {
           case ONDISK:
-            Entry<Integer, Partition<I, V, E>> lru = null;
             states.put(id, State.LOADING);
             int numVertices = onDisk.remove(id);
+            long size = sizes.get(id);
             /*
              * Wait until we have space in memory or inactive data for a switch
              */
-            while (inMemoryPartitions >= maxInMemoryPartitions &&
-                inactive.isEmpty()) {
+            while (!hasRoom(size) && inactive.isEmpty()) {
               notEmpty.await();
+              checkIoFailure();
             }
             /*
-             * we have to make some space first
+             * we may have to make some space first, sparing the prefetched
+             * partitions unless nothing else can be evicted; with a memory
+             * controller we go ahead once nothing else can be evicted
              */
-            if (inMemoryPartitions >= maxInMemoryPartitions) {
-              lru = getLRUEntry();
-              states.put(lru.getKey(), State.OFFLOADING);
-              pending.get(lru.getKey()).signalAll();
-            } else { // there is space, just add it to the in-memory partitions
-              inMemoryPartitions++;
+            List<Entry<Integer, Partition<I, V, E>>> evicted =
+                makeRoom(size, prefetched);
+            if (!hasRoom(size) && !prefetched.isEmpty()) {
+              if (LOG.isDebugEnabled()) {
+                LOG.debug("GetPartition: Evicting prefetched partitions " +
+                    "to load partition " + id);
+              }
+              evicted.addAll(makeRoom(size, Collections.<Integer>emptySet()));
             }
+            addInMemory(id);
             /*
              * do IO without contention, the threads interested to these
-             * partitions will subscribe to the relative Condition.
+             * partitions will subscribe to the relative Condition. Evicted
+             * partitions are written in the background while this one is
+             * loading, if there is an I/O pool.
              */
             wLock.unlock();
-            if (lru != null) {
-              offloadPartition(lru.getValue());
-            }
+            offloadEvicted(evicted);
             partition = loadPartition(id, numVertices);
             wLock.lock();
             /*
              * update state and signal the pending threads
              */
-            if (lru != null) {
-              states.put(lru.getKey(), State.ONDISK);
-              onDisk.put(lru.getKey(), (int) lru.getValue().getVertexCount());
-              pending.get(lru.getKey()).signalAll();
-            }
             active.put(id, partition);
             states.put(id, State.ACTIVE);
             pending.get(id).signalAll();
@@ -725,6 +1351,7 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
             partition = inactive.remove(id);
             active.put(id, partition);
             states.put(id, State.ACTIVE);
+            prefetched.remove(id);
             incrementCounter(id);
             break;
           case ACTIVE:
@@ -757,15 +1384,19 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
   private class PutPartition implements Callable<Void> {
     /** Partition id */
     private Integer id;
+    /** Estimated size of the partition, only used with a memory controller */
+    private long size;
 
     /**
      * Constructor
      *
      * @param id The partition id
-     * @param partition The partition
+     * @param size Estimated size of the partition, only used with a memory
+     *             controller
      */
-    public PutPartition(Integer id, Partition<I, V, E> partition) {
+    public PutPartition(Integer id, long size) {
       this.id = id;
+      this.size = size;
     }
 
     @Override
@@ -773,7 +1404,12 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
       wLock.lock();
       try {
         if (decrementCounter(id) == 0) {
-          inactive.put(id, active.remove(id));
+          Partition<I, V, E> partition = active.remove(id);
+          if (memoryController != null) {
+            // The computation may have changed the size of the partition
+            updateInMemorySize(size - sizes.put(id, size));
+          }
+          inactive.put(id, partition);
           states.put(id, State.INACTIVE);
           pending.get(id).signalAll();
           notEmpty.signal();
@@ -807,7 +1443,8 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
 
     @Override
     public Void call() throws Exception {
-
+      // Iterating over the partition may take a while, don't hold the lock
+      long size = estimateSize(partition);
       wLock.lock();
       try {
         if (partitionIds.contains(id)) {
@@ -844,24 +1481,38 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
                   "illegal state " + pState + " for partition " + id);
             }
           }
+          sizes.put(id, sizes.get(id) + size);
           if (isOOC) {
             addToOOCPartition(partition);
           } else {
             existing.addPartition(partition);
+            updateInMemorySize(size);
           }
         } else {
           Condition newC = wLock.newCondition();
           pending.put(id, newC);
           partitionIds.add(id);
-          if (inMemoryPartitions < maxInMemoryPartitions) {
-            inMemoryPartitions++;
+          sizes.put(id, size);
+          List<Entry<Integer, Partition<I, V, E>>> evicted =
+              Collections.emptyList();
+          if (memoryController != null && !hasRoom(size)) {
+            // Offload the largest partitions, which may be this one
+            Set<Integer> keep = getNotLargerThan(size);
+            keep.addAll(prefetched);
+            evicted = makeRoom(size, keep);
+          }
+          if (hasRoom(size)) {
+            addInMemory(id);
             states.put(id, State.INACTIVE);
             inactive.put(id, partition);
             notEmpty.signal();
+            wLock.unlock();
+            offloadEvicted(evicted);
           } else {
             states.put(id, State.OFFLOADING);
             onDisk.put(id, (int) partition.getVertexCount());
             wLock.unlock();
+            offloadEvicted(evicted);
             offloadPartition(partition);
             wLock.lock();
             states.put(id, State.ONDISK);
@@ -909,7 +1560,11 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
             break;
           case INACTIVE:
             inactive.remove(id);
-            inMemoryPartitions--;
+            removeInMemory(id);
+            if (conf.isStaticGraph() && loadedValueSlots.containsKey(id)) {
+              // The files of a static graph are kept after loading
+              deletePartitionFiles(id);
+            }
             notEmpty.signal();
             done = true;
             break;
@@ -929,6 +1584,8 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
         }
         partitionIds.remove(id);
         states.remove(id);
+        prefetched.remove(id);
+        sizes.remove(id);
         counters.remove(id);
         pending.remove(id).signalAll();
         return null;
@@ -938,6 +1595,87 @@ public class DiskBackedPartitionStore<I extends WritableComparable,
     }
   }
 
+  /**
+   * Background task writing an evicted partition to disk
+   */
+  private class OffloadPartition implements Runnable {
+    /** Id and partition to write */
+    private final Entry<Integer, Partition<I, V, E>> entry;
+
+    /**
+     * Constructor
+     *
+     * @param entry Id and partition to write, already in OFFLOADING state
+     */
+    public OffloadPartition(Entry<Integer, Partition<I, V, E>> entry) {
+      this.entry = entry;
+    }
+
+    @Override
+    public void run() {
+      try {
+        offloadPartition(entry.getValue());
+        markOffloaded(entry);
+        // CHECKSTYLE: stop IllegalCatchCheck
+      } catch (Exception e) {
+        // CHECKSTYLE: resume IllegalCatchCheck
+        failIo(e);
+      }
+    }
+  }
+
+  /**
+   * Background task loading a partition from disk ahead of time, after
+   * possibly writing another one to make space for it
+   */
+  private class PrefetchPartition implements Runnable {
+    /** Id of the partition to load, already in LOADING state */
+    private final Integer id;
+    /** Number of vertices of the partition on disk */
+    private final int numVertices;
+    /** Ids and partitions to write first to make space */
+    private final List<Entry<Integer, Partition<I, V, E>>> evicted;
+
+    /**
+     * Constructor
+     *
+     * @param id Id of the partition to load
+     * @param numVertices Number of vertices of the partition on disk
+     * @param evicted Ids and partitions to write first to make space
+     */
+    public PrefetchPartition(Integer id, int numVertices,
+        List<Entry<Integer, Partition<I, V, E>>> evicted) {
+      this.id = id;
+      this.numVertices = numVertices;
+      this.evicted = evicted;
+    }
+
+    @Override
+    public void run() {
+      try {
+        for (Entry<Integer, Partition<I, V, E>> entry : evicted) {
+          offloadPartition(entry.getValue());
+          markOffloaded(entry);
+        }
+        Partition<I, V, E> partition = loadPartition(id, numVertices);
+        wLock.lock();
+        try {
+          inactive.put(id, partition);
+          states.put(id, State.INACTIVE);
+          prefetchingPartitions--;
+          pending.get(id).signalAll();
+          notEmpty.signal();
+        } finally {
+          wLock.unlock();
+        }
+        // CHECKSTYLE: stop IllegalCatchCheck
+      } catch (Exception e) {
+        // CHECKSTYLE: resume IllegalCatchCheck
+        failIo(e);
+      }
+    }
+  }
+
   /**
    * Direct Executor that executes tasks within the calling threads.
    */
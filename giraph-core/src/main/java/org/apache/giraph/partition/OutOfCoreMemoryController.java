@@ -0,0 +1,261 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.utils.MemoryUtils;
+import org.apache.log4j.Logger;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.Map;
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import static org.apache.giraph.conf.GiraphConstants.OUT_OF_CORE_MAX_MEMORY_FRACTION;
+
+/**
+ * Decides how much of the out-of-core graph
+ * {@link DiskBackedPartitionStore} keeps in memory, from the heap usage.
+ *
+ * The size of the graph in memory is measured in vertices and edges. After
+ * every garbage collection, the live heap is divided by the size of the
+ * graph in memory to estimate the memory used by one vertex or edge, and
+ * the budget
+ * is the size which would fill the configured fraction of the heap. The
+ * estimate includes the memory not used by the graph, so the budget shrinks
+ * when other data (e.g. messages) grows. Before the first collection, the
+ * current heap usage (garbage included) is used instead. The live heap is
+ * the usage of the pool just collected after the collection, plus the
+ * current usage of the other heap pools: the usage of the tenured pool after
+ * its last collection is stale after young collections, and zero before the
+ * first full one.
+ *
+ * Collections are noticed with a collection usage threshold of one byte on
+ * the heap pools supporting it, so that every collection which leaves some
+ * live data in a pool sends a notification. The thresholds are set for the
+ * whole JVM, so they are restored when the last controller shuts down.
+ */
+public class OutOfCoreMemoryController implements NotificationListener {
+  /** Class logger */
+  private static final Logger LOG =
+      Logger.getLogger(OutOfCoreMemoryController.class);
+  /** Thresholds of the heap pools before the first controller changed them */
+  private static final Map<String, Long> PREVIOUS_THRESHOLDS =
+      Maps.newHashMap();
+  /** Number of controllers listening, guarded by PREVIOUS_THRESHOLDS */
+  private static int NUM_LISTENING = 0;
+  /** Fraction of the heap to keep the live memory under */
+  private double maxMemoryFraction;
+  /** Emitter of the memory notifications, null if not listening */
+  private NotificationEmitter emitter;
+  /** Size of the graph in memory, in vertices and edges */
+  private volatile long inMemorySize;
+  /** Megabytes per vertex or edge at the last collection, -1 if unknown */
+  private volatile double megaBytesPerElement = -1;
+
+  /**
+   * Read the configuration and start listening to garbage collections.
+   *
+   * @param conf Configuration
+   */
+  public void initialize(ImmutableClassesGiraphConfiguration<?, ?, ?> conf) {
+    maxMemoryFraction = OUT_OF_CORE_MAX_MEMORY_FRACTION.get(conf);
+    if (maxMemoryFraction <= 0 || maxMemoryFraction > 1) {
+      throw new IllegalStateException("initialize: " +
+          OUT_OF_CORE_MAX_MEMORY_FRACTION.getKey() + " must be in (0, 1], " +
+          "got " + maxMemoryFraction);
+    }
+    List<String> poolNames = Lists.newArrayList();
+    synchronized (PREVIOUS_THRESHOLDS) {
+      for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+        if (pool.getType() == MemoryType.HEAP &&
+            pool.isCollectionUsageThresholdSupported()) {
+          if (NUM_LISTENING == 0) {
+            PREVIOUS_THRESHOLDS.put(pool.getName(),
+                pool.getCollectionUsageThreshold());
+            pool.setCollectionUsageThreshold(1);
+          }
+          poolNames.add(pool.getName());
+        }
+      }
+      ++NUM_LISTENING;
+    }
+    emitter = (NotificationEmitter) ManagementFactory.getMemoryMXBean();
+    emitter.addNotificationListener(this, null, null);
+    if (LOG.isInfoEnabled()) {
+      LOG.info("initialize: Keeping the live memory under " +
+          maxMemoryFraction + " of the heap, listening to collections of " +
+          poolNames);
+    }
+  }
+
+  /**
+   * Stop listening to garbage collections, restoring the collection usage
+   * thresholds if no other controller is listening.
+   */
+  public void shutdown() {
+    if (emitter != null) {
+      try {
+        emitter.removeNotificationListener(this);
+      } catch (ListenerNotFoundException e) {
+        LOG.warn("shutdown: Listener was already removed", e);
+      }
+      emitter = null;
+      synchronized (PREVIOUS_THRESHOLDS) {
+        if (--NUM_LISTENING == 0) {
+          for (MemoryPoolMXBean pool :
+              ManagementFactory.getMemoryPoolMXBeans()) {
+            Long threshold = PREVIOUS_THRESHOLDS.get(pool.getName());
+            if (threshold != null) {
+              pool.setCollectionUsageThreshold(threshold);
+            }
+          }
+          PREVIOUS_THRESHOLDS.clear();
+        }
+      }
+    }
+  }
+
+  /**
+   * Set the size of the graph currently in memory.
+   *
+   * @param inMemorySize Number of vertices and edges in memory
+   */
+  public void setInMemorySize(long inMemorySize) {
+    this.inMemorySize = inMemorySize;
+  }
+
+  /**
+   * Get the size of the graph currently in memory.
+   *
+   * @return Number of vertices and edges in memory
+   */
+  public long getInMemorySize() {
+    return inMemorySize;
+  }
+
+  /**
+   * Get how much of the graph can be kept in memory.
+   *
+   * @return Number of vertices and edges which can be kept in memory
+   */
+  public long getInMemoryBudget() {
+    double perElement = megaBytesPerElement;
+    if (perElement <= 0) {
+      long size = inMemorySize;
+      if (size == 0) {
+        return Long.MAX_VALUE;
+      }
+      perElement = getUsedMemoryMB() / size;
+    }
+    if (perElement <= 0) {
+      return Long.MAX_VALUE;
+    }
+    return (long) (maxMemoryFraction * getMaxMemoryMB() / perElement);
+  }
+
+  /**
+   * Record the memory used per vertex or edge after a garbage collection.
+   *
+   * @param collectedPool Name of the memory pool just collected
+   */
+  protected void onGarbageCollection(String collectedPool) {
+    long size = inMemorySize;
+    if (size > 0) {
+      megaBytesPerElement = getLiveMemoryMB(collectedPool) / size;
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("onGarbageCollection: " + size + " vertices and edges " +
+            "in memory, budget is now " + getInMemoryBudget());
+      }
+    }
+  }
+
+  /**
+   * Get the memory currently used, garbage included.
+   *
+   * @return Used memory in megabytes
+   */
+  protected double getUsedMemoryMB() {
+    return MemoryUtils.usedMemoryMB();
+  }
+
+  /**
+   * Get the memory used right after a garbage collection.
+   *
+   * @param collectedPool Name of the memory pool just collected
+   * @return Live memory in megabytes
+   */
+  protected double getLiveMemoryMB(String collectedPool) {
+    return getLiveBytes(ManagementFactory.getMemoryPoolMXBeans(),
+        collectedPool) / 1024.0 / 1024.0;
+  }
+
+  /**
+   * Sum the usage of the heap pools right after a garbage collection: the
+   * usage after the collection for the pool just collected, the current
+   * usage for the others.
+   *
+   * @param pools Memory pools
+   * @param collectedPool Name of the memory pool just collected
+   * @return Live memory in bytes
+   */
+  static long getLiveBytes(List<MemoryPoolMXBean> pools,
+      String collectedPool) {
+    long liveBytes = 0;
+    for (MemoryPoolMXBean pool : pools) {
+      if (pool.getType() == MemoryType.HEAP) {
+        MemoryUsage usage = pool.getName().equals(collectedPool) ?
+            pool.getCollectionUsage() : pool.getUsage();
+        if (usage != null) {
+          liveBytes += usage.getUsed();
+        }
+      }
+    }
+    return liveBytes;
+  }
+
+  /**
+   * Get the maximum memory which can be used.
+   *
+   * @return Maximum memory in megabytes
+   */
+  protected double getMaxMemoryMB() {
+    return MemoryUtils.maxMemoryMB();
+  }
+
+  @Override
+  public void handleNotification(Notification notification, Object handback) {
+    if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(
+        notification.getType())) {
+      onGarbageCollection(MemoryNotificationInfo.from(
+          (CompositeData) notification.getUserData()).getPoolName());
+    }
+  }
+}
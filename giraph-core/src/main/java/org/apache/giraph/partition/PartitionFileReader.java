@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.giraph.comm.compression.RequestCompressionCodec;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.utils.ExtendedDataInput;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Reads an out-of-core partition file written by
+ * {@link PartitionFileWriter}, one block at a time. The buffers holding the
+ * blocks are reused from block to block.
+ *
+ * Not thread-safe.
+ */
+class PartitionFileReader {
+  /** Configuration */
+  private final ImmutableClassesGiraphConfiguration<?, ?, ?> conf;
+  /** Stream from the file */
+  private final DataInputStream fileInput;
+  /** Codec to decompress the blocks with, null if not compressing */
+  private final RequestCompressionCodec codec;
+  /** Bytes of the current block */
+  private byte[] blockBytes = new byte[0];
+  /** Compressed bytes of the current block */
+  private byte[] compressedBytes = new byte[0];
+  /** Input over the current block, null before the first one */
+  private ExtendedDataInput input;
+
+  /**
+   * Constructor
+   *
+   * @param conf Configuration
+   * @param file File to read from
+   * @param codec Codec to decompress the blocks with, null if the file
+   *              wasn't compressed
+   * @throws IOException
+   */
+  public PartitionFileReader(ImmutableClassesGiraphConfiguration<?, ?, ?> conf,
+      File file, RequestCompressionCodec codec) throws IOException {
+    this.conf = conf;
+    fileInput = new DataInputStream(
+        new BufferedInputStream(new FileInputStream(file)));
+    this.codec = codec;
+  }
+
+  /**
+   * Get the input to deserialize the next record from, reading the next
+   * block if the current one is exhausted.
+   *
+   * @return Input for the next record
+   * @throws IOException
+   */
+  public ExtendedDataInput getInput() throws IOException {
+    while (input == null || input.available() == 0) {
+      readBlock();
+    }
+    return input;
+  }
+
+  /**
+   * Close the file.
+   *
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    fileInput.close();
+  }
+
+  /**
+   * Read the next block of the file.
+   *
+   * @throws IOException
+   */
+  private void readBlock() throws IOException {
+    int length;
+    try {
+      length = fileInput.readInt();
+    } catch (EOFException e) {
+      throw new IllegalStateException(
+          "readBlock: Expected more records in the file", e);
+    }
+    if (fileInput.readBoolean()) {
+      if (codec == null) {
+        throw new IllegalStateException("readBlock: Got a compressed block " +
+            "but no compression codec is set");
+      }
+      int compressedLength = fileInput.readInt();
+      if (compressedBytes.length < compressedLength) {
+        compressedBytes = new byte[compressedLength];
+      }
+      fileInput.readFully(compressedBytes, 0, compressedLength);
+      if (blockBytes.length != length) {
+        // Decompression needs an array of the exact length
+        blockBytes = new byte[length];
+      }
+      codec.decompress(compressedBytes, 0, compressedLength, blockBytes);
+    } else {
+      if (blockBytes.length < length) {
+        blockBytes = new byte[length];
+      }
+      fileInput.readFully(blockBytes, 0, length);
+    }
+    input = conf.createExtendedDataInput(blockBytes, 0, length);
+  }
+}
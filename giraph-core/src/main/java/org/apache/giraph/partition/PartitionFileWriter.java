@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.giraph.comm.compression.RequestCompressionCodec;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.utils.ExtendedDataOutput;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Writes an out-of-core partition file as a sequence of blocks. Records are
+ * serialized in bulk into an in-memory block, which is written (and
+ * optionally compressed) once it is full, so that a record never spans two
+ * blocks. Each block is written as its length, whether it is compressed,
+ * the compressed length if it is, and its bytes. Read by
+ * {@link PartitionFileReader}.
+ *
+ * Not thread-safe.
+ */
+class PartitionFileWriter {
+  /** Stream to the file */
+  private final DataOutputStream fileOutput;
+  /** Block being filled */
+  private final ExtendedDataOutput block;
+  /** Codec to compress the blocks with, null if not compressing */
+  private final RequestCompressionCodec codec;
+  /** Size from which a block is written */
+  private final int blockSize;
+  /** Compressed block, null if not compressing */
+  private final ByteArrayOutputStream compressedBlock;
+
+  /**
+   * Constructor
+   *
+   * @param conf Configuration
+   * @param file File to write to
+   * @param append Whether to append to the file, rather than overwrite it
+   * @param codec Codec to compress the blocks with, null if not compressing
+   * @param blockSize Size from which a block is written
+   * @throws IOException
+   */
+  public PartitionFileWriter(ImmutableClassesGiraphConfiguration<?, ?, ?> conf,
+      File file, boolean append, RequestCompressionCodec codec, int blockSize)
+    throws IOException {
+    fileOutput = new DataOutputStream(new BufferedOutputStream(
+        new FileOutputStream(file, append)));
+    block = conf.createExtendedDataOutput(blockSize);
+    this.codec = codec;
+    this.blockSize = blockSize;
+    compressedBlock = codec == null ? null : new ByteArrayOutputStream();
+  }
+
+  /**
+   * Get the output to serialize the next record to. Call
+   * {@link #endRecord()} once it is serialized.
+   *
+   * @return Output for the next record
+   */
+  public ExtendedDataOutput getOutput() {
+    return block;
+  }
+
+  /**
+   * Write the block if the record just serialized filled it.
+   *
+   * @throws IOException
+   */
+  public void endRecord() throws IOException {
+    if (block.getPos() >= blockSize) {
+      writeBlock();
+    }
+  }
+
+  /**
+   * Write the last block and close the file.
+   *
+   * @throws IOException
+   */
+  public void close() throws IOException {
+    try {
+      if (block.getPos() > 0) {
+        writeBlock();
+      }
+    } finally {
+      fileOutput.close();
+    }
+  }
+
+  /**
+   * Write the current block to the file, compressed if that makes it
+   * smaller, and start a new one.
+   *
+   * @throws IOException
+   */
+  private void writeBlock() throws IOException {
+    int length = block.getPos();
+    fileOutput.writeInt(length);
+    if (codec != null) {
+      compressedBlock.reset();
+      codec.compress(block.getByteArray(), 0, length, compressedBlock);
+    }
+    if (codec != null && compressedBlock.size() < length) {
+      fileOutput.writeBoolean(true);
+      fileOutput.writeInt(compressedBlock.size());
+      compressedBlock.writeTo(fileOutput);
+    } else {
+      fileOutput.writeBoolean(false);
+      fileOutput.write(block.getByteArray(), 0, length);
+    }
+    block.reset();
+  }
+}
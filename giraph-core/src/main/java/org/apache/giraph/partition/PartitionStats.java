@@ -95,6 +95,15 @@ public class PartitionStats implements Writable {
     ++vertexCount;
   }
 
+  /**
+   * Add vertices to the vertex count.
+   *
+   * @param vertexCount Number of vertices to add.
+   */
+  public void addVertexCount(long vertexCount) {
+    this.vertexCount += vertexCount;
+  }
+
   /**
    * Get the vertex count.
    *
@@ -111,6 +120,15 @@ public class PartitionStats implements Writable {
     ++finishedVertexCount;
   }
 
+  /**
+   * Add vertices to the finished vertex count.
+   *
+   * @param finishedVertexCount Number of finished vertices to add.
+   */
+  public void addFinishedVertexCount(long finishedVertexCount) {
+    this.finishedVertexCount += finishedVertexCount;
+  }
+
   /**
    * Get the finished vertex count.
    *
@@ -56,6 +56,20 @@ public abstract class PartitionStore<I extends WritableComparable,
    */
   public abstract void putPartition(Partition<I, V, E> partition);
 
+  /**
+   * Put a partition back to the store after computing it.  The stats of the
+   * computation count all vertices and edges of the partition, so stores
+   * may use them instead of iterating over the partition.  Same as
+   * {@link #putPartition(Partition)} by default.
+   *
+   * @param partition Partition
+   * @param partitionStats Stats of the computation of the whole partition
+   */
+  public void putPartition(Partition<I, V, E> partition,
+      PartitionStats partitionStats) {
+    putPartition(partition);
+  }
+
   /**
    * Remove a partition and return it.
    *
@@ -104,6 +118,15 @@ public abstract class PartitionStore<I extends WritableComparable,
     return getNumPartitions() == 0;
   }
 
+  /**
+   * Hint that partitions will be requested soon, in the given order, so
+   * that stores keeping partitions out of core can start loading them.
+   * Does nothing by default.
+   *
+   * @param partitionIds Ids of the partitions which will be needed next
+   */
+  public void prefetchPartitions(Iterable<Integer> partitionIds) { }
+
   /**
    * Called at the end of the computation.
    */
@@ -0,0 +1,311 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Growable primitive array holding one primitive {@link Writable} type,
+ * used as a column of {@link CsrPartition}.  Every element can also be
+ * accessed as raw bits, so columns of the same type can be copied into each
+ * other without going through the {@link Writable} objects.  Not
+ * thread-safe.
+ */
+abstract class PrimitiveColumn {
+  /**
+   * Create an empty column for a type.
+   *
+   * @param type Writable type to store
+   * @return Column, or null if the type has no primitive representation
+   */
+  static PrimitiveColumn create(Class<?> type) {
+    if (type == IntWritable.class) {
+      return new IntColumn();
+    } else if (type == LongWritable.class) {
+      return new LongColumn();
+    } else if (type == FloatWritable.class) {
+      return new FloatColumn();
+    } else if (type == DoubleWritable.class) {
+      return new DoubleColumn();
+    } else if (type == NullWritable.class) {
+      return new NullColumn();
+    } else {
+      return null;
+    }
+  }
+
+  /**
+   * Get the raw bits of an element.
+   *
+   * @param index Index of the element
+   * @return Bits of the element
+   */
+  abstract long getBits(int index);
+
+  /**
+   * Set the raw bits of an element.
+   *
+   * @param index Index of the element
+   * @param bits Bits of the element
+   */
+  abstract void setBits(int index, long bits);
+
+  /**
+   * Copy an element into a writable.
+   *
+   * @param index Index of the element
+   * @param writable Writable to set
+   */
+  abstract void get(int index, Writable writable);
+
+  /**
+   * Set an element from a writable.
+   *
+   * @param index Index of the element
+   * @param writable Writable to take the value from
+   */
+  abstract void set(int index, Writable writable);
+
+  /**
+   * Make sure the column can hold a number of elements, growing it
+   * geometrically if needed.
+   *
+   * @param capacity Number of elements
+   */
+  abstract void ensureCapacity(int capacity);
+
+  /**
+   * Shrink the column to exactly a number of elements.
+   *
+   * @param size Number of elements to keep
+   */
+  abstract void trim(int size);
+
+  /**
+   * Serialize the first elements of the column.
+   *
+   * @param output Output to write to
+   * @param size Number of elements to write
+   * @throws IOException
+   */
+  abstract void write(DataOutput output, int size) throws IOException;
+
+  /**
+   * Replace the column with deserialized elements.
+   *
+   * @param input Input to read from
+   * @param size Number of elements to read
+   * @throws IOException
+   */
+  abstract void readFields(DataInput input, int size) throws IOException;
+
+  /**
+   * Get the new capacity of a column which needs to grow.
+   *
+   * @param length Current length
+   * @param capacity Required capacity
+   * @return New length
+   */
+  private static int grownLength(int length, int capacity) {
+    return (int) Math.min(Integer.MAX_VALUE - 8,
+        Math.max(capacity, length + ((long) length >> 1) + 16));
+  }
+
+  /** Column of 32-bit elements */
+  private abstract static class IntBitsColumn extends PrimitiveColumn {
+    /** Elements */
+    protected int[] data = new int[0];
+
+    @Override
+    long getBits(int index) {
+      return data[index];
+    }
+
+    @Override
+    void setBits(int index, long bits) {
+      data[index] = (int) bits;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      if (capacity > data.length) {
+        data = Arrays.copyOf(data, grownLength(data.length, capacity));
+      }
+    }
+
+    @Override
+    void trim(int size) {
+      if (size != data.length) {
+        data = Arrays.copyOf(data, size);
+      }
+    }
+
+    @Override
+    void write(DataOutput output, int size) throws IOException {
+      for (int i = 0; i < size; ++i) {
+        output.writeInt(data[i]);
+      }
+    }
+
+    @Override
+    void readFields(DataInput input, int size) throws IOException {
+      data = new int[size];
+      for (int i = 0; i < size; ++i) {
+        data[i] = input.readInt();
+      }
+    }
+  }
+
+  /** Column of 64-bit elements */
+  private abstract static class LongBitsColumn extends PrimitiveColumn {
+    /** Elements */
+    protected long[] data = new long[0];
+
+    @Override
+    long getBits(int index) {
+      return data[index];
+    }
+
+    @Override
+    void setBits(int index, long bits) {
+      data[index] = bits;
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      if (capacity > data.length) {
+        data = Arrays.copyOf(data, grownLength(data.length, capacity));
+      }
+    }
+
+    @Override
+    void trim(int size) {
+      if (size != data.length) {
+        data = Arrays.copyOf(data, size);
+      }
+    }
+
+    @Override
+    void write(DataOutput output, int size) throws IOException {
+      for (int i = 0; i < size; ++i) {
+        output.writeLong(data[i]);
+      }
+    }
+
+    @Override
+    void readFields(DataInput input, int size) throws IOException {
+      data = new long[size];
+      for (int i = 0; i < size; ++i) {
+        data[i] = input.readLong();
+      }
+    }
+  }
+
+  /** Column of {@link IntWritable}s */
+  private static class IntColumn extends IntBitsColumn {
+    @Override
+    void get(int index, Writable writable) {
+      ((IntWritable) writable).set(data[index]);
+    }
+
+    @Override
+    void set(int index, Writable writable) {
+      data[index] = ((IntWritable) writable).get();
+    }
+  }
+
+  /** Column of {@link FloatWritable}s */
+  private static class FloatColumn extends IntBitsColumn {
+    @Override
+    void get(int index, Writable writable) {
+      ((FloatWritable) writable).set(Float.intBitsToFloat(data[index]));
+    }
+
+    @Override
+    void set(int index, Writable writable) {
+      data[index] = Float.floatToRawIntBits(((FloatWritable) writable).get());
+    }
+  }
+
+  /** Column of {@link LongWritable}s */
+  private static class LongColumn extends LongBitsColumn {
+    @Override
+    void get(int index, Writable writable) {
+      ((LongWritable) writable).set(data[index]);
+    }
+
+    @Override
+    void set(int index, Writable writable) {
+      data[index] = ((LongWritable) writable).get();
+    }
+  }
+
+  /** Column of {@link DoubleWritable}s */
+  private static class DoubleColumn extends LongBitsColumn {
+    @Override
+    void get(int index, Writable writable) {
+      ((DoubleWritable) writable).set(Double.longBitsToDouble(data[index]));
+    }
+
+    @Override
+    void set(int index, Writable writable) {
+      data[index] =
+          Double.doubleToRawLongBits(((DoubleWritable) writable).get());
+    }
+  }
+
+  /** Column of {@link NullWritable}s, which takes no memory */
+  private static class NullColumn extends PrimitiveColumn {
+    @Override
+    long getBits(int index) {
+      return 0;
+    }
+
+    @Override
+    void setBits(int index, long bits) { }
+
+    @Override
+    void get(int index, Writable writable) { }
+
+    @Override
+    void set(int index, Writable writable) { }
+
+    @Override
+    void ensureCapacity(int capacity) { }
+
+    @Override
+    void trim(int size) { }
+
+    @Override
+    void write(DataOutput output, int size) { }
+
+    @Override
+    void readFields(DataInput input, int size) { }
+  }
+}
@@ -32,12 +32,15 @@ import java.io.IOException;
 import java.util.Iterator;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static org.apache.giraph.conf.GiraphConstants.ACTIVE_VERTEX_INDEX;
 import static org.apache.giraph.conf.GiraphConstants.USE_OUT_OF_CORE_MESSAGES;
 
 /**
  * A simple map-based container that stores vertices.  Vertex ids will map to
- * exactly one partition.
+ * exactly one partition.  Optionally keeps a second map of the vertices
+ * which haven't voted to halt.
  *
  * @param <I> Vertex id
  * @param <V> Vertex data
@@ -46,9 +49,14 @@ import static org.apache.giraph.conf.GiraphConstants.USE_OUT_OF_CORE_MESSAGES;
 @SuppressWarnings("rawtypes")
 public class SimplePartition<I extends WritableComparable,
     V extends Writable, E extends Writable>
-    extends BasicPartition<I, V, E> {
+    extends BasicPartition<I, V, E>
+    implements ActiveVerticesPartition<I, V, E> {
   /** Vertex map for this range (keyed by index) */
   private ConcurrentMap<I, Vertex<I, V, E>> vertexMap;
+  /** Vertices which haven't voted to halt, null if not indexed */
+  private ConcurrentMap<I, Vertex<I, V, E>> activeVertexMap;
+  /** Number of edges, only kept up to date if active vertices are indexed */
+  private final AtomicLong edgeCount = new AtomicLong();
 
   /**
    * Constructor for reflection.
@@ -58,10 +66,62 @@ public class SimplePartition<I extends WritableComparable,
   @Override
   public void initialize(int partitionId, Progressable progressable) {
     super.initialize(partitionId, progressable);
+    initializeVertexMaps();
+  }
+
+  /**
+   * Create empty vertex maps, sorted if messages are out-of-core.
+   */
+  private void initializeVertexMaps() {
+    vertexMap = createVertexMap();
+    activeVertexMap =
+        ACTIVE_VERTEX_INDEX.get(getConf()) ? createVertexMap() : null;
+    edgeCount.set(0);
+  }
+
+  /**
+   * Create an empty vertex map, sorted if messages are out-of-core.
+   *
+   * @return Vertex map
+   */
+  private ConcurrentMap<I, Vertex<I, V, E>> createVertexMap() {
     if (USE_OUT_OF_CORE_MESSAGES.get(getConf())) {
-      vertexMap = new ConcurrentSkipListMap<I, Vertex<I, V, E>>();
+      return new ConcurrentSkipListMap<I, Vertex<I, V, E>>();
     } else {
-      vertexMap = Maps.newConcurrentMap();
+      return Maps.newConcurrentMap();
+    }
+  }
+
+  /**
+   * Add the vertex to the active vertex index or remove it, depending on
+   * whether it voted to halt.
+   *
+   * @param vertex Vertex which may have changed its halted state
+   */
+  private void indexVertex(Vertex<I, V, E> vertex) {
+    if (activeVertexMap != null) {
+      if (vertex.isHalted()) {
+        activeVertexMap.remove(vertex.getId());
+      } else {
+        activeVertexMap.put(vertex.getId(), vertex);
+      }
+    }
+  }
+
+  /**
+   * Account for a stored vertex being replaced by another one (indexed
+   * only).  A vertex stored again as is was changed in place, which the
+   * caller reports with {@link #addEdgeCount(long)}.
+   *
+   * @param oldVertex Vertex which was stored, null if none
+   * @param newVertex Vertex stored now, null if removed
+   */
+  private void countEdges(Vertex<I, V, E> oldVertex,
+      Vertex<I, V, E> newVertex) {
+    if (activeVertexMap != null && oldVertex != newVertex) {
+      edgeCount.addAndGet(
+          (newVertex == null ? 0 : newVertex.getNumEdges()) -
+          (oldVertex == null ? 0 : oldVertex.getNumEdges()));
     }
   }
 
@@ -72,18 +132,26 @@ public class SimplePartition<I extends WritableComparable,
 
   @Override
   public Vertex<I, V, E> putVertex(Vertex<I, V, E> vertex) {
-    return vertexMap.put(vertex.getId(), vertex);
+    Vertex<I, V, E> oldVertex = vertexMap.put(vertex.getId(), vertex);
+    indexVertex(vertex);
+    countEdges(oldVertex, vertex);
+    return oldVertex;
   }
 
   @Override
   public Vertex<I, V, E> removeVertex(I vertexIndex) {
-    return vertexMap.remove(vertexIndex);
+    if (activeVertexMap != null) {
+      activeVertexMap.remove(vertexIndex);
+    }
+    Vertex<I, V, E> removedVertex = vertexMap.remove(vertexIndex);
+    countEdges(removedVertex, null);
+    return removedVertex;
   }
 
   @Override
   public void addPartition(Partition<I, V, E> partition) {
     for (Vertex<I, V, E> vertex : partition) {
-      vertexMap.put(vertex.getId(), vertex);
+      putVertex(vertex);
     }
   }
 
@@ -94,6 +162,9 @@ public class SimplePartition<I extends WritableComparable,
 
   @Override
   public long getEdgeCount() {
+    if (activeVertexMap != null) {
+      return edgeCount.get();
+    }
     long edges = 0;
     for (Vertex<I, V, E> vertex : vertexMap.values()) {
       edges += vertex.getNumEdges();
@@ -103,7 +174,34 @@ public class SimplePartition<I extends WritableComparable,
 
   @Override
   public void saveVertex(Vertex<I, V, E> vertex) {
-    // No-op, vertices are stored as Java objects in this partition
+    // Vertices are stored as Java objects in this partition, only the
+    // halted state may need to be indexed
+    indexVertex(vertex);
+  }
+
+  @Override
+  public Iterable<Vertex<I, V, E>> getActiveVertices() {
+    if (activeVertexMap == null) {
+      throw new IllegalStateException("getActiveVertices: Active vertices " +
+          "are not indexed, set " + ACTIVE_VERTEX_INDEX.getKey());
+    }
+    return activeVertexMap.values();
+  }
+
+  @Override
+  public long getActiveVertexCount() {
+    if (activeVertexMap == null) {
+      throw new IllegalStateException("getActiveVertexCount: Active " +
+          "vertices are not indexed, set " + ACTIVE_VERTEX_INDEX.getKey());
+    }
+    return activeVertexMap.size();
+  }
+
+  @Override
+  public void addEdgeCount(long edges) {
+    if (activeVertexMap != null) {
+      edgeCount.addAndGet(edges);
+    }
   }
 
   @Override
@@ -114,11 +212,7 @@ public class SimplePartition<I extends WritableComparable,
   @Override
   public void readFields(DataInput input) throws IOException {
     super.readFields(input);
-    if (USE_OUT_OF_CORE_MESSAGES.get(getConf())) {
-      vertexMap = new ConcurrentSkipListMap<I, Vertex<I, V, E>>();
-    } else {
-      vertexMap = Maps.newConcurrentMap();
-    }
+    initializeVertexMaps();
     int vertices = input.readInt();
     for (int i = 0; i < vertices; ++i) {
       progress();
@@ -129,6 +223,8 @@ public class SimplePartition<I extends WritableComparable,
             "readFields: " + this +
             " already has same id " + vertex);
       }
+      indexVertex(vertex);
+      countEdges(null, vertex);
     }
   }
 
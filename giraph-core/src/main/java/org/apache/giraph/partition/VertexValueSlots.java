@@ -0,0 +1,294 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.utils.ExtendedDataInput;
+import org.apache.giraph.utils.ExtendedDataOutput;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Halted states and values of the vertices of an out-of-core partition of a
+ * static graph, in fixed-size slots following the order of the ids file.
+ * Since the slot of a vertex never moves, writing the partition back only
+ * rewrites the slots which changed, in place.
+ *
+ * The slots are kept as a byte array: the slot size (an int) followed by
+ * one slot per vertex, holding the halted state and the value, padded with
+ * zeros. Vertices are added in order, and the slots are sized to the
+ * largest serialized value.
+ */
+class VertexValueSlots {
+  /** Size of the header holding the size of the slots */
+  static final int HEADER_SIZE = 4;
+  /** Serialized halted states and values */
+  private final ExtendedDataOutput values;
+  /** End offset of each vertex in the serialized values */
+  private final IntArrayList ends = new IntArrayList();
+  /** Size of the largest serialized vertex */
+  private int maxSize;
+
+  /**
+   * Constructor
+   *
+   * @param conf Configuration
+   */
+  public VertexValueSlots(ImmutableClassesGiraphConfiguration<?, ?, ?> conf) {
+    values = conf.createExtendedDataOutput();
+  }
+
+  /**
+   * Add the next vertex.
+   *
+   * @param vertex Vertex, can be reused by the caller after this returns
+   * @throws IOException
+   */
+  public void add(Vertex<?, ?, ?> vertex) throws IOException {
+    int start = values.getPos();
+    values.writeBoolean(vertex.isHalted());
+    vertex.getValue().write(values);
+    ends.add(values.getPos());
+    maxSize = Math.max(maxSize, values.getPos() - start);
+  }
+
+  /**
+   * Build the slots of the vertices added.
+   *
+   * @param minSlotSize Smallest slot size to use, to keep the slots of a
+   *                    previous write if the values still fit in them
+   * @return Slot size followed by the slots
+   */
+  public byte[] toSlots(int minSlotSize) {
+    int slotSize = Math.max(maxSize, minSlotSize);
+    byte[] slots = new byte[HEADER_SIZE + ends.size() * slotSize];
+    setSlotSize(slots, slotSize);
+    int start = 0;
+    for (int i = 0; i < ends.size(); ++i) {
+      int end = ends.getInt(i);
+      System.arraycopy(values.getByteArray(), start, slots,
+          HEADER_SIZE + i * slotSize, end - start);
+      start = end;
+    }
+    return slots;
+  }
+
+  /**
+   * Get the slot size of slots.
+   *
+   * @param slots Slot size followed by the slots
+   * @return Slot size
+   */
+  public static int getSlotSize(byte[] slots) {
+    return ((slots[0] & 0xff) << 24) | ((slots[1] & 0xff) << 16) |
+        ((slots[2] & 0xff) << 8) | (slots[3] & 0xff);
+  }
+
+  /**
+   * Set the slot size of slots.
+   *
+   * @param slots Array to hold the slot size followed by the slots
+   * @param slotSize Slot size
+   */
+  private static void setSlotSize(byte[] slots, int slotSize) {
+    slots[0] = (byte) (slotSize >>> 24);
+    slots[1] = (byte) (slotSize >>> 16);
+    slots[2] = (byte) (slotSize >>> 8);
+    slots[3] = (byte) slotSize;
+  }
+
+  /**
+   * Get the number of slots.
+   *
+   * @param slots Slot size followed by the slots
+   * @return Number of slots
+   */
+  public static int getNumSlots(byte[] slots) {
+    int slotSize = getSlotSize(slots);
+    return slotSize == 0 ? 0 : (slots.length - HEADER_SIZE) / slotSize;
+  }
+
+  /**
+   * Copy slots to larger ones.
+   *
+   * @param slots Slot size followed by the slots
+   * @param slotSize New slot size, not smaller than the current one
+   * @return New slot size followed by the copied slots
+   */
+  public static byte[] resize(byte[] slots, int slotSize) {
+    int oldSlotSize = getSlotSize(slots);
+    if (oldSlotSize == slotSize) {
+      return slots;
+    }
+    int numSlots = getNumSlots(slots);
+    byte[] resized = new byte[HEADER_SIZE + numSlots * slotSize];
+    setSlotSize(resized, slotSize);
+    for (int i = 0; i < numSlots; ++i) {
+      System.arraycopy(slots, HEADER_SIZE + i * oldSlotSize, resized,
+          HEADER_SIZE + i * slotSize, oldSlotSize);
+    }
+    return resized;
+  }
+
+  /**
+   * Concatenate slots of the same size.
+   *
+   * @param first Slot size followed by the first slots
+   * @param second Slot size followed by the slots to add after them
+   * @return Slot size followed by all the slots
+   */
+  public static byte[] concat(byte[] first, byte[] second) {
+    byte[] slots = new byte[first.length + second.length - HEADER_SIZE];
+    System.arraycopy(first, 0, slots, 0, first.length);
+    System.arraycopy(second, HEADER_SIZE, slots, first.length,
+        second.length - HEADER_SIZE);
+    return slots;
+  }
+
+  /**
+   * Read the halted state and value of a vertex from its slot.
+   *
+   * @param in Input over all the slots, positioned at the slot
+   * @param slotSize Slot size
+   * @param vertex Vertex to read into
+   * @throws IOException
+   */
+  public static void readSlot(ExtendedDataInput in, int slotSize,
+      Vertex<?, ?, ?> vertex) throws IOException {
+    int end = in.getPos() + slotSize;
+    if (in.readBoolean()) {
+      vertex.voteToHalt();
+    } else {
+      vertex.wakeUp();
+    }
+    vertex.getValue().readFields(in);
+    in.skipBytes(end - in.getPos());
+  }
+
+  /**
+   * Read slots from a file.
+   *
+   * @param file File holding the slot size followed by the slots
+   * @return Slot size followed by the slots
+   * @throws IOException
+   */
+  public static byte[] read(File file) throws IOException {
+    byte[] slots = new byte[(int) file.length()];
+    DataInputStream input = new DataInputStream(new FileInputStream(file));
+    try {
+      input.readFully(slots);
+    } finally {
+      input.close();
+    }
+    return slots;
+  }
+
+  /**
+   * Write slots to a file, overwriting it.
+   *
+   * @param file File to write
+   * @param slots Slot size followed by the slots
+   * @throws IOException
+   */
+  public static void write(File file, byte[] slots) throws IOException {
+    FileOutputStream output = new FileOutputStream(file);
+    try {
+      output.write(slots);
+    } finally {
+      output.close();
+    }
+  }
+
+  /**
+   * Write in place the slots which changed since the file was written.
+   * Consecutive changed slots are written together.
+   *
+   * @param file File holding the old slots
+   * @param oldSlots Slots in the file
+   * @param newSlots Slots to write, of the same size and number as the old
+   * @return Number of bytes written
+   * @throws IOException
+   */
+  public static long writeChanged(File file, byte[] oldSlots,
+      byte[] newSlots) throws IOException {
+    if (oldSlots.length != newSlots.length ||
+        getSlotSize(oldSlots) != getSlotSize(newSlots)) {
+      throw new IllegalStateException("writeChanged: Slots of " + file +
+          " changed layout");
+    }
+    int slotSize = getSlotSize(newSlots);
+    int numSlots = getNumSlots(newSlots);
+    long written = 0;
+    RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      FileChannel channel = randomAccessFile.getChannel();
+      int runStart = -1;
+      for (int i = 0; i <= numSlots; ++i) {
+        boolean changed = i < numSlots &&
+            !isSlotEqual(oldSlots, newSlots, HEADER_SIZE + i * slotSize,
+                slotSize);
+        if (changed && runStart < 0) {
+          runStart = i;
+        } else if (!changed && runStart >= 0) {
+          int offset = HEADER_SIZE + runStart * slotSize;
+          int length = (i - runStart) * slotSize;
+          ByteBuffer buffer = ByteBuffer.wrap(newSlots, offset, length);
+          long position = offset;
+          while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+          }
+          written += length;
+          runStart = -1;
+        }
+      }
+    } finally {
+      randomAccessFile.close();
+    }
+    return written;
+  }
+
+  /**
+   * Compare a slot in two arrays.
+   *
+   * @param first First array
+   * @param second Second array
+   * @param offset Offset of the slot
+   * @param slotSize Slot size
+   * @return True if the slot has the same bytes in both arrays
+   */
+  private static boolean isSlotEqual(byte[] first, byte[] second, int offset,
+      int slotSize) {
+    for (int i = offset; i < offset + slotSize; ++i) {
+      if (first[i] != second[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
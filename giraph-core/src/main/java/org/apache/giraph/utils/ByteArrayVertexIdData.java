@@ -20,9 +20,16 @@ package org.apache.giraph.utils;
 
 import org.apache.giraph.conf.ImmutableClassesGiraphConfigurable;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableComparable;
 
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntComparator;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
@@ -30,6 +37,12 @@ import java.io.IOException;
 /**
  * Stores pairs of vertex id and generic data in a single byte array
  *
+ * When delta encoding of ids is enabled (see
+ * {@link #setDeltaEncodeIds(boolean)}), the pairs are sorted by id before
+ * they are first serialized, and every IntWritable or LongWritable id is
+ * replaced by its varint difference to the previous one. The pairs then
+ * stay in that compact form, which the iterators decode.
+ *
  * @param <I> Vertex id
  * @param <T> Data
  */
@@ -39,6 +52,10 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
   private ExtendedDataOutput extendedDataOutput;
   /** Configuration */
   private ImmutableClassesGiraphConfiguration<I, ?, ?> configuration;
+  /** Whether to sort the pairs and delta-encode the ids when serializing */
+  private boolean deltaEncodeIds;
+  /** Whether the stored pairs are sorted, with delta-encoded ids */
+  private boolean deltaEncodedIds;
 
   /**
    * Create a new data object.
@@ -73,6 +90,7 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
    */
   public void initialize() {
     extendedDataOutput = configuration.createExtendedDataOutput();
+    deltaEncodedIds = false;
   }
 
   /**
@@ -83,6 +101,20 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
    */
   public void initialize(int expectedSize) {
     extendedDataOutput = configuration.createExtendedDataOutput(expectedSize);
+    deltaEncodedIds = false;
+  }
+
+  /**
+   * Set whether the pairs should be sorted and their ids delta-encoded when
+   * serialized. Ignored unless vertex ids are IntWritable or LongWritable.
+   *
+   * @param deltaEncodeIds Whether to delta-encode the ids
+   */
+  public void setDeltaEncodeIds(boolean deltaEncodeIds) {
+    Class<I> vertexIdClass = configuration.getVertexIdClass();
+    this.deltaEncodeIds = deltaEncodeIds &&
+        (vertexIdClass.equals(IntWritable.class) ||
+            vertexIdClass.equals(LongWritable.class));
   }
 
   /**
@@ -92,6 +124,7 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
    * @param data Data
    */
   public void add(I vertexId, T data) {
+    checkNotDeltaEncoded();
     try {
       vertexId.write(extendedDataOutput);
       writeData(extendedDataOutput, data);
@@ -108,6 +141,7 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
    * @param data Data
    */
   public void add(byte[] serializedId, int idPos, T data) {
+    checkNotDeltaEncoded();
     try {
       extendedDataOutput.write(serializedId, 0, idPos);
       writeData(extendedDataOutput, data);
@@ -131,7 +165,8 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
    * @return The size (in bytes) of the serialized object
    */
   public int getSerializedSize() {
-    return 1 + 4 + getSize();
+    encodeDeltaIdsIfNeeded();
+    return 1 + 1 + 4 + getSize();
   }
 
   /**
@@ -148,6 +183,7 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
    */
   public void clear() {
     extendedDataOutput.reset();
+    deltaEncodedIds = false;
   }
 
   /**
@@ -171,15 +207,112 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
 
   @Override
   public void write(DataOutput dataOutput) throws IOException {
+    encodeDeltaIdsIfNeeded();
+    dataOutput.writeBoolean(deltaEncodedIds);
     WritableUtils.writeExtendedDataOutput(extendedDataOutput, dataOutput);
   }
 
   @Override
   public void readFields(DataInput dataInput) throws IOException {
+    deltaEncodedIds = dataInput.readBoolean();
     extendedDataOutput =
         WritableUtils.readExtendedDataOutput(dataInput, configuration);
   }
 
+  /**
+   * Make sure no pairs are added after the ids were delta-encoded.
+   */
+  private void checkNotDeltaEncoded() {
+    if (deltaEncodedIds) {
+      throw new IllegalStateException("add: Can't add pairs after the " +
+          "vertex ids were delta-encoded");
+    }
+  }
+
+  /**
+   * Get the value of an IntWritable or LongWritable vertex id.
+   *
+   * @param vertexId Vertex id
+   * @return Value of the id
+   */
+  private static long getIdValue(WritableComparable vertexId) {
+    if (vertexId instanceof LongWritable) {
+      return ((LongWritable) vertexId).get();
+    } else {
+      return ((IntWritable) vertexId).get();
+    }
+  }
+
+  /**
+   * Sort the pairs by id and delta-encode the ids, if enabled and not done
+   * already.
+   */
+  private void encodeDeltaIdsIfNeeded() {
+    if (!deltaEncodeIds || deltaEncodedIds) {
+      return;
+    }
+    byte[] bytes = extendedDataOutput.getByteArray();
+    int size = extendedDataOutput.getPos();
+    ExtendedDataInput in =
+        configuration.createExtendedDataInput(bytes, 0, size);
+    I vertexId = configuration.createVertexId();
+    T data = createData();
+    final LongArrayList ids = new LongArrayList();
+    IntArrayList dataStarts = new IntArrayList();
+    IntArrayList dataEnds = new IntArrayList();
+    try {
+      while (in.available() > 0) {
+        vertexId.readFields(in);
+        ids.add(getIdValue(vertexId));
+        dataStarts.add(in.getPos());
+        readData(in, data);
+        dataEnds.add(in.getPos());
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          "encodeDeltaIdsIfNeeded: IOException", e);
+    }
+
+    // Sort by id, keeping the order of the data for the same id
+    int[] order = new int[ids.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    IntArrays.mergeSort(order, new IntComparator() {
+      @Override
+      public int compare(int first, int second) {
+        long firstId = ids.getLong(first);
+        long secondId = ids.getLong(second);
+        return firstId < secondId ? -1 : (firstId == secondId ? 0 : 1);
+      }
+
+      @Override
+      public int compare(Integer first, Integer second) {
+        return compare(first.intValue(), second.intValue());
+      }
+    });
+
+    ExtendedDataOutput encodedOutput =
+        configuration.createExtendedDataOutput(size);
+    long previousId = 0;
+    try {
+      for (int index : order) {
+        long id = ids.getLong(index);
+        org.apache.hadoop.io.WritableUtils.writeVLong(encodedOutput,
+            id - previousId);
+        previousId = id;
+        int dataStart = dataStarts.getInt(index);
+        encodedOutput.write(bytes, dataStart,
+            dataEnds.getInt(index) - dataStart);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          "encodeDeltaIdsIfNeeded: IOException", e);
+    }
+    extendedDataOutput = encodedOutput;
+    deltaEncodedIds = true;
+  }
+
   /**
    * Get an iterator over the pairs.
    *
@@ -202,6 +335,8 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
   public class VertexIdDataIterator extends VertexIdIterator<I> {
     /** Current data. */
     private T data;
+    /** Previous vertex id, when ids are delta-encoded */
+    private long previousId;
 
     /** Default constructor. */
     public VertexIdDataIterator() {
@@ -217,13 +352,32 @@ public abstract class ByteArrayVertexIdData<I extends WritableComparable, T>
         data = createData();
       }
       try {
-        vertexId.readFields(extendedDataInput);
+        readVertexId();
         readData(extendedDataInput, data);
       } catch (IOException e) {
         throw new IllegalStateException("next: IOException", e);
       }
     }
 
+    /**
+     * Read the next vertex id into the current vertex id object.
+     *
+     * @throws IOException
+     */
+    protected void readVertexId() throws IOException {
+      if (!deltaEncodedIds) {
+        vertexId.readFields(extendedDataInput);
+        return;
+      }
+      previousId +=
+          org.apache.hadoop.io.WritableUtils.readVLong(extendedDataInput);
+      if (vertexId instanceof LongWritable) {
+        ((LongWritable) vertexId).set(previousId);
+      } else {
+        ((IntWritable) vertexId).set((int) previousId);
+      }
+    }
+
     /**
      * Get the current data.
      *
@@ -81,12 +81,14 @@ public class ByteArrayVertexIdMessages<I extends WritableComparable,
   public void initialize() {
     super.initialize();
     setUseMessageSizeEncoding();
+    setDeltaEncodeIds(getConf().useMessageVertexIdDeltaEncoding());
   }
 
   @Override
   public void initialize(int expectedSize) {
     super.initialize(expectedSize);
     setUseMessageSizeEncoding();
+    setDeltaEncodeIds(getConf().useMessageVertexIdDeltaEncoding());
   }
 
   /**
@@ -169,7 +171,7 @@ public class ByteArrayVertexIdMessages<I extends WritableComparable,
       }
 
       try {
-        vertexId.readFields(extendedDataInput);
+        readVertexId();
         messageBytes = extendedDataInput.readInt();
         messageOffset = extendedDataInput.getPos();
         if (extendedDataInput.skipBytes(messageBytes) != messageBytes) {
@@ -64,6 +64,15 @@ public class MemoryUtils {
     return megaBytes(Runtime.getRuntime().freeMemory());
   }
 
+  /**
+   * Get used memory in megabytes
+   * @return used memory in megabytes
+   */
+  public static double usedMemoryMB() {
+    Runtime runtime = Runtime.getRuntime();
+    return megaBytes(runtime.totalMemory() - runtime.freeMemory());
+  }
+
   /**
    * Initialize metrics tracked by this helper.
    */
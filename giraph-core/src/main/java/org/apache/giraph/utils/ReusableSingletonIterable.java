@@ -0,0 +1,81 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.utils;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterable over a single object which is reused for every value, so that
+ * handing out a single message doesn't allocate.  The iterable is its own
+ * iterator, so it can't be iterated in nested loops, and users must not
+ * keep references to the object across calls (same as with other reused
+ * message objects).
+ *
+ * @param <T> Element type
+ */
+public class ReusableSingletonIterable<T> implements Iterable<T>,
+    Iterator<T> {
+  /** Reused object */
+  private final T value;
+  /** Whether the object wasn't returned by the current iteration yet */
+  private boolean hasNext;
+
+  /**
+   * Constructor
+   *
+   * @param value Object to reuse
+   */
+  public ReusableSingletonIterable(T value) {
+    this.value = value;
+  }
+
+  /**
+   * Get the reused object, to set it to the next value.
+   *
+   * @return Reused object
+   */
+  public T getValue() {
+    return value;
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    hasNext = true;
+    return this;
+  }
+
+  @Override
+  public boolean hasNext() {
+    return hasNext;
+  }
+
+  @Override
+  public T next() {
+    if (!hasNext) {
+      throw new NoSuchElementException("next: Already returned the value");
+    }
+    hasNext = false;
+    return value;
+  }
+
+  @Override
+  public void remove() {
+    throw new UnsupportedOperationException("remove: Not supported");
+  }
+}
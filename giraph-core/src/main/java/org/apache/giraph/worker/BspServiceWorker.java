@@ -34,6 +34,7 @@ import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.graph.AddressesAndPartitionsWritable;
+import org.apache.giraph.graph.ChangedVertices;
 import org.apache.giraph.graph.FinishedSuperstepStats;
 import org.apache.giraph.graph.GlobalStats;
 import org.apache.giraph.graph.GraphTaskManager;
@@ -54,6 +55,7 @@ import org.apache.giraph.metrics.GiraphTimerContext;
 import org.apache.giraph.metrics.ResetSuperstepMetricsObserver;
 import org.apache.giraph.metrics.SuperstepMetricsRegistry;
 import org.apache.giraph.metrics.WorkerSuperstepMetrics;
+import org.apache.giraph.partition.CsrPartition;
 import org.apache.giraph.partition.Partition;
 import org.apache.giraph.partition.PartitionExchange;
 import org.apache.giraph.partition.PartitionOwner;
@@ -61,6 +63,8 @@ import org.apache.giraph.partition.PartitionStats;
 import org.apache.giraph.partition.PartitionStore;
 import org.apache.giraph.partition.WorkerGraphPartitioner;
 import org.apache.giraph.utils.CallableFactory;
+import org.apache.giraph.utils.ExtendedDataInput;
+import org.apache.giraph.utils.ExtendedDataOutput;
 import org.apache.giraph.utils.JMapHistoDumper;
 import org.apache.giraph.utils.LoggerUtils;
 import org.apache.giraph.utils.MemoryUtils;
@@ -159,6 +163,10 @@ public class BspServiceWorker<I extends WritableComparable,
 
   /** array of observers to call back to */
   private final WorkerObserver[] observers;
+  /** Store for checkpoint partitions, null to use checkpoint files */
+  private final CheckpointPartitionStore checkpointPartitionStore;
+  /** Vertices changed by compute(), null if not doing delta output */
+  private final ChangedVertices<I, V, E> changedVertices;
 
   // Per-Superstep Metrics
   /** Timer for WorkerContext#postSuperstep */
@@ -208,6 +216,13 @@ public class BspServiceWorker<I extends WritableComparable,
       conf.addWorkerObserverClass(JMapHistoDumper.class);
     }
     observers = conf.createWorkerObservers();
+    checkpointPartitionStore =
+        GiraphConstants.CHECKPOINT_PARTITION_STORE_CLASS.newInstance(conf);
+    if (checkpointPartitionStore != null) {
+      checkpointPartitionStore.initialize(checkpointBasePath);
+    }
+    changedVertices = GiraphConstants.DELTA_OUTPUT.get(conf) ?
+        new ChangedVertices<I, V, E>(conf) : null;
 
     GiraphMetrics.get().addSuperstepResetObserver(this);
   }
@@ -230,6 +245,11 @@ public class BspServiceWorker<I extends WritableComparable,
     return observers;
   }
 
+  @Override
+  public ChangedVertices<I, V, E> getChangedVertices() {
+    return changedVertices;
+  }
+
   @Override
   public WorkerClient<I, V, E> getWorkerClient() {
     return workerClient;
@@ -572,6 +592,10 @@ public class BspServiceWorker<I extends WritableComparable,
     for (Integer partitionId : getPartitionStore().getPartitionIds()) {
       Partition<I, V, E> partition =
           getPartitionStore().getPartition(partitionId);
+      if (partition instanceof CsrPartition) {
+        // Build the arrays in bulk now that all vertices and edges are in
+        ((CsrPartition<I, V, E>) partition).compact();
+      }
       PartitionStats partitionStats =
           new PartitionStats(partition.getId(),
               partition.getVertexCount(),
@@ -943,8 +967,12 @@ public class BspServiceWorker<I extends WritableComparable,
     int numThreads = Math.min(getConfiguration().getNumOutputThreads(),
         numPartitions);
     LoggerUtils.setStatusAndLog(getContext(), LOG, Level.INFO,
-        "saveVertices: Starting to save " + numLocalVertices + " vertices " +
-            "using " + numThreads + " threads");
+        "saveVertices: Starting to save " +
+            (changedVertices == null ? numLocalVertices :
+                changedVertices.getNumChanged() + " changed out of " +
+                numLocalVertices) + " vertices using " + numThreads +
+            " threads" + (changedVertices == null ? "" : ", and to remove " +
+                changedVertices.getNumRemoved() + " vertices"));
     final VertexOutputFormat<I, V, E> vertexOutputFormat =
         getConfiguration().createWrappedVertexOutputFormat();
 
@@ -955,7 +983,7 @@ public class BspServiceWorker<I extends WritableComparable,
 
     CallableFactory<Void> callableFactory = new CallableFactory<Void>() {
       @Override
-      public Callable<Void> newCallable(int callableId) {
+      public Callable<Void> newCallable(final int callableId) {
         return new Callable<Void>() {
           @Override
           public Void call() throws Exception {
@@ -977,6 +1005,10 @@ public class BspServiceWorker<I extends WritableComparable,
                   getPartitionStore().getPartition(partitionId);
               long verticesWritten = 0;
               for (Vertex<I, V, E> vertex : partition) {
+                if (changedVertices != null &&
+                    !changedVertices.isChanged(vertex.getId())) {
+                  continue;
+                }
                 vertexWriter.writeVertex(vertex);
                 ++verticesWritten;
 
@@ -995,6 +1027,13 @@ public class BspServiceWorker<I extends WritableComparable,
               getPartitionStore().putPartition(partition);
               ++partitionIndex;
             }
+            // Vertices removed during the application are not in any
+            // partition, the first writer deletes them
+            if (changedVertices != null && callableId == 0) {
+              for (I vertexId : changedVertices.getRemovedIds()) {
+                vertexWriter.removeVertex(vertexId);
+              }
+            }
             vertexWriter.close(getContext()); // the temp results are saved now
             return null;
           }
@@ -1235,33 +1274,12 @@ public class BspServiceWorker<I extends WritableComparable,
       LOG.warn("storeCheckpoint: Removed file " + verticesFilePath);
     }
 
-    FSDataOutputStream verticesOutputStream =
-        getFs().create(verticesFilePath);
     ByteArrayOutputStream metadataByteStream = new ByteArrayOutputStream();
     DataOutput metadataOutput = new DataOutputStream(metadataByteStream);
-    for (Integer partitionId : getPartitionStore().getPartitionIds()) {
-      Partition<I, V, E> partition =
-          getPartitionStore().getPartition(partitionId);
-      long startPos = verticesOutputStream.getPos();
-      partition.write(verticesOutputStream);
-      // write messages
-      getServerData().getCurrentMessageStore().writePartition(
-          verticesOutputStream, partition.getId());
-      // Write the metadata for this partition
-      // Format:
-      // <index count>
-      //   <index 0 start pos><partition id>
-      //   <index 1 start pos><partition id>
-      metadataOutput.writeLong(startPos);
-      metadataOutput.writeInt(partition.getId());
-      if (LOG.isDebugEnabled()) {
-        LOG.debug("storeCheckpoint: Vertex file starting " +
-            "offset = " + startPos + ", length = " +
-            (verticesOutputStream.getPos() - startPos) +
-            ", partition = " + partition.toString());
-      }
-      getPartitionStore().putPartition(partition);
-      getContext().progress();
+    if (checkpointPartitionStore == null) {
+      storeCheckpointVertices(verticesFilePath, metadataOutput);
+    } else {
+      storeCheckpointPartitions(metadataOutput);
     }
     // Metadata is buffered and written at the end since it's small and
     // needs to know how many partitions this worker owns
@@ -1270,10 +1288,11 @@ public class BspServiceWorker<I extends WritableComparable,
     metadataOutputStream.writeInt(getPartitionStore().getNumPartitions());
     metadataOutputStream.write(metadataByteStream.toByteArray());
     metadataOutputStream.close();
-    verticesOutputStream.close();
     if (LOG.isInfoEnabled()) {
       LOG.info("storeCheckpoint: Finished metadata (" +
-          metadataFilePath + ") and vertices (" + verticesFilePath + ").");
+          metadataFilePath + ") and vertices (" +
+          (checkpointPartitionStore == null ? verticesFilePath :
+              checkpointPartitionStore) + ").");
     }
 
     getFs().createNewFile(validFilePath);
@@ -1301,6 +1320,102 @@ public class BspServiceWorker<I extends WritableComparable,
     }
   }
 
+  /**
+   * Write all partitions and their messages to the checkpoint vertices file.
+   *
+   * @param verticesFilePath Checkpoint vertices file
+   * @param metadataOutput Output for the partition metadata
+   * @throws IOException
+   */
+  private void storeCheckpointVertices(Path verticesFilePath,
+      DataOutput metadataOutput) throws IOException {
+    FSDataOutputStream verticesOutputStream =
+        getFs().create(verticesFilePath);
+    for (Integer partitionId : getPartitionStore().getPartitionIds()) {
+      Partition<I, V, E> partition =
+          getPartitionStore().getPartition(partitionId);
+      long startPos = verticesOutputStream.getPos();
+      partition.write(verticesOutputStream);
+      // write messages
+      getServerData().getCurrentMessageStore().writePartition(
+          verticesOutputStream, partition.getId());
+      // Write the metadata for this partition
+      // Format:
+      // <index count>
+      //   <index 0 start pos><partition id>
+      //   <index 1 start pos><partition id>
+      metadataOutput.writeLong(startPos);
+      metadataOutput.writeInt(partition.getId());
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("storeCheckpoint: Vertex file starting " +
+            "offset = " + startPos + ", length = " +
+            (verticesOutputStream.getPos() - startPos) +
+            ", partition = " + partition.toString());
+      }
+      getPartitionStore().putPartition(partition);
+      getContext().progress();
+    }
+    verticesOutputStream.close();
+  }
+
+  /**
+   * Write all partitions and their messages to the checkpoint partition
+   * store, using the compute threads.
+   *
+   * @param metadataOutput Output for the partition metadata
+   * @throws IOException
+   */
+  private void storeCheckpointPartitions(DataOutput metadataOutput)
+    throws IOException {
+    final long superstep = getSuperstep();
+    final int numPartitions = getPartitionStore().getNumPartitions();
+    int numThreads = Math.max(1, Math.min(
+        getConfiguration().getNumComputeThreads(), numPartitions));
+    final Queue<Integer> partitionIdQueue =
+        (numPartitions == 0) ? new LinkedList<Integer>() :
+            new ArrayBlockingQueue<Integer>(numPartitions);
+    Iterables.addAll(partitionIdQueue, getPartitionStore().getPartitionIds());
+    // Partitions are not in a file, so there is no start position
+    for (Integer partitionId : partitionIdQueue) {
+      metadataOutput.writeLong(-1);
+      metadataOutput.writeInt(partitionId);
+    }
+
+    CallableFactory<Void> callableFactory = new CallableFactory<Void>() {
+      @Override
+      public Callable<Void> newCallable(int callableId) {
+        return new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            while (true) {
+              Integer partitionId = partitionIdQueue.poll();
+              if (partitionId == null) {
+                break;
+              }
+              Partition<I, V, E> partition =
+                  getPartitionStore().getPartition(partitionId);
+              ExtendedDataOutput output =
+                  getConfiguration().createExtendedDataOutput();
+              partition.write(output);
+              getServerData().getCurrentMessageStore().writePartition(
+                  output, partitionId);
+              getPartitionStore().putPartition(partition);
+              checkpointPartitionStore.storePartition(superstep, partitionId,
+                  output.toByteArray());
+              if (LOG.isDebugEnabled()) {
+                LOG.debug("storeCheckpoint: Stored " + output.getPos() +
+                    " bytes for partition " + partitionId);
+              }
+            }
+            return null;
+          }
+        };
+      }
+    };
+    ProgressableUtils.getResultsWithNCallables(callableFactory, numThreads,
+        "checkpoint-partitions-%d", getContext());
+  }
+
   @Override
   public VertexEdgeCount loadCheckpoint(long superstep) {
     try {
@@ -1316,48 +1431,30 @@ public class BspServiceWorker<I extends WritableComparable,
     // Examine all the partition owners and load the ones
     // that match my hostname and id from the master designated checkpoint
     // prefixes.
-    long startPos = 0;
     int loadedPartitions = 0;
     for (PartitionOwner partitionOwner :
       workerGraphPartitioner.getPartitionOwners()) {
       if (partitionOwner.getWorkerInfo().equals(getWorkerInfo())) {
-        String metadataFile =
-            partitionOwner.getCheckpointFilesPrefix() +
-            CHECKPOINT_METADATA_POSTFIX;
-        String partitionsFile =
-            partitionOwner.getCheckpointFilesPrefix() +
-            CHECKPOINT_VERTICES_POSTFIX;
         try {
-          int partitionId = -1;
-          DataInputStream metadataStream =
-              getFs().open(new Path(metadataFile));
-          int partitions = metadataStream.readInt();
-          for (int i = 0; i < partitions; ++i) {
-            startPos = metadataStream.readLong();
-            partitionId = metadataStream.readInt();
-            if (partitionId == partitionOwner.getPartitionId()) {
-              break;
-            }
-          }
-          if (partitionId != partitionOwner.getPartitionId()) {
-            throw new IllegalStateException(
-                "loadCheckpoint: " + partitionOwner +
-                " not found!");
-          }
-          metadataStream.close();
+          int partitionId = partitionOwner.getPartitionId();
           Partition<I, V, E> partition =
               getConfiguration().createPartition(partitionId, getContext());
-          DataInputStream partitionsStream =
-              getFs().open(new Path(partitionsFile));
-          if (partitionsStream.skip(startPos) != startPos) {
-            throw new IllegalStateException(
-                "loadCheckpoint: Failed to skip " + startPos +
-                " on " + partitionsFile);
+          if (checkpointPartitionStore == null) {
+            loadCheckpointVertices(partitionOwner, partition);
+          } else {
+            byte[] data =
+                checkpointPartitionStore.loadPartition(superstep, partitionId);
+            if (data == null) {
+              throw new IllegalStateException("loadCheckpoint: Partition " +
+                  partitionId + " of superstep " + superstep +
+                  " not found in " + checkpointPartitionStore);
+            }
+            ExtendedDataInput input = getConfiguration().
+                createExtendedDataInput(data, 0, data.length);
+            partition.readFields(input);
+            getServerData().getIncomingMessageStore().readFieldsForPartition(
+                input, partitionId);
           }
-          partition.readFields(partitionsStream);
-          getServerData().getIncomingMessageStore().readFieldsForPartition(
-              partitionsStream, partitionId);
-          partitionsStream.close();
           if (LOG.isInfoEnabled()) {
             LOG.info("loadCheckpoint: Loaded partition " +
                 partition);
@@ -1413,6 +1510,53 @@ else[HADOOP_NON_SECURE]*/
         globalStats.getEdgeCount());
   }
 
+  /**
+   * Read a partition and its messages from the checkpoint vertices file of
+   * its owner.
+   *
+   * @param partitionOwner Owner of the partition, with the checkpoint prefix
+   * @param partition Partition to read into
+   * @throws IOException
+   */
+  private void loadCheckpointVertices(PartitionOwner partitionOwner,
+      Partition<I, V, E> partition) throws IOException {
+    String metadataFile =
+        partitionOwner.getCheckpointFilesPrefix() +
+        CHECKPOINT_METADATA_POSTFIX;
+    String partitionsFile =
+        partitionOwner.getCheckpointFilesPrefix() +
+        CHECKPOINT_VERTICES_POSTFIX;
+    long startPos = 0;
+    int partitionId = -1;
+    DataInputStream metadataStream =
+        getFs().open(new Path(metadataFile));
+    int partitions = metadataStream.readInt();
+    for (int i = 0; i < partitions; ++i) {
+      startPos = metadataStream.readLong();
+      partitionId = metadataStream.readInt();
+      if (partitionId == partitionOwner.getPartitionId()) {
+        break;
+      }
+    }
+    if (partitionId != partitionOwner.getPartitionId()) {
+      throw new IllegalStateException(
+          "loadCheckpoint: " + partitionOwner +
+          " not found!");
+    }
+    metadataStream.close();
+    DataInputStream partitionsStream =
+        getFs().open(new Path(partitionsFile));
+    if (partitionsStream.skip(startPos) != startPos) {
+      throw new IllegalStateException(
+          "loadCheckpoint: Failed to skip " + startPos +
+          " on " + partitionsFile);
+    }
+    partition.readFields(partitionsStream);
+    getServerData().getIncomingMessageStore().readFieldsForPartition(
+        partitionsStream, partitionId);
+    partitionsStream.close();
+  }
+
   /**
    * Send the worker partitions to their destination workers
    *
@@ -1492,6 +1636,7 @@ else[HADOOP_NON_SECURE]*/
         workerGraphPartitioner.updatePartitionOwners(
             getWorkerInfo(), masterSetPartitionOwners, getPartitionStore());
     workerClient.openConnections();
+    clearHubMirrorsIfPartitionsMoved(masterSetPartitionOwners);
 
     Map<WorkerInfo, List<Integer>> sendWorkerPartitionMap =
         partitionExchange.getSendWorkerPartitionMap();
@@ -1545,6 +1690,30 @@ else[HADOOP_NON_SECURE]*/
     }
   }
 
+  /**
+   * Drop the mirrors of hub vertices if any partition moved to another
+   * worker, since they group the targets by worker.  All the workers see
+   * the same partition owners, so they drop their mirrors together.
+   *
+   * @param masterSetPartitionOwners Partition owners set by the master
+   */
+  private void clearHubMirrorsIfPartitionsMoved(
+      Collection<? extends PartitionOwner> masterSetPartitionOwners) {
+    if (GiraphConstants.HUB_MIRROR_MIN_EDGES.get(getConfiguration()) <= 0) {
+      return;
+    }
+    for (PartitionOwner partitionOwner : masterSetPartitionOwners) {
+      if (partitionOwner.getPreviousWorkerInfo() != null) {
+        if (LOG.isInfoEnabled()) {
+          LOG.info("clearHubMirrorsIfPartitionsMoved: Partition " +
+              partitionOwner.getPartitionId() + " moved, dropping mirrors");
+        }
+        getServerData().getHubMirrorStore().clear();
+        return;
+      }
+    }
+  }
+
   /**
    * Get event when the state of a partition exchange has changed.
    *
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.worker;
+
+import java.io.IOException;
+
+/**
+ * Alternative backend for the partitions of a checkpoint. When one is
+ * configured, workers write the serialized partitions (vertices and their
+ * messages) to it instead of the checkpoint vertices file, and read them back
+ * from it on restart. Checkpoint metadata still goes to the checkpoint
+ * directory.
+ *
+ * Partitions are stored concurrently by several threads, so implementations
+ * must be thread-safe.
+ */
+public interface CheckpointPartitionStore {
+  /**
+   * Set the checkpoints this store holds, before any other call. Stores
+   * must keep the partitions of different checkpoint directories apart, so
+   * that jobs sharing a store don't overwrite each other's partitions.
+   *
+   * @param checkpointBasePath Checkpoint directory of the job, which
+   *        includes the job id unless set explicitly (to restart a job)
+   */
+  void initialize(String checkpointBasePath);
+
+  /**
+   * Store a serialized partition.
+   *
+   * @param superstep Superstep of the checkpoint
+   * @param partitionId Partition id
+   * @param data Partition vertices followed by its messages
+   * @throws IOException
+   */
+  void storePartition(long superstep, int partitionId, byte[] data)
+    throws IOException;
+
+  /**
+   * Load a partition previously stored.
+   *
+   * @param superstep Superstep of the checkpoint
+   * @param partitionId Partition id
+   * @return Partition vertices followed by its messages
+   * @throws IOException
+   */
+  byte[] loadPartition(long superstep, int partitionId) throws IOException;
+
+  /**
+   * Delete all the partitions stored for the checkpoint directory, when a
+   * successful job cleans up its checkpoints.
+   *
+   * @throws IOException
+   */
+  void deleteCheckpoints() throws IOException;
+}
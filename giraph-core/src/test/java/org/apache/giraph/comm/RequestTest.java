@@ -18,12 +18,15 @@
 
 package org.apache.giraph.comm;
 
+import org.apache.giraph.comm.compression.DeflateRequestCompressionCodec;
 import org.apache.giraph.comm.netty.NettyClient;
 import org.apache.giraph.comm.netty.NettyServer;
 import org.apache.giraph.comm.netty.handler.WorkerRequestServerHandler;
 import org.apache.giraph.comm.requests.SendPartitionMutationsRequest;
 import org.apache.giraph.comm.requests.SendVertexRequest;
 import org.apache.giraph.comm.requests.SendWorkerMessagesRequest;
+import org.apache.giraph.comm.requests.SendWorkerMirrorEdgesRequest;
+import org.apache.giraph.comm.requests.SendWorkerMirrorMessagesRequest;
 import org.apache.giraph.comm.requests.SendWorkerOneToAllMessagesRequest;
 import org.apache.giraph.conf.GiraphConfiguration;
 import org.apache.giraph.conf.GiraphConstants;
@@ -81,6 +84,15 @@ public class RequestTest {
     // Setup the conf
     GiraphConfiguration tmpConf = new GiraphConfiguration();
     GiraphConstants.COMPUTATION_CLASS.set(tmpConf, IntNoOpComputation.class);
+    startService(tmpConf);
+  }
+
+  /**
+   * Start the server and connect the client to it.
+   *
+   * @param tmpConf Configuration to use
+   */
+  private void startService(GiraphConfiguration tmpConf) throws IOException {
     conf = new ImmutableClassesGiraphConfiguration(tmpConf);
 
     @SuppressWarnings("rawtypes")
@@ -140,6 +152,41 @@ public class RequestTest {
 
   @Test
   public void sendWorkerMessagesRequest() throws IOException {
+    checkSendWorkerMessagesRequest(6);
+  }
+
+  @Test
+  public void sendCompressedWorkerMessagesRequest() throws IOException {
+    client.stop();
+    server.stop();
+    GiraphConfiguration tmpConf = new GiraphConfiguration();
+    GiraphConstants.COMPUTATION_CLASS.set(tmpConf, IntNoOpComputation.class);
+    GiraphConstants.NETTY_COMPRESSION_CODEC.set(tmpConf,
+        DeflateRequestCompressionCodec.class);
+    GiraphConstants.NETTY_COMPRESSION_MIN_REQUEST_SIZE.set(tmpConf, 0);
+    startService(tmpConf);
+    checkSendWorkerMessagesRequest(100);
+  }
+
+  @Test
+  public void sendDeltaEncodedWorkerMessagesRequest() throws IOException {
+    client.stop();
+    server.stop();
+    GiraphConfiguration tmpConf = new GiraphConfiguration();
+    GiraphConstants.COMPUTATION_CLASS.set(tmpConf, IntNoOpComputation.class);
+    GiraphConstants.MESSAGE_VERTEX_ID_DELTA_ENCODING.set(tmpConf, true);
+    startService(tmpConf);
+    checkSendWorkerMessagesRequest(100);
+  }
+
+  /**
+   * Send vertices 1..numVertices, with messages 0..i-1 to vertex i, and
+   * check that all of them are received.
+   *
+   * @param numVertices Number of vertices to send messages to
+   */
+  private void checkSendWorkerMessagesRequest(int numVertices)
+    throws IOException {
     // Data to send
     PairList<Integer, ByteArrayVertexIdMessages<IntWritable,
             IntWritable>>
@@ -154,10 +201,14 @@ public class RequestTest {
     vertexIdMessages.setConf(conf);
     vertexIdMessages.initialize();
     dataToSend.add(partitionId, vertexIdMessages);
-    for (int i = 1; i < 7; ++i) {
+    int expectedKeySum = 0;
+    int expectedMessageSum = 0;
+    for (int i = 1; i <= numVertices; ++i) {
       IntWritable vertexId = new IntWritable(i);
+      expectedKeySum += i;
       for (int j = 0; j < i; ++j) {
         vertexIdMessages.add(vertexId, new IntWritable(j));
+        expectedMessageSum += j;
       }
     }
 
@@ -187,8 +238,8 @@ public class RequestTest {
         }
       }
     }
-    assertEquals(21, keySum);
-    assertEquals(35, messageSum);
+    assertEquals(expectedKeySum, keySum);
+    assertEquals(expectedMessageSum, messageSum);
   }
 
   @Test
@@ -236,6 +287,56 @@ public class RequestTest {
     assertEquals(7, messageSum);
   }
 
+  @Test
+  public void sendWorkerMirrorMessagesRequest() throws IOException {
+    // Mirror the targets of hub 100
+    ExtendedDataOutput output = conf.createExtendedDataOutput();
+    for (int i = 1; i <= 7; ++i) {
+      IntWritable vertexId = new IntWritable(i);
+      vertexId.write(output);
+    }
+    client.sendWritableRequest(workerInfo.getTaskId(),
+        new SendWorkerMirrorEdgesRequest<IntWritable>(
+            new IntWritable(100), 7, output));
+    client.waitAllRequests();
+
+    // Send two messages from the hub
+    ByteArrayVertexIdMessages<IntWritable, IntWritable> hubMessages =
+        new ByteArrayVertexIdMessages<IntWritable, IntWritable>(
+            new TestMessageValueFactory<IntWritable>(IntWritable.class));
+    hubMessages.setConf(conf);
+    hubMessages.initialize();
+    hubMessages.add(new IntWritable(100), new IntWritable(1));
+    hubMessages.add(new IntWritable(100), new IntWritable(2));
+    client.sendWritableRequest(workerInfo.getTaskId(),
+        new SendWorkerMirrorMessagesRequest<IntWritable, IntWritable>(
+            hubMessages, conf));
+    client.waitAllRequests();
+
+    // Stop the service
+    client.stop();
+    server.stop();
+
+    // Check the output
+    Iterable<IntWritable> vertices =
+        serverData.getIncomingMessageStore().getPartitionDestinationVertices(0);
+    int keySum = 0;
+    int messageSum = 0;
+    for (IntWritable vertexId : vertices) {
+      keySum += vertexId.get();
+      Iterable<IntWritable> messages =
+          serverData.<IntWritable>getIncomingMessageStore().getVertexMessages(
+              vertexId);
+      synchronized (messages) {
+        for (IntWritable message : messages) {
+          messageSum += message.get();
+        }
+      }
+    }
+    assertEquals(28, keySum);
+    assertEquals(21, messageSum);
+  }
+
   @Test
   public void sendPartitionMutationsRequest() throws IOException {
     // Data to send
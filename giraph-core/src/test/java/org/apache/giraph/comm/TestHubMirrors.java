@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.comm;
+
+import org.apache.giraph.BspCase;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.io.formats.IntIntNullTextInputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+public class TestHubMirrors extends BspCase {
+  public TestHubMirrors() {
+    super(TestHubMirrors.class.getName());
+  }
+
+  /**
+   * Vertex 1 sends the superstep it sent in to all its edges, and in
+   * superstep 2 replaces its edge to vertex 4 by an edge to vertex 5.
+   * Every vertex keeps the largest message it got.
+   */
+  public static class HubEdgeSwapComputation extends BasicComputation<
+      IntWritable, IntWritable, NullWritable, IntWritable> {
+    @Override
+    public void compute(
+        Vertex<IntWritable, IntWritable, NullWritable> vertex,
+        Iterable<IntWritable> messages) {
+      if (getSuperstep() == 0) {
+        vertex.setValue(new IntWritable(0));
+      }
+      for (IntWritable message : messages) {
+        if (message.get() > vertex.getValue().get()) {
+          vertex.setValue(new IntWritable(message.get()));
+        }
+      }
+      if (vertex.getId().get() == 1 && getSuperstep() < 3) {
+        if (getSuperstep() == 2) {
+          vertex.removeEdges(new IntWritable(4));
+          vertex.addEdge(EdgeFactory.create(new IntWritable(5)));
+        }
+        sendMessageToAllEdges(vertex, new IntWritable((int) getSuperstep()));
+      } else {
+        vertex.voteToHalt();
+      }
+    }
+  }
+
+  @Test
+  public void testHubEdgeSwapSameNumberOfEdges() throws Exception {
+    String[] graph = {
+        "1 2 3 4",
+        "2",
+        "3",
+        "4",
+        "5"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(HubEdgeSwapComputation.class);
+    conf.setVertexInputFormatClass(IntIntNullTextInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    GiraphConstants.HUB_MIRROR_MIN_EDGES.set(conf, 3);
+    Iterable<String> results = InternalVertexRunner.run(conf, graph);
+
+    // The hub sent through its mirrors in superstep 1, and must not use
+    // them anymore after swapping an edge in superstep 2
+    Map<Integer, Integer> values = parseResults(results);
+    assertEquals(5, values.size());
+    assertEquals(2, (int) values.get(2));
+    assertEquals(2, (int) values.get(3));
+    assertEquals(1, (int) values.get(4));
+    assertEquals(2, (int) values.get(5));
+  }
+
+  private static Map<Integer, Integer> parseResults(Iterable<String> results) {
+    Map<Integer, Integer> values = Maps.newHashMap();
+    for (String line : results) {
+      String[] tokens = line.split("\\s+");
+      values.put(Integer.valueOf(tokens[0]), Integer.valueOf(tokens[1]));
+    }
+    return values;
+  }
+}
@@ -28,8 +28,8 @@ import org.apache.giraph.comm.messages.ByteArrayMessagesPerVertexStore;
 import org.apache.giraph.comm.messages.out_of_core.DiskBackedMessageStore;
 import org.apache.giraph.comm.messages.MessageStore;
 import org.apache.giraph.comm.messages.MessageStoreFactory;
+import org.apache.giraph.comm.messages.out_of_core.MappedFileMessageStore;
 import org.apache.giraph.comm.messages.out_of_core.PartitionDiskBackedMessageStore;
-import org.apache.giraph.comm.messages.out_of_core.SequentialFileMessageStore;
 import org.apache.giraph.conf.GiraphConfiguration;
 import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
@@ -38,6 +38,7 @@ import org.apache.giraph.utils.ByteArrayVertexIdMessages;
 import org.apache.giraph.utils.CollectionUtils;
 import org.apache.giraph.utils.IntNoOpComputation;
 import org.apache.giraph.utils.MockUtils;
+import org.apache.giraph.utils.io.DataInputOutput;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Writable;
@@ -55,13 +56,17 @@ import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.NavigableMap;
 import java.util.Random;
 import java.util.SortedMap;
 import java.util.TreeMap;
 import java.util.TreeSet;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 /** Test for different types of message stores */
@@ -97,7 +102,7 @@ public class TestMessageStores {
     testData.numVertices = 50;
     testData.numTimes = 10;
     testData.numOfPartitions = 5;
-    testData.maxMessagesInMemory = 20;
+    testData.maxMessageBytesInMemory = 200;
 
     service =
         MockUtils.mockServiceGetVertexPartitionOwner(testData.numOfPartitions);
@@ -115,7 +120,7 @@ public class TestMessageStores {
     int maxId;
     int maxMessage;
     int numOfPartitions;
-    int maxMessagesInMemory;
+    long maxMessageBytesInMemory;
   }
 
   private SortedMap<IntWritable, Collection<IntWritable>> createRandomMessages(
@@ -265,17 +270,59 @@ public class TestMessageStores {
   public void testDiskBackedMessageStoreByPartition() {
     try {
       MessageStoreFactory<IntWritable, IntWritable,
-          SequentialFileMessageStore<IntWritable, IntWritable>>
+          MappedFileMessageStore<IntWritable, IntWritable>>
           fileStoreFactory =
-          SequentialFileMessageStore.newFactory(config);
+          MappedFileMessageStore.newFactory(config);
       MessageStoreFactory<IntWritable, IntWritable,
           PartitionDiskBackedMessageStore<IntWritable, IntWritable>>
           partitionStoreFactory =
           PartitionDiskBackedMessageStore.newFactory(config, fileStoreFactory);
       testMessageStore(DiskBackedMessageStore.newFactory(service,
-          testData.maxMessagesInMemory, partitionStoreFactory), testData);
+          testData.maxMessageBytesInMemory, partitionStoreFactory), testData);
     } catch (IOException e) {
       e.printStackTrace();
     }
   }
+
+  @Test
+  public void testMappedFileMessageStoreLookups() throws IOException {
+    NavigableMap<IntWritable, DataInputOutput> messageMap =
+        new TreeMap<IntWritable, DataInputOutput>();
+    for (int id = 0; id < 100; id += 2) {
+      DataInputOutput messages = config.createMessagesInputOutput();
+      for (int m = 0; m <= id % 3; m++) {
+        new IntWritable(id * 10 + m).write(messages.getDataOutput());
+      }
+      messageMap.put(new IntWritable(id), messages);
+    }
+    MappedFileMessageStore<IntWritable, IntWritable> fileStore =
+        MappedFileMessageStore.<IntWritable, IntWritable>newFactory(config)
+            .newStore(new TestMessageValueFactory<IntWritable>(
+                IntWritable.class));
+    fileStore.addMessages(messageMap);
+
+    List<Integer> ids = Lists.newArrayList();
+    for (int id = -1; id <= 100; id++) {
+      ids.add(id);
+    }
+    // Lookups in order of vertex ids first, then in random order
+    for (int pass = 0; pass < 2; pass++) {
+      for (int id : ids) {
+        List<Integer> expected = Lists.newArrayList();
+        if (id >= 0 && id < 100 && id % 2 == 0) {
+          for (int m = 0; m <= id % 3; m++) {
+            expected.add(id * 10 + m);
+          }
+        }
+        List<Integer> actual = Lists.newArrayList();
+        for (IntWritable message :
+            fileStore.getVertexMessages(new IntWritable(id))) {
+          actual.add(message.get());
+        }
+        assertEquals("Messages of vertex " + id, expected, actual);
+      }
+      Collections.shuffle(ids, RANDOM);
+    }
+    fileStore.clearAll();
+  }
 }
@@ -46,6 +46,8 @@ import junit.framework.Assert;
 
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class TestLongDoublePrimitiveMessageStores {
   private static final int NUM_PARTITIONS = 2;
@@ -141,6 +143,24 @@ public class TestLongDoublePrimitiveMessageStores {
         Iterables.isEmpty(messageStore.getVertexMessages(new LongWritable(3))));
   }
 
+  @Test
+  public void testLongDoubleMessageStoreReusesMessages() throws IOException {
+    LongDoubleMessageStore messageStore =
+        new LongDoubleMessageStore(service, new DoubleSumCombiner());
+    insertLongDoubleMessages(messageStore);
+
+    Iterable<DoubleWritable> m0 =
+        messageStore.getVertexMessages(new LongWritable(0));
+    DoubleWritable message0 = m0.iterator().next();
+    Assert.assertEquals(10.0, message0.get());
+    Iterable<DoubleWritable> m1 =
+        messageStore.getVertexMessages(new LongWritable(1));
+    Assert.assertSame(m0, m1);
+    Assert.assertSame(message0, m1.iterator().next());
+    Assert.assertEquals(8.0, message0.get());
+    Assert.assertEquals(1, Iterables.size(m1));
+  }
+
   @Test
   public void testLongByteArrayMessageStore() throws IOException {
     LongByteArrayMessageStore<DoubleWritable> messageStore =
@@ -170,4 +190,60 @@ public class TestLongDoublePrimitiveMessageStores {
     Assert.assertTrue(
         Iterables.isEmpty(messageStore.getVertexMessages(new LongWritable(3))));
   }
+
+  @Test
+  public void testLongDoubleMessageStoreChunkedCompute() throws Exception {
+    final LongDoubleMessageStore messageStore =
+        new LongDoubleMessageStore(service, new DoubleSumCombiner());
+    final int numVertices = 100000;
+    final int chunkSize = 100;
+    ByteArrayVertexIdMessages<LongWritable, DoubleWritable> messages =
+        createLongDoubleMessages();
+    for (int i = 0; i < numVertices; i++) {
+      messages.add(new LongWritable(i * NUM_PARTITIONS),
+          new DoubleWritable(i));
+    }
+    messageStore.addPartitionMessages(0, messages);
+
+    // Compute threads take chunks of the same partition, getting and
+    // clearing the messages of their vertices concurrently
+    final AtomicInteger nextChunk = new AtomicInteger();
+    final AtomicInteger lostMessages = new AtomicInteger();
+    List<Thread> threads = Lists.newArrayList();
+    for (int t = 0; t < 4; t++) {
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          LongWritable vertexId = new LongWritable();
+          int start;
+          while ((start = nextChunk.getAndAdd(chunkSize)) < numVertices) {
+            for (int i = start; i < start + chunkSize; i++) {
+              vertexId.set(i * NUM_PARTITIONS);
+              try {
+                Iterable<DoubleWritable> vertexMessages =
+                    messageStore.getVertexMessages(vertexId);
+                if (!messageStore.hasMessagesForVertex(vertexId) ||
+                    Iterables.isEmpty(vertexMessages) ||
+                    vertexMessages.iterator().next().get() != i) {
+                  lostMessages.incrementAndGet();
+                }
+                messageStore.clearVertexMessages(vertexId);
+              } catch (IOException e) {
+                throw new IllegalStateException(e);
+              }
+            }
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    Assert.assertEquals(0, lostMessages.get());
+    Assert.assertTrue(
+        Iterables.isEmpty(messageStore.getPartitionDestinationVertices(0)));
+  }
 }
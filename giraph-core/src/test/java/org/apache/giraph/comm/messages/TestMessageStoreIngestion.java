@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.comm.messages;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.DoubleSumCombiner;
+import org.apache.giraph.comm.messages.primitives.LongByteArrayMessageStore;
+import org.apache.giraph.comm.messages.primitives.LongDoubleMessageStore;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.factories.TestMessageValueFactory;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.partition.Partition;
+import org.apache.giraph.partition.PartitionStore;
+import org.apache.giraph.time.SystemTime;
+import org.apache.giraph.time.Time;
+import org.apache.giraph.time.Times;
+import org.apache.giraph.utils.ByteArrayVertexIdMessages;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.log4j.Logger;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Benchmark tests of several threads adding message batches to the same
+ * partition of the primitive message stores, with and without lock stripes
+ */
+public class TestMessageStoreIngestion {
+  private static final Logger LOG =
+      Logger.getLogger(TestMessageStoreIngestion.class);
+  private static final Time TIME = SystemTime.get();
+  private static final int NUM_THREADS = 4;
+  private static final int NUM_BATCHES_PER_THREAD = 100;
+  private static final int NUM_MESSAGES_PER_BATCH = 2000;
+  private static final int NUM_VERTICES = 50000;
+  private static CentralizedServiceWorker<LongWritable, ?, ?> service;
+  /** Number of messages added for each vertex */
+  private int[] expectedCounts;
+  /** Sum of the messages added for each vertex */
+  private double[] expectedSums;
+
+  @Before
+  public void prepare() throws IOException {
+    expectedCounts = new int[NUM_VERTICES];
+    expectedSums = new double[NUM_VERTICES];
+    service = Mockito.mock(CentralizedServiceWorker.class);
+    Mockito.when(service.getPartitionId(Mockito.any(LongWritable.class)))
+        .thenReturn(0);
+    PartitionStore partitionStore = Mockito.mock(PartitionStore.class);
+    Mockito.when(service.getPartitionStore()).thenReturn(partitionStore);
+    Mockito.when(partitionStore.getPartitionIds()).thenReturn(
+        Lists.newArrayList(0));
+    Partition partition = Mockito.mock(Partition.class);
+    Mockito.when(partition.getVertexCount()).thenReturn(
+        Long.valueOf(NUM_VERTICES));
+    Mockito.when(partitionStore.getPartition(0)).thenReturn(partition);
+  }
+
+  private static class LongDoubleNoOpComputation extends
+      BasicComputation<LongWritable, NullWritable, NullWritable,
+          DoubleWritable> {
+    @Override
+    public void compute(Vertex<LongWritable, NullWritable, NullWritable> vertex,
+        Iterable<DoubleWritable> messages) throws IOException {
+    }
+  }
+
+  private static ImmutableClassesGiraphConfiguration<LongWritable, ?, ?>
+  createConf(int numStripes) {
+    GiraphConfiguration initConf = new GiraphConfiguration();
+    initConf.setComputationClass(LongDoubleNoOpComputation.class);
+    GiraphConstants.MESSAGE_STORE_LOCK_STRIPES.set(initConf, numStripes);
+    return new ImmutableClassesGiraphConfiguration(initConf);
+  }
+
+  /**
+   * Create the batches which a thread adds, all to partition 0, and record
+   * the messages each vertex should get.  The messages of a thread are all
+   * thread + 1, so that the sums differ from the counts.
+   */
+  private List<ByteArrayVertexIdMessages<LongWritable,
+      DoubleWritable>> createBatches(int thread) {
+    Random random = new Random(thread);
+    List<ByteArrayVertexIdMessages<LongWritable, DoubleWritable>> batches =
+        Lists.newArrayListWithCapacity(NUM_BATCHES_PER_THREAD);
+    for (int b = 0; b < NUM_BATCHES_PER_THREAD; b++) {
+      ByteArrayVertexIdMessages<LongWritable, DoubleWritable> messages =
+          new ByteArrayVertexIdMessages<LongWritable, DoubleWritable>(
+              new TestMessageValueFactory<DoubleWritable>(
+                  DoubleWritable.class));
+      messages.setConf(createConf(1));
+      messages.initialize();
+      for (int i = 0; i < NUM_MESSAGES_PER_BATCH; i++) {
+        int vertexId = random.nextInt(NUM_VERTICES);
+        messages.add(new LongWritable(vertexId),
+            new DoubleWritable(thread + 1));
+        expectedCounts[vertexId]++;
+        expectedSums[vertexId] += thread + 1;
+      }
+      batches.add(messages);
+    }
+    return batches;
+  }
+
+  /**
+   * Add the batches from all threads at once and log the time taken.
+   */
+  private void addConcurrently(String name,
+      final MessageStore<LongWritable, DoubleWritable> messageStore)
+      throws Exception {
+    final List<List<ByteArrayVertexIdMessages<LongWritable,
+        DoubleWritable>>> threadBatches = Lists.newArrayList();
+    for (int t = 0; t < NUM_THREADS; t++) {
+      threadBatches.add(createBatches(t));
+    }
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    List<Future<Void>> futures = Lists.newArrayList();
+    for (int t = 0; t < NUM_THREADS; t++) {
+      final int thread = t;
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          start.await();
+          for (ByteArrayVertexIdMessages<LongWritable, DoubleWritable>
+              messages : threadBatches.get(thread)) {
+            messageStore.addPartitionMessages(0, messages);
+          }
+          return null;
+        }
+      }));
+    }
+    long startNanos = TIME.getNanoseconds();
+    start.countDown();
+    for (Future<Void> future : futures) {
+      future.get();
+    }
+    long totalNanos = Times.getNanosSince(TIME, startNanos);
+    executor.shutdown();
+    long numMessages =
+        (long) NUM_THREADS * NUM_BATCHES_PER_THREAD * NUM_MESSAGES_PER_BATCH;
+    if (LOG.isDebugEnabled()) {
+      LOG.debug(name + ": took " + totalNanos + " ns for " +
+          numMessages + " messages from " + NUM_THREADS + " threads " +
+          (totalNanos * 1f / numMessages) + " ns / message");
+    }
+  }
+
+  /**
+   * Check that exactly the vertices which were sent messages are
+   * destinations of partition 0.
+   */
+  private void checkDestinations(
+      MessageStore<LongWritable, DoubleWritable> messageStore) {
+    int numDestinations = 0;
+    for (int count : expectedCounts) {
+      if (count > 0) {
+        numDestinations++;
+      }
+    }
+    assertEquals(numDestinations, Iterables.size(
+        messageStore.getPartitionDestinationVertices(0)));
+  }
+
+  /**
+   * Check the combined message of each vertex.
+   */
+  private void checkCombinedMessages(LongDoubleMessageStore messageStore)
+      throws IOException {
+    checkDestinations(messageStore);
+    for (int i = 0; i < NUM_VERTICES; i++) {
+      LongWritable vertexId = new LongWritable(i);
+      Iterable<DoubleWritable> messages =
+          messageStore.getVertexMessages(vertexId);
+      if (expectedCounts[i] == 0) {
+        assertFalse(messageStore.hasMessagesForVertex(vertexId));
+        assertEquals(0, Iterables.size(messages));
+      } else {
+        assertEquals(expectedSums[i],
+            Iterables.getOnlyElement(messages).get(), 0d);
+      }
+    }
+  }
+
+  /**
+   * Check the number and sum of the messages of each vertex.
+   */
+  private void checkMessages(
+      LongByteArrayMessageStore<DoubleWritable> messageStore)
+      throws IOException {
+    checkDestinations(messageStore);
+    for (int i = 0; i < NUM_VERTICES; i++) {
+      int count = 0;
+      double sum = 0;
+      for (DoubleWritable message :
+          messageStore.getVertexMessages(new LongWritable(i))) {
+        count++;
+        sum += message.get();
+      }
+      assertEquals(expectedCounts[i], count);
+      assertEquals(expectedSums[i], sum, 0d);
+    }
+  }
+
+  @Test
+  public void testLongDoubleSingleStripe() throws Exception {
+    LongDoubleMessageStore messageStore =
+        new LongDoubleMessageStore(service, new DoubleSumCombiner(), 1);
+    addConcurrently("testLongDoubleSingleStripe", messageStore);
+    checkCombinedMessages(messageStore);
+  }
+
+  @Test
+  public void testLongDoubleStriped() throws Exception {
+    LongDoubleMessageStore messageStore = new LongDoubleMessageStore(
+        service, new DoubleSumCombiner(), 4 * NUM_THREADS);
+    addConcurrently("testLongDoubleStriped", messageStore);
+    checkCombinedMessages(messageStore);
+  }
+
+  @Test
+  public void testLongByteArraySingleStripe() throws Exception {
+    LongByteArrayMessageStore<DoubleWritable> messageStore =
+        new LongByteArrayMessageStore<DoubleWritable>(
+            new TestMessageValueFactory<DoubleWritable>(DoubleWritable.class),
+            service, createConf(1));
+    addConcurrently("testLongByteArraySingleStripe", messageStore);
+    checkMessages(messageStore);
+  }
+
+  @Test
+  public void testLongByteArrayStriped() throws Exception {
+    LongByteArrayMessageStore<DoubleWritable> messageStore =
+        new LongByteArrayMessageStore<DoubleWritable>(
+            new TestMessageValueFactory<DoubleWritable>(DoubleWritable.class),
+            service, createConf(4 * NUM_THREADS));
+    addConcurrently("testLongByteArrayStriped", messageStore);
+    checkMessages(messageStore);
+  }
+}
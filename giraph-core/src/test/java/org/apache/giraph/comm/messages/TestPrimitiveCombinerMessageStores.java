@@ -0,0 +1,288 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.comm.messages;
+
+import org.apache.giraph.bsp.CentralizedServiceWorker;
+import org.apache.giraph.combiner.MinimumLongCombiner;
+import org.apache.giraph.comm.messages.primitives.LongLongMessageStore;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.factories.TestMessageValueFactory;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.partition.BasicPartitionOwner;
+import org.apache.giraph.partition.Partition;
+import org.apache.giraph.partition.PartitionOwner;
+import org.apache.giraph.partition.PartitionStore;
+import org.apache.giraph.utils.ByteArrayVertexIdMessages;
+import org.apache.giraph.utils.UnsafeByteArrayInputStream;
+import org.apache.giraph.utils.UnsafeByteArrayOutputStream;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+
+import junit.framework.Assert;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class TestPrimitiveCombinerMessageStores {
+  private static final int NUM_PARTITIONS = 2;
+  private static CentralizedServiceWorker<LongWritable, ?, ?> service;
+
+  @Before
+  public void prepare() throws IOException {
+    service = Mockito.mock(CentralizedServiceWorker.class);
+    Mockito.when(
+        service.getPartitionId(Mockito.any(LongWritable.class))).thenAnswer(
+        new Answer<Integer>() {
+          @Override
+          public Integer answer(InvocationOnMock invocation) {
+            LongWritable vertexId = (LongWritable) invocation.getArguments()[0];
+            return (int) (vertexId.get() % NUM_PARTITIONS);
+          }
+        }
+    );
+    PartitionStore partitionStore = Mockito.mock(PartitionStore.class);
+    Mockito.when(service.getPartitionStore()).thenReturn(partitionStore);
+    Mockito.when(partitionStore.getPartitionIds()).thenReturn(
+        Lists.newArrayList(0, 1));
+    Partition partition = Mockito.mock(Partition.class);
+    Mockito.when(partition.getVertexCount()).thenReturn(Long.valueOf(1));
+    Mockito.when(partitionStore.getPartition(0)).thenReturn(partition);
+    Mockito.when(partitionStore.getPartition(1)).thenReturn(partition);
+  }
+
+  private static class LongLongNoOpComputation extends
+      BasicComputation<LongWritable, NullWritable, NullWritable,
+          LongWritable> {
+    @Override
+    public void compute(Vertex<LongWritable, NullWritable, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+    }
+  }
+
+  private static ImmutableClassesGiraphConfiguration<LongWritable, ?, ?>
+  createLongLongConf(boolean usePrimitiveStores) {
+    GiraphConfiguration initConf = new GiraphConfiguration();
+    initConf.setComputationClass(LongLongNoOpComputation.class);
+    initConf.setCombinerClass(MinimumLongCombiner.class);
+    GiraphConstants.USE_PRIMITIVE_COMBINER_MESSAGE_STORES.set(initConf,
+        usePrimitiveStores);
+    return new ImmutableClassesGiraphConfiguration(initConf);
+  }
+
+  private static ByteArrayVertexIdMessages<LongWritable, LongWritable>
+  createLongLongMessages() {
+    ByteArrayVertexIdMessages<LongWritable, LongWritable> messages =
+        new ByteArrayVertexIdMessages<LongWritable, LongWritable>(
+            new TestMessageValueFactory<LongWritable>(LongWritable.class));
+    messages.setConf(createLongLongConf(true));
+    messages.initialize();
+    return messages;
+  }
+
+  @Test
+  public void testFactoryPicksPrimitiveStore() {
+    InMemoryMessageStoreFactory<LongWritable, LongWritable> factory =
+        new InMemoryMessageStoreFactory<LongWritable, LongWritable>(service,
+            createLongLongConf(true));
+    Assert.assertTrue(factory.newStore(
+        new TestMessageValueFactory<LongWritable>(LongWritable.class))
+        instanceof LongLongMessageStore);
+
+    factory = new InMemoryMessageStoreFactory<LongWritable, LongWritable>(
+        service, createLongLongConf(false));
+    Assert.assertTrue(factory.newStore(
+        new TestMessageValueFactory<LongWritable>(LongWritable.class))
+        instanceof OneMessagePerVertexStore);
+  }
+
+  @Test
+  public void testLongLongMessageStore() throws IOException {
+    LongLongMessageStore messageStore =
+        new LongLongMessageStore(service, new MinimumLongCombiner());
+    ByteArrayVertexIdMessages<LongWritable, LongWritable> messages =
+        createLongLongMessages();
+    messages.add(new LongWritable(0), new LongWritable(7));
+    messages.add(new LongWritable(2), new LongWritable(3));
+    messages.add(new LongWritable(0), new LongWritable(4));
+    messageStore.addPartitionMessages(0, messages);
+    messages = createLongLongMessages();
+    messages.add(new LongWritable(1), new LongWritable(Long.MAX_VALUE));
+    messageStore.addPartitionMessages(1, messages);
+
+    Assert.assertEquals(4,
+        messageStore.getVertexMessages(new LongWritable(0)).iterator().next()
+            .get());
+    Assert.assertEquals(Long.MAX_VALUE,
+        messageStore.getVertexMessages(new LongWritable(1)).iterator().next()
+            .get());
+    Assert.assertTrue(
+        Iterables.isEmpty(messageStore.getVertexMessages(new LongWritable(3))));
+    Assert.assertEquals(2,
+        Iterables.size(messageStore.getPartitionDestinationVertices(0)));
+
+    UnsafeByteArrayOutputStream out = new UnsafeByteArrayOutputStream();
+    messageStore.writePartition(out, 0);
+    LongLongMessageStore readStore =
+        new LongLongMessageStore(service, new MinimumLongCombiner());
+    readStore.readFieldsForPartition(
+        new UnsafeByteArrayInputStream(out.getByteArray(), 0, out.getPos()),
+        0);
+    Assert.assertEquals(3,
+        readStore.getVertexMessages(new LongWritable(2)).iterator().next()
+            .get());
+    Assert.assertTrue(readStore.hasMessagesForVertex(new LongWritable(0)));
+
+    messageStore.clearVertexMessages(new LongWritable(0));
+    Assert.assertFalse(messageStore.hasMessagesForVertex(new LongWritable(0)));
+  }
+
+  @Test
+  public void testLongLongMessageStoreConcurrentStripes() throws Exception {
+    final int numThreads = 4;
+    final int numVertices = 100;
+    final LongLongMessageStore messageStore =
+        new LongLongMessageStore(service, new MinimumLongCombiner(), 3);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<Void>> futures = Lists.newArrayList();
+    for (int t = 0; t < numThreads; t++) {
+      final int thread = t;
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          for (int batch = 0; batch < 10; batch++) {
+            ByteArrayVertexIdMessages<LongWritable, LongWritable> messages =
+                createLongLongMessages();
+            for (int i = 0; i < numVertices; i++) {
+              messages.add(new LongWritable(2 * i),
+                  new LongWritable(1000 + thread * 10 + batch + i));
+            }
+            messageStore.addPartitionMessages(0, messages);
+          }
+          return null;
+        }
+      }));
+    }
+    for (Future<Void> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+
+    Assert.assertEquals(numVertices,
+        Iterables.size(messageStore.getPartitionDestinationVertices(0)));
+    for (int i = 0; i < numVertices; i++) {
+      Assert.assertEquals(1000 + i, messageStore.getVertexMessages(
+          new LongWritable(2 * i)).iterator().next().get());
+    }
+
+    // Stripe count isn't part of the serialized partition
+    UnsafeByteArrayOutputStream out = new UnsafeByteArrayOutputStream();
+    messageStore.writePartition(out, 0);
+    LongLongMessageStore readStore =
+        new LongLongMessageStore(service, new MinimumLongCombiner());
+    readStore.readFieldsForPartition(
+        new UnsafeByteArrayInputStream(out.getByteArray(), 0, out.getPos()),
+        0);
+    for (int i = 0; i < numVertices; i++) {
+      Assert.assertEquals(1000 + i, readStore.getVertexMessages(
+          new LongWritable(2 * i)).iterator().next().get());
+    }
+  }
+
+  @Test
+  public void testDirectAddCopiesReusedObjects() throws IOException {
+    Mockito.when(service.getVertexPartitionOwner(
+        Mockito.any(LongWritable.class))).thenAnswer(
+        new Answer<PartitionOwner>() {
+          @Override
+          public PartitionOwner answer(InvocationOnMock invocation) {
+            LongWritable vertexId = (LongWritable) invocation.getArguments()[0];
+            return new BasicPartitionOwner(
+                (int) (vertexId.get() % NUM_PARTITIONS), null);
+          }
+        }
+    );
+    LongLongMessageStore primitiveStore =
+        new LongLongMessageStore(service, new MinimumLongCombiner(), 2);
+    InMemoryMessageStoreFactory<LongWritable, LongWritable> factory =
+        new InMemoryMessageStoreFactory<LongWritable, LongWritable>(service,
+            createLongLongConf(false));
+    DirectMessageStore<LongWritable, LongWritable> objectStore =
+        (DirectMessageStore<LongWritable, LongWritable>) factory.newStore(
+            new TestMessageValueFactory<LongWritable>(LongWritable.class));
+
+    for (DirectMessageStore<LongWritable, LongWritable> messageStore :
+        Lists.newArrayList(primitiveStore, objectStore)) {
+      // Callers reuse the id and message objects between sends
+      LongWritable vertexId = new LongWritable();
+      LongWritable message = new LongWritable();
+      long[][] sends = {{0, 7}, {2, 3}, {0, 4}, {1, 9}, {2, 5}};
+      for (long[] send : sends) {
+        vertexId.set(send[0]);
+        message.set(send[1]);
+        messageStore.addMessage((int) (send[0] % NUM_PARTITIONS), vertexId,
+            message);
+      }
+      vertexId.set(100);
+      message.set(-1);
+
+      Assert.assertEquals(4, messageStore.getVertexMessages(
+          new LongWritable(0)).iterator().next().get());
+      Assert.assertEquals(9, messageStore.getVertexMessages(
+          new LongWritable(1)).iterator().next().get());
+      Assert.assertEquals(3, messageStore.getVertexMessages(
+          new LongWritable(2)).iterator().next().get());
+      Assert.assertEquals(2,
+          Iterables.size(messageStore.getPartitionDestinationVertices(0)));
+    }
+  }
+
+  @Test
+  public void testRemoveVertexMessages() throws IOException {
+    LongLongMessageStore messageStore =
+        new LongLongMessageStore(service, new MinimumLongCombiner(), 2);
+    messageStore.addMessage(0, new LongWritable(0), new LongWritable(5));
+    messageStore.addMessage(1, new LongWritable(1), new LongWritable(6));
+
+    Assert.assertEquals(5, messageStore.removeVertexMessages(
+        new LongWritable(0)).iterator().next().get());
+    Assert.assertFalse(messageStore.hasMessagesForVertex(new LongWritable(0)));
+    Assert.assertTrue(Iterables.isEmpty(
+        messageStore.removeVertexMessages(new LongWritable(0))));
+    // Messages added after removal are kept for the next removal
+    messageStore.addMessage(0, new LongWritable(0), new LongWritable(8));
+    Assert.assertEquals(8, messageStore.getVertexMessages(
+        new LongWritable(0)).iterator().next().get());
+    Assert.assertEquals(6, messageStore.getVertexMessages(
+        new LongWritable(1)).iterator().next().get());
+  }
+}
@@ -0,0 +1,97 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.graph;
+
+import org.apache.giraph.partition.Partition;
+import org.apache.giraph.partition.PartitionStats;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.collect.Iterators;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the bookkeeping of the threads working on a partition.
+ */
+public class TestPartitionComputeWork {
+  /** Partition to compute */
+  private Partition<IntWritable, IntWritable, NullWritable> partition;
+
+  @Before
+  public void setUp() {
+    partition = Mockito.mock(Partition.class);
+    Mockito.when(partition.getId()).thenReturn(0);
+    Mockito.when(partition.iterator()).thenReturn(Iterators.
+        <Vertex<IntWritable, IntWritable, NullWritable>>emptyIterator());
+  }
+
+  private static PartitionStats newThreadStats() {
+    return new PartitionStats(0, 1, 0, 0, 0, 0);
+  }
+
+  @Test
+  public void testLastThreadToLeave() {
+    PartitionComputeWork<IntWritable, IntWritable, NullWritable> work =
+        new PartitionComputeWork<IntWritable, IntWritable, NullWritable>(
+            partition, 10, false);
+    assertTrue(work.join());
+    assertNull(work.leave(newThreadStats()));
+    assertFalse(work.join());
+    PartitionStats stats = work.leave(newThreadStats());
+    assertNotNull(stats);
+    assertEquals(2, stats.getVertexCount());
+  }
+
+  @Test
+  public void testAbortedThreadIsNotLast() {
+    PartitionComputeWork<IntWritable, IntWritable, NullWritable> work =
+        new PartitionComputeWork<IntWritable, IntWritable, NullWritable>(
+            partition, 10, false);
+    assertTrue(work.join());
+    assertFalse(work.abort());
+    assertFalse(work.join());
+    assertNotNull(work.leave(newThreadStats()));
+  }
+
+  @Test
+  public void testAbortedThreadIsLast() {
+    PartitionComputeWork<IntWritable, IntWritable, NullWritable> work =
+        new PartitionComputeWork<IntWritable, IntWritable, NullWritable>(
+            partition, 10, false);
+    assertTrue(work.join());
+    assertNull(work.leave(newThreadStats()));
+    assertTrue(work.abort());
+  }
+
+  @Test
+  public void testAbortUnsharedPartition() {
+    PartitionComputeWork<IntWritable, IntWritable, NullWritable> work =
+        new PartitionComputeWork<IntWritable, IntWritable, NullWritable>(
+            partition, 0, false);
+    assertTrue(work.abort());
+  }
+}
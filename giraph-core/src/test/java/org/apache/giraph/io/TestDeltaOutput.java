@@ -0,0 +1,181 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.io;
+
+import org.apache.giraph.BspCase;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.io.formats.IntIntTextVertexValueInputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class TestDeltaOutput extends BspCase {
+  public TestDeltaOutput() {
+    super(TestDeltaOutput.class.getName());
+  }
+
+  /**
+   * Multiplies the value of even vertices by 10, and sets the value of odd
+   * vertices to what it already is.
+   */
+  public static class EvenChangingComputation extends BasicComputation<
+      IntWritable, IntWritable, NullWritable, NullWritable> {
+    @Override
+    public void compute(
+        Vertex<IntWritable, IntWritable, NullWritable> vertex,
+        Iterable<NullWritable> messages) {
+      int value = vertex.getValue().get();
+      if (vertex.getId().get() % 2 == 0) {
+        vertex.setValue(new IntWritable(value * 10));
+      } else {
+        vertex.setValue(new IntWritable(value));
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Only mutates the graph: vertex 1 adds vertex 10, vertex 2 removes vertex
+   * 3 and vertex 4 adds an edge to itself. No value is changed.
+   */
+  public static class MutatingComputation extends BasicComputation<
+      IntWritable, IntWritable, NullWritable, NullWritable> {
+    @Override
+    public void compute(
+        Vertex<IntWritable, IntWritable, NullWritable> vertex,
+        Iterable<NullWritable> messages) throws IOException {
+      if (getSuperstep() == 0) {
+        switch (vertex.getId().get()) {
+        case 1:
+          addVertexRequest(new IntWritable(10), new IntWritable(100));
+          break;
+        case 2:
+          removeVertexRequest(new IntWritable(3));
+          break;
+        case 4:
+          addEdgeRequest(vertex.getId(),
+              EdgeFactory.create(new IntWritable(4)));
+          break;
+        default:
+          break;
+        }
+      } else {
+        // Halt after the mutations were resolved
+        vertex.voteToHalt();
+      }
+    }
+  }
+
+  /**
+   * Output format remembering the vertices it is asked to remove.
+   */
+  public static class RemovalRecordingOutputFormat extends
+      IdWithValueTextOutputFormat<IntWritable, IntWritable, NullWritable> {
+    /** Ids of the removed vertices */
+    private static final Set<Integer> REMOVED_IDS =
+        Collections.synchronizedSet(Sets.<Integer>newHashSet());
+
+    @Override
+    public TextVertexWriter createVertexWriter(TaskAttemptContext context) {
+      return new IdWithValueVertexWriter() {
+        @Override
+        public void removeVertex(IntWritable vertexId) {
+          REMOVED_IDS.add(vertexId.get());
+        }
+      };
+    }
+  }
+
+  @Test
+  public void testOnlyChangedVerticesSaved() throws Exception {
+    String[] vertices = new String[] {
+        "1 1",
+        "2 2",
+        "3 3",
+        "4 4"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(EvenChangingComputation.class);
+    conf.setVertexInputFormatClass(IntIntTextVertexValueInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    GiraphConstants.DELTA_OUTPUT.set(conf, true);
+    Iterable<String> results = InternalVertexRunner.run(conf, vertices);
+
+    Map<Integer, Integer> values = parseResults(results);
+
+    assertEquals(2, values.size());
+    assertEquals(20, (int) values.get(2));
+    assertEquals(40, (int) values.get(4));
+  }
+
+  @Test
+  public void testMutatedVerticesSaved() throws Exception {
+    String[] vertices = new String[] {
+        "1 1",
+        "2 2",
+        "3 3",
+        "4 4"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(MutatingComputation.class);
+    conf.setVertexInputFormatClass(IntIntTextVertexValueInputFormat.class);
+    conf.setVertexOutputFormatClass(RemovalRecordingOutputFormat.class);
+    GiraphConstants.DELTA_OUTPUT.set(conf, true);
+    RemovalRecordingOutputFormat.REMOVED_IDS.clear();
+    Iterable<String> results = InternalVertexRunner.run(conf, vertices);
+
+    Map<Integer, Integer> values = parseResults(results);
+
+    // The created vertex and the one with a new edge are saved
+    assertEquals(2, values.size());
+    assertEquals(100, (int) values.get(10));
+    assertEquals(4, (int) values.get(4));
+    assertFalse(values.containsKey(3));
+    assertEquals(Collections.singleton(3),
+        RemovalRecordingOutputFormat.REMOVED_IDS);
+  }
+
+  private static Map<Integer, Integer> parseResults(Iterable<String> results) {
+    Map<Integer, Integer> values = Maps.newHashMap();
+    for (String line : results) {
+      String[] tokens = line.split("\\s+");
+      values.put(Integer.valueOf(tokens[0]), Integer.valueOf(tokens[1]));
+    }
+    return values;
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.partition;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Test the JVM-wide settings and the live memory estimate of
+ * {@link OutOfCoreMemoryController}.
+ */
+public class TestOutOfCoreMemoryController {
+  /**
+   * Get the collection usage thresholds of the heap pools supporting them.
+   *
+   * @return Thresholds by pool name
+   */
+  private static Map<String, Long> getThresholds() {
+    Map<String, Long> thresholds = Maps.newHashMap();
+    for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+      if (pool.getType() == MemoryType.HEAP &&
+          pool.isCollectionUsageThresholdSupported()) {
+        thresholds.put(pool.getName(), pool.getCollectionUsageThreshold());
+      }
+    }
+    return thresholds;
+  }
+
+  @Test
+  public void testThresholdsRestoredByLastController() {
+    ImmutableClassesGiraphConfiguration<?, ?, ?> conf =
+        new ImmutableClassesGiraphConfiguration(new GiraphConfiguration());
+    Map<String, Long> previousThresholds = getThresholds();
+    assertFalse(previousThresholds.isEmpty());
+
+    OutOfCoreMemoryController first = new OutOfCoreMemoryController();
+    first.initialize(conf);
+    OutOfCoreMemoryController second = new OutOfCoreMemoryController();
+    second.initialize(conf);
+    for (long threshold : getThresholds().values()) {
+      assertEquals(1, threshold);
+    }
+
+    // Still listening with the second controller
+    first.shutdown();
+    for (long threshold : getThresholds().values()) {
+      assertEquals(1, threshold);
+    }
+
+    second.shutdown();
+    assertEquals(previousThresholds, getThresholds());
+  }
+
+  /**
+   * Mock a memory pool.
+   *
+   * @param name Name of the pool
+   * @param type Type of the pool
+   * @param used Current usage
+   * @param collectionUsed Usage after the last collection, null if unknown
+   * @return Memory pool
+   */
+  private static MemoryPoolMXBean mockPool(String name, MemoryType type,
+      long used, Long collectionUsed) {
+    MemoryPoolMXBean pool = Mockito.mock(MemoryPoolMXBean.class);
+    Mockito.when(pool.getName()).thenReturn(name);
+    Mockito.when(pool.getType()).thenReturn(type);
+    Mockito.when(pool.getUsage()).thenReturn(
+        new MemoryUsage(0, used, used, -1));
+    if (collectionUsed != null) {
+      Mockito.when(pool.getCollectionUsage()).thenReturn(
+          new MemoryUsage(0, collectionUsed, collectionUsed, -1));
+    }
+    return pool;
+  }
+
+  @Test
+  public void testLiveBytesAfterYoungCollection() {
+    // The tenured pool was never collected, its collection usage is zero
+    MemoryPoolMXBean eden =
+        mockPool("Eden", MemoryType.HEAP, 5, 0L);
+    MemoryPoolMXBean survivor =
+        mockPool("Survivor", MemoryType.HEAP, 30, 20L);
+    MemoryPoolMXBean tenured =
+        mockPool("Tenured", MemoryType.HEAP, 1000, 0L);
+    MemoryPoolMXBean metaspace =
+        mockPool("Metaspace", MemoryType.NON_HEAP, 50, null);
+    assertEquals(5 + 20 + 1000, OutOfCoreMemoryController.getLiveBytes(
+        Lists.newArrayList(eden, survivor, tenured, metaspace), "Survivor"));
+  }
+
+  @Test
+  public void testLiveBytesAfterFullCollection() {
+    MemoryPoolMXBean eden =
+        mockPool("Eden", MemoryType.HEAP, 5, 0L);
+    MemoryPoolMXBean tenured =
+        mockPool("Tenured", MemoryType.HEAP, 1000, 600L);
+    assertEquals(5 + 600, OutOfCoreMemoryController.getLiveBytes(
+        Lists.newArrayList(eden, tenured), "Tenured"));
+  }
+}
@@ -19,6 +19,7 @@
 package org.apache.giraph.partition;
 
 import org.apache.commons.io.FileUtils;
+import org.apache.giraph.comm.compression.DeflateRequestCompressionCodec;
 import org.apache.giraph.conf.GiraphConfiguration;
 import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
@@ -34,10 +35,12 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.io.Files;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
@@ -77,6 +80,18 @@ public class TestPartitionStores {
     context = mock(Mapper.Context.class);
   }
 
+  /**
+   * Recreate the configuration to use {@link CsrPartition}, the partition
+   * class is read when the configuration is created.
+   */
+  private void useCsrPartition() {
+    GiraphConfiguration configuration = new GiraphConfiguration();
+    configuration.setComputationClass(MyComputation.class);
+    configuration.setPartitionClass(CsrPartition.class);
+    conf = new ImmutableClassesGiraphConfiguration<IntWritable, IntWritable,
+        NullWritable>(configuration);
+  }
+
   @Test
   public void testSimplePartitionStore() {
     PartitionStore<IntWritable, IntWritable, NullWritable>
@@ -124,6 +139,167 @@ public class TestPartitionStores {
     assertEquals(7, deserializatedPartition.getVertexCount());
   }
   
+  @Test
+  public void testSimplePartitionActiveVertexIndex() throws IOException {
+    GiraphConstants.ACTIVE_VERTEX_INDEX.set(conf, true);
+    Vertex<IntWritable, IntWritable, NullWritable> v1 = conf.createVertex();
+    v1.initialize(new IntWritable(1), new IntWritable(1));
+    Vertex<IntWritable, IntWritable, NullWritable> v2 = conf.createVertex();
+    v2.initialize(new IntWritable(2), new IntWritable(2));
+    Vertex<IntWritable, IntWritable, NullWritable> v3 = conf.createVertex();
+    v3.initialize(new IntWritable(3), new IntWritable(3));
+    v3.voteToHalt();
+
+    ActiveVerticesPartition<IntWritable, IntWritable, NullWritable>
+        partition = (ActiveVerticesPartition<IntWritable, IntWritable,
+            NullWritable>) createPartition(conf, 1, v1, v2, v3);
+    assertEquals(2, partition.getActiveVertexCount());
+
+    v1.voteToHalt();
+    partition.saveVertex(v1);
+    assertEquals(1, partition.getActiveVertexCount());
+    assertEquals(2, partition.getActiveVertices().iterator().next().getId()
+        .get());
+
+    v3.wakeUp();
+    partition.saveVertex(v3);
+    partition.removeVertex(new IntWritable(2));
+    assertEquals(1, partition.getActiveVertexCount());
+    assertEquals(3, partition.getActiveVertices().iterator().next().getId()
+        .get());
+
+    UnsafeByteArrayOutputStream outputStream =
+        new UnsafeByteArrayOutputStream();
+    partition.write(outputStream);
+    UnsafeByteArrayInputStream inputStream = new UnsafeByteArrayInputStream(
+        outputStream.getByteArray(), 0, outputStream.getPos());
+    ActiveVerticesPartition<IntWritable, IntWritable, NullWritable>
+        deserializedPartition = (ActiveVerticesPartition<IntWritable,
+            IntWritable, NullWritable>) conf.createPartition(-1, context);
+    deserializedPartition.readFields(inputStream);
+    assertEquals(2, deserializedPartition.getVertexCount());
+    assertEquals(1, deserializedPartition.getActiveVertexCount());
+  }
+
+  @Test
+  public void testSimplePartitionEdgeCount() throws IOException {
+    GiraphConstants.ACTIVE_VERTEX_INDEX.set(conf, true);
+    Vertex<IntWritable, IntWritable, NullWritable> v1 = conf.createVertex();
+    v1.initialize(new IntWritable(1), new IntWritable(1));
+    v1.addEdge(EdgeFactory.create(new IntWritable(2)));
+    v1.addEdge(EdgeFactory.create(new IntWritable(3)));
+    Vertex<IntWritable, IntWritable, NullWritable> v2 = conf.createVertex();
+    v2.initialize(new IntWritable(2), new IntWritable(2));
+    v2.addEdge(EdgeFactory.create(new IntWritable(1)));
+
+    ActiveVerticesPartition<IntWritable, IntWritable, NullWritable>
+        partition = (ActiveVerticesPartition<IntWritable, IntWritable,
+            NullWritable>) createPartition(conf, 1, v1, v2);
+    assertEquals(3, partition.getEdgeCount());
+
+    // Changed in place and reported
+    v2.addEdge(EdgeFactory.create(new IntWritable(3)));
+    partition.addEdgeCount(1);
+    partition.putVertex(v2);
+    assertEquals(4, partition.getEdgeCount());
+
+    // Replaced by another vertex
+    Vertex<IntWritable, IntWritable, NullWritable> newV1 =
+        conf.createVertex();
+    newV1.initialize(new IntWritable(1), new IntWritable(1));
+    partition.putVertex(newV1);
+    assertEquals(2, partition.getEdgeCount());
+
+    partition.removeVertex(new IntWritable(2));
+    assertEquals(0, partition.getEdgeCount());
+
+    UnsafeByteArrayOutputStream outputStream =
+        new UnsafeByteArrayOutputStream();
+    createPartition(conf, 2, v1, v2).write(outputStream);
+    UnsafeByteArrayInputStream inputStream = new UnsafeByteArrayInputStream(
+        outputStream.getByteArray(), 0, outputStream.getPos());
+    Partition<IntWritable, IntWritable, NullWritable> deserializedPartition =
+        conf.createPartition(-1, context);
+    deserializedPartition.readFields(inputStream);
+    assertEquals(4, deserializedPartition.getEdgeCount());
+  }
+
+  @Test
+  public void testSimplePartitionStoreWithCsrPartition() {
+    useCsrPartition();
+    PartitionStore<IntWritable, IntWritable, NullWritable>
+        partitionStore = new SimplePartitionStore<IntWritable, IntWritable,
+                NullWritable>(conf, context);
+    testReadWrite(partitionStore, conf);
+    partitionStore.shutdown();
+  }
+
+  @Test
+  public void testCsrPartition() throws IOException {
+    useCsrPartition();
+    Vertex<IntWritable, IntWritable, NullWritable> v1 = conf.createVertex();
+    v1.initialize(new IntWritable(1), new IntWritable(1));
+    v1.addEdge(EdgeFactory.create(new IntWritable(2)));
+    v1.addEdge(EdgeFactory.create(new IntWritable(3)));
+    Vertex<IntWritable, IntWritable, NullWritable> v2 = conf.createVertex();
+    v2.initialize(new IntWritable(2), new IntWritable(2));
+    v2.addEdge(EdgeFactory.create(new IntWritable(1)));
+    Vertex<IntWritable, IntWritable, NullWritable> v3 = conf.createVertex();
+    v3.initialize(new IntWritable(3), new IntWritable(3));
+
+    CsrPartition<IntWritable, IntWritable, NullWritable> partition =
+        (CsrPartition<IntWritable, IntWritable, NullWritable>)
+            createPartition(conf, 1, v3, v1, v2);
+    partition.compact();
+    assertEquals(3, partition.getVertexCount());
+    assertEquals(3, partition.getEdgeCount());
+
+    // Values and halted states are saved in place
+    Vertex<IntWritable, IntWritable, NullWritable> vertex =
+        partition.getVertex(new IntWritable(1));
+    assertEquals(2, vertex.getNumEdges());
+    assertEquals(3, Iterables.getLast(vertex.getEdges())
+        .getTargetVertexId().get());
+    vertex.setValue(new IntWritable(10));
+    vertex.voteToHalt();
+    partition.saveVertex(vertex);
+    vertex = partition.getVertex(new IntWritable(1));
+    assertEquals(10, vertex.getValue().get());
+    assertTrue(vertex.isHalted());
+
+    // Changing the edges moves the vertex out of the arrays
+    vertex = partition.getVertex(new IntWritable(3));
+    vertex.addEdge(EdgeFactory.create(new IntWritable(1)));
+    partition.saveVertex(vertex);
+    assertEquals(3, partition.getVertexCount());
+    assertEquals(4, partition.getEdgeCount());
+    partition.removeVertex(new IntWritable(2));
+    assertEquals(2, partition.getVertexCount());
+    assertEquals(3, partition.getEdgeCount());
+
+    UnsafeByteArrayOutputStream outputStream =
+        new UnsafeByteArrayOutputStream();
+    partition.write(outputStream);
+    UnsafeByteArrayInputStream inputStream = new UnsafeByteArrayInputStream(
+        outputStream.getByteArray(), 0, outputStream.getPos());
+    Partition<IntWritable, IntWritable, NullWritable> deserializedPartition =
+        conf.createPartition(-1, context);
+    deserializedPartition.readFields(inputStream);
+    assertEquals(1, deserializedPartition.getId());
+    assertEquals(2, deserializedPartition.getVertexCount());
+    assertEquals(3, deserializedPartition.getEdgeCount());
+    int valueSum = 0;
+    for (Vertex<IntWritable, IntWritable, NullWritable> v :
+        deserializedPartition) {
+      valueSum += v.getValue().get();
+    }
+    assertEquals(13, valueSum);
+    vertex = deserializedPartition.getVertex(new IntWritable(3));
+    assertEquals(1, vertex.getNumEdges());
+    assertFalse(vertex.isHalted());
+    assertTrue(deserializedPartition.getVertex(new IntWritable(1)).isHalted());
+  }
+
   @Test
   public void testDiskBackedPartitionStoreWithByteArrayPartition() throws IOException {
     File directory = Files.createTempDir();
@@ -163,6 +339,288 @@ public class TestPartitionStores {
     FileUtils.deleteDirectory(directory);
   }
 
+  @Test
+  public void testDiskBackedPartitionStoreWithCompression()
+      throws IOException {
+    File directory = Files.createTempDir();
+    GiraphConstants.PARTITIONS_DIRECTORY.set(
+        conf, new File(directory, "giraph_partitions").toString());
+    GiraphConstants.USE_OUT_OF_CORE_GRAPH.set(conf, true);
+    GiraphConstants.MAX_PARTITIONS_IN_MEMORY.set(conf, 1);
+    GiraphConstants.OUT_OF_CORE_COMPRESSION_CODEC.set(
+        conf, DeflateRequestCompressionCodec.class);
+    // Small blocks, so that partitions span several of them
+    GiraphConstants.OUT_OF_CORE_BLOCK_SIZE.set(conf, 16);
+
+    PartitionStore<IntWritable, IntWritable, NullWritable> partitionStore =
+        new DiskBackedPartitionStore<IntWritable, IntWritable, NullWritable>(
+            conf, context);
+    testReadWrite(partitionStore, conf);
+    partitionStore.shutdown();
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test
+  public void testDiskBackedPartitionStoreWithBackgroundIo()
+      throws IOException {
+    File directory = Files.createTempDir();
+    GiraphConstants.PARTITIONS_DIRECTORY.set(
+        conf, new File(directory, "giraph_partitions").toString());
+    GiraphConstants.USE_OUT_OF_CORE_GRAPH.set(conf, true);
+    GiraphConstants.MAX_PARTITIONS_IN_MEMORY.set(conf, 2);
+    GiraphConstants.NUM_OUT_OF_CORE_IO_THREADS.set(conf, 2);
+    GiraphConstants.OUT_OF_CORE_PREFETCH_PARTITIONS.set(conf, 2);
+
+    PartitionStore<IntWritable, IntWritable, NullWritable> partitionStore =
+        new DiskBackedPartitionStore<IntWritable, IntWritable, NullWritable>(
+            conf, context);
+    List<Integer> partitionIds = Lists.newArrayList();
+    for (int id = 1; id <= 4; ++id) {
+      Vertex<IntWritable, IntWritable, NullWritable> v1 = conf.createVertex();
+      v1.initialize(new IntWritable(id * 10), new IntWritable(id));
+      Vertex<IntWritable, IntWritable, NullWritable> v2 = conf.createVertex();
+      v2.initialize(new IntWritable(id * 10 + 1), new IntWritable(id));
+      v2.addEdge(EdgeFactory.create(new IntWritable(id * 10)));
+      partitionStore.addPartition(createPartition(conf, id, v1, v2));
+      partitionIds.add(id);
+    }
+
+    // Compute the partitions in order, prefetching the next ones
+    for (int i = 0; i < partitionIds.size(); ++i) {
+      Partition<IntWritable, IntWritable, NullWritable> partition =
+          partitionStore.getPartition(partitionIds.get(i));
+      partitionStore.prefetchPartitions(
+          partitionIds.subList(i + 1, partitionIds.size()));
+      assertEquals(2, partition.getVertexCount());
+      assertEquals(1, partition.getEdgeCount());
+      int id = partitionIds.get(i);
+      assertEquals(id, partition.getVertex(new IntWritable(id * 10 + 1))
+          .getValue().get());
+      partitionStore.putPartition(partition);
+    }
+    assertEquals(4, partitionStore.getNumPartitions());
+    partitionStore.shutdown();
+    FileUtils.deleteDirectory(directory);
+  }
+
+  /**
+   * Get the ids of the inactive partitions in memory, from the description
+   * of a {@link DiskBackedPartitionStore}.
+   */
+  private static String getInactivePartitions(
+      PartitionStore<?, ?, ?> partitionStore) {
+    String description = partitionStore.toString();
+    return description.substring(description.indexOf("Inactive\n"),
+        description.indexOf("OnDisk\n"));
+  }
+
+  @Test
+  public void testDiskBackedPartitionStorePrefetchedNotEvicted()
+      throws Exception {
+    File directory = Files.createTempDir();
+    GiraphConstants.PARTITIONS_DIRECTORY.set(
+        conf, new File(directory, "giraph_partitions").toString());
+    GiraphConstants.USE_OUT_OF_CORE_GRAPH.set(conf, true);
+    GiraphConstants.MAX_PARTITIONS_IN_MEMORY.set(conf, 2);
+    GiraphConstants.NUM_OUT_OF_CORE_IO_THREADS.set(conf, 1);
+    GiraphConstants.OUT_OF_CORE_PREFETCH_PARTITIONS.set(conf, 1);
+
+    PartitionStore<IntWritable, IntWritable, NullWritable> partitionStore =
+        new DiskBackedPartitionStore<IntWritable, IntWritable, NullWritable>(
+            conf, context);
+    for (int id = 1; id <= 3; ++id) {
+      Vertex<IntWritable, IntWritable, NullWritable> v = conf.createVertex();
+      v.initialize(new IntWritable(id), new IntWritable(id));
+      partitionStore.addPartition(createPartition(conf, id, v));
+    }
+
+    // Partition 3 is prefetched in place of partition 2
+    Partition<IntWritable, IntWritable, NullWritable> partition =
+        partitionStore.getPartition(1);
+    partitionStore.prefetchPartitions(Lists.newArrayList(3));
+    for (int i = 0; i < 1000 &&
+        !getInactivePartitions(partitionStore).contains("\n3:"); ++i) {
+      Thread.sleep(10);
+    }
+    assertTrue(getInactivePartitions(partitionStore).contains("\n3:"));
+    partitionStore.putPartition(partition);
+
+    // Getting partition 2 evicts partition 1 although partition 3 is older
+    partition = partitionStore.getPartition(2);
+    String inactive = getInactivePartitions(partitionStore);
+    assertTrue(inactive.contains("\n3:"));
+    assertFalse(inactive.contains("\n1:"));
+    partitionStore.putPartition(partition);
+
+    for (int id = 1; id <= 3; ++id) {
+      partition = partitionStore.getPartition(id);
+      assertEquals(id, partition.getVertex(new IntWritable(id)).getValue()
+          .get());
+      partitionStore.putPartition(partition);
+    }
+    partitionStore.shutdown();
+    FileUtils.deleteDirectory(directory);
+  }
+
+  @Test
+  public void testDiskBackedPartitionStoreWithStaticGraph()
+      throws IOException {
+    File directory = Files.createTempDir();
+    File partitionsDirectory = new File(directory, "giraph_partitions");
+    GiraphConstants.PARTITIONS_DIRECTORY.set(
+        conf, partitionsDirectory.toString());
+    GiraphConstants.USE_OUT_OF_CORE_GRAPH.set(conf, true);
+    GiraphConstants.MAX_PARTITIONS_IN_MEMORY.set(conf, 1);
+    GiraphConstants.STATIC_GRAPH.set(conf, true);
+
+    PartitionStore<IntWritable, IntWritable, NullWritable> partitionStore =
+        new DiskBackedPartitionStore<IntWritable, IntWritable, NullWritable>(
+            conf, context);
+    for (int id = 1; id <= 2; ++id) {
+      Partition<IntWritable, IntWritable, NullWritable> partition =
+          conf.createPartition(id, context);
+      for (int i = 0; i < 3; ++i) {
+        Vertex<IntWritable, IntWritable, NullWritable> v = conf.createVertex();
+        v.initialize(new IntWritable(id * 10 + i), new IntWritable(i));
+        v.addEdge(EdgeFactory.create(new IntWritable(i)));
+        partition.putVertex(v);
+      }
+      partitionStore.addPartition(partition);
+    }
+    // Both partitions have been written once
+    partitionStore.putPartition(partitionStore.getPartition(2));
+
+    // Mark the files, to see which ones are written again
+    File jobDirectory = new File(partitionsDirectory, "Unknown Job");
+    List<File> files = Lists.newArrayList();
+    for (int id = 1; id <= 2; ++id) {
+      for (String suffix : new String[] {"_ids", "_values", "_edges"}) {
+        File file = new File(jobDirectory, "partition-" + id + suffix);
+        assertTrue(file.exists());
+        assertTrue(file.setLastModified(1000));
+        files.add(file);
+      }
+    }
+
+    // Partition 2 is written back unchanged, partition 1 with a new value
+    Partition<IntWritable, IntWritable, NullWritable> partition =
+        partitionStore.getPartition(1);
+    partition.getVertex(new IntWritable(11)).setValue(new IntWritable(42));
+    partitionStore.putPartition(partition);
+    partitionStore.putPartition(partitionStore.getPartition(2));
+    for (File file : files) {
+      assertEquals(file.getName(),
+          file.getName().equals("partition-1_values"),
+          file.lastModified() != 1000);
+    }
+
+    partition = partitionStore.getPartition(1);
+    assertEquals(3, partition.getVertexCount());
+    assertEquals(3, partition.getEdgeCount());
+    assertEquals(0, partition.getVertex(new IntWritable(10)).getValue().get());
+    assertEquals(42,
+        partition.getVertex(new IntWritable(11)).getValue().get());
+    assertEquals(2, partition.getVertex(new IntWritable(12)).getValue().get());
+    partitionStore.putPartition(partition);
+    partitionStore.shutdown();
+    FileUtils.deleteDirectory(directory);
+  }
+
+  /**
+   * Memory controller seeing one megabyte of live heap per vertex or edge in
+   * memory, out of 100 megabytes, so that 70 vertices and edges fit in memory
+   * with the default fraction.
+   */
+  public static class FakeMemoryController extends OutOfCoreMemoryController {
+    /** Largest size of the graph in memory seen */
+    private static long maxInMemorySize;
+    /** Last size of the graph in memory seen */
+    private static long lastInMemorySize;
+
+    @Override
+    public void setInMemorySize(long inMemorySize) {
+      super.setInMemorySize(inMemorySize);
+      maxInMemorySize = Math.max(maxInMemorySize, inMemorySize);
+      lastInMemorySize = inMemorySize;
+    }
+
+    @Override
+    protected double getUsedMemoryMB() {
+      return getInMemorySize();
+    }
+
+    @Override
+    protected double getLiveMemoryMB(String collectedPool) {
+      return getInMemorySize();
+    }
+
+    @Override
+    protected double getMaxMemoryMB() {
+      return 100;
+    }
+  }
+
+  @Test
+  public void testDiskBackedPartitionStoreWithMemoryController()
+      throws IOException {
+    File directory = Files.createTempDir();
+    File partitionsDirectory = new File(directory, "giraph_partitions");
+    GiraphConstants.PARTITIONS_DIRECTORY.set(
+        conf, partitionsDirectory.toString());
+    GiraphConstants.USE_OUT_OF_CORE_GRAPH.set(conf, true);
+    GiraphConstants.OUT_OF_CORE_MEMORY_CONTROLLER.set(
+        conf, FakeMemoryController.class);
+    FakeMemoryController.maxInMemorySize = 0;
+
+    PartitionStore<IntWritable, IntWritable, NullWritable> partitionStore =
+        new DiskBackedPartitionStore<IntWritable, IntWritable, NullWritable>(
+            conf, context);
+    // Skewed graph: partition 3 has 40 vertices and edges, the others 10
+    for (int id = 1; id <= 6; ++id) {
+      int numEdges = id == 3 ? 19 : 4;
+      Vertex<IntWritable, IntWritable, NullWritable> v1 = conf.createVertex();
+      v1.initialize(new IntWritable(id * 100), new IntWritable(id));
+      Vertex<IntWritable, IntWritable, NullWritable> v2 = conf.createVertex();
+      v2.initialize(new IntWritable(id * 100 + 1), new IntWritable(id));
+      for (int i = 0; i < numEdges; ++i) {
+        v1.addEdge(EdgeFactory.create(new IntWritable(i)));
+        v2.addEdge(EdgeFactory.create(new IntWritable(i)));
+      }
+      partitionStore.addPartition(createPartition(conf, id, v1, v2));
+    }
+
+    // Only the large partition had to be offloaded
+    File jobDirectory = new File(partitionsDirectory, "Unknown Job");
+    for (int id = 1; id <= 6; ++id) {
+      assertEquals(id == 3,
+          new File(jobDirectory, "partition-" + id + "_vertices").exists());
+    }
+
+    for (int round = 0; round < 2; ++round) {
+      for (int id = 1; id <= 6; ++id) {
+        Partition<IntWritable, IntWritable, NullWritable> partition =
+            partitionStore.getPartition(id);
+        assertEquals(2, partition.getVertexCount());
+        assertEquals(id == 3 ? 38 : 8, partition.getEdgeCount());
+        assertEquals(id, partition.getVertex(new IntWritable(id * 100 + 1))
+            .getValue().get());
+        partitionStore.putPartition(partition);
+      }
+    }
+    assertTrue(FakeMemoryController.maxInMemorySize <= 70);
+
+    // The size of a computed partition is taken from its stats
+    Partition<IntWritable, IntWritable, NullWritable> partition =
+        partitionStore.getPartition(6);
+    long inMemorySize = FakeMemoryController.lastInMemorySize;
+    partitionStore.putPartition(partition,
+        new PartitionStats(6, 2, 0, 13, 0, 0));
+    assertEquals(inMemorySize + 5, FakeMemoryController.lastInMemorySize);
+    assertEquals(6, partitionStore.getNumPartitions());
+    partitionStore.shutdown();
+    FileUtils.deleteDirectory(directory);
+  }
+
   /**
    * Test reading/writing to/from a partition store
    *
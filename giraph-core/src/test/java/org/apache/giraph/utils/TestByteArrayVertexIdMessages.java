@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.utils;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.factories.TestMessageValueFactory;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test sorting and delta encoding of vertex ids in
+ * {@link ByteArrayVertexIdMessages}.
+ */
+public class TestByteArrayVertexIdMessages {
+  /** Number of messages to add */
+  private static final int NUM_MESSAGES = 1000;
+
+  /**
+   * Create messages for the given configuration.
+   *
+   * @param conf Configuration
+   * @return Empty messages
+   */
+  private static ByteArrayVertexIdMessages<LongWritable, LongWritable>
+  createMessages(ImmutableClassesGiraphConfiguration conf) {
+    ByteArrayVertexIdMessages<LongWritable, LongWritable> messages =
+        new ByteArrayVertexIdMessages<LongWritable, LongWritable>(
+            new TestMessageValueFactory<LongWritable>(LongWritable.class));
+    messages.setConf(conf);
+    messages.initialize();
+    return messages;
+  }
+
+  /**
+   * Add messages to random vertices, serialize and deserialize them.
+   *
+   * @param deltaEncoding Whether to delta-encode vertex ids
+   * @return Deserialized messages
+   */
+  private static ByteArrayVertexIdMessages<LongWritable, LongWritable>
+  writeAndRead(boolean deltaEncoding) throws IOException {
+    GiraphConfiguration tmpConf = new GiraphConfiguration();
+    GiraphConstants.COMPUTATION_CLASS.set(tmpConf, LongNoOpComputation.class);
+    GiraphConstants.MESSAGE_VERTEX_ID_DELTA_ENCODING.set(tmpConf,
+        deltaEncoding);
+    ImmutableClassesGiraphConfiguration conf =
+        new ImmutableClassesGiraphConfiguration(tmpConf);
+
+    ByteArrayVertexIdMessages<LongWritable, LongWritable> messages =
+        createMessages(conf);
+    Random random = new Random(42);
+    for (int i = 0; i < NUM_MESSAGES; i++) {
+      long id = random.nextInt(NUM_MESSAGES) * 7L - 100;
+      messages.add(new LongWritable(id), new LongWritable(id * 3 + i));
+    }
+    int serializedSize = messages.getSerializedSize();
+    byte[] bytes = WritableUtils.writeToByteArray(messages);
+    assertEquals(serializedSize, bytes.length);
+
+    ByteArrayVertexIdMessages<LongWritable, LongWritable> readMessages =
+        new ByteArrayVertexIdMessages<LongWritable, LongWritable>(
+            new TestMessageValueFactory<LongWritable>(LongWritable.class));
+    readMessages.setConf(conf);
+    WritableUtils.readFieldsFromByteArray(bytes, readMessages);
+    return readMessages;
+  }
+
+  @Test
+  public void testDeltaEncodedIds() throws IOException {
+    ByteArrayVertexIdMessages<LongWritable, LongWritable> plain =
+        writeAndRead(false);
+    ByteArrayVertexIdMessages<LongWritable, LongWritable> encoded =
+        writeAndRead(true);
+    assertTrue(encoded.getSize() < plain.getSize());
+
+    boolean plainSorted = true;
+    long previousId = Long.MIN_VALUE;
+    int previousIndex = -1;
+    long plainSum = 0;
+    ByteArrayVertexIdMessages<LongWritable, LongWritable>.
+        VertexIdMessageIterator iterator = plain.getVertexIdMessageIterator();
+    while (iterator.hasNext()) {
+      iterator.next();
+      long id = iterator.getCurrentVertexId().get();
+      plainSorted &= id >= previousId;
+      previousId = id;
+      plainSum += id * 31 + iterator.getCurrentMessage().get();
+    }
+    assertFalse(plainSorted);
+
+    previousId = Long.MIN_VALUE;
+    long encodedSum = 0;
+    int numMessages = 0;
+    iterator = encoded.getVertexIdMessageIterator();
+    while (iterator.hasNext()) {
+      iterator.next();
+      long id = iterator.getCurrentVertexId().get();
+      int index = (int) (iterator.getCurrentMessage().get() - id * 3);
+      assertTrue(id >= previousId);
+      // Messages to the same vertex keep the order they were added in
+      assertTrue(id > previousId || index > previousIndex);
+      previousId = id;
+      previousIndex = index;
+      encodedSum += id * 31 + iterator.getCurrentMessage().get();
+      numMessages++;
+    }
+    assertEquals(NUM_MESSAGES, numMessages);
+    assertEquals(plainSum, encodedSum);
+  }
+}
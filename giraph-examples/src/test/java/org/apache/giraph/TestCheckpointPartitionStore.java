@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.examples.SimpleCheckpoint;
+import org.apache.giraph.examples.SimpleSuperstepComputation.SimpleSuperstepVertexInputFormat;
+import org.apache.giraph.examples.SimpleSuperstepComputation.SimpleSuperstepVertexOutputFormat;
+import org.apache.giraph.job.GiraphJob;
+import org.apache.giraph.worker.CheckpointPartitionStore;
+import org.apache.hadoop.fs.Path;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit test for checkpointing partitions to a {@link CheckpointPartitionStore}
+ */
+public class TestCheckpointPartitionStore extends BspCase {
+
+  public TestCheckpointPartitionStore() {
+    super(TestCheckpointPartitionStore.class.getName());
+  }
+
+  /**
+   * Partition store keeping partitions in memory.
+   */
+  public static class InMemoryCheckpointPartitionStore
+      implements CheckpointPartitionStore {
+    /** Stored partitions */
+    private static final ConcurrentMap<String, byte[]> PARTITIONS =
+        Maps.newConcurrentMap();
+    /** Checkpoint directory the partitions are stored for */
+    private String checkpointBasePath;
+
+    @Override
+    public void initialize(String checkpointBasePath) {
+      this.checkpointBasePath = checkpointBasePath;
+    }
+
+    @Override
+    public void storePartition(long superstep, int partitionId, byte[] data) {
+      PARTITIONS.put(getKey(superstep, partitionId), data);
+    }
+
+    @Override
+    public byte[] loadPartition(long superstep, int partitionId) {
+      return PARTITIONS.get(getKey(superstep, partitionId));
+    }
+
+    @Override
+    public void deleteCheckpoints() {
+      for (String key : PARTITIONS.keySet()) {
+        if (key.startsWith(checkpointBasePath + "/")) {
+          PARTITIONS.remove(key);
+        }
+      }
+    }
+
+    /**
+     * Get the key of a partition.
+     *
+     * @param superstep Superstep of the checkpoint
+     * @param partitionId Partition id
+     * @return Key
+     */
+    private String getKey(long superstep, int partitionId) {
+      return checkpointBasePath + "/" + superstep + "/" + partitionId;
+    }
+  }
+
+  /**
+   * Create the configuration of the checkpointing job.
+   *
+   * @return Configuration
+   */
+  private GiraphConfiguration createConfiguration() {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(
+        SimpleCheckpoint.SimpleCheckpointComputation.class);
+    conf.setWorkerContextClass(
+        SimpleCheckpoint.SimpleCheckpointVertexWorkerContext.class);
+    conf.setMasterComputeClass(
+        SimpleCheckpoint.SimpleCheckpointVertexMasterCompute.class);
+    conf.setVertexInputFormatClass(SimpleSuperstepVertexInputFormat.class);
+    conf.setVertexOutputFormatClass(SimpleSuperstepVertexOutputFormat.class);
+    GiraphConstants.CHECKPOINT_PARTITION_STORE_CLASS.set(conf,
+        InMemoryCheckpointPartitionStore.class);
+    return conf;
+  }
+
+  /**
+   * Run a sample BSP job locally, checkpointing to the partition store, and
+   * restart it from the checkpoint.
+   *
+   * @throws IOException
+   * @throws ClassNotFoundException
+   * @throws InterruptedException
+   */
+  @Test
+  public void testStoreAndRestart()
+      throws IOException, InterruptedException, ClassNotFoundException {
+    if (runningInDistributedMode()) {
+      // Partitions are only kept in the memory of the local job
+      return;
+    }
+    Path checkpointsDir = getTempPath("checkPointsForPartitionStore");
+    Path outputPath = getTempPath(getCallingMethodName());
+    GiraphJob job = prepareJob(getCallingMethodName(), createConfiguration(),
+        outputPath);
+    GiraphConfiguration configuration = job.getConfiguration();
+    GiraphConstants.CHECKPOINT_DIRECTORY.set(configuration,
+        checkpointsDir.toString());
+    GiraphConstants.CLEANUP_CHECKPOINTS_AFTER_SUCCESS.set(configuration,
+        false);
+    configuration.setCheckpointFrequency(2);
+
+    assertTrue(job.run(true));
+    long idSum =
+        SimpleCheckpoint.SimpleCheckpointVertexWorkerContext.getFinalSum();
+    assertFalse(InMemoryCheckpointPartitionStore.PARTITIONS.isEmpty());
+    assertTrue(InMemoryCheckpointPartitionStore.PARTITIONS.containsKey(
+        checkpointsDir + "/2/0"));
+
+    // Restart the job from superstep 2
+    outputPath = getTempPath(getCallingMethodName() + "Restarted");
+    GiraphJob restartedJob = prepareJob(getCallingMethodName() + "Restarted",
+        createConfiguration(), outputPath);
+    GiraphConstants.CHECKPOINT_DIRECTORY.set(restartedJob.getConfiguration(),
+        checkpointsDir.toString());
+    restartedJob.getConfiguration().setLong(
+        GiraphConstants.RESTART_SUPERSTEP, 2);
+
+    assertTrue(restartedJob.run(true));
+    assertEquals(idSum,
+        SimpleCheckpoint.SimpleCheckpointVertexWorkerContext.getFinalSum());
+    // The restarted job succeeded and cleaned up the stored checkpoints
+    assertTrue(InMemoryCheckpointPartitionStore.PARTITIONS.isEmpty());
+  }
+}
@@ -20,6 +20,7 @@ package org.apache.giraph.examples;
 
 import org.apache.giraph.combiner.MinimumIntCombiner;
 import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.edge.ByteArrayEdges;
 import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
 import org.apache.giraph.io.formats.IntIntNullTextInputFormat;
@@ -46,6 +47,19 @@ public class ConnectedComponentsComputationTest {
      */
     @Test
     public void testToyData() throws Exception {
+        checkToyData(false);
+    }
+
+    /**
+     * A local integration test on toy data, consuming messages to vertices
+     * which weren't computed yet in the superstep they are sent in
+     */
+    @Test
+    public void testToyDataAsyncMessages() throws Exception {
+        checkToyData(true);
+    }
+
+    private void checkToyData(boolean asyncMessages) throws Exception {
 
         // a small graph with three components
         String[] graph = new String[] {
@@ -71,6 +85,7 @@ public class ConnectedComponentsComputationTest {
         conf.setCombinerClass(MinimumIntCombiner.class);
         conf.setVertexInputFormatClass(IntIntNullTextInputFormat.class);
         conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+        GiraphConstants.ASYNC_MESSAGE_VISIBILITY.set(conf, asyncMessages);
 
         // run internally
         Iterable<String> results = InternalVertexRunner.run(conf, graph);
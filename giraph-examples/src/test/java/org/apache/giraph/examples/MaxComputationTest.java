@@ -18,6 +18,7 @@
 package org.apache.giraph.examples;
 
 import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
 import org.apache.giraph.io.formats.IntIntNullTextInputFormat;
 import org.apache.giraph.utils.InternalVertexRunner;
@@ -54,6 +55,32 @@ public class MaxComputationTest {
     assertEquals(5, (int) values.get(5));
   }
 
+  @Test
+  public void testMaxHubMirrors() throws Exception {
+    // Vertex 1 is a hub, which gets the max after registering its mirrors
+    String[] graph = {
+        "9 1",
+        "1 2 3 4 5",
+        "2",
+        "3",
+        "4",
+        "5",
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(MaxComputation.class);
+    conf.setVertexInputFormatClass(IntIntNullTextInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    GiraphConstants.HUB_MIRROR_MIN_EDGES.set(conf, 3);
+    Iterable<String> results = InternalVertexRunner.run(conf, graph);
+
+    Map<Integer, Integer> values = parseResults(results);
+    assertEquals(6, values.size());
+    for (int value : values.values()) {
+      assertEquals(9, value);
+    }
+  }
+
   private static Map<Integer, Integer> parseResults(Iterable<String> results) {
     Map<Integer, Integer> values = Maps.newHashMap();
     for (String line : results) {
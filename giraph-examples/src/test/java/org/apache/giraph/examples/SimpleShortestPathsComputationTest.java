@@ -18,13 +18,16 @@
 
 package org.apache.giraph.examples;
 
+import org.apache.giraph.combiner.MinimumDoubleCombiner;
 import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
 import org.apache.giraph.edge.ByteArrayEdges;
 import org.apache.giraph.edge.EdgeFactory;
 import org.apache.giraph.graph.DefaultVertex;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.io.formats.JsonLongDoubleFloatDoubleVertexInputFormat;
 import org.apache.giraph.io.formats.JsonLongDoubleFloatDoubleVertexOutputFormat;
+import org.apache.giraph.partition.CsrPartition;
 import org.apache.giraph.utils.InternalVertexRunner;
 import org.apache.giraph.utils.MockUtils;
 import org.apache.hadoop.io.DoubleWritable;
@@ -148,6 +151,145 @@ public class SimpleShortestPathsComputationTest {
     assertEquals(4.0, (double) distances.get(4L), 0d);
   }
 
+  /**
+   * A local integration test on toy data, with several compute threads
+   * sharing a single partition in chunks
+   */
+  @Test
+  public void testToyDataChunkedCompute() throws Exception {
+    GiraphConfiguration conf = createToyDataConf();
+    GiraphConstants.USER_PARTITION_COUNT.set(conf, 1);
+    GiraphConstants.NUM_COMPUTE_THREADS.set(conf, 3);
+    GiraphConstants.COMPUTE_CHUNK_SIZE.set(conf, 1);
+    runToyData(conf);
+  }
+
+  /**
+   * A local integration test on toy data, only computing the vertices which
+   * are active or have messages
+   */
+  @Test
+  public void testToyDataActiveVertexIndex() throws Exception {
+    GiraphConfiguration conf = createToyDataConf();
+    GiraphConstants.ACTIVE_VERTEX_INDEX.set(conf, true);
+    runToyData(conf);
+  }
+
+  /**
+   * A local integration test on toy data, combining messages before they
+   * are sent
+   */
+  @Test
+  public void testToyDataSenderSideCombining() throws Exception {
+    GiraphConfiguration conf = createToyDataConf();
+    conf.setCombinerClass(MinimumDoubleCombiner.class);
+    GiraphConstants.SENDER_SIDE_COMBINING.set(conf, true);
+    GiraphConstants.MAX_COMBINED_MESSAGES_PER_PARTITION.set(conf, 2);
+    runToyData(conf);
+  }
+
+  /**
+   * A local integration test on toy data, consuming messages to vertices
+   * which weren't computed yet in the superstep they are sent in, with and
+   * without a combiner
+   */
+  @Test
+  public void testToyDataAsyncMessages() throws Exception {
+    for (boolean useCombiner : new boolean[] {false, true}) {
+      GiraphConfiguration conf = createToyDataConf();
+      if (useCombiner) {
+        conf.setCombinerClass(MinimumDoubleCombiner.class);
+      }
+      GiraphConstants.ASYNC_MESSAGE_VISIBILITY.set(conf, true);
+      runToyData(conf);
+    }
+  }
+
+  /**
+   * A local integration test on toy data, with messages flushed to the disk
+   */
+  @Test
+  public void testToyDataOutOfCoreMessages() throws Exception {
+    GiraphConfiguration conf = createToyDataConf();
+    GiraphConstants.USE_OUT_OF_CORE_MESSAGES.set(conf, true);
+    // Flush every request to the disk
+    GiraphConstants.MAX_MESSAGE_BYTES_IN_MEMORY.set(conf, 1);
+    runToyData(conf);
+  }
+
+  /**
+   * A local integration test on toy data, sending every message request
+   * from the background flusher threads
+   */
+  @Test
+  public void testToyDataBackgroundFlush() throws Exception {
+    GiraphConfiguration conf = createToyDataConf();
+    conf.setInt(GiraphConstants.MSG_NUM_FLUSH_THREADS, 2);
+    GiraphConstants.MSG_FLUSH_QUEUE_SIZE.set(conf, 1);
+    GiraphConstants.NUM_COMPUTE_THREADS.set(conf, 2);
+    // Send every message in its own request, through the message requests
+    GiraphConstants.DIRECT_LOCAL_MESSAGES.set(conf, false);
+    GiraphConstants.MAX_MSG_REQUEST_SIZE.set(conf, 1);
+    runToyData(conf);
+  }
+
+  /**
+   * A local integration test on toy data, with the vertices kept in
+   * {@link CsrPartition}s
+   */
+  @Test
+  public void testToyDataCsrPartition() throws Exception {
+    GiraphConfiguration conf = createToyDataConf();
+    conf.setPartitionClass(CsrPartition.class);
+    runToyData(conf);
+  }
+
+  /**
+   * Create the configuration to find the shortest paths from vertex 1 in
+   * the toy data.
+   *
+   * @return Configuration
+   */
+  private static GiraphConfiguration createToyDataConf() {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    SOURCE_ID.set(conf, 1);
+    conf.setComputationClass(SimpleShortestPathsComputation.class);
+    conf.setOutEdgesClass(ByteArrayEdges.class);
+    conf.setVertexInputFormatClass(
+        JsonLongDoubleFloatDoubleVertexInputFormat.class);
+    conf.setVertexOutputFormatClass(
+        JsonLongDoubleFloatDoubleVertexOutputFormat.class);
+    return conf;
+  }
+
+  /**
+   * Run the computation on a small graph, with a vertex which can't be
+   * reached from vertex 1, and check the distances.
+   *
+   * @param conf Configuration, see {@link #createToyDataConf()}
+   */
+  private void runToyData(GiraphConfiguration conf) throws Exception {
+    String[] graph = new String[] {
+        "[1,0,[[2,1],[3,3]]]",
+        "[2,0,[[3,1],[4,10]]]",
+        "[3,0,[[4,2]]]",
+        "[4,0,[]]",
+        "[5,0,[[1,1]]]"
+    };
+
+    Iterable<String> results = InternalVertexRunner.run(conf, graph);
+
+    Map<Long, Double> distances = parseDistances(results);
+
+    assertNotNull(distances);
+    assertEquals(5, (int) distances.size());
+    assertEquals(0.0, (double) distances.get(1L), 0d);
+    assertEquals(1.0, (double) distances.get(2L), 0d);
+    assertEquals(2.0, (double) distances.get(3L), 0d);
+    assertEquals(4.0, (double) distances.get(4L), 0d);
+    assertEquals(Double.MAX_VALUE, (double) distances.get(5L), 0d);
+  }
+
   private Map<Long, Double> parseDistances(Iterable<String> results) {
     Map<Long, Double> distances =
         Maps.newHashMapWithExpectedSize(Iterables.size(results));
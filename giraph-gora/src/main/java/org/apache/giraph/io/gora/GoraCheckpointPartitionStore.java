@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.io.gora;
+
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_CHECKPOINT_DATASTORE_CLASS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_CHECKPOINT_KEY_PREFIX;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.giraph.conf.DefaultImmutableClassesGiraphConfigurable;
+import org.apache.giraph.io.gora.generated.GCheckpointPartition;
+import org.apache.giraph.io.gora.utils.GoraDataStorePool;
+import org.apache.giraph.worker.CheckpointPartitionStore;
+import org.apache.gora.query.Query;
+import org.apache.gora.store.DataStore;
+import org.apache.gora.util.GoraException;
+
+/**
+ * Stores the partitions of Giraph checkpoints in a Gora data store, one
+ * {@link GCheckpointPartition} row per superstep and partition. Each call
+ * borrows its own data store handle from {@link GoraDataStorePool}, so that
+ * partitions are stored in parallel by several threads.
+ *
+ * Enable it with giraph.checkpointPartitionStoreClass and set the data store
+ * with giraph.gora.checkpoint.datastore.class. Row keys start with the
+ * checkpoint directory of the job (which includes the job id by default),
+ * unless giraph.gora.checkpoint.key.prefix is set.
+ */
+@SuppressWarnings("rawtypes")
+public class GoraCheckpointPartitionStore
+    extends DefaultImmutableClassesGiraphConfigurable
+    implements CheckpointPartitionStore {
+  /** Prefix of the row keys of this job's checkpoints */
+  private String keyPrefix;
+
+  @Override
+  public void initialize(String checkpointBasePath) {
+    keyPrefix = GIRAPH_GORA_CHECKPOINT_KEY_PREFIX.get(getConf());
+    if (keyPrefix == null) {
+      keyPrefix = checkpointBasePath + "/";
+    }
+  }
+
+  @Override
+  public void storePartition(long superstep, int partitionId, byte[] data)
+    throws IOException {
+    GCheckpointPartition checkpointPartition = new GCheckpointPartition();
+    checkpointPartition.setSuperstep(superstep);
+    checkpointPartition.setPartitionId(partitionId);
+    checkpointPartition.setData(ByteBuffer.wrap(data));
+    DataStore<String, GCheckpointPartition> dataStore = borrowDataStore();
+    try {
+      dataStore.put(getKey(superstep, partitionId), checkpointPartition);
+      dataStore.flush();
+    } finally {
+      GoraDataStorePool.release(getConf(), dataStore);
+    }
+  }
+
+  @Override
+  public byte[] loadPartition(long superstep, int partitionId)
+    throws IOException {
+    GCheckpointPartition checkpointPartition;
+    DataStore<String, GCheckpointPartition> dataStore = borrowDataStore();
+    try {
+      checkpointPartition = dataStore.get(getKey(superstep, partitionId));
+    } finally {
+      GoraDataStorePool.release(getConf(), dataStore);
+    }
+    if (checkpointPartition == null ||
+        checkpointPartition.getData() == null) {
+      return null;
+    }
+    ByteBuffer data = checkpointPartition.getData().duplicate();
+    byte[] bytes = new byte[data.remaining()];
+    data.get(bytes);
+    return bytes;
+  }
+
+  @Override
+  public void deleteCheckpoints() throws IOException {
+    DataStore<String, GCheckpointPartition> dataStore = borrowDataStore();
+    try {
+      Query<String, GCheckpointPartition> query = dataStore.newQuery();
+      query.setStartKey(getKey(0, 0));
+      query.setEndKey(getKey(Long.MAX_VALUE, Integer.MAX_VALUE));
+      dataStore.deleteByQuery(query);
+      dataStore.flush();
+    } finally {
+      GoraDataStorePool.release(getConf(), dataStore);
+    }
+  }
+
+  /**
+   * Gets the key of a checkpoint partition.
+   * @param superstep Superstep of the checkpoint.
+   * @param partitionId Partition id.
+   * @return Key of the row.
+   */
+  public String getKey(long superstep, int partitionId) {
+    if (keyPrefix == null) {
+      throw new IllegalStateException("getKey: Not initialized");
+    }
+    return String.format("%s%019d_%010d", keyPrefix, superstep, partitionId);
+  }
+
+  /**
+   * Borrows a handle to the checkpoint data store.
+   * @return DataStore borrowed
+   */
+  @SuppressWarnings("unchecked")
+  private DataStore<String, GCheckpointPartition> borrowDataStore()
+    throws IOException {
+    String dataStoreClassName =
+        GIRAPH_GORA_CHECKPOINT_DATASTORE_CLASS.get(getConf());
+    if (dataStoreClassName == null) {
+      throw new IllegalStateException("borrowDataStore: " +
+          GIRAPH_GORA_CHECKPOINT_DATASTORE_CLASS.getKey() + " is not set");
+    }
+    try {
+      return GoraDataStorePool.borrow(getConf(),
+          (Class<? extends DataStore>) Class.forName(dataStoreClassName),
+          String.class, GCheckpointPartition.class);
+    } catch (ClassNotFoundException e) {
+      throw new IllegalStateException("borrowDataStore: Data store class " +
+          dataStoreClassName + " not found", e);
+    } catch (GoraException e) {
+      throw new IOException("borrowDataStore: Error creating data store", e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "GoraCheckpointPartitionStore(" +
+        GIRAPH_GORA_CHECKPOINT_DATASTORE_CLASS.get(getConf()) + ")";
+  }
+}
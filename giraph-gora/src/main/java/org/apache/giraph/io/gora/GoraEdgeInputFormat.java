@@ -19,21 +19,28 @@ package org.apache.giraph.io.gora;
 
 import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_DATASTORE_CLASS;
 import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_END_KEY;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_FIELDS;
 import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_KEYS_FACTORY_CLASS;
 import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_KEY_CLASS;
 import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_PERSISTENT_CLASS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_RECORD_FILTER_CLASS;
 import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_START_KEY;
 
 import java.io.IOException;
 import java.util.List;
 
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.io.EdgeInputFormat;
 import org.apache.giraph.io.EdgeReader;
 import org.apache.giraph.io.gora.utils.ExtraGoraInputFormat;
+import org.apache.giraph.io.gora.utils.GoraDataStorePool;
+import org.apache.giraph.io.gora.utils.GoraRecordFilter;
 import org.apache.giraph.io.gora.utils.GoraUtils;
 import org.apache.giraph.io.gora.utils.KeyFactory;
+import org.apache.gora.mapreduce.GoraInputSplit;
 import org.apache.gora.persistency.Persistent;
+import org.apache.gora.query.PartitionQuery;
 import org.apache.gora.query.Query;
 import org.apache.gora.query.Result;
 import org.apache.gora.store.DataStore;
@@ -51,6 +58,10 @@ import org.apache.log4j.Logger;
  *  as an extension point to EdgeInputFormat subclasses who wish
  *  to read from Gora data sources.
  *
+ *  Every {@link GoraEdgeReader} borrows its own data store handle from
+ *  {@link GoraDataStorePool}, so that several input threads read in
+ *  parallel.
+ *
  *  Works with
  *  {@link GoraVertexOutputFormat}
  *
@@ -61,42 +72,55 @@ public abstract class GoraEdgeInputFormat
   <I extends WritableComparable, E extends Writable>
   extends EdgeInputFormat<I, E> {
 
+  /** Logger for Gora's vertex input format. */
+  private static final Logger LOG =
+          Logger.getLogger(GoraEdgeInputFormat.class);
+
   /** Start key for querying Gora data store. */
-  private static Object START_KEY;
+  private Object startKey;
 
   /** End key for querying Gora data store. */
-  private static Object END_KEY;
+  private Object endKey;
 
-  /** Logger for Gora's vertex input format. */
-  private static final Logger LOG =
-          Logger.getLogger(GoraEdgeInputFormat.class);
+  /** Whether start and end keys have been built. */
+  private boolean keysInitialized;
 
   /** KeyClass used for getting data. */
-  private static Class<?> KEY_CLASS;
+  private Class<?> keyClass;
 
   /** The vertex itself will be used as a value inside Gora. */
-  private static Class<? extends Persistent> PERSISTENT_CLASS;
+  private Class<? extends Persistent> persistentClass;
 
   /** Data store class to be used as backend. */
-  private static Class<? extends DataStore> DATASTORE_CLASS;
+  private Class<? extends DataStore> datastoreClass;
 
   /** Class used to transform strings into Keys */
-  private static Class<?> KEY_FACTORY_CLASS;
-
-  /** Data store used for querying data. */
-  private static DataStore DATA_STORE;
+  private Class<?> keyFactoryClass;
 
-  /** counter for iinput records */
-  private static int RECORD_COUNTER = 0;
+  /** Fields to fetch, null for all fields. */
+  private String[] fields;
 
   /** Delegate Gora input format */
-  private static ExtraGoraInputFormat GORA_INPUT_FORMAT =
+  private final ExtraGoraInputFormat goraInputFormat =
          new ExtraGoraInputFormat();
 
+  @Override
+  public void setConf(
+      ImmutableClassesGiraphConfiguration<I, Writable, E> conf) {
+    super.setConf(conf);
+    initializeGoraClasses();
+  }
+
+  /** @param conf configuration parameters */
+  public void checkInputSpecs(Configuration conf) {
+    initializeGoraClasses();
+  }
+
   /**
-   * @param conf configuration parameters
+   * Reads the Gora classes to be used from the configuration.
    */
-  public void checkInputSpecs(Configuration conf) {
+  @SuppressWarnings("unchecked")
+  private void initializeGoraClasses() {
     String sDataStoreType =
         GIRAPH_GORA_DATASTORE_CLASS.get(getConf());
     String sKeyType =
@@ -105,17 +129,17 @@ public abstract class GoraEdgeInputFormat
         GIRAPH_GORA_PERSISTENT_CLASS.get(getConf());
     String sKeyFactoryClass =
         GIRAPH_GORA_KEYS_FACTORY_CLASS.get(getConf());
+    if (sDataStoreType == null) {
+      return;
+    }
+    setFields(GIRAPH_GORA_FIELDS.getArray(getConf()));
     try {
-      Class<?> keyClass = Class.forName(sKeyType);
-      Class<?> persistentClass = Class.forName(sPersistentType);
-      Class<?> dataStoreClass = Class.forName(sDataStoreType);
-      Class<?> keyFactoryClass = Class.forName(sKeyFactoryClass);
-      setKeyClass(keyClass);
-      setPersistentClass((Class<? extends Persistent>) persistentClass);
-      setDatastoreClass((Class<? extends DataStore>) dataStoreClass);
-      setKeyFactoryClass(keyFactoryClass);
-      setDataStore(createDataStore());
-      GORA_INPUT_FORMAT.setDataStore(getDataStore());
+      setKeyClass(Class.forName(sKeyType));
+      setPersistentClass(
+          (Class<? extends Persistent>) Class.forName(sPersistentType));
+      setDatastoreClass(
+          (Class<? extends DataStore>) Class.forName(sDataStoreType));
+      setKeyFactoryClass(Class.forName(sKeyFactoryClass));
     } catch (ClassNotFoundException e) {
       LOG.error("Error while reading Gora Input parameters");
       e.printStackTrace();
@@ -131,9 +155,32 @@ public abstract class GoraEdgeInputFormat
   @Override
   public List<InputSplit> getSplits(JobContext context, int minSplitCountHint)
     throws IOException, InterruptedException {
+    DataStore dataStore = borrowDataStore();
+    try {
+      initializeKeys(dataStore);
+      Query tmpQuery = GoraUtils.getQuery(
+          dataStore, getStartKey(), getEndKey());
+      GoraUtils.setFields(tmpQuery, getFields());
+      goraInputFormat.setDataStore(dataStore);
+      goraInputFormat.setQuery(tmpQuery);
+      return goraInputFormat.getSplits(context);
+    } finally {
+      releaseDataStore(dataStore);
+    }
+  }
+
+  /**
+   * Builds the start and end keys of the configured range.
+   * @param dataStore data store used by the key factory.
+   */
+  protected synchronized void initializeKeys(DataStore dataStore) {
+    if (keysInitialized) {
+      return;
+    }
     KeyFactory kFact = null;
     try {
       kFact = (KeyFactory) getKeyFactoryClass().newInstance();
+      kFact.setDataStore(dataStore);
     } catch (InstantiationException e) {
       LOG.error("Key factory was not instantiated. Please verify.");
       LOG.error(e.getMessage());
@@ -148,17 +195,34 @@ public abstract class GoraEdgeInputFormat
     if (sKey == null || sKey.isEmpty()) {
       LOG.warn("No start key has been defined.");
       LOG.warn("Querying all the data store.");
-      sKey = null;
-      eKey = null;
+    } else {
+      setStartKey(kFact.buildKey(sKey));
+      setEndKey(kFact.buildKey(eKey));
+    }
+    keysInitialized = true;
+  }
+
+  /**
+   * Borrows a data store handle from the pool. The handle must be given back
+   * with {@link #releaseDataStore(DataStore)}.
+   * @return DataStore borrowed
+   */
+  public DataStore borrowDataStore() {
+    try {
+      return GoraDataStorePool.borrow(getConf(), getDatastoreClass(),
+          getKeyClass(), getPersistentClass());
+    } catch (GoraException e) {
+      throw new IllegalStateException(
+          "borrowDataStore: Error creating data store", e);
     }
-    kFact.setDataStore(getDataStore());
-    setStartKey(kFact.buildKey(sKey));
-    setEndKey(kFact.buildKey(eKey));
-    Query tmpQuery = GoraUtils.getQuery(
-        getDataStore(), getStartKey(), getEndKey());
-    GORA_INPUT_FORMAT.setQuery(tmpQuery);
-    List<InputSplit> splits = GORA_INPUT_FORMAT.getSplits(context);
-    return splits;
+  }
+
+  /**
+   * Gives a data store handle back to the pool.
+   * @param dataStore DataStore previously borrowed
+   */
+  public void releaseDataStore(DataStore dataStore) {
+    GoraDataStorePool.release(getConf(), dataStore);
   }
 
   @Override
@@ -175,12 +239,28 @@ public abstract class GoraEdgeInputFormat
     private Edge<I, E> edge;
     /** Results gotten from Gora data store. */
     private Result readResults;
+    /** Data store handle owned by this reader. */
+    private DataStore dataStore;
+    /** counter for input records */
+    private int recordCounter;
+    /** counter for records dropped by the record filter */
+    private int droppedCounter;
+    /** Filter for records read, null to keep all of them. */
+    private GoraRecordFilter recordFilter;
 
     @Override
     public void initialize(InputSplit inputSplit, TaskAttemptContext context)
       throws IOException, InterruptedException {
-      getResults();
-      RECORD_COUNTER = 0;
+      dataStore = borrowDataStore();
+      recordFilter = GIRAPH_GORA_RECORD_FILTER_CLASS.newInstance(getConf());
+      if (inputSplit instanceof GoraInputSplit) {
+        getResults(((GoraInputSplit) inputSplit).getQuery());
+      } else {
+        initializeKeys(dataStore);
+        getResults();
+      }
+      recordCounter = 0;
+      droppedCounter = 0;
     }
 
     /**
@@ -195,13 +275,19 @@ public abstract class GoraEdgeInputFormat
       boolean flg = false;
       try {
         flg = this.getReadResults().next();
-        this.edge = transformEdge(this.getReadResults().get());
-        RECORD_COUNTER++;
+        while (flg && dropRecord()) {
+          droppedCounter++;
+          flg = this.getReadResults().next();
+        }
+        if (flg) {
+          this.edge = transformEdge(this.getReadResults().get());
+          recordCounter++;
+        }
       } catch (Exception e) {
         LOG.debug("Error transforming vertices.");
         flg = false;
       }
-      LOG.debug(RECORD_COUNTER + " were transformed.");
+      LOG.debug(recordCounter + " were transformed.");
       return flg;
     }
     // CHECKSTYLE: resume IllegalCatch
@@ -238,12 +324,34 @@ public abstract class GoraEdgeInputFormat
      */
     protected abstract Edge<I, E> transformEdge(Object goraObject);
 
+    /**
+     * Checks the current record against the configured record filter.
+     * @return true if the current record should be dropped.
+     */
+    @SuppressWarnings("unchecked")
+    private boolean dropRecord() {
+      return recordFilter != null && recordFilter.dropRecord(
+          getReadResults().getKey(), getReadResults().get());
+    }
+
     /**
      * Performs a range query to a Gora data store.
      */
     protected void getResults() {
-      setReadResults(GoraUtils.getRequest(getDataStore(),
-          getStartKey(), getEndKey()));
+      Query query = GoraUtils.getQuery(getDataStore(),
+          getStartKey(), getEndKey());
+      GoraUtils.setFields(query, getFields());
+      setReadResults(GoraUtils.getRequest(getDataStore(), query));
+    }
+
+    /**
+     * Performs the query of a single input split to a Gora data store, so
+     * that each reader only scans the key range of its own partition.
+     * @param partitionQuery query carried by the input split.
+     */
+    protected void getResults(PartitionQuery partitionQuery) {
+      setReadResults(GoraUtils.getPartitionRequest(getDataStore(),
+          partitionQuery, getFields()));
     }
 
     /**
@@ -252,6 +360,23 @@ public abstract class GoraEdgeInputFormat
      */
     @Override
     public void close() throws IOException {
+      if (droppedCounter > 0 && LOG.isInfoEnabled()) {
+        LOG.info("close: Dropped " + droppedCounter + " records, kept " +
+            recordCounter);
+      }
+      if (getReadResults() != null) {
+        getReadResults().close();
+      }
+      releaseDataStore(dataStore);
+      dataStore = null;
+    }
+
+    /**
+     * Gets the data store handle of this reader.
+     * @return DataStore
+     */
+    public DataStore getDataStore() {
+      return dataStore;
     }
 
     /**
@@ -271,68 +396,52 @@ public abstract class GoraEdgeInputFormat
     }
   }
 
-  /**
-   * Gets the data store object initialized.
-   * @return DataStore created
-   */
-  public DataStore createDataStore() {
-    DataStore dsCreated = null;
-    try {
-      dsCreated = GoraUtils.createSpecificDataStore(getDatastoreClass(),
-          getKeyClass(), getPersistentClass());
-    } catch (GoraException e) {
-      LOG.error("Error creating data store.");
-      e.printStackTrace();
-    }
-    return dsCreated;
-  }
-
   /**
    * Gets the persistent Class
    * @return persistentClass used
    */
-  static Class<? extends Persistent> getPersistentClass() {
-    return PERSISTENT_CLASS;
+  Class<? extends Persistent> getPersistentClass() {
+    return persistentClass;
   }
 
   /**
    * Sets the persistent Class
    * @param persistentClassUsed to be set
    */
-  static void setPersistentClass
+  void setPersistentClass
   (Class<? extends Persistent> persistentClassUsed) {
-    PERSISTENT_CLASS = persistentClassUsed;
+    persistentClass = persistentClassUsed;
   }
 
   /**
    * Gets the key class used.
    * @return the key class used.
    */
-  static Class<?> getKeyClass() {
-    return KEY_CLASS;
+  Class<?> getKeyClass() {
+    return keyClass;
   }
 
   /**
    * Sets the key class used.
    * @param keyClassUsed key class used.
    */
-  static void setKeyClass(Class<?> keyClassUsed) {
-    KEY_CLASS = keyClassUsed;
+  void setKeyClass(Class<?> keyClassUsed) {
+    keyClass = keyClassUsed;
   }
 
   /**
-   * @return Class the DATASTORE_CLASS
+   * @return Class the data store class
    */
-  public static Class<? extends DataStore> getDatastoreClass() {
-    return DATASTORE_CLASS;
+  public Class<? extends DataStore> getDatastoreClass() {
+    return datastoreClass;
   }
 
   /**
    * @param dataStoreClass the dataStore class to set
    */
-  public static void setDatastoreClass(
+  public void setDatastoreClass(
       Class<? extends DataStore> dataStoreClass) {
-    DATASTORE_CLASS = dataStoreClass;
+    datastoreClass = dataStoreClass;
   }
 
   /**
@@ -340,63 +449,63 @@ public abstract class GoraEdgeInputFormat
    * @return the start key.
    */
   public Object getStartKey() {
-    return START_KEY;
+    return startKey;
   }
 
   /**
    * Gets the start key for querying.
-   * @param startKey start key.
+   * @param pStartKey start key.
    */
-  public static void setStartKey(Object startKey) {
-    START_KEY = startKey;
+  public void setStartKey(Object pStartKey) {
+    startKey = pStartKey;
   }
 
   /**
    * Gets the end key for querying.
    * @return the end key.
    */
-  static Object getEndKey() {
-    return END_KEY;
+  Object getEndKey() {
+    return endKey;
   }
 
   /**
    * Sets the end key for querying.
    * @param pEndKey start key.
    */
-  static void setEndKey(Object pEndKey) {
-    END_KEY = pEndKey;
+  void setEndKey(Object pEndKey) {
+    endKey = pEndKey;
   }
 
   /**
-   * Gets the key factory class.
-   * @return the kEY_FACTORY_CLASS
+   * Gets the fields fetched from the data store.
+   * @return the fields fetched, null for all fields.
    */
-  static Class<?> getKeyFactoryClass() {
-    return KEY_FACTORY_CLASS;
+  public String[] getFields() {
+    return fields;
   }
 
   /**
-   * Sets the key factory class.
-   * @param keyFactoryClass the keyFactoryClass to set.
+   * Sets the fields fetched from the data store.
+   * @param pFields the fields to fetch, null for all fields.
    */
-  static void setKeyFactoryClass(Class<?> keyFactoryClass) {
-    KEY_FACTORY_CLASS = keyFactoryClass;
+  public void setFields(String[] pFields) {
+    fields = pFields;
   }
 
   /**
-   * Gets the data store.
-   * @return DataStore
+   * Gets the key factory class.
+   * @return the key factory class
    */
-  public static DataStore getDataStore() {
-    return DATA_STORE;
+  Class<?> getKeyFactoryClass() {
+    return keyFactoryClass;
   }
 
   /**
-   * Sets the data store
-   * @param dStore the dATA_STORE to set
+   * Sets the key factory class.
+   * @param pKeyFactoryClass the keyFactoryClass to set.
    */
-  public static void setDataStore(DataStore dStore) {
-    DATA_STORE = dStore;
+  void setKeyFactoryClass(Class<?> pKeyFactoryClass) {
+    keyFactoryClass = pKeyFactoryClass;
   }
 
   /**
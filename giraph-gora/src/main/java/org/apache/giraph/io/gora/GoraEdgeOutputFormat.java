@@ -17,16 +17,20 @@
  */
 package org.apache.giraph.io.gora;
 
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_OUTPUT_BATCH_SIZE;
 import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_OUTPUT_DATASTORE_CLASS;
 import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_OUTPUT_KEY_CLASS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_OUTPUT_MAX_PENDING_BATCHES;
 import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_OUTPUT_PERSISTENT_CLASS;
 
 import java.io.IOException;
 
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.io.EdgeOutputFormat;
 import org.apache.giraph.io.EdgeWriter;
-import org.apache.giraph.io.gora.utils.GoraUtils;
+import org.apache.giraph.io.gora.utils.GoraBatchWriter;
+import org.apache.giraph.io.gora.utils.GoraDataStorePool;
 import org.apache.gora.persistency.Persistent;
 import org.apache.gora.store.DataStore;
 import org.apache.gora.util.GoraException;
@@ -58,16 +62,37 @@ public abstract class GoraEdgeOutputFormat<I extends WritableComparable,
           Logger.getLogger(GoraEdgeOutputFormat.class);
 
   /** KeyClass used for getting data. */
-  private static Class<?> KEY_CLASS;
+  private Class<?> keyClass;
 
   /** The vertex itself will be used as a value inside Gora. */
-  private static Class<? extends Persistent> PERSISTENT_CLASS;
+  private Class<? extends Persistent> persistentClass;
 
   /** Data store class to be used as backend. */
-  private static Class<? extends DataStore> DATASTORE_CLASS;
+  private Class<? extends DataStore> datastoreClass;
 
-  /** Data store used for querying data. */
-  private static DataStore DATA_STORE;
+  @Override
+  public void setConf(ImmutableClassesGiraphConfiguration<I, V, E> conf) {
+    super.setConf(conf);
+    String sDataStoreType =
+      GIRAPH_GORA_OUTPUT_DATASTORE_CLASS.get(getConf());
+    String sKeyType =
+      GIRAPH_GORA_OUTPUT_KEY_CLASS.get(getConf());
+    String sPersistentType =
+      GIRAPH_GORA_OUTPUT_PERSISTENT_CLASS.get(getConf());
+    if (sDataStoreType == null) {
+      return;
+    }
+    try {
+      setKeyClass(Class.forName(sKeyType));
+      setPersistentClass(
+          (Class<? extends Persistent>) Class.forName(sPersistentType));
+      setDatastoreClass(
+          (Class<? extends DataStore>) Class.forName(sDataStoreType));
+    } catch (ClassNotFoundException e) {
+      getLogger().error("Error while reading Gora Output parameters");
+      e.printStackTrace();
+    }
+  }
 
   /**
    * checkOutputSpecs
@@ -82,19 +107,26 @@ public abstract class GoraEdgeOutputFormat<I extends WritableComparable,
   }
 
   /**
-   * Gets the data store object initialized.
-   * @return DataStore created
+   * Borrows a data store handle from the pool. The handle must be given back
+   * with {@link #releaseDataStore(DataStore)}.
+   * @return DataStore borrowed
    */
-  public DataStore createDataStore() {
-    DataStore dsCreated = null;
+  public DataStore borrowDataStore() {
     try {
-      dsCreated = GoraUtils.createSpecificDataStore(getDatastoreClass(),
+      return GoraDataStorePool.borrow(getConf(), getDatastoreClass(),
           getKeyClass(), getPersistentClass());
     } catch (GoraException e) {
-      getLogger().error("Error creating data store.");
-      e.printStackTrace();
+      throw new IllegalStateException(
+          "borrowDataStore: Error creating data store", e);
     }
-    return dsCreated;
+  }
+
+  /**
+   * Gives a data store handle back to the pool, flushing pending writes.
+   * @param dataStore DataStore previously borrowed
+   */
+  public void releaseDataStore(DataStore dataStore) {
+    GoraDataStorePool.release(getConf(), dataStore);
   }
 
   @Override
@@ -117,18 +149,23 @@ public abstract class GoraEdgeOutputFormat<I extends WritableComparable,
   }
 
   /**
-   * Empty output commiter for hadoop.
+   * Output commiter for hadoop. Nothing is committed, the task end only
+   * closes the idle data store handles of the pool.
    */
   private static class NullOutputCommitter extends OutputCommitter {
     @Override
-    public void abortTask(TaskAttemptContext arg0) throws IOException {    }
+    public void abortTask(TaskAttemptContext arg0) throws IOException {
+      GoraDataStorePool.closeIdle();
+    }
 
     @Override
-    public void commitTask(TaskAttemptContext arg0) throws IOException {    }
+    public void commitTask(TaskAttemptContext arg0) throws IOException {
+      GoraDataStorePool.closeIdle();
+    }
 
     @Override
     public boolean needsTaskCommit(TaskAttemptContext arg0) throws IOException {
-      return false;
+      return true;
     }
 
     @Override
@@ -143,37 +180,47 @@ public abstract class GoraEdgeOutputFormat<I extends WritableComparable,
    * vertex/edges output.
    */
   protected abstract class GoraEdgeWriter extends EdgeWriter<I, V, E> {
+    /** Data store handle owned by this writer. */
+    private DataStore dataStore;
+    /** Writer batching puts, null when puts go directly to the store. */
+    private GoraBatchWriter<Object, Persistent> batchWriter;
+
     @Override
-    public void initialize(TaskAttemptContext context) throws IOException,
-      InterruptedException {
-      String sDataStoreType =
-          GIRAPH_GORA_OUTPUT_DATASTORE_CLASS.get(getConf());
-      String sKeyType =
-          GIRAPH_GORA_OUTPUT_KEY_CLASS.get(getConf());
-      String sPersistentType =
-          GIRAPH_GORA_OUTPUT_PERSISTENT_CLASS.get(getConf());
-      try {
-        Class<?> keyClass = Class.forName(sKeyType);
-        Class<?> persistentClass = Class.forName(sPersistentType);
-        Class<?> dataStoreClass = Class.forName(sDataStoreType);
-        setKeyClass(keyClass);
-        setPersistentClass((Class<? extends Persistent>) persistentClass);
-        setDatastoreClass((Class<? extends DataStore>) dataStoreClass);
-        setDataStore(createDataStore());
-        if (getDataStore() != null) {
-          getLogger().debug("The data store has been created.");
-        }
-      } catch (ClassNotFoundException e) {
-        getLogger().error("Error while reading Gora Output parameters");
-        e.printStackTrace();
+    public void initialize(TaskAttemptContext context)
+      throws IOException, InterruptedException {
+      dataStore = borrowDataStore();
+      if (getLogger().isDebugEnabled()) {
+        getLogger().debug("The output data store has been borrowed.");
+      }
+      int batchSize = GIRAPH_GORA_OUTPUT_BATCH_SIZE.get(getConf());
+      if (batchSize > 0) {
+        @SuppressWarnings("unchecked")
+        DataStore<Object, Persistent> batchDataStore = dataStore;
+        batchWriter = new GoraBatchWriter<Object, Persistent>(batchDataStore,
+            batchSize, GIRAPH_GORA_OUTPUT_MAX_PENDING_BATCHES.get(getConf()));
       }
     }
 
     @Override
     public void close(TaskAttemptContext context)
       throws IOException, InterruptedException {
-      getDataStore().flush();
-      getDataStore().close();
+      try {
+        if (batchWriter != null) {
+          batchWriter.close(context);
+        }
+      } finally {
+        batchWriter = null;
+        releaseDataStore(dataStore);
+        dataStore = null;
+      }
+    }
+
+    /**
+     * Gets the data store handle of this writer.
+     * @return DataStore
+     */
+    public DataStore getDataStore() {
+      return dataStore;
     }
 
     @Override
@@ -182,12 +229,17 @@ public abstract class GoraEdgeOutputFormat<I extends WritableComparable,
       Persistent goraEdge = null;
       Object goraKey = getGoraKey(srcId, srcValue, edge);
       goraEdge = getGoraEdge(srcId, srcValue, edge);
-      getDataStore().put(goraKey, goraEdge);
+      if (batchWriter != null) {
+        batchWriter.put(goraKey, goraEdge);
+      } else {
+        getDataStore().put(goraKey, goraEdge);
+      }
     }
 
     /**
      * Each edge needs to be transformed into a Gora object to be sent to
-     * a specific data store.
+     * a specific data store. With batched output the object is written
+     * later, so a new one must be returned for each call.
      *
      * @param  edge   edge to be transformed into a Gora object
      * @param  srcId  source vertex id
@@ -198,7 +250,9 @@ public abstract class GoraEdgeOutputFormat<I extends WritableComparable,
       (I srcId, V srcValue, Edge<I, E> edge);
 
     /**
-     * Gets the correct key from a computed vertex.
+     * Gets the correct key from a computed vertex. With batched output the
+     * key is written later too, so a new one must be returned for each call
+     * instead of an object Giraph reuses, such as a vertex id itself.
      * @param edge  edge to extract the key from.
      * @param  srcId  source vertex id
      * @param  srcValue  source vertex value
@@ -207,68 +261,52 @@ public abstract class GoraEdgeOutputFormat<I extends WritableComparable,
     protected abstract Object getGoraKey(I srcId, V srcValue, Edge<I, E> edge);
   }
 
-  /**
-   * Gets the data store.
-   * @return DataStore
-   */
-  public static DataStore getDataStore() {
-    return DATA_STORE;
-  }
-
-  /**
-   * Sets the data store
-   * @param dStore the dATA_STORE to set
-   */
-  public static void setDataStore(DataStore dStore) {
-    DATA_STORE = dStore;
-  }
-
   /**
    * Gets the persistent Class
    * @return persistentClass used
    */
-  static Class<? extends Persistent> getPersistentClass() {
-    return PERSISTENT_CLASS;
+  Class<? extends Persistent> getPersistentClass() {
+    return persistentClass;
   }
 
   /**
    * Sets the persistent Class
    * @param persistentClassUsed to be set
    */
-  static void setPersistentClass
+  void setPersistentClass
   (Class<? extends Persistent> persistentClassUsed) {
-    PERSISTENT_CLASS = persistentClassUsed;
+    persistentClass = persistentClassUsed;
   }
 
   /**
    * Gets the key class used.
    * @return the key class used.
    */
-  static Class<?> getKeyClass() {
-    return KEY_CLASS;
+  Class<?> getKeyClass() {
+    return keyClass;
   }
 
   /**
    * Sets the key class used.
    * @param keyClassUsed key class used.
    */
-  static void setKeyClass(Class<?> keyClassUsed) {
-    KEY_CLASS = keyClassUsed;
+  void setKeyClass(Class<?> keyClassUsed) {
+    keyClass = keyClassUsed;
   }
 
   /**
-   * @return Class the DATASTORE_CLASS
+   * @return Class the data store class
    */
-  public static Class<? extends DataStore> getDatastoreClass() {
-    return DATASTORE_CLASS;
+  public Class<? extends DataStore> getDatastoreClass() {
+    return datastoreClass;
   }
 
   /**
    * @param dataStoreClass the dataStore class to set
    */
-  public static void setDatastoreClass(
+  public void setDatastoreClass(
       Class<? extends DataStore> dataStoreClass) {
-    DATASTORE_CLASS = dataStoreClass;
+    datastoreClass = dataStoreClass;
   }
 
   /**
@@ -0,0 +1,135 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.io.gora;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.LongBuffer;
+
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.edge.OutEdges;
+import org.apache.giraph.edge.ReusableEdge;
+import org.apache.giraph.edge.ReuseObjectsOutEdges;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.gora.generated.GPackedVertex;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Reader for {@link GPackedVertex} beans, whose out-edges are stored as
+ * packed primitive arrays. Edges are decoded straight into the configured
+ * {@link OutEdges} without any string parsing.
+ */
+public class GoraGPackedVertexVertexInputFormat
+  extends GoraVertexInputFormat<LongWritable, DoubleWritable,
+          FloatWritable> {
+
+  /**
+   * Default constructor
+   */
+  public GoraGPackedVertexVertexInputFormat() {
+  }
+
+  /**
+   * Creates specific vertex reader to be used inside Hadoop.
+   * @param split split to be read.
+   * @param context JobContext to be used.
+   * @return GoraVertexReader Vertex reader to be used by Hadoop.
+   */
+  @Override
+  public GoraVertexReader createVertexReader(
+      InputSplit split, TaskAttemptContext context) throws IOException {
+    return new GoraGPackedVertexVertexReader();
+  }
+
+  /**
+   * Gora packed vertex reader
+   */
+  protected class GoraGPackedVertexVertexReader extends GoraVertexReader {
+
+    /**
+     * Transforms a GoraObject into a Vertex object.
+     * @param goraObject Object from Gora to be translated.
+     * @return Vertex Result from transforming the gora object.
+     */
+    @Override
+    protected Vertex<LongWritable, DoubleWritable, FloatWritable>
+    transformVertex(Object goraObject) {
+      GPackedVertex packedVertex = (GPackedVertex) goraObject;
+      LongBuffer targetIds = asLongBuffer(packedVertex.getTargetIds());
+      FloatBuffer weights = asFloatBuffer(packedVertex.getWeights());
+      int numEdges = targetIds.remaining();
+      if (weights.remaining() != numEdges) {
+        throw new IllegalStateException("transformVertex: Vertex " +
+            packedVertex.getVertexId() + " has " + numEdges +
+            " target ids but " + weights.remaining() + " weights");
+      }
+
+      OutEdges<LongWritable, FloatWritable> edges =
+          getConf().createAndInitializeOutEdges(numEdges);
+      if (edges instanceof ReuseObjectsOutEdges) {
+        ReusableEdge<LongWritable, FloatWritable> edge =
+            getConf().createReusableEdge();
+        for (int i = 0; i < numEdges; i++) {
+          edge.getTargetVertexId().set(targetIds.get(i));
+          edge.getValue().set(weights.get(i));
+          edges.add(edge);
+        }
+      } else {
+        for (int i = 0; i < numEdges; i++) {
+          edges.add(EdgeFactory.create(new LongWritable(targetIds.get(i)),
+              new FloatWritable(weights.get(i))));
+        }
+      }
+
+      Vertex<LongWritable, DoubleWritable, FloatWritable> vertex =
+          getConf().createVertex();
+      vertex.initialize(new LongWritable(packedVertex.getVertexId()),
+          new DoubleWritable(packedVertex.getValue()), edges);
+      return vertex;
+    }
+  }
+
+  /**
+   * Views packed bytes as longs without copying them.
+   * @param bytes Packed bytes, may be null.
+   * @return Long view of the remaining bytes.
+   */
+  private static LongBuffer asLongBuffer(ByteBuffer bytes) {
+    if (bytes == null) {
+      return LongBuffer.allocate(0);
+    }
+    return bytes.duplicate().asLongBuffer();
+  }
+
+  /**
+   * Views packed bytes as floats without copying them.
+   * @param bytes Packed bytes, may be null.
+   * @return Float view of the remaining bytes.
+   */
+  private static FloatBuffer asFloatBuffer(ByteBuffer bytes) {
+    if (bytes == null) {
+      return FloatBuffer.allocate(0);
+    }
+    return bytes.duplicate().asFloatBuffer();
+  }
+}
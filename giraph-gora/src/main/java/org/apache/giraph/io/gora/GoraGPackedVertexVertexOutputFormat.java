@@ -0,0 +1,86 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.io.gora;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.VertexWriter;
+import org.apache.giraph.io.gora.generated.GPackedVertexResult;
+import org.apache.gora.persistency.Persistent;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Writer for {@link GPackedVertexResult} beans, packing out-edges into
+ * primitive arrays instead of a map of strings.
+ */
+public class GoraGPackedVertexVertexOutputFormat
+  extends GoraVertexOutputFormat<LongWritable, DoubleWritable,
+  FloatWritable> {
+
+  /**
+   * Default constructor
+   */
+  public GoraGPackedVertexVertexOutputFormat() {
+  }
+
+  @Override
+  public VertexWriter<LongWritable, DoubleWritable, FloatWritable>
+  createVertexWriter(TaskAttemptContext context)
+    throws IOException, InterruptedException {
+    return new GoraGPackedVertexVertexWriter();
+  }
+
+  /**
+   * Gora packed vertex writer.
+   */
+  protected class GoraGPackedVertexVertexWriter extends GoraVertexWriter {
+
+    @Override
+    protected Persistent getGoraVertex(
+        Vertex<LongWritable, DoubleWritable, FloatWritable> vertex) {
+      int numEdges = vertex.getNumEdges();
+      ByteBuffer targetIds = ByteBuffer.allocate(numEdges * 8);
+      ByteBuffer weights = ByteBuffer.allocate(numEdges * 4);
+      for (Edge<LongWritable, FloatWritable> edge : vertex.getEdges()) {
+        targetIds.putLong(edge.getTargetVertexId().get());
+        weights.putFloat(edge.getValue().get());
+      }
+      targetIds.flip();
+      weights.flip();
+
+      GPackedVertexResult packedVertex = new GPackedVertexResult();
+      packedVertex.setVertexId(vertex.getId().get());
+      packedVertex.setValue((float) vertex.getValue().get());
+      packedVertex.setTargetIds(targetIds);
+      packedVertex.setWeights(weights);
+      return packedVertex;
+    }
+
+    @Override
+    protected Object getGoraKey(
+        Vertex<LongWritable, DoubleWritable, FloatWritable> vertex) {
+      return String.valueOf(vertex.getId());
+    }
+  }
+}
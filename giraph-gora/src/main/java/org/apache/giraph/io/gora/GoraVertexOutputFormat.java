@@ -17,16 +17,20 @@
  */
 package org.apache.giraph.io.gora;
 
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_OUTPUT_BATCH_SIZE;
 import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_OUTPUT_DATASTORE_CLASS;
 import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_OUTPUT_KEY_CLASS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_OUTPUT_MAX_PENDING_BATCHES;
 import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_OUTPUT_PERSISTENT_CLASS;
 
 import java.io.IOException;
 
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.io.VertexOutputFormat;
 import org.apache.giraph.io.VertexWriter;
-import org.apache.giraph.io.gora.utils.GoraUtils;
+import org.apache.giraph.io.gora.utils.GoraBatchWriter;
+import org.apache.giraph.io.gora.utils.GoraDataStorePool;
 import org.apache.gora.persistency.Persistent;
 import org.apache.gora.store.DataStore;
 import org.apache.gora.util.GoraException;
@@ -48,6 +52,10 @@ import org.apache.zookeeper.Watcher.Event.EventType;
  *  Works with
  *  {@link GoraVertexInputFormat}
  *
+ *  For iterative jobs updating the rows written by a previous run, set
+ *  {@link org.apache.giraph.conf.GiraphConstants#DELTA_OUTPUT} so that only
+ *  the vertices changed during the application are written, and the rows
+ *  of removed vertices deleted.
  *
  * @param <I> vertex id type
  * @param <V>  vertex value type
@@ -64,16 +72,37 @@ public abstract class GoraVertexOutputFormat<
         Logger.getLogger(GoraVertexOutputFormat.class);
 
   /** KeyClass used for getting data. */
-  private static Class<?> KEY_CLASS;
+  private Class<?> keyClass;
 
   /** The vertex itself will be used as a value inside Gora. */
-  private static Class<? extends Persistent> PERSISTENT_CLASS;
+  private Class<? extends Persistent> persistentClass;
 
   /** Data store class to be used as backend. */
-  private static Class<? extends DataStore> DATASTORE_CLASS;
+  private Class<? extends DataStore> datastoreClass;
 
-  /** Data store used for querying data. */
-  private static DataStore DATA_STORE;
+  @Override
+  public void setConf(ImmutableClassesGiraphConfiguration<I, V, E> conf) {
+    super.setConf(conf);
+    String sDataStoreType =
+      GIRAPH_GORA_OUTPUT_DATASTORE_CLASS.get(getConf());
+    String sKeyType =
+      GIRAPH_GORA_OUTPUT_KEY_CLASS.get(getConf());
+    String sPersistentType =
+      GIRAPH_GORA_OUTPUT_PERSISTENT_CLASS.get(getConf());
+    if (sDataStoreType == null) {
+      return;
+    }
+    try {
+      setKeyClass(Class.forName(sKeyType));
+      setPersistentClass(
+          (Class<? extends Persistent>) Class.forName(sPersistentType));
+      setDatastoreClass(
+          (Class<? extends DataStore>) Class.forName(sDataStoreType));
+    } catch (ClassNotFoundException e) {
+      getLogger().error("Error while reading Gora Output parameters");
+      e.printStackTrace();
+    }
+  }
 
   /**
    * checkOutputSpecs
@@ -88,19 +117,26 @@ public abstract class GoraVertexOutputFormat<
   }
 
   /**
-   * Gets the data store object initialized.
-   * @return DataStore created
+   * Borrows a data store handle from the pool. The handle must be given back
+   * with {@link #releaseDataStore(DataStore)}.
+   * @return DataStore borrowed
    */
-  public DataStore createDataStore() {
-    DataStore dsCreated = null;
+  public DataStore borrowDataStore() {
     try {
-      dsCreated = GoraUtils.createSpecificDataStore(getDatastoreClass(),
+      return GoraDataStorePool.borrow(getConf(), getDatastoreClass(),
           getKeyClass(), getPersistentClass());
     } catch (GoraException e) {
-      getLogger().error("Error creating data store.");
-      e.printStackTrace();
+      throw new IllegalStateException(
+          "borrowDataStore: Error creating data store", e);
     }
-    return dsCreated;
+  }
+
+  /**
+   * Gives a data store handle back to the pool, flushing pending writes.
+   * @param dataStore DataStore previously borrowed
+   */
+  public void releaseDataStore(DataStore dataStore) {
+    GoraDataStorePool.release(getConf(), dataStore);
   }
 
   /**
@@ -118,18 +154,23 @@ public abstract class GoraVertexOutputFormat<
   }
 
   /**
-   * Empty output commiter for hadoop.
+   * Output commiter for hadoop. Nothing is committed, the task end only
+   * closes the idle data store handles of the pool.
    */
   private static class NullOutputCommitter extends OutputCommitter {
     @Override
-    public void abortTask(TaskAttemptContext arg0) throws IOException {    }
+    public void abortTask(TaskAttemptContext arg0) throws IOException {
+      GoraDataStorePool.closeIdle();
+    }
 
     @Override
-    public void commitTask(TaskAttemptContext arg0) throws IOException {    }
+    public void commitTask(TaskAttemptContext arg0) throws IOException {
+      GoraDataStorePool.closeIdle();
+    }
 
     @Override
     public boolean needsTaskCommit(TaskAttemptContext arg0) throws IOException {
-      return false;
+      return true;
     }
 
     @Override
@@ -149,38 +190,47 @@ public abstract class GoraVertexOutputFormat<
     implements Watcher {
     /** lock for management of the barrier */
     private final Object lock = new Object();
+    /** Data store handle owned by this writer. */
+    private DataStore dataStore;
+    /** Writer batching puts, null when puts go directly to the store. */
+    private GoraBatchWriter<Object, Persistent> batchWriter;
 
     @Override
     public void initialize(TaskAttemptContext context)
       throws IOException, InterruptedException {
-      String sDataStoreType =
-        GIRAPH_GORA_OUTPUT_DATASTORE_CLASS.get(getConf());
-      String sKeyType =
-        GIRAPH_GORA_OUTPUT_KEY_CLASS.get(getConf());
-      String sPersistentType =
-        GIRAPH_GORA_OUTPUT_PERSISTENT_CLASS.get(getConf());
-      try {
-        Class<?> keyClass = Class.forName(sKeyType);
-        Class<?> persistentClass = Class.forName(sPersistentType);
-        Class<?> dataStoreClass = Class.forName(sDataStoreType);
-        setKeyClass(keyClass);
-        setPersistentClass((Class<? extends Persistent>) persistentClass);
-        setDatastoreClass((Class<? extends DataStore>) dataStoreClass);
-        setDataStore(createDataStore());
-        if (getDataStore() != null) {
-          getLogger().info("The output data store has been created.");
-        }
-      } catch (ClassNotFoundException e) {
-        getLogger().error("Error while reading Gora Output parameters");
-        e.printStackTrace();
+      dataStore = borrowDataStore();
+      if (getLogger().isDebugEnabled()) {
+        getLogger().debug("The output data store has been borrowed.");
+      }
+      int batchSize = GIRAPH_GORA_OUTPUT_BATCH_SIZE.get(getConf());
+      if (batchSize > 0) {
+        @SuppressWarnings("unchecked")
+        DataStore<Object, Persistent> batchDataStore = dataStore;
+        batchWriter = new GoraBatchWriter<Object, Persistent>(batchDataStore,
+            batchSize, GIRAPH_GORA_OUTPUT_MAX_PENDING_BATCHES.get(getConf()));
       }
     }
 
     @Override
     public void close(TaskAttemptContext context)
       throws IOException, InterruptedException {
-      getDataStore().flush();
-      getDataStore().close();
+      try {
+        if (batchWriter != null) {
+          batchWriter.close(context);
+        }
+      } finally {
+        batchWriter = null;
+        releaseDataStore(dataStore);
+        dataStore = null;
+      }
+    }
+
+    /**
+     * Gets the data store handle of this writer.
+     * @return DataStore
+     */
+    public DataStore getDataStore() {
+      return dataStore;
     }
 
     @Override
@@ -189,7 +239,22 @@ public abstract class GoraVertexOutputFormat<
       Persistent goraVertex = null;
       Object goraKey = getGoraKey(vertex);
       goraVertex = getGoraVertex(vertex);
-      getDataStore().put(goraKey, goraVertex);
+      if (batchWriter != null) {
+        batchWriter.put(goraKey, goraVertex);
+      } else {
+        getDataStore().put(goraKey, goraVertex);
+      }
+    }
+
+    @Override
+    public void removeVertex(I vertexId)
+      throws IOException, InterruptedException {
+      Object goraKey = getGoraKey(vertexId);
+      if (batchWriter != null) {
+        batchWriter.delete(goraKey);
+      } else {
+        getDataStore().delete(goraKey);
+      }
     }
 
     @Override
@@ -207,7 +272,8 @@ public abstract class GoraVertexOutputFormat<
 
     /**
      * Each vertex needs to be transformed into a Gora object to be sent to
-     * a specific data store.
+     * a specific data store. With batched output the object is written
+     * later, so a new one must be returned for each call.
      *
      * @param  vertex   vertex to be transformed into a Gora object
      * @return          Gora representation of the vertex
@@ -215,76 +281,75 @@ public abstract class GoraVertexOutputFormat<
     protected abstract Persistent getGoraVertex(Vertex<I, V, E> vertex);
 
     /**
-     * Gets the correct key from a computed vertex.
+     * Gets the correct key from a computed vertex. With batched output the
+     * key is written later too, so a new one must be returned for each call
+     * instead of an object Giraph reuses, such as the vertex id itself.
      * @param vertex  vertex to extract the key from.
      * @return        The key representing such vertex
      */
     protected abstract Object getGoraKey(Vertex<I, V, E> vertex);
 
-  }
-
-  /**
-   * Gets the data store.
-   * @return DataStore
-   */
-  public static DataStore getDataStore() {
-    return DATA_STORE;
-  }
+    /**
+     * Gets the key of a removed vertex, to delete it. By default this is the
+     * key of a vertex with the same id and a default value; override it if
+     * keys depend on more than the vertex id.
+     * @param vertexId id of the removed vertex.
+     * @return         The key representing such vertex
+     */
+    protected Object getGoraKey(I vertexId) {
+      Vertex<I, V, E> vertex = getConf().createVertex();
+      vertex.initialize(vertexId, getConf().createVertexValue());
+      return getGoraKey(vertex);
+    }
 
-  /**
-   * Sets the data store
-   * @param dStore the dATA_STORE to set
-   */
-  public static void setDataStore(DataStore dStore) {
-    DATA_STORE = dStore;
   }
 
   /**
    * Gets the persistent Class
    * @return persistentClass used
    */
-  static Class<? extends Persistent> getPersistentClass() {
-    return PERSISTENT_CLASS;
+  Class<? extends Persistent> getPersistentClass() {
+    return persistentClass;
   }
 
   /**
    * Sets the persistent Class
    * @param persistentClassUsed to be set
    */
-  static void setPersistentClass
+  void setPersistentClass
   (Class<? extends Persistent> persistentClassUsed) {
-    PERSISTENT_CLASS = persistentClassUsed;
+    persistentClass = persistentClassUsed;
   }
 
   /**
    * Gets the key class used.
    * @return the key class used.
    */
-  static Class<?> getKeyClass() {
-    return KEY_CLASS;
+  Class<?> getKeyClass() {
+    return keyClass;
   }
 
   /**
    * Sets the key class used.
    * @param keyClassUsed key class used.
    */
-  static void setKeyClass(Class<?> keyClassUsed) {
-    KEY_CLASS = keyClassUsed;
+  void setKeyClass(Class<?> keyClassUsed) {
+    keyClass = keyClassUsed;
   }
 
   /**
-   * @return Class the DATASTORE_CLASS
+   * @return Class the data store class
    */
-  public static Class<? extends DataStore> getDatastoreClass() {
-    return DATASTORE_CLASS;
+  public Class<? extends DataStore> getDatastoreClass() {
+    return datastoreClass;
   }
 
   /**
    * @param dataStoreClass the dataStore class to set
    */
-  public static void setDatastoreClass(
+  public void setDatastoreClass(
       Class<? extends DataStore> dataStoreClass) {
-    DATASTORE_CLASS = dataStoreClass;
+    datastoreClass = dataStoreClass;
   }
 
   /**
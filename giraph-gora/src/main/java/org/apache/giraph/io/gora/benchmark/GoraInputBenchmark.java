@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.io.gora.benchmark;
+
+import java.io.IOException;
+import java.util.Set;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.giraph.benchmark.BenchmarkOption;
+import org.apache.giraph.benchmark.GiraphBenchmark;
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.gora.GoraGPackedVertexVertexInputFormat;
+import org.apache.giraph.io.gora.GoraGVertexVertexInputFormat;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Sets;
+
+/**
+ * Benchmark of vertex loading through {@link GoraGVertexVertexInputFormat},
+ * or {@link GoraGPackedVertexVertexInputFormat} with -p. The Gora data store
+ * is configured as usual with the giraph.gora.* options (passed with -D),
+ * and the job only loads the graph. Run it with an increasing number of
+ * input threads and compare the input superstep time to get load throughput
+ * versus thread count; run it against the same graph stored with both
+ * encodings to compare string maps with packed edges.
+ */
+public class GoraInputBenchmark extends GiraphBenchmark {
+  /** Class logger */
+  private static final Logger LOG =
+      Logger.getLogger(GoraInputBenchmark.class);
+
+  /** Option for number of input threads */
+  private static final BenchmarkOption INPUT_THREADS = new BenchmarkOption(
+      "t", "inputThreads", true, "Number of input threads per worker",
+      "Need to set the number of input threads (-t)");
+  /** Option for reading packed vertices */
+  private static final BenchmarkOption PACKED = new BenchmarkOption(
+      "p", "packed", false, "Read GPackedVertex instead of GVertex");
+
+  @Override
+  public Set<BenchmarkOption> getBenchmarkOptions() {
+    return Sets.newHashSet(INPUT_THREADS, PACKED);
+  }
+
+  @Override
+  protected void prepareConfiguration(GiraphConfiguration conf,
+      CommandLine cmd) {
+    conf.setComputationClass(LoadOnlyComputation.class);
+    boolean packed = PACKED.optionTurnedOn(cmd);
+    if (packed) {
+      conf.setVertexInputFormatClass(
+          GoraGPackedVertexVertexInputFormat.class);
+    } else {
+      conf.setVertexInputFormatClass(GoraGVertexVertexInputFormat.class);
+    }
+    int inputThreads = INPUT_THREADS.getOptionIntValue(cmd);
+    conf.setNumInputSplitsThreads(inputThreads);
+    LOG.info("Loading " + (packed ? "packed" : "string map") +
+        " vertices with " + inputThreads + " input threads per worker");
+  }
+
+  /**
+   * Computation which halts right away, so that only loading is measured.
+   */
+  public static class LoadOnlyComputation extends BasicComputation<
+      LongWritable, DoubleWritable, FloatWritable, DoubleWritable> {
+    @Override
+    public void compute(
+        Vertex<LongWritable, DoubleWritable, FloatWritable> vertex,
+        Iterable<DoubleWritable> messages) throws IOException {
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Execute the benchmark.
+   *
+   * @param args Typically the command line arguments.
+   * @throws Exception Any exception from the computation.
+   */
+  public static void main(final String[] args) throws Exception {
+    System.exit(ToolRunner.run(new GoraInputBenchmark(), args));
+  }
+}
@@ -17,7 +17,10 @@
  */
 package org.apache.giraph.io.gora.constants;
 
+import org.apache.giraph.conf.ClassConfOption;
+import org.apache.giraph.conf.IntConfOption;
 import org.apache.giraph.conf.StrConfOption;
+import org.apache.giraph.io.gora.utils.GoraRecordFilter;
 
 /**
  * Constants used all over Giraph for configuration specific for Gora
@@ -52,12 +55,46 @@ public interface GiraphGoraConstants {
     new StrConfOption("giraph.gora.end.key", null,
                       "Gora end key to query the datastore. ");
 
+  /** Gora fields to fetch from the datastore. */
+  StrConfOption GIRAPH_GORA_FIELDS =
+    new StrConfOption("giraph.gora.fields", null,
+                      "Comma-separated persistent fields to fetch from " +
+                      "the datastore, all fields if not set");
+
+  /** Filter for records read from the datastore. */
+  ClassConfOption<GoraRecordFilter> GIRAPH_GORA_RECORD_FILTER_CLASS =
+    ClassConfOption.create("giraph.gora.record.filter.class", null,
+                           GoraRecordFilter.class,
+                           "Filter dropping records read from the " +
+                           "datastore before they are transformed");
+
   /** Gora data store class which provides data access. */
   StrConfOption GIRAPH_GORA_KEYS_FACTORY_CLASS =
     new StrConfOption("giraph.gora.keys.factory.class", null,
                       "Keys factory to convert strings into desired keys" +
                       "- required");
 
+  /** Maximum number of idle data store handles kept for reuse. */
+  IntConfOption GIRAPH_GORA_DATASTORE_POOL_SIZE =
+    new IntConfOption("giraph.gora.datastore.pool.size", 8,
+                      "Maximum number of idle Gora data store handles " +
+                      "kept for reuse by readers and writers");
+
+  // CHECKPOINTS
+  /** Gora data store class which stores checkpoint partitions. */
+  StrConfOption GIRAPH_GORA_CHECKPOINT_DATASTORE_CLASS =
+    new StrConfOption("giraph.gora.checkpoint.datastore.class", null,
+                      "Gora DataStore class to store checkpoint " +
+                      "partitions in. - required for Gora checkpoints");
+
+  /** Prefix of the keys of checkpoint partitions. */
+  StrConfOption GIRAPH_GORA_CHECKPOINT_KEY_PREFIX =
+    new StrConfOption("giraph.gora.checkpoint.key.prefix", null,
+                      "Prefix of the keys of checkpoint partitions, to " +
+                      "keep the checkpoints of several jobs apart. The " +
+                      "checkpoint directory (with the job id by default) " +
+                      "if not set");
+
   // OUTPUT
   /** Gora data store class which provides data access. */
   StrConfOption GIRAPH_GORA_OUTPUT_DATASTORE_CLASS =
@@ -76,5 +113,18 @@ public interface GiraphGoraConstants {
     new StrConfOption("giraph.gora.output.persistent.class", null,
                       "Gora Persistent class to write to Gora. " +
                       "- required");
+
+  /** Number of puts written to the output data store in one batch. */
+  IntConfOption GIRAPH_GORA_OUTPUT_BATCH_SIZE =
+    new IntConfOption("giraph.gora.output.batch.size", 0,
+                      "Number of puts batched and written to the output " +
+                      "data store by a background thread, 0 to put " +
+                      "directly from the writer");
+
+  /** Maximum number of output batches waiting to be written. */
+  IntConfOption GIRAPH_GORA_OUTPUT_MAX_PENDING_BATCHES =
+    new IntConfOption("giraph.gora.output.max.pending.batches", 4,
+                      "Maximum number of output batches waiting to be " +
+                      "written, after which writers block");
 }
 // CHECKSTYLE: resume InterfaceIsTypeCheck
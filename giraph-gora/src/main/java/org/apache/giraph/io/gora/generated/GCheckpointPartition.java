@@ -0,0 +1,255 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.io.gora.generated;
+
+import java.nio.ByteBuffer;
+
+import org.apache.avro.Schema;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.gora.persistency.StateManager;
+import org.apache.gora.persistency.impl.PersistentBase;
+import org.apache.gora.persistency.impl.StateManagerImpl;
+
+/**
+ * Class for storing the serialized partition of a Giraph checkpoint: its
+ * vertices followed by its messages.
+ */
+@SuppressWarnings("all")
+public class GCheckpointPartition extends PersistentBase {
+  /**
+   * Schema used for the class.
+   */
+  public static final Schema OBJ_SCHEMA = Schema.parse(
+      "{\"type\":\"record\",\"name\":\"CheckpointPartition\"," +
+      "\"namespace\":\"org.apache.giraph.gora.generated\"," +
+      "\"fields\":[{\"name\":\"superstep\",\"type\":\"long\"}," +
+      "{\"name\":\"partitionId\",\"type\":\"int\"}," +
+      "{\"name\":\"data\",\"type\":\"bytes\"}]}");
+
+  /**
+   * Field enum
+   */
+  public static enum Field {
+    /**
+     * Superstep
+     */
+    SUPERSTEP(0, "superstep"),
+
+    /**
+     * Partition id
+     */
+    PARTITION_ID(1, "partitionId"),
+
+    /**
+     * Serialized partition
+     */
+    DATA(2, "data");
+
+    /**
+     * Field index
+     */
+    private int index;
+
+    /**
+     * Field name
+     */
+    private String name;
+
+    /**
+     * Field constructor
+     * @param index of attribute
+     * @param name of attribute
+     */
+    Field(int index, String name) {
+      this.index = index;
+      this.name = name;
+    }
+
+    /**
+     * Gets index
+     * @return int of attribute.
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    /**
+     * Gets name
+     * @return String of name.
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Gets name
+     * @return String of name.
+     */
+    public String toString() {
+      return name;
+    }
+  };
+
+  /**
+   * Array containing all fields/
+   */
+  private static final String[] ALL_FIELDS = {
+    "superstep", "partitionId", "data"
+  };
+
+  static {
+    PersistentBase.registerFields(GCheckpointPartition.class, ALL_FIELDS);
+  }
+
+  /**
+   * Superstep
+   */
+  private long superstep;
+
+  /**
+   * Partition id
+   */
+  private int partitionId;
+
+  /**
+   * Serialized partition
+   */
+  private ByteBuffer data;
+
+  /**
+   * Default constructor
+   */
+  public GCheckpointPartition() {
+    this(new StateManagerImpl());
+  }
+
+  /**
+   * Constructor
+   * @param stateManager from which the object will be created.
+   */
+  public GCheckpointPartition(StateManager stateManager) {
+    super(stateManager);
+  }
+
+  /**
+   * Creates a new instance
+   * @param stateManager from which the object will be created.
+   * @return GCheckpointPartition created
+   */
+  public GCheckpointPartition newInstance(StateManager stateManager) {
+    return new GCheckpointPartition(stateManager);
+  }
+
+  /**
+   * Gets the object schema
+   * @return Schema of the object.
+   */
+  public Schema getSchema() {
+    return OBJ_SCHEMA;
+  }
+
+  /**
+   * Gets field
+   * @param fieldIndex index of field to be used.
+   * @return Object from an index.
+   */
+  public Object get(int fieldIndex) {
+    switch (fieldIndex) {
+    case 0:
+      return superstep;
+    case 1:
+      return partitionId;
+    case 2:
+      return data;
+    default:
+      throw new AvroRuntimeException("Bad index");
+    }
+  }
+
+  /**
+   * Puts a value into a field.
+   * @param fieldIndex index of field used.
+   * @param fieldValue value of field used.
+   */
+  @SuppressWarnings(value = "unchecked")
+  public void put(int fieldIndex, Object fieldValue) {
+    if (isFieldEqual(fieldIndex, fieldValue)) {
+      return;
+    }
+    getStateManager().setDirty(this, fieldIndex);
+    switch (fieldIndex) {
+    case 0:
+      superstep = (Long) fieldValue; break;
+    case 1:
+      partitionId = (Integer) fieldValue; break;
+    case 2:
+      data = (ByteBuffer) fieldValue; break;
+    default:
+      throw new AvroRuntimeException("Bad index");
+    }
+  }
+
+  /**
+   * Gets superstep
+   * @return long superstep
+   */
+  public long getSuperstep() {
+    return (Long) get(0);
+  }
+
+  /**
+   * Sets superstep
+   * @param value superstep
+   */
+  public void setSuperstep(long value) {
+    put(0, value);
+  }
+
+  /**
+   * Gets partition id
+   * @return int partition id
+   */
+  public int getPartitionId() {
+    return (Integer) get(1);
+  }
+
+  /**
+   * Sets partition id
+   * @param value partition id
+   */
+  public void setPartitionId(int value) {
+    put(1, value);
+  }
+
+  /**
+   * Gets serialized partition
+   * @return ByteBuffer of serialized partition
+   */
+  public ByteBuffer getData() {
+    return (ByteBuffer) get(2);
+  }
+
+  /**
+   * Sets serialized partition
+   * @param value ByteBuffer of serialized partition
+   */
+  public void setData(ByteBuffer value) {
+    put(2, value);
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.io.gora.generated;
+
+import java.nio.ByteBuffer;
+
+import org.apache.avro.Schema;
+import org.apache.avro.AvroRuntimeException;
+import org.apache.gora.persistency.StateManager;
+import org.apache.gora.persistency.impl.PersistentBase;
+import org.apache.gora.persistency.impl.StateManagerImpl;
+
+/**
+ * Example class for defining a Giraph-Vertex whose out-edges are packed
+ * into primitive arrays: target ids as big-endian longs and edge weights as
+ * big-endian floats, in the same order.
+ */
+@SuppressWarnings("all")
+public class GPackedVertexResult extends PersistentBase {
+  /**
+   * Schema used for the class.
+   */
+  public static final Schema OBJ_SCHEMA = Schema.parse(
+      "{\"type\":\"record\",\"name\":\"PackedVertex\"," +
+      "\"namespace\":\"org.apache.giraph.gora.generated\"," +
+      "\"fields\":[{\"name\":\"vertexId\",\"type\":\"long\"}," +
+      "{\"name\":\"value\",\"type\":\"float\"}," +
+      "{\"name\":\"targetIds\",\"type\":\"bytes\"}," +
+      "{\"name\":\"weights\",\"type\":\"bytes\"}]}");
+
+  /**
+   * Field enum
+   */
+  public static enum Field {
+    /**
+     * VertexId
+     */
+    VERTEX_ID(0, "vertexId"),
+
+    /**
+     * Field value
+     */
+    VALUE(1, "value"),
+
+    /**
+     * Packed target ids
+     */
+    TARGET_IDS(2, "targetIds"),
+
+    /**
+     * Packed edge weights
+     */
+    WEIGHTS(3, "weights");
+
+    /**
+     * Field index
+     */
+    private int index;
+
+    /**
+     * Field name
+     */
+    private String name;
+
+    /**
+     * Field constructor
+     * @param index of attribute
+     * @param name of attribute
+     */
+    Field(int index, String name) {
+      this.index = index;
+      this.name = name;
+    }
+
+    /**
+     * Gets index
+     * @return int of attribute.
+     */
+    public int getIndex() {
+      return index;
+    }
+
+    /**
+     * Gets name
+     * @return String of name.
+     */
+    public String getName() {
+      return name;
+    }
+
+    /**
+     * Gets name
+     * @return String of name.
+     */
+    public String toString() {
+      return name;
+    }
+  };
+
+  /**
+   * Array containing all fields/
+   */
+  private static final String[] ALL_FIELDS = {
+    "vertexId", "value", "targetIds", "weights"
+  };
+
+  static {
+    PersistentBase.registerFields(GPackedVertexResult.class, ALL_FIELDS);
+  }
+
+  /**
+   * Vertex Id
+   */
+  private long vertexId;
+
+  /**
+   * Value
+   */
+  private float value;
+
+  /**
+   * Packed target ids
+   */
+  private ByteBuffer targetIds;
+
+  /**
+   * Packed edge weights
+   */
+  private ByteBuffer weights;
+
+  /**
+   * Default constructor
+   */
+  public GPackedVertexResult() {
+    this(new StateManagerImpl());
+  }
+
+  /**
+   * Constructor
+   * @param stateManager from which the object will be created.
+   */
+  public GPackedVertexResult(StateManager stateManager) {
+    super(stateManager);
+  }
+
+  /**
+   * Creates a new instance
+   * @param stateManager from which the object will be created.
+   * @return GPackedVertexResult created
+   */
+  public GPackedVertexResult newInstance(StateManager stateManager) {
+    return new GPackedVertexResult(stateManager);
+  }
+
+  /**
+   * Gets the object schema
+   * @return Schema of the object.
+   */
+  public Schema getSchema() {
+    return OBJ_SCHEMA;
+  }
+
+  /**
+   * Gets field
+   * @param fieldIndex index of field to be used.
+   * @return Object from an index.
+   */
+  public Object get(int fieldIndex) {
+    switch (fieldIndex) {
+    case 0:
+      return vertexId;
+    case 1:
+      return value;
+    case 2:
+      return targetIds;
+    case 3:
+      return weights;
+    default:
+      throw new AvroRuntimeException("Bad index");
+    }
+  }
+
+  /**
+   * Puts a value into a field.
+   * @param fieldIndex index of field used.
+   * @param fieldValue value of field used.
+   */
+  @SuppressWarnings(value = "unchecked")
+  public void put(int fieldIndex, Object fieldValue) {
+    if (isFieldEqual(fieldIndex, fieldValue)) {
+      return;
+    }
+    getStateManager().setDirty(this, fieldIndex);
+    switch (fieldIndex) {
+    case 0:
+      vertexId = (Long) fieldValue; break;
+    case 1:
+      value = (Float) fieldValue; break;
+    case 2:
+      targetIds = (ByteBuffer) fieldValue; break;
+    case 3:
+      weights = (ByteBuffer) fieldValue; break;
+    default:
+      throw new AvroRuntimeException("Bad index");
+    }
+  }
+
+  /**
+   * Gets vertexId
+   * @return long vertexId
+   */
+  public long getVertexId() {
+    return (Long) get(0);
+  }
+
+  /**
+   * Sets vertexId
+   * @param value vertexId
+   */
+  public void setVertexId(long value) {
+    put(0, value);
+  }
+
+  /**
+   * Gets value
+   * @return float value.
+   */
+  public float getValue() {
+    return (Float) get(1);
+  }
+
+  /**
+   * Sets value
+   * @param value .
+   */
+  public void setValue(float value) {
+    put(1, value);
+  }
+
+  /**
+   * Gets packed target ids.
+   * @return ByteBuffer of target ids.
+   */
+  public ByteBuffer getTargetIds() {
+    return (ByteBuffer) get(2);
+  }
+
+  /**
+   * Sets packed target ids.
+   * @param value ByteBuffer of target ids.
+   */
+  public void setTargetIds(ByteBuffer value) {
+    put(2, value);
+  }
+
+  /**
+   * Gets packed edge weights.
+   * @return ByteBuffer of edge weights.
+   */
+  public ByteBuffer getWeights() {
+    return (ByteBuffer) get(3);
+  }
+
+  /**
+   * Sets packed edge weights.
+   * @param value ByteBuffer of edge weights.
+   */
+  public void setWeights(ByteBuffer value) {
+    put(3, value);
+  }
+}
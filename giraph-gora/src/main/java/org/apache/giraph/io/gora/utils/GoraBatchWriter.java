@@ -0,0 +1,305 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.io.gora.utils;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.giraph.metrics.GiraphMetrics;
+import org.apache.giraph.utils.ProgressableUtils;
+import org.apache.gora.persistency.Persistent;
+import org.apache.gora.store.DataStore;
+import org.apache.hadoop.util.Progressable;
+import org.apache.log4j.Logger;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Timer;
+import com.yammer.metrics.core.TimerContext;
+
+/**
+ * Accumulates puts and deletes to a Gora data store into batches, which are written and
+ * flushed by a background thread. At most a fixed number of batches can be
+ * pending, after which {@link #put(Object, Persistent)} blocks until the
+ * background thread catches up, so a slow data store slows down the writer
+ * instead of filling up the heap.
+ *
+ * Objects passed to {@link #put(Object, Persistent)} are written later from
+ * another thread, so callers must not reuse them.
+ *
+ * @param <K> key class
+ * @param <T> persistent class
+ */
+public class GoraBatchWriter<K, T extends Persistent> {
+  /** Name of the timer tracking the latency of writing a batch */
+  public static final String FLUSH_TIMER_NAME = "gora-batch-flush";
+  /** Name of the histogram tracking batch sizes */
+  public static final String BATCH_SIZE_HISTOGRAM_NAME = "gora-batch-size";
+  /** Class logger */
+  private static final Logger LOG = Logger.getLogger(GoraBatchWriter.class);
+  /** How long to wait for space in the queue before checking the flusher */
+  private static final long OFFER_WAIT_MSECS = 1000;
+
+  /** Data store written to, owned by the flusher thread */
+  private final DataStore<K, T> dataStore;
+  /** Number of puts in each batch */
+  private final int batchSize;
+  /** Batches waiting to be written */
+  private final BlockingQueue<Batch<K, T>> pendingBatches;
+  /** Executor running the flusher thread */
+  private final ExecutorService flusherExecutor;
+  /** Result of the flusher thread */
+  private final Future<Void> flusherResult;
+  /** Latency of writing and flushing one batch */
+  private final Timer flushTimer;
+  /** Sizes of the batches written */
+  private final Histogram batchSizeHistogram;
+  /** Batch currently being filled */
+  private Batch<K, T> currentBatch;
+
+  /**
+   * Constructor
+   *
+   * @param dataStore Data store to write to.
+   * @param batchSize Number of puts in each batch.
+   * @param maxPendingBatches Maximum number of batches waiting to be written.
+   */
+  public GoraBatchWriter(DataStore<K, T> dataStore, int batchSize,
+      int maxPendingBatches) {
+    this.dataStore = dataStore;
+    this.batchSize = batchSize;
+    pendingBatches = new ArrayBlockingQueue<Batch<K, T>>(maxPendingBatches);
+    flushTimer = GiraphMetrics.get().perJobOptional().getTimer(
+        FLUSH_TIMER_NAME, TimeUnit.MILLISECONDS, TimeUnit.SECONDS);
+    batchSizeHistogram = GiraphMetrics.get().perJobOptional().
+        getUniformHistogram(BATCH_SIZE_HISTOGRAM_NAME);
+    currentBatch = new Batch<K, T>(batchSize);
+    flusherExecutor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("gora-flusher-%d").
+            setDaemon(true).build());
+    flusherResult = flusherExecutor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        while (true) {
+          Batch<K, T> batch = pendingBatches.take();
+          if (batch.getSize() == 0) {
+            return null;
+          }
+          writeBatch(batch);
+        }
+      }
+    });
+  }
+
+  /**
+   * Adds a put to the current batch, handing the batch to the flusher thread
+   * once it is full.
+   *
+   * @param key Key to write.
+   * @param value Value to write, not null.
+   * @throws InterruptedException
+   */
+  public void put(K key, T value) throws InterruptedException {
+    if (value == null) {
+      throw new IllegalArgumentException("put: Null value for key " + key);
+    }
+    add(key, value);
+  }
+
+  /**
+   * Adds a delete to the current batch. Deletes and puts are written in the
+   * order they were added.
+   *
+   * @param key Key to delete.
+   * @throws InterruptedException
+   */
+  public void delete(K key) throws InterruptedException {
+    add(key, null);
+  }
+
+  /**
+   * Adds a put, or a delete if the value is null, to the current batch,
+   * handing the batch to the flusher thread once it is full.
+   *
+   * @param key Key to write.
+   * @param value Value to write, null to delete the key.
+   * @throws InterruptedException
+   */
+  private void add(K key, T value) throws InterruptedException {
+    currentBatch.add(key, value);
+    if (currentBatch.getSize() >= batchSize) {
+      enqueue(currentBatch);
+      currentBatch = new Batch<K, T>(batchSize);
+    }
+  }
+
+  /**
+   * Hands the remaining puts to the flusher thread and waits for all of them
+   * to be written and flushed.
+   *
+   * @param progressable Progressable to report to while waiting.
+   * @throws InterruptedException
+   */
+  public void close(Progressable progressable) throws InterruptedException {
+    try {
+      if (currentBatch.getSize() > 0) {
+        enqueue(currentBatch);
+      }
+      // An empty batch tells the flusher thread to finish
+      enqueue(new Batch<K, T>(0));
+      ProgressableUtils.getFutureResult(flusherResult, progressable);
+    } finally {
+      flusherExecutor.shutdownNow();
+    }
+    if (LOG.isInfoEnabled()) {
+      LOG.info("close: Wrote " + batchSizeHistogram.count() + " batches " +
+          "of mean size " + batchSizeHistogram.mean() + ", mean flush " +
+          "latency " + flushTimer.mean() + " ms");
+    }
+  }
+
+  /**
+   * Waits for space in the pending queue, failing fast if the flusher thread
+   * has died.
+   *
+   * @param batch Batch to enqueue.
+   * @throws InterruptedException
+   */
+  private void enqueue(Batch<K, T> batch) throws InterruptedException {
+    checkFlusher();
+    while (!pendingBatches.offer(batch, OFFER_WAIT_MSECS,
+        TimeUnit.MILLISECONDS)) {
+      checkFlusher();
+    }
+  }
+
+  /**
+   * Fails if the flusher thread has finished, which it only does before
+   * {@link #close(Progressable)} when writing a batch failed. The executor
+   * is shut down then, since the caller may not close this writer after
+   * the failure.
+   *
+   * @throws InterruptedException
+   */
+  private void checkFlusher() throws InterruptedException {
+    if (flusherResult.isDone()) {
+      flusherExecutor.shutdown();
+      try {
+        flusherResult.get();
+      } catch (ExecutionException e) {
+        throw new IllegalStateException(
+            "checkFlusher: Flusher thread failed", e.getCause());
+      }
+      throw new IllegalStateException(
+          "checkFlusher: Flusher thread finished unexpectedly");
+    }
+  }
+
+  /**
+   * Writes and flushes one batch.
+   *
+   * @param batch Batch to write.
+   */
+  private void writeBatch(Batch<K, T> batch) {
+    TimerContext timerContext = flushTimer.time();
+    for (int i = 0; i < batch.getSize(); i++) {
+      if (batch.getValue(i) == null) {
+        dataStore.delete(batch.getKey(i));
+      } else {
+        dataStore.put(batch.getKey(i), batch.getValue(i));
+      }
+    }
+    dataStore.flush();
+    timerContext.stop();
+    batchSizeHistogram.update(batch.getSize());
+  }
+
+  /**
+   * Batch of puts.
+   *
+   * @param <K> key class
+   * @param <T> persistent class
+   */
+  private static class Batch<K, T> {
+    /** Keys */
+    private final Object[] keys;
+    /** Values */
+    private final Object[] values;
+    /** Number of puts in the batch */
+    private int size;
+
+    /**
+     * Constructor
+     *
+     * @param capacity Maximum number of puts.
+     */
+    public Batch(int capacity) {
+      keys = new Object[capacity];
+      values = new Object[capacity];
+    }
+
+    /**
+     * Add a put, or a delete if the value is null.
+     *
+     * @param key Key
+     * @param value Value
+     */
+    public void add(K key, T value) {
+      keys[size] = key;
+      values[size] = value;
+      size++;
+    }
+
+    /**
+     * Get the number of puts.
+     *
+     * @return Number of puts
+     */
+    public int getSize() {
+      return size;
+    }
+
+    /**
+     * Get a key.
+     *
+     * @param i Index
+     * @return Key
+     */
+    @SuppressWarnings("unchecked")
+    public K getKey(int i) {
+      return (K) keys[i];
+    }
+
+    /**
+     * Get a value.
+     *
+     * @param i Index
+     * @return Value
+     */
+    @SuppressWarnings("unchecked")
+    public T getValue(int i) {
+      return (T) values[i];
+    }
+  }
+}
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.io.gora.utils;
+
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_DATASTORE_POOL_SIZE;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.WeakHashMap;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+
+import org.apache.gora.persistency.Persistent;
+import org.apache.gora.store.DataStore;
+import org.apache.gora.util.GoraException;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.log4j.Logger;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Pool of Gora data store handles, keyed by data store, key and persistent
+ * class and by the Gora settings (the {@code gora.*} properties) of the
+ * configuration. Every reader and writer borrows its own handle, so that
+ * several input or output threads never share a data store. Released
+ * handles are kept idle (up to {@link
+ * org.apache.giraph.io.gora.constants.GiraphGoraConstants
+ * #GIRAPH_GORA_DATASTORE_POOL_SIZE} per key) to be reused by the next
+ * reader or writer instead of reconnecting, until the output committer of
+ * the task (or, for tasks not writing to Gora, the JVM shutdown) calls
+ * {@link #closeIdle()}.
+ */
+public class GoraDataStorePool {
+  /** Class logger */
+  private static final Logger LOG = Logger.getLogger(GoraDataStorePool.class);
+  /** Prefix of the configuration properties Gora creates data stores with */
+  private static final String GORA_PROPERTY_PREFIX = "gora.";
+
+  /** Idle data store handles for each configuration key */
+  private static final ConcurrentMap<String, BlockingDeque<DataStore>> IDLE =
+      Maps.newConcurrentMap();
+  /**
+   * Gora settings of each configuration seen, so that the configuration is
+   * only walked once. Configurations are compared by identity and dropped
+   * once they are no longer used.
+   */
+  private static final Map<Configuration, String> GORA_SETTINGS =
+      Collections.synchronizedMap(new WeakHashMap<Configuration, String>());
+
+  static {
+    // Tasks only reading with Gora have no output committer closing the
+    // idle handles, so close them when the task exits at the latest.
+    Runtime.getRuntime().addShutdownHook(new Thread("gora-pool-close") {
+      @Override
+      public void run() {
+        closeIdle();
+      }
+    });
+  }
+
+  /**
+   * The default constructor is set to be private by default so that the
+   * class is not instantiated.
+   */
+  private GoraDataStorePool() { /* private constructor */ }
+
+  /**
+   * Borrows a data store handle, either an idle one or a newly created one.
+   * The caller owns the handle until it is given back with
+   * {@link #release(Configuration, DataStore)}.
+   *
+   * @param conf Configuration used to create new data stores.
+   * @param dataStoreClass Defines the type of data store used.
+   * @param keyClass Handles the key class to be used.
+   * @param persistentClass Handles the persistent class to be used.
+   * @param <K> key class
+   * @param <T> value class
+   * @return data store handle owned by the caller.
+   * @throws GoraException if a new data store can't be created.
+   */
+  @SuppressWarnings("unchecked")
+  public static <K, T extends Persistent> DataStore<K, T>
+  borrow(Configuration conf, Class<? extends DataStore> dataStoreClass,
+      Class<K> keyClass, Class<T> persistentClass) throws GoraException {
+    BlockingDeque<DataStore> idle =
+        getIdle(getPoolKey(conf, dataStoreClass, keyClass, persistentClass));
+    DataStore<K, T> dataStore = idle.pollFirst();
+    if (dataStore == null) {
+      dataStore = GoraUtils.createSpecificDataStore(conf, dataStoreClass,
+          keyClass, persistentClass);
+      if (LOG.isDebugEnabled()) {
+        LOG.debug("borrow: Created new data store " + dataStoreClass);
+      }
+    }
+    return dataStore;
+  }
+
+  /**
+   * Gives a data store handle back to the pool. Pending writes are flushed,
+   * and the handle is closed if the pool already holds enough idle handles.
+   *
+   * @param conf Configuration the handle was borrowed with, also holding
+   *             the pool size.
+   * @param dataStore Data store handle previously borrowed.
+   */
+  public static void release(Configuration conf, DataStore dataStore) {
+    if (dataStore == null) {
+      return;
+    }
+    dataStore.flush();
+    BlockingDeque<DataStore> idle = getIdle(getPoolKey(conf,
+        dataStore.getClass(), dataStore.getKeyClass(),
+        dataStore.getPersistentClass()));
+    if (idle.size() >= GIRAPH_GORA_DATASTORE_POOL_SIZE.get(conf) ||
+        !idle.offerFirst(dataStore)) {
+      dataStore.close();
+    }
+  }
+
+  /**
+   * Closes all the idle data store handles, to be called when the task is
+   * done reading and writing. Handles borrowed at that time are closed when
+   * they are released, if the pool is full, or by the next call.
+   */
+  public static void closeIdle() {
+    int closed = 0;
+    for (BlockingDeque<DataStore> idle : IDLE.values()) {
+      DataStore dataStore = idle.pollFirst();
+      while (dataStore != null) {
+        dataStore.close();
+        ++closed;
+        dataStore = idle.pollFirst();
+      }
+    }
+    if (closed > 0 && LOG.isInfoEnabled()) {
+      LOG.info("closeIdle: Closed " + closed + " idle data stores");
+    }
+  }
+
+  /**
+   * Gets the idle handles for a pool key, creating the deque if needed.
+   *
+   * @param poolKey Pool key.
+   * @return Idle handles for this key.
+   */
+  private static BlockingDeque<DataStore> getIdle(String poolKey) {
+    BlockingDeque<DataStore> idle = IDLE.get(poolKey);
+    if (idle == null) {
+      BlockingDeque<DataStore> newIdle = new LinkedBlockingDeque<DataStore>();
+      idle = IDLE.putIfAbsent(poolKey, newIdle);
+      if (idle == null) {
+        idle = newIdle;
+      }
+    }
+    return idle;
+  }
+
+  /**
+   * Gets the key identifying data stores which can be shared. Handles
+   * created with different Gora settings (mapping file, connection
+   * properties, ...) are never shared, even if their classes are the same.
+   *
+   * @param conf Configuration used to create the data stores.
+   * @param dataStoreClass Data store class.
+   * @param keyClass Key class.
+   * @param persistentClass Persistent class.
+   * @return Pool key.
+   */
+  private static String getPoolKey(Configuration conf,
+      Class<?> dataStoreClass, Class<?> keyClass, Class<?> persistentClass) {
+    return dataStoreClass.getName() + "," + keyClass.getName() + "," +
+        persistentClass.getName() + "," + getGoraSettings(conf);
+  }
+
+  /**
+   * Gets the Gora settings (the {@code gora.*} properties) of a
+   * configuration. They are read once per configuration, which must not
+   * change them after its first data store is borrowed.
+   *
+   * @param conf Configuration used to create the data stores.
+   * @return Sorted Gora settings.
+   */
+  private static String getGoraSettings(Configuration conf) {
+    String goraSettings = GORA_SETTINGS.get(conf);
+    if (goraSettings == null) {
+      SortedMap<String, String> goraProperties = Maps.newTreeMap();
+      for (Map.Entry<String, String> entry : conf) {
+        if (entry.getKey().startsWith(GORA_PROPERTY_PREFIX)) {
+          goraProperties.put(entry.getKey(), conf.get(entry.getKey()));
+        }
+      }
+      goraSettings = goraProperties.toString();
+      GORA_SETTINGS.put(conf, goraSettings);
+    }
+    return goraSettings;
+  }
+}
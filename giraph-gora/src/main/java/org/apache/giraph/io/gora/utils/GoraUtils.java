@@ -18,6 +18,7 @@
 package org.apache.giraph.io.gora.utils;
 
 import org.apache.gora.persistency.Persistent;
+import org.apache.gora.query.PartitionQuery;
 import org.apache.gora.query.Query;
 import org.apache.gora.query.Result;
 import org.apache.gora.store.DataStore;
@@ -30,61 +31,36 @@ import org.apache.hadoop.conf.Configuration;
  */
 public class GoraUtils {
 
-  /**
-   * Attribute handling the specific class to be created.
-   */
-  private static Class<? extends DataStore> DATASTORECLASS;
-
-  /**
-   * Attribute handling configuration for data stores.
-   */
-  private static Configuration CONF = new Configuration();
-
   /**
    * The default constructor is set to be private by default so that the
    * class is not instantiated.
    */
   private GoraUtils() { /* private constructor */ }
 
-  /**
-   * Creates a generic data store using the data store class.
-   * set using the class property
-   * @param <K> key class
-   * @param <T> value class
-   * @param keyClass key class used
-   * @param persistentClass persistent class used
-   * @return created data store
-   * @throws GoraException exception threw
-   */
-  @SuppressWarnings("unchecked")
-  public static <K, T extends Persistent> DataStore<K, T>
-  createDataStore(Class<K> keyClass, Class<T> persistentClass)
-    throws GoraException {
-    DataStoreFactory.createProps();
-    DataStore<K, T> dataStore =
-        DataStoreFactory.createDataStore((Class<? extends DataStore<K, T>>)
-                                          DATASTORECLASS,
-                                          keyClass, persistentClass,
-                                          getConf());
-
-    return dataStore;
-  }
-
   /**
    * Creates a specific data store specified by.
    * @param <K> key class
    * @param <T> value class
+   * @param conf Configuration used to create the data store.
    * @param dataStoreClass  Defines the type of data store used.
    * @param keyClass  Handles the key class to be used.
    * @param persistentClass Handles the persistent class to be used.
    * @return DataStore created using parameters passed.
    * @throws GoraException  if an error occurs.
    */
+  @SuppressWarnings("unchecked")
   public static <K, T extends Persistent> DataStore<K, T>
-  createSpecificDataStore(Class<? extends DataStore> dataStoreClass,
+  createSpecificDataStore(Configuration conf,
+      Class<? extends DataStore> dataStoreClass,
       Class<K> keyClass, Class<T> persistentClass) throws GoraException {
-    DATASTORECLASS = dataStoreClass;
-    return createDataStore(keyClass, persistentClass);
+    DataStoreFactory.createProps();
+    DataStore<K, T> dataStore =
+        DataStoreFactory.createDataStore((Class<? extends DataStore<K, T>>)
+                                          dataStoreClass,
+                                          keyClass, persistentClass,
+                                          conf);
+
+    return dataStore;
   }
 
   /**
@@ -115,6 +91,57 @@ public class GoraUtils {
     return pDataStore.execute(query);
   }
 
+  /**
+   * Performs the query of a single partition (input split) to Gora
+   * datastores. The partition range is executed against the data store
+   * passed, not against the one deserialized along with the split.
+   * @param pDataStore data store being used.
+   * @param pPartitionQuery partition query carried by an input split.
+   * @param <K> key class
+   * @param <T> value class
+   * @return Result containing the results for the partition.
+   */
+  public static <K, T extends Persistent> Result<K, T>
+  getPartitionRequest(DataStore<K, T> pDataStore,
+      PartitionQuery<K, T> pPartitionQuery) {
+    return getPartitionRequest(pDataStore, pPartitionQuery,
+        pPartitionQuery.getFields());
+  }
+
+  /**
+   * Performs the query of a single partition (input split) to Gora
+   * datastores, only fetching some fields.
+   * @param pDataStore data store being used.
+   * @param pPartitionQuery partition query carried by an input split.
+   * @param pFields fields to fetch, all fields if null.
+   * @param <K> key class
+   * @param <T> value class
+   * @return Result containing the results for the partition.
+   */
+  public static <K, T extends Persistent> Result<K, T>
+  getPartitionRequest(DataStore<K, T> pDataStore,
+      PartitionQuery<K, T> pPartitionQuery, String[] pFields) {
+    Query<K, T> query = getQuery(pDataStore,
+        pPartitionQuery.getStartKey(), pPartitionQuery.getEndKey());
+    setFields(query, pFields);
+    return getRequest(pDataStore, query);
+  }
+
+  /**
+   * Restricts a query to some fields of the persistent class, so that the
+   * data store neither reads nor deserializes the others.
+   * @param query query to restrict.
+   * @param pFields fields to fetch, all fields if null or empty.
+   * @param <K> key class
+   * @param <T> value class
+   */
+  public static <K, T extends Persistent> void
+  setFields(Query<K, T> query, String[] pFields) {
+    if (pFields != null && pFields.length > 0) {
+      query.setFields(pFields);
+    }
+  }
+
   /**
    * Performs a range query to Gora datastores
    * @param <K> key class
@@ -175,20 +202,4 @@ public class GoraUtils {
     query.setEndKey(null);
     return query;
   }
-
-  /**
-   * Gets the configuration object.
-   * @return the configuration object.
-   */
-  public static Configuration getConf() {
-    return CONF;
-  }
-
-  /**
-   * Sets the configuration object.
-   * @param conf to be set as the configuration object.
-   */
-  public static void setConf(Configuration conf) {
-    CONF = conf;
-  }
 }
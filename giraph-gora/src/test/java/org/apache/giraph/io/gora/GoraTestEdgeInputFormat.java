@@ -24,6 +24,7 @@ import org.apache.giraph.edge.Edge;
 import org.apache.giraph.edge.EdgeFactory;
 import org.apache.giraph.io.gora.GoraEdgeInputFormat;
 import org.apache.giraph.io.gora.generated.GEdge;
+import org.apache.gora.store.DataStore;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.mapreduce.InputSplit;
@@ -58,16 +59,17 @@ public class GoraTestEdgeInputFormat
    * Writes data into the data store in order to test it out.
    */
   @SuppressWarnings("unchecked")
-  private static void putArtificialData() {
-    getDataStore().put("11-22",
+  private void putArtificialData() {
+    DataStore dataStore = borrowDataStore();
+    dataStore.put("11-22",
         createEdge("11-22", "11", "22", "11-22", (float)(11+22)));
-    getDataStore().put("22-11",
+    dataStore.put("22-11",
         createEdge("22-11", "22", "11", "22-11", (float)(22+11)));
-    getDataStore().put("11-33",
+    dataStore.put("11-33",
         createEdge("11-33", "11", "33", "11-33", (float)(11+33)));
-    getDataStore().put("33-11",
+    dataStore.put("33-11",
         createEdge("33-11", "33", "11", "33-11", (float)(33+11)));
-    getDataStore().flush();
+    releaseDataStore(dataStore);
   }
 
   /**
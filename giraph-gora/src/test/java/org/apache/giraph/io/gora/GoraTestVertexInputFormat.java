@@ -27,6 +27,7 @@ import org.apache.giraph.edge.Edge;
 import org.apache.giraph.edge.EdgeFactory;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.io.gora.generated.GVertex;
+import org.apache.gora.store.DataStore;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.FloatWritable;
 import org.apache.hadoop.io.LongWritable;
@@ -63,11 +64,12 @@ public class GoraTestVertexInputFormat
    * Writes data into the data store in order to test it out.
    */
   @SuppressWarnings("unchecked")
-  private static void putArtificialData() {
-    getDataStore().put("1", createVertex("1", null));
-    getDataStore().put("10", createVertex("10", null));
-    getDataStore().put("100", createVertex("100", null));
-    getDataStore().flush();
+  private void putArtificialData() {
+    DataStore dataStore = borrowDataStore();
+    dataStore.put("1", createVertex("1", null));
+    dataStore.put("10", createVertex("10", null));
+    dataStore.put("100", createVertex("100", null));
+    releaseDataStore(dataStore);
   }
 
   /**
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.io.gora;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.io.gora.generated.GVertex;
+import org.apache.giraph.io.gora.utils.GoraBatchWriter;
+import org.apache.giraph.io.gora.utils.GoraUtils;
+import org.apache.giraph.metrics.GiraphMetrics;
+import org.apache.gora.memory.store.MemStore;
+import org.apache.hadoop.util.Progressable;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Throwables;
+import com.yammer.metrics.core.Histogram;
+import com.yammer.metrics.core.Timer;
+
+/**
+ * Test batching, back-pressure, failure handling and metrics of
+ * {@link GoraBatchWriter}.
+ */
+public class TestGoraBatchWriter {
+  /** Progressable which does nothing */
+  private static final Progressable NO_PROGRESS = new Progressable() {
+    @Override
+    public void progress() {
+    }
+  };
+
+  /** Data store written to */
+  private ControlledMemStore dataStore;
+
+  /**
+   * Memory store whose flushes can be blocked or failed by the test.
+   */
+  public static class ControlledMemStore extends MemStore<String, GVertex> {
+    /** Flushes which may still complete */
+    private final Semaphore flushPermits = new Semaphore(Integer.MAX_VALUE);
+    /** Number of flushes started */
+    private final AtomicInteger numFlushes = new AtomicInteger();
+    /** Whether flushes fail */
+    private volatile boolean failFlush;
+
+    @Override
+    public void flush() {
+      numFlushes.incrementAndGet();
+      if (failFlush) {
+        throw new IllegalStateException("flush: Failing on purpose");
+      }
+      flushPermits.acquireUninterruptibly();
+    }
+
+    public Semaphore getFlushPermits() {
+      return flushPermits;
+    }
+
+    public int getNumFlushes() {
+      return numFlushes.get();
+    }
+
+    public void setFailFlush(boolean failFlush) {
+      this.failFlush = failFlush;
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    GiraphConstants.METRICS_ENABLE.set(conf, true);
+    GiraphMetrics.init(conf);
+    dataStore = (ControlledMemStore) GoraUtils.createSpecificDataStore(conf,
+        ControlledMemStore.class, String.class, GVertex.class);
+  }
+
+  @Test
+  public void testBatching() throws Exception {
+    GoraBatchWriter<String, GVertex> writer =
+        new GoraBatchWriter<String, GVertex>(dataStore, 3, 2);
+    for (int i = 0; i < 7; i++) {
+      writer.put(getKey(i), createVertex(i));
+    }
+    writer.close(NO_PROGRESS);
+
+    for (int i = 0; i < 7; i++) {
+      Assert.assertNotNull(dataStore.get(getKey(i)));
+    }
+    // Two full batches and the remainder
+    Assert.assertEquals(3, dataStore.getNumFlushes());
+    Histogram batchSizes = GiraphMetrics.get().perJobOptional().
+        getUniformHistogram(GoraBatchWriter.BATCH_SIZE_HISTOGRAM_NAME);
+    Assert.assertEquals(3, batchSizes.count());
+    Assert.assertEquals(3.0, batchSizes.max(), 0.0);
+    Assert.assertEquals(1.0, batchSizes.min(), 0.0);
+    Timer flushTimer = GiraphMetrics.get().perJobOptional().getTimer(
+        GoraBatchWriter.FLUSH_TIMER_NAME, TimeUnit.MILLISECONDS,
+        TimeUnit.SECONDS);
+    Assert.assertEquals(3, flushTimer.count());
+  }
+
+  @Test
+  public void testDeletesInOrder() throws Exception {
+    GoraBatchWriter<String, GVertex> writer =
+        new GoraBatchWriter<String, GVertex>(dataStore, 2, 2);
+    writer.put(getKey(10), createVertex(10));
+    writer.put(getKey(11), createVertex(11));
+    writer.delete(getKey(10));
+    writer.delete(getKey(11));
+    writer.put(getKey(11), createVertex(11));
+    writer.close(NO_PROGRESS);
+
+    Assert.assertNull(dataStore.get(getKey(10)));
+    Assert.assertNotNull(dataStore.get(getKey(11)));
+  }
+
+  @Test
+  public void testBackPressure() throws Exception {
+    final GoraBatchWriter<String, GVertex> writer =
+        new GoraBatchWriter<String, GVertex>(dataStore, 1, 2);
+    final AtomicInteger numPuts = new AtomicInteger();
+    dataStore.getFlushPermits().drainPermits();
+    Thread putter = new Thread() {
+      @Override
+      public void run() {
+        try {
+          for (int i = 0; i < 10; i++) {
+            writer.put(getKey(i), createVertex(i));
+            numPuts.incrementAndGet();
+          }
+        } catch (InterruptedException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+    };
+    putter.start();
+
+    // One batch is being flushed and two are pending, so the fourth put
+    // blocks until the flusher catches up
+    long deadline = System.currentTimeMillis() + 10000;
+    while (numPuts.get() < 3 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Thread.sleep(500);
+    Assert.assertEquals(3, numPuts.get());
+    Assert.assertTrue(putter.isAlive());
+    Assert.assertEquals(1, dataStore.getNumFlushes());
+
+    dataStore.getFlushPermits().release(Integer.MAX_VALUE);
+    putter.join();
+    writer.close(NO_PROGRESS);
+    Assert.assertEquals(10, numPuts.get());
+    Assert.assertEquals(10, dataStore.getNumFlushes());
+  }
+
+  @Test
+  public void testFlusherFailureInPut() throws Exception {
+    dataStore.setFailFlush(true);
+    GoraBatchWriter<String, GVertex> writer =
+        new GoraBatchWriter<String, GVertex>(dataStore, 1, 1);
+    try {
+      // The flusher dies on the first batch, and the queue holds only one
+      // more, so a later put has to notice
+      for (int i = 0; i < 100; i++) {
+        writer.put(getKey(i), createVertex(i));
+      }
+      Assert.fail("put should fail after the flusher failed");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("flush: Failing on purpose",
+          Throwables.getRootCause(e).getMessage());
+    }
+    // The writer is not closed after the failure, its thread still exits
+    assertFlusherThreadsExit();
+  }
+
+  @Test
+  public void testFlusherFailureInClose() throws Exception {
+    dataStore.setFailFlush(true);
+    GoraBatchWriter<String, GVertex> writer =
+        new GoraBatchWriter<String, GVertex>(dataStore, 10, 2);
+    writer.put(getKey(0), createVertex(0));
+    try {
+      writer.close(NO_PROGRESS);
+      Assert.fail("close should fail after the flusher failed");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("flush: Failing on purpose",
+          Throwables.getRootCause(e).getMessage());
+    }
+    assertFlusherThreadsExit();
+  }
+
+  /**
+   * Checks that no flusher thread is left running.
+   * @throws InterruptedException
+   */
+  private static void assertFlusherThreadsExit() throws InterruptedException {
+    for (Thread thread : Thread.getAllStackTraces().keySet()) {
+      if (thread.getName().startsWith("gora-flusher-")) {
+        thread.join(TimeUnit.SECONDS.toMillis(10));
+        Assert.assertFalse(thread.getName() + " still running",
+            thread.isAlive());
+      }
+    }
+  }
+
+  /**
+   * Gets a key which doesn't overlap with the keys of other tests.
+   * @param id numeric id.
+   * @return padded key.
+   */
+  private static String getKey(long id) {
+    return String.format("batch-%02d", id);
+  }
+
+  /**
+   * Creates a vertex without edges.
+   * @param id numeric id.
+   * @return vertex.
+   */
+  private static GVertex createVertex(long id) {
+    return GoraTestVertexInputFormat.createVertex(String.valueOf(id), null);
+  }
+}
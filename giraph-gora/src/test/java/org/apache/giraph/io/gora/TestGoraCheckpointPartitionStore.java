@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.io.gora;
+
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_CHECKPOINT_DATASTORE_CLASS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_CHECKPOINT_KEY_PREFIX;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test storing checkpoint partitions in a Gora data store.
+ */
+public class TestGoraCheckpointPartitionStore {
+  @Test
+  public void testStoreAndLoad() throws Exception {
+    GiraphConfiguration conf = createConfiguration();
+    GIRAPH_GORA_CHECKPOINT_KEY_PREFIX.set(conf, "testJob_");
+    GoraCheckpointPartitionStore store = createStore(conf, "unused");
+
+    store.storePartition(2, 0, new byte[] {1, 2, 3});
+    store.storePartition(2, 1, new byte[] {4});
+    store.storePartition(4, 0, new byte[0]);
+
+    Assert.assertArrayEquals(new byte[] {1, 2, 3}, store.loadPartition(2, 0));
+    Assert.assertArrayEquals(new byte[] {4}, store.loadPartition(2, 1));
+    Assert.assertArrayEquals(new byte[0], store.loadPartition(4, 0));
+    Assert.assertNull(store.loadPartition(4, 1));
+    Assert.assertTrue(store.getKey(2, 0).startsWith("testJob_"));
+  }
+
+  @Test
+  public void testJobsKeptApartAndDeleted() throws Exception {
+    GiraphConfiguration conf = createConfiguration();
+    GoraCheckpointPartitionStore store =
+        createStore(conf, "_bsp/_checkpoints/job_1");
+    GoraCheckpointPartitionStore otherStore =
+        createStore(conf, "_bsp/_checkpoints/job_2");
+    Assert.assertTrue(
+        store.getKey(2, 0).startsWith("_bsp/_checkpoints/job_1/"));
+
+    store.storePartition(2, 0, new byte[] {1});
+    otherStore.storePartition(2, 0, new byte[] {2});
+    Assert.assertArrayEquals(new byte[] {1}, store.loadPartition(2, 0));
+    Assert.assertArrayEquals(new byte[] {2}, otherStore.loadPartition(2, 0));
+
+    store.deleteCheckpoints();
+    Assert.assertNull(store.loadPartition(2, 0));
+    Assert.assertArrayEquals(new byte[] {2}, otherStore.loadPartition(2, 0));
+    otherStore.deleteCheckpoints();
+    Assert.assertNull(otherStore.loadPartition(2, 0));
+  }
+
+  /**
+   * Creates the configuration of the checkpoint store. Memory stores don't
+   * share their data, so the tests rely on their single thread getting the
+   * same pooled handle back on every call.
+   * @return configuration.
+   */
+  private static GiraphConfiguration createConfiguration() {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    GIRAPH_GORA_CHECKPOINT_DATASTORE_CLASS.
+    set(conf, "org.apache.gora.memory.store.MemStore");
+    conf.setComputationClass(TestGoraVertexInputFormat.EmptyComputation.class);
+    return conf;
+  }
+
+  /**
+   * Creates a checkpoint store.
+   * @param conf configuration.
+   * @param checkpointBasePath checkpoint directory of the job.
+   * @return initialized store.
+   */
+  private static GoraCheckpointPartitionStore createStore(
+      GiraphConfiguration conf, String checkpointBasePath) {
+    GoraCheckpointPartitionStore store = new GoraCheckpointPartitionStore();
+    store.setConf(new ImmutableClassesGiraphConfiguration<LongWritable,
+        DoubleWritable, FloatWritable>(conf));
+    store.initialize(checkpointBasePath);
+    return store;
+  }
+}
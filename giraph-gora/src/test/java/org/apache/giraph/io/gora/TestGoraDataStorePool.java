@@ -0,0 +1,73 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.giraph.io.gora;
+
+import org.apache.giraph.io.gora.generated.GVertex;
+import org.apache.giraph.io.gora.utils.GoraDataStorePool;
+import org.apache.gora.memory.store.MemStore;
+import org.apache.gora.store.DataStore;
+import org.apache.hadoop.conf.Configuration;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test which data store handles {@link GoraDataStorePool} shares.
+ */
+public class TestGoraDataStorePool {
+  @Test
+  public void testHandlesKeyedByGoraSettings() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set("gora.memstore.test.setting", "pool-a");
+    Configuration otherConf = new Configuration();
+    otherConf.set("gora.memstore.test.setting", "pool-b");
+
+    DataStore<String, GVertex> dataStore = GoraDataStorePool.borrow(conf,
+        MemStore.class, String.class, GVertex.class);
+    GoraDataStorePool.release(conf, dataStore);
+
+    // Same classes, different Gora settings: not shared
+    DataStore<String, GVertex> otherDataStore = GoraDataStorePool.borrow(
+        otherConf, MemStore.class, String.class, GVertex.class);
+    Assert.assertNotSame(dataStore, otherDataStore);
+    GoraDataStorePool.release(otherConf, otherDataStore);
+
+    // Same classes and settings: the idle handle is reused
+    DataStore<String, GVertex> sameDataStore = GoraDataStorePool.borrow(conf,
+        MemStore.class, String.class, GVertex.class);
+    Assert.assertSame(dataStore, sameDataStore);
+    GoraDataStorePool.release(conf, sameDataStore);
+  }
+
+  @Test
+  public void testCloseIdle() throws Exception {
+    Configuration conf = new Configuration();
+    conf.set("gora.memstore.test.setting", "pool-close");
+
+    DataStore<String, GVertex> dataStore = GoraDataStorePool.borrow(conf,
+        MemStore.class, String.class, GVertex.class);
+    GoraDataStorePool.release(conf, dataStore);
+    GoraDataStorePool.closeIdle();
+
+    // The closed handle is not handed out again
+    DataStore<String, GVertex> newDataStore = GoraDataStorePool.borrow(conf,
+        MemStore.class, String.class, GVertex.class);
+    Assert.assertNotSame(dataStore, newDataStore);
+    GoraDataStorePool.release(conf, newDataStore);
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.io.gora;
+
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_DATASTORE_CLASS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_KEYS_FACTORY_CLASS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_KEY_CLASS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_PERSISTENT_CLASS;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.io.gora.generated.GVertex;
+import org.apache.giraph.io.gora.utils.GoraUtils;
+import org.apache.gora.mapreduce.GoraInputSplit;
+import org.apache.gora.query.PartitionQuery;
+import org.apache.gora.query.Query;
+import org.apache.gora.query.impl.PartitionQueryImpl;
+import org.apache.gora.store.DataStore;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test that Gora vertex readers only read the key range of their split.
+ */
+public class TestGoraInputSplits {
+  /** Number of vertices stored */
+  private static final int NUM_VERTICES = 30;
+  /** Number of splits the store is read with */
+  private static final int NUM_SPLITS = 3;
+
+  /**
+   * Input format storing the test vertices in every data store handle it
+   * borrows, and removing them again on release, so that readers see the
+   * same data whichever pooled handle they get.
+   */
+  public static class SeededVertexInputFormat
+      extends GoraTestVertexInputFormat {
+    @Override
+    @SuppressWarnings("unchecked")
+    public DataStore borrowDataStore() {
+      DataStore dataStore = super.borrowDataStore();
+      for (int i = 0; i < NUM_VERTICES; i++) {
+        dataStore.put(getKey(i), GoraTestVertexInputFormat.createVertex(
+            String.valueOf(i), null));
+      }
+      return dataStore;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void releaseDataStore(DataStore dataStore) {
+      for (int i = 0; i < NUM_VERTICES; i++) {
+        dataStore.delete(getKey(i));
+      }
+      super.releaseDataStore(dataStore);
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testSplitsReadDisjointRanges() throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    GIRAPH_GORA_DATASTORE_CLASS.
+    set(conf, "org.apache.gora.memory.store.MemStore");
+    GIRAPH_GORA_KEYS_FACTORY_CLASS.
+    set(conf,"org.apache.giraph.io.gora.utils.DefaultKeyFactory");
+    GIRAPH_GORA_KEY_CLASS.set(conf,"java.lang.String");
+    GIRAPH_GORA_PERSISTENT_CLASS.
+    set(conf,"org.apache.giraph.io.gora.generated.GVertex");
+    conf.setComputationClass(TestGoraVertexInputFormat.EmptyComputation.class);
+    conf.setVertexInputFormatClass(SeededVertexInputFormat.class);
+    ImmutableClassesGiraphConfiguration<LongWritable, DoubleWritable,
+        FloatWritable> immutableConf =
+        new ImmutableClassesGiraphConfiguration<LongWritable, DoubleWritable,
+            FloatWritable>(conf);
+
+    GoraTestVertexInputFormat inputFormat = new SeededVertexInputFormat();
+    inputFormat.setConf(immutableConf);
+    inputFormat.checkInputSpecs(immutableConf);
+
+    DataStore<String, GVertex> dataStore = inputFormat.borrowDataStore();
+    Query<String, GVertex> baseQuery = GoraUtils.getQuery(dataStore);
+    inputFormat.releaseDataStore(dataStore);
+
+    int verticesPerSplit = NUM_VERTICES / NUM_SPLITS;
+    Set<Long> allIds = new HashSet<Long>();
+    for (int s = 0; s < NUM_SPLITS; s++) {
+      long firstId = s * verticesPerSplit;
+      long lastId = firstId + verticesPerSplit - 1;
+      PartitionQuery<String, GVertex> partitionQuery =
+          new PartitionQueryImpl<String, GVertex>(baseQuery,
+              getKey(firstId), getKey(lastId));
+      GoraInputSplit split = new GoraInputSplit(immutableConf, partitionQuery);
+
+      GoraTestVertexInputFormat.GoraGVertexVertexReader reader =
+          inputFormat.new GoraGVertexVertexReader();
+      reader.setConf(immutableConf);
+      reader.initialize(split, null);
+      int splitCount = 0;
+      while (reader.nextVertex()) {
+        long id = reader.getCurrentVertex().getId().get();
+        Assert.assertTrue("Vertex " + id + " outside of split " + s,
+            id >= firstId && id <= lastId);
+        Assert.assertTrue("Vertex " + id + " read by more than one split",
+            allIds.add(id));
+        splitCount++;
+      }
+      reader.close();
+      Assert.assertEquals(verticesPerSplit, splitCount);
+    }
+    Assert.assertEquals(NUM_VERTICES, allIds.size());
+  }
+
+  /**
+   * Gets a key which keeps numeric order under string ordering, and doesn't
+   * overlap with the keys used by other tests.
+   * @param id numeric id.
+   * @return padded key.
+   */
+  private static String getKey(long id) {
+    return String.format("split-%02d", id);
+  }
+}
@@ -0,0 +1,138 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.io.gora;
+
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_DATASTORE_CLASS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_KEYS_FACTORY_CLASS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_KEY_CLASS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_PERSISTENT_CLASS;
+
+import java.nio.ByteBuffer;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.edge.ByteArrayEdges;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.gora.generated.GPackedVertex;
+import org.apache.giraph.io.gora.utils.GoraUtils;
+import org.apache.gora.mapreduce.GoraInputSplit;
+import org.apache.gora.query.Query;
+import org.apache.gora.query.impl.PartitionQueryImpl;
+import org.apache.gora.store.DataStore;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test reading vertices whose out-edges are stored as packed arrays.
+ */
+public class TestGoraPackedVertexInputFormat {
+  /** Number of vertices stored */
+  private static final int NUM_VERTICES = 5;
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void testReadPackedEdges() throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    GIRAPH_GORA_DATASTORE_CLASS.
+    set(conf, "org.apache.gora.memory.store.MemStore");
+    GIRAPH_GORA_KEYS_FACTORY_CLASS.
+    set(conf,"org.apache.giraph.io.gora.utils.DefaultKeyFactory");
+    GIRAPH_GORA_KEY_CLASS.set(conf,"java.lang.String");
+    GIRAPH_GORA_PERSISTENT_CLASS.
+    set(conf,"org.apache.giraph.io.gora.generated.GPackedVertex");
+    conf.setComputationClass(TestGoraVertexInputFormat.EmptyComputation.class);
+    conf.setVertexInputFormatClass(GoraGPackedVertexVertexInputFormat.class);
+    // Exercise the path which doesn't reuse edge objects
+    conf.setOutEdgesClass(ByteArrayEdges.class);
+    ImmutableClassesGiraphConfiguration<LongWritable, DoubleWritable,
+        FloatWritable> immutableConf =
+        new ImmutableClassesGiraphConfiguration<LongWritable, DoubleWritable,
+            FloatWritable>(conf);
+
+    GoraGPackedVertexVertexInputFormat inputFormat =
+        new GoraGPackedVertexVertexInputFormat();
+    inputFormat.setConf(immutableConf);
+    inputFormat.checkInputSpecs(immutableConf);
+
+    // Vertex i points to vertices 0..i-1, with weight target + 0.5
+    DataStore<String, GPackedVertex> dataStore =
+        inputFormat.borrowDataStore();
+    for (int i = 0; i < NUM_VERTICES; i++) {
+      ByteBuffer targetIds = ByteBuffer.allocate(i * 8);
+      ByteBuffer weights = ByteBuffer.allocate(i * 4);
+      for (int j = 0; j < i; j++) {
+        targetIds.putLong(j);
+        weights.putFloat(j + 0.5f);
+      }
+      targetIds.flip();
+      weights.flip();
+      GPackedVertex packedVertex = new GPackedVertex();
+      packedVertex.setVertexId(i);
+      packedVertex.setValue(i * 2f);
+      packedVertex.setTargetIds(targetIds);
+      packedVertex.setWeights(weights);
+      dataStore.put(getKey(i), packedVertex);
+    }
+    Query<String, GPackedVertex> baseQuery = GoraUtils.getQuery(dataStore);
+    inputFormat.releaseDataStore(dataStore);
+
+    GoraInputSplit split = new GoraInputSplit(immutableConf,
+        new PartitionQueryImpl<String, GPackedVertex>(baseQuery,
+            getKey(0), getKey(NUM_VERTICES - 1)));
+    GoraGPackedVertexVertexInputFormat.GoraGPackedVertexVertexReader reader =
+        inputFormat.new GoraGPackedVertexVertexReader();
+    reader.setConf(immutableConf);
+    reader.initialize(split, null);
+    int numVertices = 0;
+    while (reader.nextVertex()) {
+      Vertex<LongWritable, DoubleWritable, FloatWritable> vertex =
+          reader.getCurrentVertex();
+      long id = vertex.getId().get();
+      Assert.assertEquals(id * 2d, vertex.getValue().get(), 0d);
+      Assert.assertEquals(id, vertex.getNumEdges());
+      long expectedTarget = 0;
+      for (Edge<LongWritable, FloatWritable> edge : vertex.getEdges()) {
+        Assert.assertEquals(expectedTarget, edge.getTargetVertexId().get());
+        Assert.assertEquals(expectedTarget + 0.5f, edge.getValue().get(), 0f);
+        expectedTarget++;
+      }
+      numVertices++;
+    }
+    reader.close();
+    Assert.assertEquals(NUM_VERTICES, numVertices);
+
+    dataStore = inputFormat.borrowDataStore();
+    for (int i = 0; i < NUM_VERTICES; i++) {
+      dataStore.delete(getKey(i));
+    }
+    inputFormat.releaseDataStore(dataStore);
+  }
+
+  /**
+   * Gets a key which doesn't overlap with the keys of other tests.
+   * @param id numeric id.
+   * @return padded key.
+   */
+  private static String getKey(long id) {
+    return String.format("packed-%02d", id);
+  }
+}
@@ -0,0 +1,230 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.giraph.io.gora;
+
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_DATASTORE_CLASS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_FIELDS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_KEYS_FACTORY_CLASS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_KEY_CLASS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_PERSISTENT_CLASS;
+import static org.apache.giraph.io.gora.constants.GiraphGoraConstants.GIRAPH_GORA_RECORD_FILTER_CLASS;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.gora.generated.GVertex;
+import org.apache.giraph.io.gora.utils.GoraRecordFilter;
+import org.apache.giraph.io.gora.utils.GoraUtils;
+import org.apache.gora.mapreduce.GoraInputSplit;
+import org.apache.gora.memory.store.MemStore;
+import org.apache.gora.query.Query;
+import org.apache.gora.query.Result;
+import org.apache.gora.query.impl.PartitionQueryImpl;
+import org.apache.gora.store.DataStore;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Test field projection and record filtering in Gora input formats.
+ */
+public class TestGoraRecordFilter {
+  /** Number of vertices stored */
+  private static final int NUM_VERTICES = 10;
+
+  /**
+   * Filter dropping vertices with an odd id.
+   */
+  public static class OddVertexFilter
+      implements GoraRecordFilter<String, GVertex> {
+    @Override
+    public boolean dropRecord(String key, GVertex record) {
+      return Long.parseLong(record.getVertexId().toString()) % 2 == 1;
+    }
+  }
+
+  /**
+   * Memory store only returning the queried fields of its records, as
+   * stores reading columns do.
+   */
+  public static class ProjectingMemStore extends MemStore<String, GVertex> {
+    /** Records stored */
+    private final NavigableMap<String, GVertex> records = Maps.newTreeMap();
+
+    @Override
+    public void put(String key, GVertex record) {
+      records.put(key, record);
+    }
+
+    @Override
+    public boolean delete(String key) {
+      return records.remove(key) != null;
+    }
+
+    @Override
+    public Result<String, GVertex> execute(Query<String, GVertex> query) {
+      String[] fields = getFieldsToQuery(query.getFields());
+      NavigableMap<String, GVertex> projected = Maps.newTreeMap();
+      for (Map.Entry<String, GVertex> entry : records.subMap(
+          query.getStartKey(), true, query.getEndKey(), true).entrySet()) {
+        GVertex record = new GVertex();
+        for (String field : fields) {
+          int index = record.getFieldIndex(field);
+          record.put(index, entry.getValue().get(index));
+        }
+        projected.put(entry.getKey(), record);
+      }
+      return new MemResult<String, GVertex>(this, query, projected);
+    }
+  }
+
+  /**
+   * Input format storing the test vertices in every data store handle it
+   * borrows, and removing them again on release, so that readers see the
+   * same data whichever pooled handle they get.
+   */
+  public static class SeededVertexInputFormat
+      extends GoraTestVertexInputFormat {
+    @Override
+    @SuppressWarnings("unchecked")
+    public DataStore borrowDataStore() {
+      DataStore dataStore = super.borrowDataStore();
+      for (int i = 0; i < NUM_VERTICES; i++) {
+        // Value and edge weight are id + 1, so none of them is a default
+        GVertex vertex = GoraTestVertexInputFormat.createVertex(
+            String.valueOf(i), Collections.singletonMap(
+                String.valueOf((i + 1) % NUM_VERTICES),
+                String.valueOf(i + 1f)));
+        vertex.setValue(i + 1f);
+        dataStore.put(getKey(i), vertex);
+      }
+      return dataStore;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void releaseDataStore(DataStore dataStore) {
+      for (int i = 0; i < NUM_VERTICES; i++) {
+        dataStore.delete(getKey(i));
+      }
+      super.releaseDataStore(dataStore);
+    }
+  }
+
+  @Test
+  public void testDropOddVertices() throws Exception {
+    Map<Long, Vertex<LongWritable, DoubleWritable, FloatWritable>> vertices =
+        readVertices("vertexId,value,edges");
+    Assert.assertEquals(NUM_VERTICES / 2, vertices.size());
+    for (int i = 0; i < NUM_VERTICES; i += 2) {
+      Vertex<LongWritable, DoubleWritable, FloatWritable> vertex =
+          vertices.get((long) i);
+      Assert.assertNotNull("Vertex " + i + " should be kept", vertex);
+      Assert.assertEquals(i + 1, vertex.getValue().get(), 0);
+      Assert.assertEquals(1, vertex.getNumEdges());
+      Assert.assertEquals(i + 1, vertex.getEdgeValue(
+          new LongWritable((i + 1) % NUM_VERTICES)).get(), 0);
+    }
+  }
+
+  @Test
+  public void testProjectFields() throws Exception {
+    Map<Long, Vertex<LongWritable, DoubleWritable, FloatWritable>> vertices =
+        readVertices("vertexId,edges");
+    Assert.assertEquals(NUM_VERTICES / 2, vertices.size());
+    for (int i = 0; i < NUM_VERTICES; i += 2) {
+      Vertex<LongWritable, DoubleWritable, FloatWritable> vertex =
+          vertices.get((long) i);
+      Assert.assertNotNull("Vertex " + i + " should be kept", vertex);
+      // The value isn't read, so it keeps its default
+      Assert.assertEquals(0, vertex.getValue().get(), 0);
+      Assert.assertEquals(1, vertex.getNumEdges());
+      Assert.assertEquals(i + 1, vertex.getEdgeValue(
+          new LongWritable((i + 1) % NUM_VERTICES)).get(), 0);
+    }
+  }
+
+  /**
+   * Reads all the test vertices through a split, dropping odd vertices.
+   * @param fields fields to read.
+   * @return vertices read, by id.
+   * @throws Exception
+   */
+  @SuppressWarnings("unchecked")
+  private static Map<Long, Vertex<LongWritable, DoubleWritable,
+      FloatWritable>> readVertices(String fields) throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    GIRAPH_GORA_DATASTORE_CLASS.set(conf, ProjectingMemStore.class.getName());
+    GIRAPH_GORA_KEYS_FACTORY_CLASS.
+    set(conf,"org.apache.giraph.io.gora.utils.DefaultKeyFactory");
+    GIRAPH_GORA_KEY_CLASS.set(conf,"java.lang.String");
+    GIRAPH_GORA_PERSISTENT_CLASS.
+    set(conf,"org.apache.giraph.io.gora.generated.GVertex");
+    GIRAPH_GORA_FIELDS.set(conf, fields);
+    GIRAPH_GORA_RECORD_FILTER_CLASS.set(conf, OddVertexFilter.class);
+    conf.setComputationClass(TestGoraVertexInputFormat.EmptyComputation.class);
+    conf.setVertexInputFormatClass(SeededVertexInputFormat.class);
+    ImmutableClassesGiraphConfiguration<LongWritable, DoubleWritable,
+        FloatWritable> immutableConf =
+        new ImmutableClassesGiraphConfiguration<LongWritable, DoubleWritable,
+            FloatWritable>(conf);
+
+    GoraTestVertexInputFormat inputFormat = new SeededVertexInputFormat();
+    inputFormat.setConf(immutableConf);
+    Assert.assertArrayEquals(fields.split(","), inputFormat.getFields());
+
+    DataStore<String, GVertex> dataStore = inputFormat.borrowDataStore();
+    Query<String, GVertex> baseQuery = GoraUtils.getQuery(dataStore);
+    inputFormat.releaseDataStore(dataStore);
+
+    GoraInputSplit split = new GoraInputSplit(immutableConf,
+        new PartitionQueryImpl<String, GVertex>(baseQuery,
+            getKey(0), getKey(NUM_VERTICES - 1)));
+    GoraTestVertexInputFormat.GoraGVertexVertexReader reader =
+        inputFormat.new GoraGVertexVertexReader();
+    reader.setConf(immutableConf);
+    reader.initialize(split, null);
+    Map<Long, Vertex<LongWritable, DoubleWritable, FloatWritable>> vertices =
+        Maps.newHashMap();
+    while (reader.nextVertex()) {
+      Vertex<LongWritable, DoubleWritable, FloatWritable> vertex =
+          reader.getCurrentVertex();
+      Assert.assertNull("Vertex " + vertex.getId() + " read twice",
+          vertices.put(vertex.getId().get(), vertex));
+    }
+    reader.close();
+    return vertices;
+  }
+
+  /**
+   * Gets a key which doesn't overlap with the keys of other tests.
+   * @param id numeric id.
+   * @return padded key.
+   */
+  private static String getKey(long id) {
+    return String.format("filter-%02d", id);
+  }
+}